@@ -26,9 +26,15 @@ public class BizConfig extends RefreshableConfig {
   private static final int DEFAULT_ACCESSKEY_CACHE_REBUILD_INTERVAL = 60; //60s
   private static final int DEFAULT_RELEASE_MESSAGE_CACHE_SCAN_INTERVAL = 1; //1s
   private static final int DEFAULT_RELEASE_MESSAGE_SCAN_INTERVAL_IN_MS = 1000; //1000ms
+  private static final int DEFAULT_RELEASE_MESSAGE_FALLBACK_SCAN_INTERVAL_IN_MS = 10000; //10s
   private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH = 100;
   private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH_INTERVAL_IN_MILLI = 100;//100ms
   private static final int DEFAULT_LONG_POLLING_TIMEOUT = 60; //60s
+  private static final int DEFAULT_LONG_POLLING_MAX_WAITERS = 0; //no limit
+  private static final int DEFAULT_LONG_POLLING_MAX_RETRY_AFTER = 10; //10s
+  private static final int DEFAULT_NOTIFICATION_STREAM_TIMEOUT = 600; //600s
+  private static final int DEFAULT_NOTIFICATION_STREAM_HEARTBEAT_INTERVAL = 30; //30s
+  private static final int DEFAULT_CACHE_SNAPSHOT_SAVE_INTERVAL = 300; //300s
 
   private Gson gson = new Gson();
   private static final Type namespaceValueLengthOverrideTypeReference =
@@ -70,6 +76,35 @@ public class BizConfig extends RefreshableConfig {
     return 1000 * checkInt(timeout, 1, 90, DEFAULT_LONG_POLLING_TIMEOUT);
   }
 
+  /**
+   * The max long polling requests waiting for notifications on each config service instance, the requests beyond
+   * are rejected with 429, 0 means no limit
+   */
+  public int longPollingMaxWaiters() {
+    int maxWaiters = getIntProperty("long.polling.max.waiters", DEFAULT_LONG_POLLING_MAX_WAITERS);
+    return checkInt(maxWaiters, 0, Integer.MAX_VALUE, DEFAULT_LONG_POLLING_MAX_WAITERS);
+  }
+
+  /**
+   * The rejected long polling requests are told to retry after a random delay up to this value
+   */
+  public int longPollingMaxRetryAfterInSecond() {
+    int retryAfter = getIntProperty("long.polling.max.retry.after", DEFAULT_LONG_POLLING_MAX_RETRY_AFTER);
+    return checkInt(retryAfter, 1, 120, DEFAULT_LONG_POLLING_MAX_RETRY_AFTER);
+  }
+
+  public long notificationStreamTimeoutInMilli() {
+    int timeout = getIntProperty("notification.stream.timeout", DEFAULT_NOTIFICATION_STREAM_TIMEOUT);
+    return 1000L * checkInt(timeout, 60, 3600, DEFAULT_NOTIFICATION_STREAM_TIMEOUT);
+  }
+
+  public long notificationStreamHeartbeatIntervalInMilli() {
+    int interval = getIntProperty("notification.stream.heartbeat.interval",
+        DEFAULT_NOTIFICATION_STREAM_HEARTBEAT_INTERVAL);
+    // java client's stream read timeout is 90 seconds, so the heartbeat interval must be much less than 90
+    return 1000L * checkInt(interval, 1, 60, DEFAULT_NOTIFICATION_STREAM_HEARTBEAT_INTERVAL);
+  }
+
   public int itemKeyLengthLimit() {
     int limit = getIntProperty("item.key.length.limit", DEFAULT_ITEM_KEY_LENGTH);
     return checkInt(limit, 5, Integer.MAX_VALUE, DEFAULT_ITEM_KEY_LENGTH);
@@ -156,6 +191,27 @@ public class BizConfig extends RefreshableConfig {
     return checkInt(interval, 100, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_SCAN_INTERVAL_IN_MS);
   }
 
+  public boolean isReleaseMessagePushEnabled() {
+    return getBooleanProperty("apollo.release-message.push.enabled", false);
+  }
+
+  /**
+   * the secret shared by admin services and config services to sign the release message pushes, config services reject
+   * the pushes if it's not set
+   */
+  public String releaseMessagePushSecret() {
+    return getValue("apollo.release-message.push.secret", "");
+  }
+
+  /**
+   * the release message scan interval when push is enabled, the scan is only used to fill the gaps of lost pushes
+   */
+  public int releaseMessageFallbackScanIntervalInMilli() {
+    int interval = getIntProperty("apollo.message-scan.fallback.interval",
+        DEFAULT_RELEASE_MESSAGE_FALLBACK_SCAN_INTERVAL_IN_MS);
+    return checkInt(interval, 100, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_FALLBACK_SCAN_INTERVAL_IN_MS);
+  }
+
   public int releaseMessageNotificationBatch() {
     int batch = getIntProperty("apollo.release-message.notification.batch", DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH);
     return checkInt(batch, 1, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH);
@@ -170,6 +226,18 @@ public class BizConfig extends RefreshableConfig {
     return getBooleanProperty("config-service.cache.enabled", false);
   }
 
+  /**
+   * @return the directory to store the snapshots of config service caches for warm start, empty means disabled
+   */
+  public String configServiceCacheSnapshotDir() {
+    return getValue("config-service.cache.snapshot.dir", "");
+  }
+
+  public int configServiceCacheSnapshotSaveIntervalInSecond() {
+    int interval = getIntProperty("config-service.cache.snapshot.save.interval", DEFAULT_CACHE_SNAPSHOT_SAVE_INTERVAL);
+    return checkInt(interval, 10, Integer.MAX_VALUE, DEFAULT_CACHE_SNAPSHOT_SAVE_INTERVAL);
+  }
+
   int checkInt(int value, int min, int max, int defaultValue) {
     if (value >= min && value <= max) {
       return value;
@@ -1,7 +1,12 @@
 package com.ctrip.framework.apollo.biz.grayReleaseRule;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
 import com.ctrip.framework.apollo.common.dto.GrayReleaseRuleItemDTO;
 
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -15,6 +20,10 @@ public class GrayReleaseRuleCache {
   private long loadVersion;
   private int branchStatus;
   private Set<GrayReleaseRuleItemDTO> ruleItems;
+  /**
+   * 预编译的规则：clientAppId -> 客户端 IP 集合，可能包含 {@link GrayReleaseRuleItemDTO#ALL_IP}
+   */
+  private Map<String, Set<String>> clientIpsByAppId;
 
   public GrayReleaseRuleCache(long ruleId, String branchName, String namespaceName, long
       releaseId, int branchStatus, long loadVersion, Set<GrayReleaseRuleItemDTO> ruleItems) {
@@ -25,6 +34,25 @@ public class GrayReleaseRuleCache {
     this.branchStatus = branchStatus;
     this.loadVersion = loadVersion;
     this.ruleItems = ruleItems;
+    this.clientIpsByAppId = compile(ruleItems);
+  }
+
+  private static Map<String, Set<String>> compile(Set<GrayReleaseRuleItemDTO> ruleItems) {
+    Map<String, ImmutableSet.Builder<String>> builders = Maps.newHashMap();
+    for (GrayReleaseRuleItemDTO ruleItem : ruleItems) {
+      ImmutableSet.Builder<String> builder = builders.get(ruleItem.getClientAppId());
+      if (builder == null) {
+        builder = ImmutableSet.builder();
+        builders.put(ruleItem.getClientAppId(), builder);
+      }
+      builder.addAll(ruleItem.getClientIpList());
+    }
+
+    ImmutableMap.Builder<String, Set<String>> clientIpsByAppId = ImmutableMap.builder();
+    for (Map.Entry<String, ImmutableSet.Builder<String>> entry : builders.entrySet()) {
+      clientIpsByAppId.put(entry.getKey(), entry.getValue().build());
+    }
+    return clientIpsByAppId.build();
   }
 
   public long getRuleId() {
@@ -59,12 +87,15 @@ public class GrayReleaseRuleCache {
     return namespaceName;
   }
 
+  /**
+   * @return the client ips of each client app id in the rule items
+   */
+  public Map<String, Set<String>> getClientIpsByAppId() {
+    return clientIpsByAppId;
+  }
+
   public boolean matches(String clientAppId, String clientIp) {
-    for (GrayReleaseRuleItemDTO ruleItem : ruleItems) {
-      if (ruleItem.matches(clientAppId, clientIp)) {
-        return true;
-      }
-    }
-    return false;
+    Set<String> clientIps = clientIpsByAppId.get(clientAppId);
+    return clientIps != null && (clientIps.contains(GrayReleaseRuleItemDTO.ALL_IP) || clientIps.contains(clientIp));
   }
 }
@@ -3,10 +3,9 @@ package com.ctrip.framework.apollo.biz.grayReleaseRule;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import com.ctrip.framework.apollo.biz.config.BizConfig;
@@ -29,14 +28,33 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.CollectionUtils;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Gray release rules are never updated in place: every change inserts a new row with a larger id and deletes the old
+ * one, so the periodic scan only reads the rows with ids larger than the ones scanned, and a full scan is done every
+ * {@link #FULL_SCAN_CYCLES} cycles in case a row committed out of id order is missed. <br /> <br />
+ *
+ * Release messages reload the rules of the namespace on a dedicated thread instead of the message scanner thread, and
+ * the lookups of a namespace being reloaded wait for the reload, so clients notified of the release would not read the
+ * stale rules. <br /> <br />
+ *
+ * The lookups read an immutable index published after every change, with the rules precompiled into ip sets.
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
 public class GrayReleaseRulesHolder implements ReleaseMessageListener, InitializingBean {
@@ -44,6 +62,8 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
   private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
   private static final Splitter STRING_SPLITTER =
       Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).omitEmptyStrings();
+  private static final int FULL_SCAN_CYCLES = 10;
+  private static final long RELOAD_WAIT_TIMEOUT_IN_MILLI = 1000;
 
   @Autowired
   private GrayReleaseRuleRepository grayReleaseRuleRepository;
@@ -52,19 +72,30 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
 
   private int databaseScanInterval;
   private ScheduledExecutorService executorService;
-  //store configAppId+configCluster+configNamespace -> GrayReleaseRuleCache map
-  private Multimap<String, GrayReleaseRuleCache> grayReleaseRuleCache;
-  //store clientAppId+clientNamespace+ip -> ruleId map
-  private Multimap<String, Long> reversedGrayReleaseRuleCache;
+  private ExecutorService reloadExecutorService;
+  //store configAppId+configCluster+configNamespace -> rules of the namespace, guarded by this
+  private final Map<String, NamespaceGrayReleaseRules> grayReleaseRuleCache;
+  //the immutable index for lookups, rebuilt from grayReleaseRuleCache after every change
+  private volatile GrayReleaseRuleIndex grayReleaseRuleIndex;
+  //store configAppId+configCluster+configNamespace -> reload not done yet
+  private final ConcurrentMap<String, Future<?>> pendingReloads;
+  //store configNamespace -> the latest reload of the namespace not done yet
+  private final ConcurrentMap<String, Future<?>> pendingNamespaceReloads;
   //an auto increment version to indicate the age of rules
   private AtomicLong loadVersion;
+  //only accessed by the scan thread
+  private long maxIdScanned;
 
   public GrayReleaseRulesHolder() {
     loadVersion = new AtomicLong();
-    grayReleaseRuleCache = Multimaps.synchronizedSetMultimap(HashMultimap.create());
-    reversedGrayReleaseRuleCache = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+    grayReleaseRuleCache = Maps.newHashMap();
+    grayReleaseRuleIndex = GrayReleaseRuleIndex.EMPTY;
+    pendingReloads = Maps.newConcurrentMap();
+    pendingNamespaceReloads = Maps.newConcurrentMap();
     executorService = Executors.newScheduledThreadPool(1, ApolloThreadFactory
         .create("GrayReleaseRulesHolder", true));
+    reloadExecutorService = Executors.newSingleThreadExecutor(ApolloThreadFactory
+        .create("GrayReleaseRulesHolder-Reload", true));
   }
 
   @Override
@@ -93,19 +124,45 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     String appId = keys.get(0);
     String cluster = keys.get(1);
     String namespace = keys.get(2);
+    String key = assembleGrayReleaseRuleKey(appId, cluster, namespace);
 
-    List<GrayReleaseRule> rules = grayReleaseRuleRepository
-        .findByAppIdAndClusterNameAndNamespaceName(appId, cluster, namespace);
+    FutureTask<Void> reload = new FutureTask<Void>(() -> reloadGrayReleaseRules(appId, cluster, namespace), null) {
+      @Override
+      protected void done() {
+        pendingReloads.remove(key, this);
+        pendingNamespaceReloads.remove(namespace, this);
+      }
+    };
+    //the reloads run in order, so waiting for the latest one is enough
+    pendingReloads.put(key, reload);
+    pendingNamespaceReloads.put(namespace, reload);
+    reloadExecutorService.execute(reload);
+  }
 
-    mergeGrayReleaseRules(rules);
+  private void reloadGrayReleaseRules(String appId, String cluster, String namespace) {
+    try {
+      List<GrayReleaseRule> rules = grayReleaseRuleRepository
+          .findByAppIdAndClusterNameAndNamespaceName(appId, cluster, namespace);
+      synchronized (this) {
+        if (mergeGrayReleaseRules(rules)) {
+          publishGrayReleaseRuleIndex();
+        }
+      }
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+      logger.error("Reload gray release rules for {} failed", assembleGrayReleaseRuleKey(appId, cluster, namespace),
+          ex);
+    }
   }
 
   private void periodicScanRules() {
     Transaction transaction = Tracer.newTransaction("Apollo.GrayReleaseRulesScanner",
         "scanGrayReleaseRules");
     try {
-      loadVersion.incrementAndGet();
-      scanGrayReleaseRules();
+      //the first scan is a full scan
+      boolean fullScan = loadVersion.incrementAndGet() % FULL_SCAN_CYCLES == 1;
+      transaction.addData("FullScan", fullScan);
+      scanGrayReleaseRules(fullScan ? 0 : maxIdScanned);
       transaction.setStatus(Transaction.SUCCESS);
     } catch (Throwable ex) {
       transaction.setStatus(ex);
@@ -117,17 +174,16 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
 
   public Long findReleaseIdFromGrayReleaseRule(String clientAppId, String clientIp, String
       configAppId, String configCluster, String configNamespaceName) {
-    String key = assembleGrayReleaseRuleKey(configAppId, configCluster, configNamespaceName);
-    if (!grayReleaseRuleCache.containsKey(key)) {
+    if (!pendingReloads.isEmpty()) {
+      awaitReload(pendingReloads.get(assembleGrayReleaseRuleKey(configAppId, configCluster, configNamespaceName)));
+    }
+    List<GrayReleaseRuleCache> rules = grayReleaseRuleIndex.findActiveRules(configAppId, configCluster,
+        configNamespaceName);
+    if (rules == null) {
       return null;
     }
-    //create a new list to avoid ConcurrentModificationException
-    List<GrayReleaseRuleCache> rules = Lists.newArrayList(grayReleaseRuleCache.get(key));
-    for (GrayReleaseRuleCache rule : rules) {
-      //check branch status
-      if (rule.getBranchStatus() != NamespaceBranchStatus.ACTIVE) {
-        continue;
-      }
+    for (int i = 0; i < rules.size(); i++) {
+      GrayReleaseRuleCache rule = rules.get(i);
       if (rule.matches(clientAppId, clientIp)) {
         return rule.getReleaseId();
       }
@@ -141,34 +197,63 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
    * load gray releases. Because gray release rules actually apply to one more dimension - cluster.
    */
   public boolean hasGrayReleaseRule(String clientAppId, String clientIp, String namespaceName) {
-    return reversedGrayReleaseRuleCache.containsKey(assembleReversedGrayReleaseRuleKey(clientAppId,
-        namespaceName, clientIp)) || reversedGrayReleaseRuleCache.containsKey
-        (assembleReversedGrayReleaseRuleKey(clientAppId, namespaceName, GrayReleaseRuleItemDTO
-            .ALL_IP));
+    if (!pendingNamespaceReloads.isEmpty()) {
+      awaitReload(pendingNamespaceReloads.get(namespaceName));
+    }
+    Set<String> clientIps = grayReleaseRuleIndex.findClientIps(namespaceName, clientAppId);
+    return clientIps != null && (clientIps.contains(clientIp) || clientIps.contains(GrayReleaseRuleItemDTO.ALL_IP));
+  }
+
+  private void awaitReload(Future<?> reload) {
+    if (reload == null) {
+      return;
+    }
+    try {
+      reload.get(RELOAD_WAIT_TIMEOUT_IN_MILLI, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException ex) {
+      //use the rules loaded so far
+    }
   }
 
-  private void scanGrayReleaseRules() {
-    long maxIdScanned = 0;
+  private void scanGrayReleaseRules(long startId) {
+    boolean changed = false;
     boolean hasMore = true;
+    long scannedId = startId;
 
     while (hasMore && !Thread.currentThread().isInterrupted()) {
       List<GrayReleaseRule> grayReleaseRules = grayReleaseRuleRepository
-          .findFirst500ByIdGreaterThanOrderByIdAsc(maxIdScanned);
+          .findFirst500ByIdGreaterThanOrderByIdAsc(scannedId);
       if (CollectionUtils.isEmpty(grayReleaseRules)) {
         break;
       }
-      mergeGrayReleaseRules(grayReleaseRules);
+      synchronized (this) {
+        changed |= mergeGrayReleaseRules(grayReleaseRules);
+      }
       int rulesScanned = grayReleaseRules.size();
-      maxIdScanned = grayReleaseRules.get(rulesScanned - 1).getId();
+      scannedId = grayReleaseRules.get(rulesScanned - 1).getId();
       //batch is 500
       hasMore = rulesScanned == 500;
     }
+    maxIdScanned = Math.max(maxIdScanned, scannedId);
+
+    synchronized (this) {
+      changed |= removeOutdatedInactiveRules();
+      if (changed) {
+        publishGrayReleaseRuleIndex();
+      }
+    }
   }
 
-  private void mergeGrayReleaseRules(List<GrayReleaseRule> grayReleaseRules) {
+  /**
+   * @return whether any rule is added or replaced
+   */
+  private boolean mergeGrayReleaseRules(List<GrayReleaseRule> grayReleaseRules) {
     if (CollectionUtils.isEmpty(grayReleaseRules)) {
-      return;
+      return false;
     }
+    boolean changed = false;
     for (GrayReleaseRule grayReleaseRule : grayReleaseRules) {
       if (grayReleaseRule.getReleaseId() == null || grayReleaseRule.getReleaseId() == 0) {
         //filter rules with no release id, i.e. never released
@@ -176,15 +261,9 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
       }
       String key = assembleGrayReleaseRuleKey(grayReleaseRule.getAppId(), grayReleaseRule
           .getClusterName(), grayReleaseRule.getNamespaceName());
-      //create a new list to avoid ConcurrentModificationException
-      List<GrayReleaseRuleCache> rules = Lists.newArrayList(grayReleaseRuleCache.get(key));
-      GrayReleaseRuleCache oldRule = null;
-      for (GrayReleaseRuleCache ruleCache : rules) {
-        if (ruleCache.getBranchName().equals(grayReleaseRule.getBranchName())) {
-          oldRule = ruleCache;
-          break;
-        }
-      }
+      NamespaceGrayReleaseRules namespaceRules = grayReleaseRuleCache.get(key);
+      GrayReleaseRuleCache oldRule = namespaceRules == null ? null :
+          namespaceRules.branchRules.get(grayReleaseRule.getBranchName());
 
       //if old rule is null and new rule's branch status is not active, ignore
       if (oldRule == null && grayReleaseRule.getBranchStatus() != NamespaceBranchStatus.ACTIVE) {
@@ -193,42 +272,72 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
 
       //use id comparison to avoid synchronization
       if (oldRule == null || grayReleaseRule.getId() > oldRule.getRuleId()) {
-        addCache(key, transformRuleToRuleCache(grayReleaseRule));
-        if (oldRule != null) {
-          removeCache(key, oldRule);
-        }
-      } else {
-        if (oldRule.getBranchStatus() == NamespaceBranchStatus.ACTIVE) {
-          //update load version
-          oldRule.setLoadVersion(loadVersion.get());
-        } else if ((loadVersion.get() - oldRule.getLoadVersion()) > 1) {
-          //remove outdated inactive branch rule after 2 update cycles
-          removeCache(key, oldRule);
+        if (namespaceRules == null) {
+          namespaceRules = new NamespaceGrayReleaseRules(grayReleaseRule.getAppId(),
+              grayReleaseRule.getClusterName(), grayReleaseRule.getNamespaceName());
+          grayReleaseRuleCache.put(key, namespaceRules);
         }
+        namespaceRules.branchRules.put(grayReleaseRule.getBranchName(), transformRuleToRuleCache(grayReleaseRule));
+        changed = true;
+      } else if (oldRule.getBranchStatus() == NamespaceBranchStatus.ACTIVE) {
+        //update load version
+        oldRule.setLoadVersion(loadVersion.get());
       }
     }
+    return changed;
   }
 
-  private void addCache(String key, GrayReleaseRuleCache ruleCache) {
-    if (ruleCache.getBranchStatus() == NamespaceBranchStatus.ACTIVE) {
-      for (GrayReleaseRuleItemDTO ruleItemDTO : ruleCache.getRuleItems()) {
-        for (String clientIp : ruleItemDTO.getClientIpList()) {
-          reversedGrayReleaseRuleCache.put(assembleReversedGrayReleaseRuleKey(ruleItemDTO
-              .getClientAppId(), ruleCache.getNamespaceName(), clientIp), ruleCache.getRuleId());
+  /**
+   * remove outdated inactive branch rules after 2 update cycles
+   *
+   * @return whether any rule is removed
+   */
+  private boolean removeOutdatedInactiveRules() {
+    boolean changed = false;
+    Iterator<NamespaceGrayReleaseRules> namespaceRulesIterator = grayReleaseRuleCache.values().iterator();
+    while (namespaceRulesIterator.hasNext()) {
+      NamespaceGrayReleaseRules namespaceRules = namespaceRulesIterator.next();
+      Iterator<GrayReleaseRuleCache> ruleIterator = namespaceRules.branchRules.values().iterator();
+      while (ruleIterator.hasNext()) {
+        GrayReleaseRuleCache rule = ruleIterator.next();
+        if (rule.getBranchStatus() != NamespaceBranchStatus.ACTIVE
+            && (loadVersion.get() - rule.getLoadVersion()) > 1) {
+          ruleIterator.remove();
+          changed = true;
         }
       }
+      if (namespaceRules.branchRules.isEmpty()) {
+        namespaceRulesIterator.remove();
+      }
     }
-    grayReleaseRuleCache.put(key, ruleCache);
+    return changed;
   }
 
-  private void removeCache(String key, GrayReleaseRuleCache ruleCache) {
-    grayReleaseRuleCache.remove(key, ruleCache);
-    for (GrayReleaseRuleItemDTO ruleItemDTO : ruleCache.getRuleItems()) {
-      for (String clientIp : ruleItemDTO.getClientIpList()) {
-        reversedGrayReleaseRuleCache.remove(assembleReversedGrayReleaseRuleKey(ruleItemDTO
-            .getClientAppId(), ruleCache.getNamespaceName(), clientIp), ruleCache.getRuleId());
+  private void publishGrayReleaseRuleIndex() {
+    Map<String, Map<String, Map<String, List<GrayReleaseRuleCache>>>> activeRules = Maps.newHashMap();
+    Map<String, Map<String, Set<String>>> clientIps = Maps.newHashMap();
+
+    for (NamespaceGrayReleaseRules namespaceRules : grayReleaseRuleCache.values()) {
+      List<GrayReleaseRuleCache> rules = Lists.newArrayList();
+      for (GrayReleaseRuleCache rule : namespaceRules.branchRules.values()) {
+        //check branch status
+        if (rule.getBranchStatus() != NamespaceBranchStatus.ACTIVE) {
+          continue;
+        }
+        rules.add(rule);
+        for (Map.Entry<String, Set<String>> entry : rule.getClientIpsByAppId().entrySet()) {
+          clientIps.computeIfAbsent(namespaceRules.namespaceName, k -> Maps.newHashMap())
+              .computeIfAbsent(entry.getKey(), k -> Sets.newHashSet()).addAll(entry.getValue());
+        }
+      }
+      if (!rules.isEmpty()) {
+        activeRules.computeIfAbsent(namespaceRules.appId, k -> Maps.newHashMap())
+            .computeIfAbsent(namespaceRules.clusterName, k -> Maps.newHashMap())
+            .put(namespaceRules.namespaceName, ImmutableList.copyOf(rules));
       }
     }
+
+    grayReleaseRuleIndex = new GrayReleaseRuleIndex(activeRules, clientIps);
   }
 
   private GrayReleaseRuleCache transformRuleToRuleCache(GrayReleaseRule grayReleaseRule) {
@@ -265,9 +374,52 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     return STRING_JOINER.join(configAppId, configCluster, configNamespaceName);
   }
 
-  private String assembleReversedGrayReleaseRuleKey(String clientAppId, String
-      clientNamespaceName, String clientIp) {
-    return STRING_JOINER.join(clientAppId, clientNamespaceName, clientIp);
+  /**
+   * the rules of a namespace, branch name -> rule
+   */
+  private static class NamespaceGrayReleaseRules {
+    private final String appId;
+    private final String clusterName;
+    private final String namespaceName;
+    private final Map<String, GrayReleaseRuleCache> branchRules = Maps.newHashMap();
+
+    NamespaceGrayReleaseRules(String appId, String clusterName, String namespaceName) {
+      this.appId = appId;
+      this.clusterName = clusterName;
+      this.namespaceName = namespaceName;
+    }
   }
 
+  /**
+   * Immutable index of the active rules, never modified after published, so the lookups need neither locks nor copies
+   */
+  private static class GrayReleaseRuleIndex {
+    private static final GrayReleaseRuleIndex EMPTY = new GrayReleaseRuleIndex(
+        Collections.emptyMap(), Collections.emptyMap());
+
+    //configAppId -> configCluster -> configNamespace -> active rules
+    private final Map<String, Map<String, Map<String, List<GrayReleaseRuleCache>>>> activeRules;
+    //clientNamespace -> clientAppId -> client ips
+    private final Map<String, Map<String, Set<String>>> clientIps;
+
+    GrayReleaseRuleIndex(Map<String, Map<String, Map<String, List<GrayReleaseRuleCache>>>> activeRules,
+        Map<String, Map<String, Set<String>>> clientIps) {
+      this.activeRules = activeRules;
+      this.clientIps = clientIps;
+    }
+
+    List<GrayReleaseRuleCache> findActiveRules(String configAppId, String configCluster, String configNamespaceName) {
+      Map<String, Map<String, List<GrayReleaseRuleCache>>> clusterRules = activeRules.get(configAppId);
+      if (clusterRules == null) {
+        return null;
+      }
+      Map<String, List<GrayReleaseRuleCache>> namespaceRules = clusterRules.get(configCluster);
+      return namespaceRules == null ? null : namespaceRules.get(configNamespaceName);
+    }
+
+    Set<String> findClientIps(String clientNamespaceName, String clientAppId) {
+      Map<String, Set<String>> appClientIps = clientIps.get(clientNamespaceName);
+      return appClientIps == null ? null : appClientIps.get(clientAppId);
+    }
+  }
 }
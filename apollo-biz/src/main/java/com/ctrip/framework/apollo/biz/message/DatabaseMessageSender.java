@@ -10,6 +10,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.PostConstruct;
 import java.util.List;
@@ -41,13 +43,16 @@ public class DatabaseMessageSender implements MessageSender {
   private final AtomicBoolean cleanStopped;
 
   private final ReleaseMessageRepository releaseMessageRepository;
+  private final ReleaseMessagePusher releaseMessagePusher;
 
-  public DatabaseMessageSender(final ReleaseMessageRepository releaseMessageRepository) {
+  public DatabaseMessageSender(final ReleaseMessageRepository releaseMessageRepository,
+      final ReleaseMessagePusher releaseMessagePusher) {
     // 创建 ExecutorService 对象
     cleanExecutorService = Executors.newSingleThreadExecutor(ApolloThreadFactory.create("DatabaseMessageSender", true));
     // 设置 cleanStopped 为 false
     cleanStopped = new AtomicBoolean(false);
     this.releaseMessageRepository = releaseMessageRepository;
+    this.releaseMessagePusher = releaseMessagePusher;
   }
 
   @Override
@@ -69,6 +74,8 @@ public class DatabaseMessageSender implements MessageSender {
       ReleaseMessage newMessage = releaseMessageRepository.save(new ReleaseMessage(message));
       // 添加到清理 Message 队列。若队列已满，添加失败，不阻塞等待。
       toClean.offer(newMessage.getId());
+      // 事务提交后，推送给 Config Service
+      pushAfterCommit(newMessage);
       // 【TODO 6001】Tracer 日志
       transaction.setStatus(Transaction.SUCCESS);
     } catch (Throwable ex) {
@@ -82,6 +89,20 @@ public class DatabaseMessageSender implements MessageSender {
     }
   }
 
+  private void pushAfterCommit(ReleaseMessage releaseMessage) {
+    //config services should only be notified after the message is visible to them
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          releaseMessagePusher.push(releaseMessage);
+        }
+      });
+      return;
+    }
+    releaseMessagePusher.push(releaseMessage);
+  }
+
   @PostConstruct
   private void initialize() {
     cleanExecutorService.submit(() -> {
@@ -0,0 +1,105 @@
+package com.ctrip.framework.apollo.biz.message;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.core.ServiceNameConsts;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.discovery.EurekaClient;
+import com.netflix.discovery.shared.Application;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Push release message ids to all the config service instances discovered by eureka via http.
+ *
+ * <p>Enabled by {@link BizConfig#isReleaseMessagePushEnabled()}, config services receiving the push will scan the
+ * database immediately instead of waiting for the next scan interval. The pushes are signed with {@link
+ * BizConfig#releaseMessagePushSecret()} in the same way as the client access keys, and are not sent if the secret is
+ * not set.</p>
+ */
+@Component
+public class HttpReleaseMessagePusher implements ReleaseMessagePusher {
+  private static final Logger logger = LoggerFactory.getLogger(HttpReleaseMessagePusher.class);
+  private static final String PUSH_PATH = "release-messages?id=%d";
+  private static final int CONNECT_TIMEOUT_IN_MILLI = 1000;
+  private static final int READ_TIMEOUT_IN_MILLI = 1000;
+  private static final int PUSH_THREADS = 4;
+  private static final int PUSH_QUEUE_MAX_SIZE = 1000;
+
+  private final BizConfig bizConfig;
+  private final EurekaClient eurekaClient;
+  private final RestTemplate restTemplate;
+  private final ExecutorService pushExecutorService;
+
+  public HttpReleaseMessagePusher(final BizConfig bizConfig, final EurekaClient eurekaClient) {
+    this.bizConfig = bizConfig;
+    this.eurekaClient = eurekaClient;
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(CONNECT_TIMEOUT_IN_MILLI);
+    requestFactory.setReadTimeout(READ_TIMEOUT_IN_MILLI);
+    this.restTemplate = new RestTemplate(requestFactory);
+    // 队列满时丢弃推送，Config Service 会通过 DB 扫描兜底
+    this.pushExecutorService = new ThreadPoolExecutor(PUSH_THREADS, PUSH_THREADS, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(PUSH_QUEUE_MAX_SIZE), ApolloThreadFactory.create("HttpReleaseMessagePusher", true),
+        new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  @Override
+  public void push(ReleaseMessage releaseMessage) {
+    if (!bizConfig.isReleaseMessagePushEnabled()) {
+      return;
+    }
+    String secret = bizConfig.releaseMessagePushSecret();
+    if (secret.isEmpty()) {
+      logger.warn("Release message push is enabled but apollo.release-message.push.secret is not set");
+      return;
+    }
+
+    for (InstanceInfo instance : getConfigServiceInstances()) {
+      pushExecutorService.submit(() -> doPush(instance.getHomePageUrl(), releaseMessage, secret));
+    }
+  }
+
+  private void doPush(String homePageUrl, ReleaseMessage releaseMessage, String secret) {
+    try {
+      String url = homePageUrl + String.format(PUSH_PATH, releaseMessage.getId());
+      HttpHeaders headers = new HttpHeaders();
+      for (Map.Entry<String, String> header : Signature
+          .buildHttpHeaders(url, ServiceNameConsts.APOLLO_ADMINSERVICE, secret).entrySet()) {
+        headers.set(header.getKey(), header.getValue());
+      }
+      restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(headers), Void.class);
+      Tracer.logEvent("Apollo.ReleaseMessage.Push", homePageUrl);
+    } catch (Throwable ex) {
+      //the config service will find the message in the next database scan
+      logger.warn("Push release message {} to {} failed", releaseMessage.getId(), homePageUrl, ex);
+      Tracer.logEvent("Apollo.ReleaseMessage.PushFailed", homePageUrl);
+    }
+  }
+
+  private List<InstanceInfo> getConfigServiceInstances() {
+    Application application = eurekaClient.getApplication(ServiceNameConsts.APOLLO_CONFIGSERVICE);
+    if (application == null) {
+      Tracer.logEvent("Apollo.EurekaDiscovery.NotFound", ServiceNameConsts.APOLLO_CONFIGSERVICE);
+      return Collections.emptyList();
+    }
+    return application.getInstances();
+  }
+}
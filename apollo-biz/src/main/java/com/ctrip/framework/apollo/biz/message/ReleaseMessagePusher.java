@@ -0,0 +1,19 @@
+package com.ctrip.framework.apollo.biz.message;
+
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+
+/**
+ * 将新保存的 ReleaseMessage 主动推送给 Config Service，使其无需等待下一次 DB 扫描
+ *
+ * The release message is always persisted first, so config services still find it via the database scan if a push is
+ * lost, the push only shortens the delay.
+ */
+public interface ReleaseMessagePusher {
+
+  /**
+   * Push the persisted release message, implementations should not block the caller
+   *
+   * @param releaseMessage the persisted release message
+   */
+  void push(ReleaseMessage releaseMessage);
+}
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +26,14 @@ import com.google.common.collect.Lists;
  */
 public class ReleaseMessageScanner implements InitializingBean {
   private static final Logger logger = LoggerFactory.getLogger(ReleaseMessageScanner.class);
+  /**
+   * 推送的编号超出已扫描编号过多时忽略，由定时扫描兜底
+   */
+  private static final long MAX_PUSHED_MESSAGE_ID_GAP = 10000;
+  /**
+   * 推送触发的扫描的最小间隔，单位：毫秒
+   */
+  private static final long MIN_PUSHED_SCAN_INTERVAL_IN_MILLI = 100;
   @Autowired
   private BizConfig bizConfig;
   @Autowired
@@ -44,7 +53,15 @@ public class ReleaseMessageScanner implements InitializingBean {
   /**
    * 最后扫描到的 ReleaseMessage 的编号
    */
-  private long maxIdScanned;
+  private volatile long maxIdScanned;
+  /**
+   * 是否已有推送触发的扫描任务在排队，用于合并短时间内的多次推送
+   */
+  private final AtomicBoolean pushedScanPending;
+  /**
+   * 最后一次推送触发的扫描的时间
+   */
+  private volatile long lastPushedScanTimeInMilli;
 
   public ReleaseMessageScanner() {
     // 创建监听器数组
@@ -52,35 +69,72 @@ public class ReleaseMessageScanner implements InitializingBean {
     // 创建 ScheduledExecutorService 对象
     executorService = Executors.newScheduledThreadPool(1, ApolloThreadFactory
         .create("ReleaseMessageScanner", true));
+    pushedScanPending = new AtomicBoolean(false);
   }
 
   @Override
   public void afterPropertiesSet() throws Exception {
-    // 从 ServerConfig 中获得频率
-    databaseScanInterval = bizConfig.releaseMessageScanIntervalInMilli();
+    // 从 ServerConfig 中获得频率。开启推送时，定时扫描仅用于兜底，使用更长的间隔。
+    databaseScanInterval = bizConfig.isReleaseMessagePushEnabled() ?
+        bizConfig.releaseMessageFallbackScanIntervalInMilli() : bizConfig.releaseMessageScanIntervalInMilli();
     // 获得最大的 ReleaseMessage 的编号
     maxIdScanned = loadLargestMessageId();
     // 创建从 DB 中扫描 ReleaseMessage 表的定时任务
-    executorService.scheduleWithFixedDelay((Runnable) () -> {
-      // 【TODO 6001】Tracer 日志
-      Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanner", "scanMessage");
-      try {
-        // 从 DB 中，扫描 ReleaseMessage 们
-        scanMessages();
-        // 【TODO 6001】Tracer 日志
-        transaction.setStatus(Transaction.SUCCESS);
-      } catch (Throwable ex) {
-        // 【TODO 6001】Tracer 日志
-        transaction.setStatus(ex);
-        logger.error("Scan and send message failed", ex);
-      } finally {
-        // 【TODO 6001】Tracer 日志
-        transaction.complete();
-      }
-    }, databaseScanInterval, databaseScanInterval, TimeUnit.MILLISECONDS);
+    executorService.scheduleWithFixedDelay(() -> scanMessagesWithTransaction("scanMessage"),
+        databaseScanInterval, databaseScanInterval, TimeUnit.MILLISECONDS);
 
   }
 
+  /**
+   * Called when an admin service pushes a newly saved release message id, the scan is executed on the scanner thread
+   * right away so that the listeners are notified without waiting for the next scan interval. <br /> <br />
+   *
+   * The pushed scans are at least {@link #MIN_PUSHED_SCAN_INTERVAL_IN_MILLI} apart no matter how often the pushes
+   * come, and the ids too far beyond the messages scanned are ignored, as they are left to the periodic scan.
+   *
+   * @param messageId the pushed release message id
+   */
+  public void onMessagePushed(long messageId) {
+    long gap = messageId - maxIdScanned;
+    // 已扫描过，忽略
+    if (gap <= 0) {
+      return;
+    }
+    if (gap > MAX_PUSHED_MESSAGE_ID_GAP) {
+      Tracer.logEvent("Apollo.ReleaseMessage.PushIgnored", String.valueOf(messageId));
+      return;
+    }
+    // 已有扫描任务在排队，合并
+    if (!pushedScanPending.compareAndSet(false, true)) {
+      return;
+    }
+    long delay = Math.max(0,
+        lastPushedScanTimeInMilli + MIN_PUSHED_SCAN_INTERVAL_IN_MILLI - System.currentTimeMillis());
+    executorService.schedule(() -> {
+      pushedScanPending.set(false);
+      lastPushedScanTimeInMilli = System.currentTimeMillis();
+      scanMessagesWithTransaction("scanPushedMessage");
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void scanMessagesWithTransaction(String transactionName) {
+    // 【TODO 6001】Tracer 日志
+    Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanner", transactionName);
+    try {
+      // 从 DB 中，扫描 ReleaseMessage 们
+      scanMessages();
+      // 【TODO 6001】Tracer 日志
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      // 【TODO 6001】Tracer 日志
+      transaction.setStatus(ex);
+      logger.error("Scan and send message failed", ex);
+    } finally {
+      // 【TODO 6001】Tracer 日志
+      transaction.complete();
+    }
+  }
+
   /**
    * add message listeners for release message
    * @param listener
@@ -9,15 +9,19 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
-public interface InstanceConfigRepository extends PagingAndSortingRepository<InstanceConfig, Long> {
+public interface InstanceConfigRepository extends PagingAndSortingRepository<InstanceConfig, Long>,
+    InstanceConfigRepositoryCustom {
 
   InstanceConfig findByInstanceIdAndConfigAppIdAndConfigNamespaceName(long instanceId, String
       configAppId, String configNamespaceName);
 
+  List<InstanceConfig> findByInstanceIdIn(Collection<Long> instanceIds);
+
   Page<InstanceConfig> findByReleaseKeyAndDataChangeLastModifiedTimeAfter(String releaseKey, Date
       validDate, Pageable pageable);
 
@@ -0,0 +1,22 @@
+package com.ctrip.framework.apollo.biz.repository;
+
+import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
+
+import java.util.List;
+
+/**
+ * The batch writes of {@link InstanceConfig}, which are sent as JDBC batches instead of one statement per row
+ */
+public interface InstanceConfigRepositoryCustom {
+
+  /**
+   * Insert the instance configs in one JDBC batch, the generated ids are not set back to the instance configs
+   */
+  void batchInsert(List<InstanceConfig> instanceConfigs);
+
+  /**
+   * Update the cluster name, release key, release delivery time and last modified time of the instance configs by id
+   * in one JDBC batch
+   */
+  void batchUpdate(List<InstanceConfig> instanceConfigs);
+}
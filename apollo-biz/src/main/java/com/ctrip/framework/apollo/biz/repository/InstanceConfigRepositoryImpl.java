@@ -0,0 +1,75 @@
+package com.ctrip.framework.apollo.biz.repository;
+
+import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
+import com.google.common.collect.Lists;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Batch the writes with {@link JdbcTemplate}, since hibernate disables the insert batching of the entities with
+ * {@link javax.persistence.GenerationType#IDENTITY} ids. The statements run in the current JPA transaction.
+ */
+public class InstanceConfigRepositoryImpl implements InstanceConfigRepositoryCustom {
+  private static final String INSERT_SQL = "INSERT INTO `InstanceConfig` (`InstanceId`, `ConfigAppId`, "
+      + "`ConfigClusterName`, `ConfigNamespaceName`, `ReleaseKey`, `ReleaseDeliveryTime`, "
+      + "`DataChange_CreatedTime`, `DataChange_LastTime`) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String UPDATE_SQL = "UPDATE `InstanceConfig` SET `ConfigClusterName` = ?, `ReleaseKey` = ?, "
+      + "`ReleaseDeliveryTime` = ?, `DataChange_LastTime` = ? WHERE `Id` = ?";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  public InstanceConfigRepositoryImpl(final JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  public void batchInsert(List<InstanceConfig> instanceConfigs) {
+    if (instanceConfigs.isEmpty()) {
+      return;
+    }
+
+    List<Object[]> batchArgs = Lists.newArrayListWithCapacity(instanceConfigs.size());
+    for (InstanceConfig instanceConfig : instanceConfigs) {
+      //same as InstanceConfig#prePersist
+      Date createdTime = instanceConfig.getDataChangeCreatedTime() != null ?
+          instanceConfig.getDataChangeCreatedTime() : new Date();
+      Date lastModifiedTime = instanceConfig.getDataChangeLastModifiedTime() != null ?
+          instanceConfig.getDataChangeLastModifiedTime() : createdTime;
+      batchArgs.add(new Object[]{instanceConfig.getInstanceId(), instanceConfig.getConfigAppId(),
+          instanceConfig.getConfigClusterName(), instanceConfig.getConfigNamespaceName(),
+          instanceConfig.getReleaseKey(), instanceConfig.getReleaseDeliveryTime(), createdTime, lastModifiedTime});
+    }
+
+    //write the pending entity changes first so that the statements are executed in order
+    entityManager.flush();
+    jdbcTemplate.batchUpdate(INSERT_SQL, batchArgs);
+  }
+
+  @Override
+  public void batchUpdate(List<InstanceConfig> instanceConfigs) {
+    if (instanceConfigs.isEmpty()) {
+      return;
+    }
+
+    List<Object[]> batchArgs = Lists.newArrayListWithCapacity(instanceConfigs.size());
+    for (InstanceConfig instanceConfig : instanceConfigs) {
+      batchArgs.add(new Object[]{instanceConfig.getConfigClusterName(), instanceConfig.getReleaseKey(),
+          instanceConfig.getReleaseDeliveryTime(), instanceConfig.getDataChangeLastModifiedTime(),
+          instanceConfig.getId()});
+    }
+
+    entityManager.flush();
+    jdbcTemplate.batchUpdate(UPDATE_SQL, batchArgs);
+    //the managed entities are stale now, same as @Modifying(clearAutomatically = true)
+    entityManager.clear();
+  }
+}
@@ -4,6 +4,12 @@ import com.ctrip.framework.apollo.biz.entity.Instance;
 
 import org.springframework.data.repository.PagingAndSortingRepository;
 
-public interface InstanceRepository extends PagingAndSortingRepository<Instance, Long> {
+import java.util.Collection;
+import java.util.List;
+
+public interface InstanceRepository extends PagingAndSortingRepository<Instance, Long>, InstanceRepositoryCustom {
   Instance findByAppIdAndClusterNameAndDataCenterAndIp(String appId, String clusterName, String dataCenter, String ip);
+
+  List<Instance> findByAppIdAndClusterNameAndDataCenterAndIpIn(String appId, String clusterName, String dataCenter,
+      Collection<String> ips);
 }
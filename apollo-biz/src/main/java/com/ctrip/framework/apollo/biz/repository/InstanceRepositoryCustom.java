@@ -0,0 +1,16 @@
+package com.ctrip.framework.apollo.biz.repository;
+
+import com.ctrip.framework.apollo.biz.entity.Instance;
+
+import java.util.List;
+
+/**
+ * The batch writes of {@link Instance}, which are sent as JDBC batches instead of one statement per row
+ */
+public interface InstanceRepositoryCustom {
+
+  /**
+   * Insert the instances in one JDBC batch, the generated ids are not set back to the instances
+   */
+  void batchInsert(List<Instance> instances);
+}
@@ -0,0 +1,51 @@
+package com.ctrip.framework.apollo.biz.repository;
+
+import com.ctrip.framework.apollo.biz.entity.Instance;
+import com.google.common.collect.Lists;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Batch the inserts with {@link JdbcTemplate}, since hibernate disables the insert batching of the entities with
+ * {@link javax.persistence.GenerationType#IDENTITY} ids. The statements run in the current JPA transaction.
+ */
+public class InstanceRepositoryImpl implements InstanceRepositoryCustom {
+  private static final String INSERT_SQL = "INSERT INTO `Instance` (`AppId`, `ClusterName`, `DataCenter`, `Ip`, "
+      + "`DataChange_CreatedTime`, `DataChange_LastTime`) VALUES (?, ?, ?, ?, ?, ?)";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  public InstanceRepositoryImpl(final JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  public void batchInsert(List<Instance> instances) {
+    if (instances.isEmpty()) {
+      return;
+    }
+
+    List<Object[]> batchArgs = Lists.newArrayListWithCapacity(instances.size());
+    for (Instance instance : instances) {
+      //same as Instance#prePersist
+      Date createdTime = instance.getDataChangeCreatedTime() != null ? instance.getDataChangeCreatedTime() : new Date();
+      Date lastModifiedTime = instance.getDataChangeLastModifiedTime() != null ?
+          instance.getDataChangeLastModifiedTime() : createdTime;
+      batchArgs.add(new Object[]{instance.getAppId(), instance.getClusterName(), instance.getDataCenter(),
+          instance.getIp(), createdTime, lastModifiedTime});
+    }
+
+    //write the pending entity changes first so that the statements are executed in order
+    entityManager.flush();
+    jdbcTemplate.batchUpdate(INSERT_SQL, batchArgs);
+  }
+}
@@ -42,6 +42,13 @@ public class InstanceService {
         dataCenter, ip);
   }
 
+  public List<Instance> findInstances(String appId, String clusterName, String dataCenter, Set<String> ips) {
+    if (CollectionUtils.isEmpty(ips)) {
+      return Collections.emptyList();
+    }
+    return instanceRepository.findByAppIdAndClusterNameAndDataCenterAndIpIn(appId, clusterName, dataCenter, ips);
+  }
+
   public List<Instance> findInstancesByIds(Set<Long> instanceIds) {
     Iterable<Instance> instances = instanceRepository.findAllById(instanceIds);
     if (instances == null) {
@@ -57,6 +64,14 @@ public class InstanceService {
     return instanceRepository.save(instance);
   }
 
+  /**
+   * Create the instances in one transaction and one JDBC batch, the ids are not set back, so find them again if needed
+   */
+  @Transactional
+  public void batchCreateInstances(List<Instance> instances) {
+    instanceRepository.batchInsert(instances);
+  }
+
   public InstanceConfig findInstanceConfig(long instanceId, String configAppId, String
       configNamespaceName) {
     return instanceConfigRepository
@@ -64,6 +79,13 @@ public class InstanceService {
             instanceId, configAppId, configNamespaceName);
   }
 
+  public List<InstanceConfig> findInstanceConfigsByInstanceIds(Set<Long> instanceIds) {
+    if (CollectionUtils.isEmpty(instanceIds)) {
+      return Collections.emptyList();
+    }
+    return instanceConfigRepository.findByInstanceIdIn(instanceIds);
+  }
+
   public Page<InstanceConfig> findActiveInstanceConfigsByReleaseKey(String releaseKey, Pageable
       pageable) {
     Page<InstanceConfig> instanceConfigs = instanceConfigRepository
@@ -174,6 +196,25 @@ public class InstanceService {
     return instanceConfigRepository.save(existedInstanceConfig);
   }
 
+  /**
+   * Create the new instance configs and update the existing ones in one transaction, each in one JDBC batch
+   */
+  @Transactional
+  public void batchSaveInstanceConfigs(List<InstanceConfig> instanceConfigs) {
+    List<InstanceConfig> toCreate = Lists.newArrayList();
+    List<InstanceConfig> toUpdate = Lists.newArrayList();
+    for (InstanceConfig instanceConfig : instanceConfigs) {
+      if (instanceConfig.getId() == 0) {
+        toCreate.add(instanceConfig);
+      } else {
+        toUpdate.add(instanceConfig);
+      }
+    }
+
+    instanceConfigRepository.batchInsert(toCreate);
+    instanceConfigRepository.batchUpdate(toUpdate);
+  }
+
   @Transactional
   public int batchDeleteInstanceConfig(String configAppId, String configClusterName, String configNamespaceName){
     return instanceConfigRepository.batchDelete(configAppId, configClusterName, configNamespaceName);
@@ -15,8 +15,13 @@ import org.springframework.core.env.Environment;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -79,6 +84,53 @@ public class ReleaseMessageScannerTest extends AbstractUnitTest {
 
   }
 
+  @Test
+  public void testScanMessageOnPush() throws Exception {
+    //reset the scanner with a large scan interval, so only the push could trigger the scan
+    releaseMessageScanner = new ReleaseMessageScanner();
+    ReflectionTestUtils
+        .setField(releaseMessageScanner, "releaseMessageRepository", releaseMessageRepository);
+    ReflectionTestUtils.setField(releaseMessageScanner, "bizConfig", bizConfig);
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessageFallbackScanIntervalInMilli()).thenReturn(Integer.MAX_VALUE);
+    releaseMessageScanner.afterPropertiesSet();
+
+    SettableFuture<ReleaseMessage> someListenerFuture = SettableFuture.create();
+    ReleaseMessageListener someListener = (message, channel) -> someListenerFuture.set(message);
+    releaseMessageScanner.addMessageListener(someListener);
+
+    String someMessage = "someMessage";
+    long someId = 100;
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(someId, someMessage);
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage));
+
+    releaseMessageScanner.onMessagePushed(someId);
+
+    ReleaseMessage someListenerMessage =
+        someListenerFuture.get(5000, TimeUnit.MILLISECONDS);
+
+    assertEquals(someMessage, someListenerMessage.getMessage());
+    assertEquals(someId, someListenerMessage.getId());
+  }
+
+  @Test
+  public void testIgnorePushedMessageIdTooLarge() throws Exception {
+    releaseMessageScanner = new ReleaseMessageScanner();
+    ReflectionTestUtils
+        .setField(releaseMessageScanner, "releaseMessageRepository", releaseMessageRepository);
+    ReflectionTestUtils.setField(releaseMessageScanner, "bizConfig", bizConfig);
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessageFallbackScanIntervalInMilli()).thenReturn(Integer.MAX_VALUE);
+    releaseMessageScanner.afterPropertiesSet();
+
+    releaseMessageScanner.onMessagePushed(Long.MAX_VALUE);
+
+    assertFalse(((AtomicBoolean) ReflectionTestUtils.getField(releaseMessageScanner, "pushedScanPending")).get());
+    verify(releaseMessageRepository, never()).findFirst500ByIdGreaterThanOrderByIdAsc(anyLong());
+  }
+
   private ReleaseMessage assembleReleaseMessage(long id, String message) {
     ReleaseMessage releaseMessage = new ReleaseMessage();
     releaseMessage.setId(id);
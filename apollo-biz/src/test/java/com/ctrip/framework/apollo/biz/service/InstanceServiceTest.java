@@ -75,6 +75,34 @@ public class InstanceServiceTest extends AbstractIntegrationTest {
     assertEquals(Sets.newHashSet(someIp, anotherIp), ips);
   }
 
+  @Test
+  @Rollback
+  public void testBatchCreateAndFindInstances() throws Exception {
+    String someAppId = "someAppId";
+    String someClusterName = "someClusterName";
+    String someDataCenter = "someDataCenter";
+    String anotherDataCenter = "anotherDataCenter";
+    String someIp = "someIp";
+    String anotherIp = "anotherIp";
+    String yetAnotherIp = "yetAnotherIp";
+
+    instanceService.batchCreateInstances(Lists.newArrayList(
+        assembleInstance(someAppId, someClusterName, someDataCenter, someIp),
+        assembleInstance(someAppId, someClusterName, someDataCenter, anotherIp),
+        assembleInstance(someAppId, someClusterName, anotherDataCenter, someIp)));
+
+    List<Instance> instances = instanceService.findInstances(someAppId, someClusterName, someDataCenter,
+        Sets.newHashSet(someIp, anotherIp, yetAnotherIp));
+
+    Set<String> ips = instances.stream().map(Instance::getIp).collect(Collectors.toSet());
+    assertEquals(2, instances.size());
+    assertEquals(Sets.newHashSet(someIp, anotherIp), ips);
+    for (Instance instance : instances) {
+      assertNotEquals(0, instance.getId());
+      assertEquals(someDataCenter, instance.getDataCenter());
+    }
+  }
+
   @Test
   @Rollback
   public void testCreateAndFindInstanceConfig() throws Exception {
@@ -110,6 +138,47 @@ public class InstanceServiceTest extends AbstractIntegrationTest {
     assertEquals(anotherReleaseKey, updated.getReleaseKey());
   }
 
+  @Test
+  @Rollback
+  public void testBatchSaveInstanceConfigs() throws Exception {
+    long someInstanceId = 1;
+    long anotherInstanceId = 2;
+    String someConfigAppId = "someConfigAppId";
+    String someConfigClusterName = "someConfigClusterName";
+    String someConfigNamespaceName = "someConfigNamespaceName";
+    String anotherConfigNamespaceName = "anotherConfigNamespaceName";
+    String someReleaseKey = "someReleaseKey";
+    String anotherReleaseKey = "anotherReleaseKey";
+
+    InstanceConfig existing = instanceService.createInstanceConfig(assembleInstanceConfig(someInstanceId,
+        someConfigAppId, someConfigClusterName, someConfigNamespaceName, someReleaseKey));
+
+    Date someDate = new Date();
+    existing.setReleaseKey(anotherReleaseKey);
+    existing.setReleaseDeliveryTime(someDate);
+    existing.setDataChangeLastModifiedTime(someDate);
+    InstanceConfig someNewConfig = assembleInstanceConfig(someInstanceId, someConfigAppId, someConfigClusterName,
+        anotherConfigNamespaceName, anotherReleaseKey);
+    InstanceConfig anotherNewConfig = assembleInstanceConfig(anotherInstanceId, someConfigAppId,
+        someConfigClusterName, someConfigNamespaceName, someReleaseKey);
+
+    instanceService.batchSaveInstanceConfigs(Lists.newArrayList(existing, someNewConfig, anotherNewConfig));
+
+    List<InstanceConfig> instanceConfigs =
+        instanceService.findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId, anotherInstanceId));
+
+    assertEquals(3, instanceConfigs.size());
+
+    InstanceConfig updated = instanceService.findInstanceConfig(someInstanceId, someConfigAppId,
+        someConfigNamespaceName);
+    assertEquals(existing.getId(), updated.getId());
+    assertEquals(anotherReleaseKey, updated.getReleaseKey());
+    assertEquals(anotherReleaseKey, instanceService.findInstanceConfig(someInstanceId, someConfigAppId,
+        anotherConfigNamespaceName).getReleaseKey());
+    assertEquals(someReleaseKey, instanceService.findInstanceConfig(anotherInstanceId, someConfigAppId,
+        someConfigNamespaceName).getReleaseKey());
+  }
+
   @Test
   @Rollback
   public void testFindActiveInstanceConfigs() throws Exception {
@@ -3,9 +3,25 @@ package com.ctrip.framework.apollo;
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.internals.ConfigManager;
+import com.ctrip.framework.apollo.internals.RemoteConfigLongPollService;
 import com.ctrip.framework.apollo.spi.ConfigFactory;
 import com.ctrip.framework.apollo.spi.ConfigRegistry;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Entry point for client config use
@@ -13,7 +29,9 @@ import com.ctrip.framework.apollo.spi.ConfigRegistry;
  * @author Jason Song(song_s@ctrip.com)
  */
 public class ConfigService {
+  private static final Logger logger = LoggerFactory.getLogger(ConfigService.class);
   private static final ConfigService s_instance = new ConfigService();
+  private static final int MAX_PRELOAD_THREADS = 8;
 
   private volatile ConfigManager m_configManager;
   private volatile ConfigRegistry m_configRegistry;
@@ -65,6 +83,79 @@ public class ConfigService {
     return s_instance.getManager().getConfigFile(namespace, configFileFormat);
   }
 
+  /**
+   * Load the config instances of the namespaces concurrently, so that the startup time doesn't grow linearly with the
+   * namespace count. When batch load is enabled, the configs are fetched with one batch query first, so that the
+   * namespaces don't query the config service one by one. The failed ones are only logged, they will be loaded again
+   * when {@link #getConfig(String)} is called.
+   *
+   * @param namespaces the namespaces to load
+   */
+  public static void preload(String... namespaces) {
+    preload(Arrays.asList(namespaces));
+  }
+
+  /**
+   * @see #preload(String...)
+   */
+  public static void preload(Collection<String> namespaces) {
+    Set<String> distinctNamespaces = Sets.newLinkedHashSet(namespaces);
+    if (distinctNamespaces.size() <= 1) {
+      return;
+    }
+
+    RemoteConfigLongPollService remoteConfigLongPollService = prefetch(distinctNamespaces);
+    final ConfigManager configManager = s_instance.getManager();
+    ExecutorService executorService = Executors.newFixedThreadPool(
+        Math.min(distinctNamespaces.size(), MAX_PRELOAD_THREADS), ApolloThreadFactory.create("ConfigPreload", true));
+
+    try {
+      List<Future<Config>> futures = Lists.newArrayListWithCapacity(distinctNamespaces.size());
+      for (final String namespace : distinctNamespaces) {
+        futures.add(executorService.submit(new Callable<Config>() {
+          @Override
+          public Config call() throws Exception {
+            return configManager.getConfig(namespace);
+          }
+        }));
+      }
+
+      for (Future<Config> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          logger.warn("Preload config failed", ex.getCause());
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executorService.shutdown();
+      if (remoteConfigLongPollService != null) {
+        remoteConfigLongPollService.clearPrefetchedConfigs();
+      }
+    }
+  }
+
+  /**
+   * @return the service holding the prefetched configs, or null if not prefetched
+   */
+  private static RemoteConfigLongPollService prefetch(Collection<String> namespaces) {
+    ConfigUtil configUtil = ApolloInjector.getInstance(ConfigUtil.class);
+    if (configUtil.isInLocalMode() || !configUtil.isConfigBatchLoadEnabled()) {
+      return null;
+    }
+
+    try {
+      RemoteConfigLongPollService remoteConfigLongPollService =
+          ApolloInjector.getInstance(RemoteConfigLongPollService.class);
+      return remoteConfigLongPollService.prefetch(namespaces) ? remoteConfigLongPollService : null;
+    } catch (Throwable ex) {
+      logger.warn("Prefetch configs failed, will load them one by one", ex);
+      return null;
+    }
+  }
+
   static void setConfig(Config config) {
     setConfig(ConfigConsts.NAMESPACE_APPLICATION, config);
   }
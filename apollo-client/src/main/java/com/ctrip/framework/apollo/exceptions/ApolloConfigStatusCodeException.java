@@ -5,18 +5,33 @@ package com.ctrip.framework.apollo.exceptions;
  */
 public class ApolloConfigStatusCodeException extends RuntimeException{
   private final int m_statusCode;
+  private final long m_retryAfterInSeconds;
 
   public ApolloConfigStatusCodeException(int statusCode, String message) {
+    this(statusCode, message, -1);
+  }
+
+  public ApolloConfigStatusCodeException(int statusCode, String message, long retryAfterInSeconds) {
     super(String.format("[status code: %d] %s", statusCode, message));
     this.m_statusCode = statusCode;
+    this.m_retryAfterInSeconds = retryAfterInSeconds;
   }
 
   public ApolloConfigStatusCodeException(int statusCode, Throwable cause) {
     super(cause);
     this.m_statusCode = statusCode;
+    this.m_retryAfterInSeconds = -1;
   }
 
   public int getStatusCode() {
     return m_statusCode;
   }
+
+  /**
+   * @return the seconds to wait before retrying told by the Retry-After header, e.g. with status code 429, or -1 if
+   * not told
+   */
+  public long getRetryAfterInSeconds() {
+    return m_retryAfterInSeconds;
+  }
 }
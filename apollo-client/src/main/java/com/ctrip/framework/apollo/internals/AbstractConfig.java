@@ -23,14 +23,21 @@ import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -39,35 +46,49 @@ import java.util.concurrent.atomic.AtomicLong;
 public abstract class AbstractConfig implements Config {
   private static final Logger logger = LoggerFactory.getLogger(AbstractConfig.class);
 
+  private static final int MAX_DISPATCH_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+  /**
+   * 等待派发的监听器数量上限，每个监听器最多只有一个任务在排队，超出时在触发配置变化的线程中派发
+   */
+  private static final int MAX_DISPATCH_QUEUE_SIZE = 10000;
   private static final ExecutorService m_executorService;
 
   private final List<ConfigChangeListener> m_listeners = Lists.newCopyOnWriteArrayList();
+  /**
+   * 在触发配置变化的线程中同步通知的监听器，先于 m_listeners 派发
+   */
+  private final List<ConfigChangeListener> m_synchronousListeners = Lists.newCopyOnWriteArrayList();
   private final Map<ConfigChangeListener, Set<String>> m_interestedKeys = Maps.newConcurrentMap();
   private final Map<ConfigChangeListener, Set<String>> m_interestedKeyPrefixes = Maps.newConcurrentMap();
+  private final ConcurrentMap<ConfigChangeListener, SerialListenerDispatcher> m_dispatchers = Maps.newConcurrentMap();
+  private volatile ConfigChangeListenerIndex m_listenerIndex = ConfigChangeListenerIndex.EMPTY;
   private final ConfigUtil m_configUtil;
-  private volatile Cache<String, Integer> m_integerCache;
-  private volatile Cache<String, Long> m_longCache;
-  private volatile Cache<String, Short> m_shortCache;
-  private volatile Cache<String, Float> m_floatCache;
-  private volatile Cache<String, Double> m_doubleCache;
-  private volatile Cache<String, Byte> m_byteCache;
-  private volatile Cache<String, Boolean> m_booleanCache;
-  private volatile Cache<String, Date> m_dateCache;
-  private volatile Cache<String, Long> m_durationCache;
-  private final Map<String, Cache<String, String[]>> m_arrayCache;
-  private final List<Cache> allCaches;
+  /**
+   * 类型转换后的值的缓存，key -> (parser -> value)，以 key 为单位淘汰和失效
+   */
+  private volatile Cache<String, ConcurrentMap<Function<String, ?>, Object>> m_valueCache;
+  private final ConcurrentMap<String, Function<String, String[]>> m_arrayParsers;
   private final AtomicLong m_configVersion; //indicate config version
 
   static {
-    m_executorService = Executors.newCachedThreadPool(ApolloThreadFactory
-        .create("Config", true));
+    ThreadPoolExecutor executorService = new ThreadPoolExecutor(MAX_DISPATCH_THREADS, MAX_DISPATCH_THREADS, 60L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_DISPATCH_QUEUE_SIZE),
+        ApolloThreadFactory.create("Config", true), new ThreadPoolExecutor.CallerRunsPolicy() {
+          @Override
+          public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            //the events of the same listener are still notified in order, as the dispatcher is scheduled only once
+            Tracer.logEvent("Apollo.Client.ConfigChangeDispatchRejected", String.valueOf(executor.getQueue().size()));
+            super.rejectedExecution(r, executor);
+          }
+        });
+    executorService.allowCoreThreadTimeOut(true);
+    m_executorService = executorService;
   }
 
   public AbstractConfig() {
     m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
     m_configVersion = new AtomicLong();
-    m_arrayCache = Maps.newConcurrentMap();
-    allCaches = Lists.newArrayList();
+    m_arrayParsers = Maps.newConcurrentMap();
   }
 
   @Override
@@ -82,36 +103,54 @@ public abstract class AbstractConfig implements Config {
 
   @Override
   public void addChangeListener(ConfigChangeListener listener, Set<String> interestedKeys, Set<String> interestedKeyPrefixes) {
-    if (!m_listeners.contains(listener)) {
-      m_listeners.add(listener);
-      if (interestedKeys != null && !interestedKeys.isEmpty()) {
-        m_interestedKeys.put(listener, Sets.newHashSet(interestedKeys));
-      }
-      if (interestedKeyPrefixes != null && !interestedKeyPrefixes.isEmpty()) {
-        m_interestedKeyPrefixes.put(listener, Sets.newHashSet(interestedKeyPrefixes));
+    synchronized (m_listeners) {
+      if (!m_listeners.contains(listener)) {
+        m_listeners.add(listener);
+        if (interestedKeys != null && !interestedKeys.isEmpty()) {
+          m_interestedKeys.put(listener, Sets.newHashSet(interestedKeys));
+        }
+        if (interestedKeyPrefixes != null && !interestedKeyPrefixes.isEmpty()) {
+          m_interestedKeyPrefixes.put(listener, Sets.newHashSet(interestedKeyPrefixes));
+        }
+        rebuildListenerIndex();
       }
     }
   }
 
   @Override
   public boolean removeChangeListener(ConfigChangeListener listener) {
-    m_interestedKeys.remove(listener);
-    m_interestedKeyPrefixes.remove(listener);
-    return m_listeners.remove(listener);
+    synchronized (m_listeners) {
+      m_interestedKeys.remove(listener);
+      m_interestedKeyPrefixes.remove(listener);
+      m_dispatchers.remove(listener);
+      boolean removed = m_listeners.remove(listener);
+      rebuildListenerIndex();
+      return removed;
+    }
+  }
+
+  /**
+   * Add the listener notified in the thread firing the config change, before the change listeners are dispatched, so
+   * that the state derived from the config, e.g. an index of the properties, is updated before other listeners read
+   * it. The listener must be fast and must not block the config update, it's not part of {@link
+   * com.ctrip.framework.apollo.Config} and is for the internal use of apollo.
+   *
+   * @param listener the listener
+   */
+  public void addSynchronousChangeListener(ConfigChangeListener listener) {
+    if (!m_synchronousListeners.contains(listener)) {
+      m_synchronousListeners.add(listener);
+    }
+  }
+
+  private void rebuildListenerIndex() {
+    m_listenerIndex = new ConfigChangeListenerIndex(m_listeners, m_interestedKeys, m_interestedKeyPrefixes);
   }
 
   @Override
   public Integer getIntProperty(String key, Integer defaultValue) {
     try {
-      if (m_integerCache == null) {
-        synchronized (this) {
-          if (m_integerCache == null) {
-            m_integerCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_INT_FUNCTION, m_integerCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_INT_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getIntProperty for %s failed, return default value %d", key,
@@ -123,15 +162,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Long getLongProperty(String key, Long defaultValue) {
     try {
-      if (m_longCache == null) {
-        synchronized (this) {
-          if (m_longCache == null) {
-            m_longCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_LONG_FUNCTION, m_longCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_LONG_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getLongProperty for %s failed, return default value %d", key,
@@ -143,15 +174,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Short getShortProperty(String key, Short defaultValue) {
     try {
-      if (m_shortCache == null) {
-        synchronized (this) {
-          if (m_shortCache == null) {
-            m_shortCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_SHORT_FUNCTION, m_shortCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_SHORT_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getShortProperty for %s failed, return default value %d", key,
@@ -163,15 +186,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Float getFloatProperty(String key, Float defaultValue) {
     try {
-      if (m_floatCache == null) {
-        synchronized (this) {
-          if (m_floatCache == null) {
-            m_floatCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_FLOAT_FUNCTION, m_floatCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_FLOAT_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getFloatProperty for %s failed, return default value %f", key,
@@ -183,15 +198,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Double getDoubleProperty(String key, Double defaultValue) {
     try {
-      if (m_doubleCache == null) {
-        synchronized (this) {
-          if (m_doubleCache == null) {
-            m_doubleCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_DOUBLE_FUNCTION, m_doubleCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_DOUBLE_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getDoubleProperty for %s failed, return default value %f", key,
@@ -203,15 +210,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Byte getByteProperty(String key, Byte defaultValue) {
     try {
-      if (m_byteCache == null) {
-        synchronized (this) {
-          if (m_byteCache == null) {
-            m_byteCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_BYTE_FUNCTION, m_byteCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_BYTE_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getByteProperty for %s failed, return default value %d", key,
@@ -223,15 +222,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Boolean getBooleanProperty(String key, Boolean defaultValue) {
     try {
-      if (m_booleanCache == null) {
-        synchronized (this) {
-          if (m_booleanCache == null) {
-            m_booleanCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_BOOLEAN_FUNCTION, m_booleanCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_BOOLEAN_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getBooleanProperty for %s failed, return default value %b", key,
@@ -241,29 +232,9 @@ public abstract class AbstractConfig implements Config {
   }
 
   @Override
-  public String[] getArrayProperty(String key, final String delimiter, String[] defaultValue) {
+  public String[] getArrayProperty(String key, String delimiter, String[] defaultValue) {
     try {
-      if (!m_arrayCache.containsKey(delimiter)) {
-        synchronized (this) {
-          if (!m_arrayCache.containsKey(delimiter)) {
-            m_arrayCache.put(delimiter, this.<String[]>newCache());
-          }
-        }
-      }
-
-      Cache<String, String[]> cache = m_arrayCache.get(delimiter);
-      String[] result = cache.getIfPresent(key);
-
-      if (result != null) {
-        return result;
-      }
-
-      return getValueAndStoreToCache(key, new Function<String, String[]>() {
-        @Override
-        public String[] apply(String input) {
-          return input.split(delimiter);
-        }
-      }, cache, defaultValue);
+      return getValueFromCache(key, getArrayParser(delimiter), defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getArrayProperty for %s failed, return default value", key), ex));
@@ -291,15 +262,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Date getDateProperty(String key, Date defaultValue) {
     try {
-      if (m_dateCache == null) {
-        synchronized (this) {
-          if (m_dateCache == null) {
-            m_dateCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_DATE_FUNCTION, m_dateCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_DATE_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getDateProperty for %s failed, return default value %s", key,
@@ -346,15 +309,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public long getDurationProperty(String key, long defaultValue) {
     try {
-      if (m_durationCache == null) {
-        synchronized (this) {
-          if (m_durationCache == null) {
-            m_durationCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_DURATION_FUNCTION, m_durationCache, defaultValue);
+      return getValueFromCache(key, Functions.TO_DURATION_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getDurationProperty for %s failed, return default value %d", key,
@@ -381,17 +336,28 @@ public abstract class AbstractConfig implements Config {
     return defaultValue;
   }
 
-  private <T> T getValueFromCache(String key, Function<String, T> parser, Cache<String, T> cache, T defaultValue) {
-    T result = cache.getIfPresent(key);
+  @SuppressWarnings("unchecked")
+  private <T> T getValueFromCache(String key, Function<String, T> parser, T defaultValue) {
+    if (!isValueCacheable(key)) {
+      String value = getProperty(key, null);
+      T result = value == null ? null : parser.apply(value);
+      return result == null ? defaultValue : result;
+    }
+
+    Map<Function<String, ?>, Object> values = getValueCache().getIfPresent(key);
+
+    if (values != null) {
+      T result = (T) values.get(parser);
 
-    if (result != null) {
-      return result;
+      if (result != null) {
+        return result;
+      }
     }
 
-    return getValueAndStoreToCache(key, parser, cache, defaultValue);
+    return getValueAndStoreToCache(key, parser, defaultValue);
   }
 
-  private <T> T getValueAndStoreToCache(String key, Function<String, T> parser, Cache<String, T> cache, T defaultValue) {
+  private <T> T getValueAndStoreToCache(String key, Function<String, T> parser, T defaultValue) {
     long currentConfigVersion = m_configVersion.get();
     String value = getProperty(key, null);
 
@@ -401,7 +367,12 @@ public abstract class AbstractConfig implements Config {
       if (result != null) {
         synchronized (this) {
           if (m_configVersion.get() == currentConfigVersion) {
-            cache.put(key, result);
+            ConcurrentMap<Function<String, ?>, Object> values = m_valueCache.getIfPresent(key);
+            if (values == null) {
+              values = Maps.newConcurrentMap();
+              m_valueCache.put(key, values);
+            }
+            values.put(parser, result);
           }
         }
         return result;
@@ -411,13 +382,47 @@ public abstract class AbstractConfig implements Config {
     return defaultValue;
   }
 
-  private <T> Cache<String, T> newCache() {
-    Cache<String, T> cache = CacheBuilder.newBuilder()
-        .maximumSize(m_configUtil.getMaxConfigCacheSize())
-        .expireAfterAccess(m_configUtil.getConfigCacheExpireTime(), m_configUtil.getConfigCacheExpireTimeUnit())
-        .build();
-    allCaches.add(cache);
-    return cache;
+  private Cache<String, ConcurrentMap<Function<String, ?>, Object>> getValueCache() {
+    if (m_valueCache == null) {
+      synchronized (this) {
+        if (m_valueCache == null) {
+          m_valueCache = CacheBuilder.newBuilder()
+              .maximumSize(m_configUtil.getMaxConfigCacheSize())
+              .expireAfterAccess(m_configUtil.getConfigCacheExpireTime(), m_configUtil.getConfigCacheExpireTimeUnit())
+              .build();
+        }
+      }
+    }
+    return m_valueCache;
+  }
+
+  /**
+   * Whether the typed value of the key could be cached until the key is changed via clearConfigCache
+   *
+   * @param key the property key
+   * @return false if the value of the key could change without going through clearConfigCache
+   */
+  protected boolean isValueCacheable(String key) {
+    return true;
+  }
+
+  private Function<String, String[]> getArrayParser(final String delimiter) {
+    Function<String, String[]> parser = m_arrayParsers.get(delimiter);
+
+    if (parser == null) {
+      parser = new Function<String, String[]>() {
+        @Override
+        public String[] apply(String input) {
+          return input.split(delimiter);
+        }
+      };
+      Function<String, String[]> existing = m_arrayParsers.putIfAbsent(delimiter, parser);
+      if (existing != null) {
+        parser = existing;
+      }
+    }
+
+    return parser;
   }
 
   /**
@@ -425,69 +430,123 @@ public abstract class AbstractConfig implements Config {
    */
   protected void clearConfigCache() {
     synchronized (this) {
-      for (Cache c : allCaches) {
-        if (c != null) {
-          c.invalidateAll();
-        }
+      if (m_valueCache != null) {
+        m_valueCache.invalidateAll();
       }
       m_configVersion.incrementAndGet();
     }
   }
 
-  protected void fireConfigChange(final ConfigChangeEvent changeEvent) {
-    for (final ConfigChangeListener listener : m_listeners) {
-      // check whether the listener is interested in this change event
-      if (!isConfigChangeListenerInterested(listener, changeEvent)) {
-        continue;
+  /**
+   * Clear config cache of the changed keys only
+   *
+   * @param changedKeys the keys whose values are changed
+   */
+  protected void clearConfigCache(Collection<String> changedKeys) {
+    synchronized (this) {
+      if (m_valueCache != null) {
+        m_valueCache.invalidateAll(changedKeys);
       }
-      m_executorService.submit(new Runnable() {
-        @Override
-        public void run() {
-          String listenerName = listener.getClass().getName();
-          Transaction transaction = Tracer.newTransaction("Apollo.ConfigChangeListener", listenerName);
-          try {
-            listener.onChange(changeEvent);
-            transaction.setStatus(Transaction.SUCCESS);
-          } catch (Throwable ex) {
-            transaction.setStatus(ex);
-            Tracer.logError(ex);
-            logger.error("Failed to invoke config change listener {}", listenerName, ex);
-          } finally {
-            transaction.complete();
-          }
-        }
-      });
+      m_configVersion.incrementAndGet();
     }
   }
 
-  private boolean isConfigChangeListenerInterested(ConfigChangeListener configChangeListener, ConfigChangeEvent configChangeEvent) {
-    Set<String> interestedKeys = m_interestedKeys.get(configChangeListener);
-    Set<String> interestedKeyPrefixes = m_interestedKeyPrefixes.get(configChangeListener);
+  protected void fireConfigChange(ConfigChangeEvent changeEvent) {
+    long fireTime = System.currentTimeMillis();
 
-    if ((interestedKeys == null || interestedKeys.isEmpty())
-        && (interestedKeyPrefixes == null || interestedKeyPrefixes.isEmpty())) {
-      return true; // no interested keys means interested in all keys
+    for (ConfigChangeListener listener : m_synchronousListeners) {
+      try {
+        listener.onChange(changeEvent);
+      } catch (Throwable ex) {
+        Tracer.logError(ex);
+        logger.error("Failed to invoke synchronous config change listener {}", listener.getClass().getName(), ex);
+      }
     }
 
-    if (interestedKeys != null) {
-      for (String interestedKey : interestedKeys) {
-        if (configChangeEvent.isChanged(interestedKey)) {
-          return true;
-        }
+    for (ConfigChangeListener listener : m_listenerIndex.getInterestedListeners(changeEvent.changedKeys())) {
+      getDispatcher(listener).dispatch(changeEvent, fireTime);
+    }
+  }
+
+  private SerialListenerDispatcher getDispatcher(ConfigChangeListener listener) {
+    SerialListenerDispatcher dispatcher = m_dispatchers.get(listener);
+
+    if (dispatcher == null) {
+      SerialListenerDispatcher newDispatcher = new SerialListenerDispatcher(listener);
+      dispatcher = m_dispatchers.putIfAbsent(listener, newDispatcher);
+      if (dispatcher == null) {
+        dispatcher = newDispatcher;
       }
     }
 
-    if (interestedKeyPrefixes != null) {
-      for (String prefix : interestedKeyPrefixes) {
-        for (final String changedKey : configChangeEvent.changedKeys()) {
-          if (changedKey.startsWith(prefix)) {
-            return true;
-          }
+    return dispatcher;
+  }
+
+  /**
+   * Notifies one listener in the shared executor, the change events of the same listener are notified one by one in
+   * the order they are fired.
+   */
+  private static class SerialListenerDispatcher implements Runnable {
+    private final ConfigChangeListener m_listener;
+    private final Queue<PendingChangeEvent> m_pendingEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean m_scheduled = new AtomicBoolean(false);
+
+    SerialListenerDispatcher(ConfigChangeListener listener) {
+      m_listener = listener;
+    }
+
+    void dispatch(ConfigChangeEvent changeEvent, long fireTime) {
+      m_pendingEvents.offer(new PendingChangeEvent(changeEvent, fireTime));
+      schedule();
+    }
+
+    private void schedule() {
+      if (m_scheduled.compareAndSet(false, true)) {
+        m_executorService.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        PendingChangeEvent pendingEvent;
+        while ((pendingEvent = m_pendingEvents.poll()) != null) {
+          notifyListener(pendingEvent);
+        }
+      } finally {
+        m_scheduled.set(false);
+        //events offered after the queue is drained but before the flag is reset
+        if (!m_pendingEvents.isEmpty()) {
+          schedule();
         }
       }
     }
 
-    return false;
+    private void notifyListener(PendingChangeEvent pendingEvent) {
+      String listenerName = m_listener.getClass().getName();
+      Transaction transaction = Tracer.newTransaction("Apollo.ConfigChangeListener", listenerName);
+      transaction.addData("dispatchLatency", System.currentTimeMillis() - pendingEvent.fireTime);
+      try {
+        m_listener.onChange(pendingEvent.changeEvent);
+        transaction.setStatus(Transaction.SUCCESS);
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        Tracer.logError(ex);
+        logger.error("Failed to invoke config change listener {}", listenerName, ex);
+      } finally {
+        transaction.complete();
+      }
+    }
+  }
+
+  private static class PendingChangeEvent {
+    private final ConfigChangeEvent changeEvent;
+    private final long fireTime;
+
+    PendingChangeEvent(ConfigChangeEvent changeEvent, long fireTime) {
+      this.changeEvent = changeEvent;
+      this.fireTime = fireTime;
+    }
   }
 
   List<ConfigChange> calcPropertyChanges(String namespace, Properties previous,
@@ -0,0 +1,125 @@
+package com.ctrip.framework.apollo.internals;
+
+import com.ctrip.framework.apollo.ConfigChangeListener;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * Immutable inverted index from property keys to the change listeners interested in them, so that finding the
+ * listeners of a change event doesn't need to check every listener's interested keys and prefixes. <br /> <br />
+ *
+ * Interested prefixes are indexed by prefix, and each changed key is only checked against the distinct prefix lengths.
+ */
+class ConfigChangeListenerIndex {
+  static final ConfigChangeListenerIndex EMPTY = new ConfigChangeListenerIndex(
+      Collections.<ConfigChangeListener>emptyList(), Collections.<ConfigChangeListener, Set<String>>emptyMap(),
+      Collections.<ConfigChangeListener, Set<String>>emptyMap());
+
+  /**
+   * listener -> registration order
+   */
+  private final Map<ConfigChangeListener, Integer> m_listenerOrders;
+  private final List<ConfigChangeListener> m_allKeysListeners;
+  private final Map<String, List<ConfigChangeListener>> m_keyListeners;
+  private final Map<String, List<ConfigChangeListener>> m_prefixListeners;
+  private final int[] m_prefixLengths;
+
+  /**
+   * @param listeners             the listeners in registration order
+   * @param interestedKeys        listener -> interested keys
+   * @param interestedKeyPrefixes listener -> interested key prefixes
+   */
+  ConfigChangeListenerIndex(List<ConfigChangeListener> listeners,
+      Map<ConfigChangeListener, Set<String>> interestedKeys,
+      Map<ConfigChangeListener, Set<String>> interestedKeyPrefixes) {
+    m_listenerOrders = Maps.newHashMapWithExpectedSize(listeners.size());
+    m_allKeysListeners = Lists.newArrayList();
+    m_keyListeners = Maps.newHashMap();
+    m_prefixListeners = Maps.newHashMap();
+    SortedSet<Integer> prefixLengths = Sets.newTreeSet();
+
+    for (ConfigChangeListener listener : listeners) {
+      m_listenerOrders.put(listener, m_listenerOrders.size());
+
+      Set<String> keys = interestedKeys.get(listener);
+      Set<String> prefixes = interestedKeyPrefixes.get(listener);
+
+      if ((keys == null || keys.isEmpty()) && (prefixes == null || prefixes.isEmpty())) {
+        // no interested keys means interested in all keys
+        m_allKeysListeners.add(listener);
+        continue;
+      }
+
+      if (keys != null) {
+        for (String key : keys) {
+          index(m_keyListeners, key, listener);
+        }
+      }
+
+      if (prefixes != null) {
+        for (String prefix : prefixes) {
+          index(m_prefixListeners, prefix, listener);
+          prefixLengths.add(prefix.length());
+        }
+      }
+    }
+
+    m_prefixLengths = Ints.toArray(prefixLengths);
+  }
+
+  /**
+   * @param changedKeys the changed keys
+   * @return the listeners interested in any of the changed keys, in registration order
+   */
+  List<ConfigChangeListener> getInterestedListeners(Collection<String> changedKeys) {
+    if (m_keyListeners.isEmpty() && m_prefixListeners.isEmpty()) {
+      return m_allKeysListeners;
+    }
+
+    Set<ConfigChangeListener> interestedListeners = Sets.newHashSet(m_allKeysListeners);
+
+    for (String changedKey : changedKeys) {
+      List<ConfigChangeListener> keyListeners = m_keyListeners.get(changedKey);
+      if (keyListeners != null) {
+        interestedListeners.addAll(keyListeners);
+      }
+
+      for (int prefixLength : m_prefixLengths) {
+        if (prefixLength > changedKey.length()) {
+          break;
+        }
+        List<ConfigChangeListener> prefixListeners = m_prefixListeners.get(changedKey.substring(0, prefixLength));
+        if (prefixListeners != null) {
+          interestedListeners.addAll(prefixListeners);
+        }
+      }
+    }
+
+    List<ConfigChangeListener> result = Lists.newArrayList(interestedListeners);
+    Collections.sort(result, new Comparator<ConfigChangeListener>() {
+      @Override
+      public int compare(ConfigChangeListener o1, ConfigChangeListener o2) {
+        return m_listenerOrders.get(o1).compareTo(m_listenerOrders.get(o2));
+      }
+    });
+    return result;
+  }
+
+  private void index(Map<String, List<ConfigChangeListener>> index, String key, ConfigChangeListener listener) {
+    List<ConfigChangeListener> listeners = index.get(key);
+    if (listeners == null) {
+      listeners = Lists.newArrayList();
+      index.put(key, listeners);
+    }
+    listeners.add(listener);
+  }
+}
@@ -3,10 +3,17 @@ package com.ctrip.framework.apollo.internals;
 import com.ctrip.framework.apollo.core.ServiceNameConsts;
 import com.ctrip.framework.foundation.Foundation;
 import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
@@ -25,8 +32,10 @@ import com.ctrip.framework.apollo.util.http.HttpResponse;
 import com.ctrip.framework.apollo.util.http.HttpUtil;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.escape.Escaper;
 import com.google.common.net.UrlEscapers;
 import com.google.gson.reflect.TypeToken;
@@ -40,6 +49,11 @@ public class ConfigServiceLocator {
   private ScheduledExecutorService m_executorService;
   private static final Joiner.MapJoiner MAP_JOINER = Joiner.on("&").withKeyValueSeparator("=");
   private static final Escaper queryParamEscaper = UrlEscapers.urlFormParameterEscaper();
+  /**
+   * config service homepage url -> stats of the requests to it
+   */
+  private final ConcurrentMap<String, ServiceStats> m_serviceStats = Maps.newConcurrentMap();
+  private Ticker m_ticker = Ticker.systemTicker();
 
   /**
    * Create a config service locator.
@@ -117,6 +131,99 @@ public class ConfigServiceLocator {
     return m_configServices.get();
   }
 
+  /**
+   * Get the config services in the order they should be tried. Each position is filled by the better of two random
+   * candidates (power of two choices) by the latency and error rate of the previous requests, so the load is spread
+   * while slow or failing config services are avoided. Ejected config services are put at last. <br /> <br />
+   *
+   * A config service without any request measured for a while is put first once to probe it, so a config service
+   * that lost once is tried again, instead of being avoided forever because of some slow requests long ago.
+   *
+   * @return the config services in preferred order
+   */
+  public List<ServiceDTO> getPreferredConfigServices() {
+    List<ServiceDTO> services = getConfigServices();
+    List<ServiceDTO> available = Lists.newArrayListWithCapacity(services.size());
+    List<ServiceDTO> ejected = Lists.newArrayList();
+    long now = m_ticker.read();
+    for (ServiceDTO service : services) {
+      ServiceStats stats = m_serviceStats.get(service.getHomepageUrl());
+      if (stats != null && stats.isEjected(now)) {
+        ejected.add(service);
+      } else {
+        available.add(service);
+      }
+    }
+
+    Random random = ThreadLocalRandom.current();
+    List<ServiceDTO> result = Lists.newLinkedList();
+    //at most one stale config service is probed each time
+    for (Iterator<ServiceDTO> iterator = available.iterator(); iterator.hasNext(); ) {
+      ServiceDTO service = iterator.next();
+      ServiceStats stats = m_serviceStats.get(service.getHomepageUrl());
+      if (stats != null && stats.tryProbe(now)) {
+        iterator.remove();
+        result.add(service);
+        break;
+      }
+    }
+    while (available.size() > 1) {
+      int i = random.nextInt(available.size());
+      int j = random.nextInt(available.size() - 1);
+      if (j >= i) {
+        j++;
+      }
+      result.add(available.remove(score(available.get(i)) <= score(available.get(j)) ? i : j));
+    }
+    result.addAll(available);
+    Collections.shuffle(ejected, random);
+    result.addAll(ejected);
+
+    return result;
+  }
+
+  /**
+   * Record a successful request to the config service
+   *
+   * @param service      the config service
+   * @param latencyNanos the latency of the request, or -1 if the latency is not meaningful, e.g. long polling
+   */
+  public void onServiceSucceeded(ServiceDTO service, long latencyNanos) {
+    getServiceStats(service).onSuccess(latencyNanos, m_ticker.read());
+  }
+
+  /**
+   * Record a failed request to the config service, which is ejected for a while after failing continuously
+   *
+   * @param service the config service
+   */
+  public void onServiceFailed(ServiceDTO service) {
+    ServiceStats stats = getServiceStats(service);
+    if (stats.onFailure(m_ticker.read())) {
+      logger.warn("Config service {} failed {} times in a row, will not prefer it in {} seconds",
+          service.getHomepageUrl(), ServiceStats.EJECTION_THRESHOLD,
+          TimeUnit.NANOSECONDS.toSeconds(ServiceStats.EJECTION_NANOS));
+      Tracer.logEvent("Apollo.Config.Services.Ejected", service.getHomepageUrl());
+    }
+  }
+
+  private double score(ServiceDTO service) {
+    ServiceStats stats = m_serviceStats.get(service.getHomepageUrl());
+    return stats == null ? 0 : stats.score();
+  }
+
+  private ServiceStats getServiceStats(ServiceDTO service) {
+    ServiceStats stats = m_serviceStats.get(service.getHomepageUrl());
+    if (stats == null) {
+      stats = new ServiceStats();
+      ServiceStats previous = m_serviceStats.putIfAbsent(service.getHomepageUrl(), stats);
+      if (previous != null) {
+        stats = previous;
+      }
+    }
+    return stats;
+  }
+
   private boolean tryUpdateConfigServices() {
     try {
       updateConfigServices();
@@ -181,9 +288,21 @@ public class ConfigServiceLocator {
 
   private void setConfigServices(List<ServiceDTO> services) {
     m_configServices.set(services);
+
+    //forget the config services no longer available
+    Set<String> homepageUrls = Sets.newHashSetWithExpectedSize(services.size());
+    for (ServiceDTO service : services) {
+      homepageUrls.add(service.getHomepageUrl());
+    }
+    m_serviceStats.keySet().retainAll(homepageUrls);
+
     logConfigServices(services);
   }
 
+  void setTicker(Ticker ticker) {
+    m_ticker = ticker;
+  }
+
   private String assembleMetaServiceUrl() {
     String domainName = m_configUtil.getMetaServerDomainName();
     String appId = m_configUtil.getAppId();
@@ -207,4 +326,116 @@ public class ConfigServiceLocator {
   private void logConfigService(String serviceUrl) {
     Tracer.logEvent("Apollo.Config.Services", serviceUrl);
   }
+
+  /**
+   * EWMA latency and error rate of the measured requests to a config service. The weight of the previous requests in
+   * the next sample halves every {@link #HALF_LIFE_NANOS}, so stale stats are mostly replaced by a new sample, while
+   * the score itself doesn't change until the config service is measured again, e.g. by a probe.
+   */
+  private static class ServiceStats {
+    private static final double DECAY = 0.3;
+    private static final long HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final double ERROR_PENALTY = 10;
+    private static final int EJECTION_THRESHOLD = 3;
+    private static final long EJECTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+    /**
+     * a failed request is counted as a request with this latency
+     */
+    private static final long FAILURE_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * -1 means no latency recorded yet
+     */
+    private double m_latencyNanos = -1;
+    private double m_errorRate;
+    private int m_consecutiveFailures;
+    private long m_ejectedUntilNanos;
+    private boolean m_ejected;
+    /**
+     * the time of the last measured request, i.e. a success with latency or a failure
+     */
+    private long m_lastSampledNanos;
+    /**
+     * the time of the last probe or measured request
+     */
+    private long m_lastProbedNanos;
+
+    /**
+     * @param latencyNanos the latency, or -1 if not measured, which doesn't change the latency and its age
+     */
+    synchronized void onSuccess(long latencyNanos, long now) {
+      if (latencyNanos >= 0) {
+        double retained = (1 - DECAY) * timeDecay(now);
+        recordLatency(latencyNanos, retained);
+        m_errorRate = retained * m_errorRate;
+        onSampled(now);
+      }
+      m_consecutiveFailures = 0;
+      m_ejected = false;
+    }
+
+    /**
+     * @return whether the config service is ejected by this failure
+     */
+    synchronized boolean onFailure(long now) {
+      double retained = (1 - DECAY) * timeDecay(now);
+      recordLatency(FAILURE_LATENCY_NANOS, retained);
+      m_errorRate = retained * m_errorRate + (1 - retained);
+      onSampled(now);
+      //after the ejection expires, one more failure ejects it again
+      if (++m_consecutiveFailures >= EJECTION_THRESHOLD) {
+        m_ejectedUntilNanos = now + EJECTION_NANOS;
+        m_ejected = true;
+        return m_consecutiveFailures == EJECTION_THRESHOLD;
+      }
+      return false;
+    }
+
+    private void onSampled(long now) {
+      m_lastSampledNanos = now;
+      m_lastProbedNanos = now;
+    }
+
+    /**
+     * @param retained the weight of the previous latency
+     */
+    private void recordLatency(long latencyNanos, double retained) {
+      m_latencyNanos = m_latencyNanos < 0 ? latencyNanos : retained * m_latencyNanos + (1 - retained) * latencyNanos;
+    }
+
+    /**
+     * @return the weight left of the stats last sampled, which halves every {@link #HALF_LIFE_NANOS}, so that a new
+     * sample mostly replaces the stale stats
+     */
+    private double timeDecay(long now) {
+      long elapsed = now - m_lastSampledNanos;
+      return elapsed <= 0 ? 1 : Math.pow(0.5, (double) elapsed / HALF_LIFE_NANOS);
+    }
+
+    synchronized boolean isEjected(long now) {
+      return m_ejected && now - m_ejectedUntilNanos < 0;
+    }
+
+    /**
+     * Claim the probe of the config service if it's not measured for {@link #PROBE_INTERVAL_NANOS}, at most one probe
+     * is claimed in each interval
+     *
+     * @return whether the config service should be probed
+     */
+    synchronized boolean tryProbe(long now) {
+      if (m_latencyNanos < 0 || now - m_lastProbedNanos < PROBE_INTERVAL_NANOS) {
+        return false;
+      }
+      m_lastProbedNanos = now;
+      return true;
+    }
+
+    /**
+     * The lower the better, config services without latency recorded are tried first
+     */
+    synchronized double score() {
+      return Math.max(m_latencyNanos, 0) * (1 + ERROR_PENALTY * m_errorRate);
+    }
+  }
 }
@@ -10,6 +10,7 @@ import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
@@ -21,6 +22,7 @@ import com.ctrip.framework.apollo.model.ConfigChange;
 import com.ctrip.framework.apollo.model.ConfigChangeEvent;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.ctrip.framework.apollo.util.ImmutableProperties;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.RateLimiter;
 
@@ -37,6 +39,12 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
   private final RateLimiter m_warnLogRateLimiter;
 
   private volatile ConfigSourceType m_sourceType = ConfigSourceType.NONE;
+  /**
+   * 合并了除系统属性外所有配置来源的只读快照，在配置变化时重建，使得 getProperty 只需一次无锁的查找。
+   * 系统属性可能在运行时被修改，所以不放入快照，每次查找时优先读取。
+   * 配置尚未加载，或者不是 ImmutableProperties 而可能在外部被修改时为 null ，此时逐层查找
+   */
+  private volatile Map<String, String> m_lookupSnapshot;
 
   /**
    * Constructor.
@@ -72,8 +80,32 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
     // step 1: check system properties, i.e. -Dkey=value
     String value = System.getProperty(key);
 
+    if (value == null) {
+      Map<String, String> lookupSnapshot = m_lookupSnapshot;
+      value = lookupSnapshot != null ? lookupSnapshot.get(key) : lookupProperty(key);
+    }
+
+    if (value == null && m_configProperties.get() == null && m_warnLogRateLimiter.tryAcquire()) {
+      logger.warn("Could not load config for namespace {} from Apollo, please check whether the configs are released in Apollo! Return default value now!", m_namespace);
+    }
+
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * System properties could be set or cleared at any time without a config change, so their typed values are parsed
+   * on every call instead of being cached
+   */
+  @Override
+  protected boolean isValueCacheable(String key) {
+    return System.getProperty(key) == null;
+  }
+
+  private String lookupProperty(String key) {
+    String value = null;
+
     // step 2: check local cached properties file
-    if (value == null && m_configProperties.get() != null) {
+    if (m_configProperties.get() != null) {
       value = m_configProperties.get().getProperty(key);
     }
 
@@ -91,11 +123,7 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
       value = (String) m_resourceProperties.get(key);
     }
 
-    if (value == null && m_configProperties.get() == null && m_warnLogRateLimiter.tryAcquire()) {
-      logger.warn("Could not load config for namespace {} from Apollo, please check whether the configs are released in Apollo! Return default value now!", m_namespace);
-    }
-
-    return value == null ? defaultValue : value;
+    return value;
   }
 
   @Override
@@ -133,8 +161,7 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
     }
 
     ConfigSourceType sourceType = m_configRepository.getSourceType();
-    Properties newConfigProperties = new Properties();
-    newConfigProperties.putAll(newProperties);
+    Properties newConfigProperties = ImmutableProperties.copyOf(newProperties);
 
     Map<String, ConfigChange> actualChanges = updateAndCalcConfigChanges(newConfigProperties, sourceType);
 
@@ -149,10 +176,70 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
   }
 
   private void updateConfig(Properties newConfigProperties, ConfigSourceType sourceType) {
+    m_lookupSnapshot = buildLookupSnapshot(newConfigProperties);
     m_configProperties.set(newConfigProperties);
     m_sourceType = sourceType;
   }
 
+  /**
+   * Merge the config sources below system properties into one map, the sources are looked up in the following order:
+   * <ol>
+   *   <li>local cached properties file</li>
+   *   <li>env variable, i.e. PATH=..., the caller should provide the key in the right case</li>
+   *   <li>properties file from classpath</li>
+   * </ol>
+   * System properties are not included since they could be changed at runtime, {@link #getProperty} always checks them
+   * first.
+   *
+   * @return the snapshot, or null if the config properties are absent or not immutable
+   */
+  private Map<String, String> buildLookupSnapshot(Properties configProperties) {
+    if (!(configProperties instanceof ImmutableProperties)) {
+      return null;
+    }
+
+    Map<String, String> snapshot = new HashMap<>();
+
+    //put the lowest priority source first so that it is overridden by the higher ones
+    putStringEntries(snapshot, m_resourceProperties);
+    snapshot.putAll(System.getenv());
+    putStringEntries(snapshot, configProperties);
+
+    return snapshot;
+  }
+
+  private void putStringEntries(Map<String, String> target, Properties source) {
+    if (source == null) {
+      return;
+    }
+    //Properties is a Hashtable, iterating it must hold its lock
+    synchronized (source) {
+      for (Map.Entry<Object, Object> entry : source.entrySet()) {
+        if (entry.getKey() instanceof String && entry.getValue() instanceof String) {
+          target.put((String) entry.getKey(), (String) entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the keys whose values are different in the two snapshots, including the added and deleted ones
+   */
+  private Set<String> diffKeys(Map<String, String> previous, Map<String, String> current) {
+    Set<String> changedKeys = new HashSet<>();
+    for (Map.Entry<String, String> entry : current.entrySet()) {
+      if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+        changedKeys.add(entry.getKey());
+      }
+    }
+    for (String previousKey : previous.keySet()) {
+      if (!current.containsKey(previousKey)) {
+        changedKeys.add(previousKey);
+      }
+    }
+    return changedKeys;
+  }
+
   private Map<String, ConfigChange> updateAndCalcConfigChanges(Properties newConfigProperties,
       ConfigSourceType sourceType) {
     List<ConfigChange> configChanges =
@@ -169,8 +256,14 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
     }
 
     //2. update m_configProperties
+    Map<String, String> previousLookupSnapshot = m_lookupSnapshot;
     updateConfig(newConfigProperties, sourceType);
-    clearConfigCache();
+    Map<String, String> currentLookupSnapshot = m_lookupSnapshot;
+    if (previousLookupSnapshot != null && currentLookupSnapshot != null) {
+      clearConfigCache(diffKeys(previousLookupSnapshot, currentLookupSnapshot));
+    } else {
+      clearConfigCache();
+    }
 
     //3. use getProperty to update configChange's new value and calc the final changes
     for (ConfigChange change : configChanges) {
@@ -1,66 +1,85 @@
 package com.ctrip.framework.apollo.internals;
 
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import com.ctrip.framework.apollo.Config;
 import com.ctrip.framework.apollo.ConfigFile;
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
 import com.ctrip.framework.apollo.spi.ConfigFactory;
 import com.ctrip.framework.apollo.spi.ConfigFactoryManager;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 
 /**
+ * Each namespace is created at most once. Creation of different namespaces could run concurrently, only the callers of
+ * the same namespace wait for the one that is creating it.
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
 public class DefaultConfigManager implements ConfigManager {
   private ConfigFactoryManager m_factoryManager;
 
-  private Map<String, Config> m_configs = Maps.newConcurrentMap();
-  private Map<String, ConfigFile> m_configFiles = Maps.newConcurrentMap();
+  private ConcurrentMap<String, FutureTask<Config>> m_configs = Maps.newConcurrentMap();
+  private ConcurrentMap<String, FutureTask<ConfigFile>> m_configFiles = Maps.newConcurrentMap();
 
   public DefaultConfigManager() {
     m_factoryManager = ApolloInjector.getInstance(ConfigFactoryManager.class);
   }
 
   @Override
-  public Config getConfig(String namespace) {
-    Config config = m_configs.get(namespace);
+  public Config getConfig(final String namespace) {
+    return getOrCreate(m_configs, namespace, new Callable<Config>() {
+      @Override
+      public Config call() throws Exception {
+        ConfigFactory factory = m_factoryManager.getFactory(namespace);
 
-    if (config == null) {
-      synchronized (this) {
-        config = m_configs.get(namespace);
-
-        if (config == null) {
-          ConfigFactory factory = m_factoryManager.getFactory(namespace);
-
-          config = factory.create(namespace);
-          m_configs.put(namespace, config);
-        }
+        return factory.create(namespace);
       }
-    }
-
-    return config;
+    });
   }
 
   @Override
-  public ConfigFile getConfigFile(String namespace, ConfigFileFormat configFileFormat) {
-    String namespaceFileName = String.format("%s.%s", namespace, configFileFormat.getValue());
-    ConfigFile configFile = m_configFiles.get(namespaceFileName);
+  public ConfigFile getConfigFile(String namespace, final ConfigFileFormat configFileFormat) {
+    final String namespaceFileName = String.format("%s.%s", namespace, configFileFormat.getValue());
 
-    if (configFile == null) {
-      synchronized (this) {
-        configFile = m_configFiles.get(namespaceFileName);
+    return getOrCreate(m_configFiles, namespaceFileName, new Callable<ConfigFile>() {
+      @Override
+      public ConfigFile call() throws Exception {
+        ConfigFactory factory = m_factoryManager.getFactory(namespaceFileName);
 
-        if (configFile == null) {
-          ConfigFactory factory = m_factoryManager.getFactory(namespaceFileName);
+        return factory.createConfigFile(namespaceFileName, configFileFormat);
+      }
+    });
+  }
+
+  private <T> T getOrCreate(ConcurrentMap<String, FutureTask<T>> cache, String key, Callable<T> creator) {
+    FutureTask<T> task = cache.get(key);
 
-          configFile = factory.createConfigFile(namespaceFileName, configFileFormat);
-          m_configFiles.put(namespaceFileName, configFile);
-        }
+    if (task == null) {
+      FutureTask<T> newTask = new FutureTask<>(creator);
+      task = cache.putIfAbsent(key, newTask);
+
+      if (task == null) {
+        task = newTask;
+        //create in the caller thread, so the callers of other namespaces won't be blocked
+        newTask.run();
       }
     }
 
-    return configFile;
+    try {
+      return task.get();
+    } catch (ExecutionException ex) {
+      //remove the failed one so that it could be created again next time
+      cache.remove(key, task);
+      throw Throwables.propagate(ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ApolloConfigException(String.format("Interrupted while creating %s", key), ex);
+    }
   }
 }
@@ -65,6 +65,8 @@ public class DefaultInjector implements Injector {
       bind(HttpUtil.class).in(Singleton.class);
       bind(ConfigServiceLocator.class).in(Singleton.class);
       bind(RemoteConfigLongPollService.class).in(Singleton.class);
+      bind(RemoteConfigRefreshService.class).in(Singleton.class);
+      bind(LocalSnapshotStore.class).in(Singleton.class);
       bind(YamlParser.class).in(Singleton.class);
     }
   }
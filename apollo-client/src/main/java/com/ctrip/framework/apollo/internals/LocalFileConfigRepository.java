@@ -6,25 +6,36 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.core.utils.ClassLoaderUtil;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 import com.ctrip.framework.apollo.util.ConfigUtil;
 import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.ctrip.framework.apollo.util.ImmutableProperties;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -33,6 +44,26 @@ public class LocalFileConfigRepository extends AbstractConfigRepository
     implements RepositoryChangeListener {
   private static final Logger logger = LoggerFactory.getLogger(LocalFileConfigRepository.class);
   private static final String CONFIG_DIR = "/config-cache";
+  private static final ExecutorService m_persistService = Executors.newSingleThreadExecutor(
+      ApolloThreadFactory.create("LocalFileConfigRepository", true));
+  /**
+   * 尚未写入的本地缓存文件 -> 待写入的配置，同一个文件在写入期间的多次更新只写入最后一次
+   */
+  private static final ConcurrentMap<File, Properties> m_pendingPersistence = Maps.newConcurrentMap();
+  /**
+   * 进程退出时等待尚未写入的本地缓存文件的最长时间
+   */
+  private static final long SHUTDOWN_PERSIST_TIMEOUT_IN_SECONDS = 5;
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drainPendingPersistence();
+      }
+    }, "LocalFileConfigRepository-shutdown"));
+  }
+
   private final String m_namespace;
   private File m_baseDir;
   private final ConfigUtil m_configUtil;
@@ -88,9 +119,7 @@ public class LocalFileConfigRepository extends AbstractConfigRepository
     if (m_fileProperties == null) {
       sync();
     }
-    Properties result = new Properties();
-    result.putAll(m_fileProperties);
-    return result;
+    return m_fileProperties;
   }
 
   @Override
@@ -117,9 +146,7 @@ public class LocalFileConfigRepository extends AbstractConfigRepository
     if (newProperties.equals(m_fileProperties)) {
       return;
     }
-    Properties newFileProperties = new Properties();
-    newFileProperties.putAll(newProperties);
-    updateFileProperties(newFileProperties, m_upstream.getSourceType());
+    updateFileProperties(newProperties, m_upstream.getSourceType());
     this.fireRepositoryChange(namespace, newProperties);
   }
 
@@ -136,7 +163,7 @@ public class LocalFileConfigRepository extends AbstractConfigRepository
     Throwable exception = null;
     try {
       transaction.addData("Basedir", m_baseDir.getAbsolutePath());
-      m_fileProperties = this.loadFromLocalCacheFile(m_baseDir, m_namespace);
+      m_fileProperties = ImmutableProperties.copyOf(this.loadFromLocalCacheFile(m_baseDir, m_namespace));
       m_sourceType = ConfigSourceType.LOCAL;
       transaction.setStatus(Transaction.SUCCESS);
     } catch (Throwable ex) {
@@ -176,15 +203,20 @@ public class LocalFileConfigRepository extends AbstractConfigRepository
     if (newProperties.equals(m_fileProperties)) {
       return;
     }
-    this.m_fileProperties = newProperties;
-    persistLocalCacheFile(m_baseDir, m_namespace);
+    this.m_fileProperties = ImmutableProperties.copyOf(newProperties);
+    schedulePersistLocalCacheFile(m_baseDir, m_namespace);
   }
 
   private Properties loadFromLocalCacheFile(File baseDir, String namespace) throws IOException {
     Preconditions.checkNotNull(baseDir, "Basedir cannot be null");
 
     File file = assembleLocalCacheFile(baseDir, namespace);
-    Properties properties = null;
+    Properties properties = m_pendingPersistence.get(file);
+
+    if (properties != null) {
+      //not persisted yet
+      return properties;
+    }
 
     if (file.isFile() && file.canRead()) {
       InputStream in = null;
@@ -216,19 +248,99 @@ public class LocalFileConfigRepository extends AbstractConfigRepository
     return properties;
   }
 
-  void persistLocalCacheFile(File baseDir, String namespace) {
+  /**
+   * Persist the local cache file in the background, so that slow disks won't block the config updates
+   */
+  void schedulePersistLocalCacheFile(File baseDir, String namespace) {
     if (baseDir == null) {
       return;
     }
-    File file = assembleLocalCacheFile(baseDir, namespace);
+    final File file = assembleLocalCacheFile(baseDir, namespace);
+
+    //the file is already scheduled, the latest properties will be persisted
+    if (m_pendingPersistence.put(file, m_fileProperties) != null) {
+      return;
+    }
+
+    schedulePersistence(new Runnable() {
+      @Override
+      public void run() {
+        persistPendingLocalCacheFile(file);
+      }
+    });
+  }
+
+  /**
+   * Run the task on the persistence thread, after the local cache files scheduled before
+   */
+  static void schedulePersistence(Runnable task) {
+    try {
+      m_persistService.execute(task);
+    } catch (RejectedExecutionException ex) {
+      //shutting down, persist in the caller thread
+      task.run();
+    }
+  }
+
+  /**
+   * Persist the pending local cache files before the process exits, the persistence thread is a daemon thread which
+   * would be killed otherwise
+   */
+  private static void drainPendingPersistence() {
+    m_persistService.shutdown();
+    try {
+      if (!m_persistService.awaitTermination(SHUTDOWN_PERSIST_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+        logger.warn("Local cache files not persisted in {} seconds before shutdown: {}",
+            SHUTDOWN_PERSIST_TIMEOUT_IN_SECONDS, m_pendingPersistence.keySet());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
 
-    OutputStream out = null;
+  static boolean hasPendingPersistence() {
+    return !m_pendingPersistence.isEmpty();
+  }
+
+  private void persistPendingLocalCacheFile(File file) {
+    Properties properties;
+    do {
+      properties = m_pendingPersistence.get(file);
+      if (properties == null) {
+        return;
+      }
+      persistLocalCacheFile(file, properties);
+      //the properties might be updated again while persisting
+    } while (!m_pendingPersistence.remove(file, properties));
+  }
+
+  /**
+   * Write to a temp file and then rename it to the local cache file, so the local cache file is either the previous
+   * one or the new one even if the process crashes while writing
+   */
+  void persistLocalCacheFile(File file, Properties properties) {
+    File tempFile = null;
+    FileOutputStream out = null;
 
     Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "persistLocalConfigFile");
     transaction.addData("LocalConfigFile", file.getAbsolutePath());
     try {
-      out = new FileOutputStream(file);
-      m_fileProperties.store(out, "Persisted by DefaultConfig");
+      tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      out = new FileOutputStream(tempFile);
+      properties.store(out, "Persisted by DefaultConfig");
+      out.flush();
+      if (m_configUtil.isLocalCacheFileFsyncEnabled()) {
+        out.getFD().sync();
+      }
+      out.close();
+      out = null;
+
+      moveLocalCacheFile(tempFile, file);
+      tempFile = null;
+      if (m_configUtil.isLocalCacheFileFsyncEnabled()) {
+        //the rename is only durable after the directory is synced
+        syncDirectory(file.getParentFile());
+      }
       transaction.setStatus(Transaction.SUCCESS);
     } catch (IOException ex) {
       ApolloConfigException exception =
@@ -246,10 +358,32 @@ public class LocalFileConfigRepository extends AbstractConfigRepository
           //ignore
         }
       }
+      if (tempFile != null) {
+        tempFile.delete();
+      }
       transaction.complete();
     }
   }
 
+  private void moveLocalCacheFile(File source, File target) throws IOException {
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private void syncDirectory(File dir) {
+    try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException ex) {
+      //directories can't be opened on some platforms, e.g. windows
+      logger.debug("Sync local cache dir {} failed, reason: {}.", dir.getAbsolutePath(),
+          ExceptionUtil.getDetailMessage(ex));
+    }
+  }
+
   private void checkLocalConfigCacheDir(File baseDir) {
     if (baseDir.exists()) {
       return;
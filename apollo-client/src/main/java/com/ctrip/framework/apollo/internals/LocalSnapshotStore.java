@@ -0,0 +1,231 @@
+package com.ctrip.framework.apollo.internals;
+
+import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 本机共享的配置快照，同一台机器上的同一个应用的多个进程共享 <br /> <br />
+ *
+ * Each namespace is stored in a file stamped with the release key, so a process starting up could
+ * read the configs released to its siblings and query the config service with that release key, which returns 304
+ * if nothing changed since. <br /> <br />
+ *
+ * Format: magic, format version, app id, cluster, namespace, release key, entry count and the entries, each string
+ * is written as its length in bytes followed by the UTF-8 bytes.
+ */
+public class LocalSnapshotStore {
+  private static final Logger logger = LoggerFactory.getLogger(LocalSnapshotStore.class);
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final String SNAPSHOT_DIR = "config-cache";
+  private static final int MAGIC = 0x41504c53;
+  private static final int FORMAT_VERSION = 1;
+
+  private final ConfigUtil m_configUtil;
+
+  public LocalSnapshotStore() {
+    m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
+  }
+
+  /**
+   * Load the snapshot of the namespace
+   *
+   * @param namespace the namespace
+   * @return the snapshot with configurations, or null if there is no valid snapshot
+   */
+  public ApolloConfig load(String namespace) {
+    File file = assembleSnapshotFile(namespace);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "loadLocalSnapshot");
+    transaction.addData("LocalSnapshot", file.getAbsolutePath());
+    try {
+      ByteBuffer buffer = read(file);
+      ApolloConfig snapshot = readHeader(buffer);
+      if (snapshot == null || !namespace.equals(snapshot.getNamespaceName())) {
+        transaction.setStatus(Transaction.SUCCESS);
+        return null;
+      }
+
+      int size = buffer.getInt();
+      Map<String, String> configurations = Maps.newHashMapWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        configurations.put(readString(buffer), readString(buffer));
+      }
+      snapshot.setConfigurations(configurations);
+
+      transaction.setStatus(Transaction.SUCCESS);
+      return snapshot;
+    } catch (IOException | RuntimeException ex) {
+      Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
+      transaction.setStatus(ex);
+      logger.warn("Load local snapshot {} failed, reason: {}.", file.getAbsolutePath(),
+          ExceptionUtil.getDetailMessage(ex));
+      return null;
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  /**
+   * Save the snapshot, skipped if the snapshot of the same release is already saved, e.g. by another process
+   *
+   * @param config         the config released
+   * @param configurations the configurations of the release
+   */
+  public void save(ApolloConfig config, Map<?, ?> configurations) {
+    File file = assembleSnapshotFile(config.getNamespaceName());
+    if (isSaved(file, config.getReleaseKey())) {
+      return;
+    }
+
+    File tempFile = null;
+    FileOutputStream out = null;
+
+    Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "persistLocalSnapshot");
+    transaction.addData("LocalSnapshot", file.getAbsolutePath());
+    try {
+      File baseDir = file.getParentFile();
+      if (!baseDir.exists()) {
+        Files.createDirectories(baseDir.toPath());
+      }
+
+      tempFile = File.createTempFile(file.getName(), ".tmp", baseDir);
+      out = new FileOutputStream(tempFile);
+      out.write(serialize(config, configurations));
+      out.flush();
+      if (m_configUtil.isLocalCacheFileFsyncEnabled()) {
+        out.getFD().sync();
+      }
+      out.close();
+      out = null;
+
+      try {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tempFile = null;
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (IOException ex) {
+      ApolloConfigException exception =
+          new ApolloConfigException(
+              String.format("Persist local snapshot %s failed", file.getAbsolutePath()), ex);
+      Tracer.logError(exception);
+      transaction.setStatus(exception);
+      logger.warn("Persist local snapshot {} failed, reason: {}.", file.getAbsolutePath(),
+          ExceptionUtil.getDetailMessage(ex));
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException ex) {
+          //ignore
+        }
+      }
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+      transaction.complete();
+    }
+  }
+
+  File assembleSnapshotFile(String namespace) {
+    String fileName = String.format("%s.snapshot",
+        STRING_JOINER.join(m_configUtil.getAppId(), m_configUtil.getCluster(), namespace));
+    return new File(new File(m_configUtil.getDefaultLocalCacheDir(), SNAPSHOT_DIR), fileName);
+  }
+
+  private boolean isSaved(File file, String releaseKey) {
+    if (!file.isFile()) {
+      return false;
+    }
+    try {
+      ApolloConfig snapshot = readHeader(read(file));
+      return snapshot != null && Objects.equal(releaseKey, snapshot.getReleaseKey());
+    } catch (IOException | RuntimeException ex) {
+      return false;
+    }
+  }
+
+  private ByteBuffer read(File file) throws IOException {
+    //read into the heap instead of mapping, a mapped file can't be replaced on windows until the mapping is gc-ed
+    return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+  }
+
+  /**
+   * @return the snapshot without configurations, or null if the format is not recognized
+   */
+  private ApolloConfig readHeader(ByteBuffer buffer) {
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        return null;
+      }
+      String appId = readString(buffer);
+      String cluster = readString(buffer);
+      String namespaceName = readString(buffer);
+      String releaseKey = readString(buffer);
+      return new ApolloConfig(appId, cluster, namespaceName, releaseKey);
+    } catch (BufferUnderflowException ex) {
+      return null;
+    }
+  }
+
+  private String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    ByteBuffer bytes = buffer.slice();
+    bytes.limit(length);
+    buffer.position(buffer.position() + length);
+    return Charsets.UTF_8.decode(bytes).toString();
+  }
+
+  private byte[] serialize(ApolloConfig config, Map<?, ?> configurations) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    writeString(out, config.getAppId());
+    writeString(out, config.getCluster());
+    writeString(out, config.getNamespaceName());
+    writeString(out, config.getReleaseKey());
+    out.writeInt(configurations.size());
+    for (Map.Entry<?, ?> entry : configurations.entrySet()) {
+      writeString(out, String.valueOf(entry.getKey()));
+      writeString(out, String.valueOf(entry.getValue()));
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = Strings.nullToEmpty(value).getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
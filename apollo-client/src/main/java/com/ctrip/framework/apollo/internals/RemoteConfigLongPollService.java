@@ -2,16 +2,19 @@ package com.ctrip.framework.apollo.internals;
 
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigQuery;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
-import com.ctrip.framework.apollo.core.schedule.ExponentialSchedulePolicy;
+import com.ctrip.framework.apollo.core.schedule.DecorrelatedJitterSchedulePolicy;
 import com.ctrip.framework.apollo.core.schedule.SchedulePolicy;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.core.utils.StringUtils;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 import com.ctrip.framework.apollo.util.ConfigUtil;
@@ -19,6 +22,7 @@ import com.ctrip.framework.apollo.util.ExceptionUtil;
 import com.ctrip.framework.apollo.util.http.HttpRequest;
 import com.ctrip.framework.apollo.util.http.HttpResponse;
 import com.ctrip.framework.apollo.util.http.HttpUtil;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
@@ -31,7 +35,10 @@ import com.google.common.net.UrlEscapers;
 import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.gson.Gson;
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -60,26 +67,54 @@ public class RemoteConfigLongPollService {
   private static final long INIT_NOTIFICATION_ID = ConfigConsts.NOTIFICATION_ID_PLACEHOLDER;
   //90 seconds, should be longer than server side's long polling timeout, which is now 60 seconds
   private static final int LONG_POLLING_READ_TIMEOUT = 90 * 1000;
+  //90 seconds, should be longer than server side's stream heartbeat interval, which is now 30 seconds
+  private static final int NOTIFICATION_STREAM_READ_TIMEOUT = 90 * 1000;
+  private static final String NOTIFICATIONS_EVENT = "notifications";
+  /**
+   * the max length of the escaped namespaces parameter of a batch query, so that the request line is well within the
+   * header size limit of the servers, e.g. 8KB of tomcat
+   */
+  static final int MAX_BATCH_QUERY_NAMESPACES_LENGTH = 4096;
   /**
    * 长轮询 ExecutorService
    */
   private final ExecutorService m_longPollingService;
+  /**
+   * 批量加载配置 ExecutorService
+   */
+  private final ExecutorService m_configBatchLoadService;
   /**
    * 是否停止长轮询的标识
    */
   private final AtomicBoolean m_longPollingStopped;
   /**
-   * 失败定时重试策略，使用 {@link ExponentialSchedulePolicy}
+   * 失败定时重试策略，使用 {@link DecorrelatedJitterSchedulePolicy} ，避免 Config Service 宕机时所有客户端同时重连
    */
-  private SchedulePolicy m_longPollFailSchedulePolicyInSecond;
+  private SchedulePolicy m_longPollFailSchedulePolicyInMilli;
   /**
    * 长轮询的 RateLimiter
    */
   private RateLimiter m_longPollRateLimiter;
+  /**
+   * 失败后重连的令牌桶，避免连接成功后立即失败时以最小退避时间反复重连
+   */
+  private RateLimiter m_longPollReconnectRateLimiter;
   /**
    * 是否长轮询已经开始的标识
    */
   private final AtomicBoolean m_longPollStarted;
+  /**
+   * Config Service 是否不支持流式通知，若不支持，回退到长轮询
+   */
+  private volatile boolean m_notificationStreamUnsupported;
+  /**
+   * 是否有新的 Namespace 加入，需要重新建立流式通知连接
+   */
+  private final AtomicBoolean m_notificationStreamResetRequired;
+  /**
+   * Config Service 是否不支持批量查询配置，若不支持，回退到逐个 Namespace 查询
+   */
+  private volatile boolean m_configBatchLoadUnsupported;
   /**
    * 长轮询的 Namespace Multimap 缓存
    *
@@ -103,7 +138,15 @@ public class RemoteConfigLongPollService {
    * VALUE：ApolloNotificationMessages 对象
    */
   private final Map<String, ApolloNotificationMessages> m_remoteNotificationMessages;//namespaceName -> watchedKey -> notificationId
+  /**
+   * 预取的配置 Map 缓存，由新建的 RemoteConfigRepository 取走，见 {@link #prefetch(Collection)}
+   *
+   * KEY：Namespace 的名字
+   * VALUE：ApolloConfig 对象
+   */
+  private final ConcurrentMap<String, ApolloConfig> m_prefetchedConfigs;
   private Type m_responseType;
+  private Type m_configsResponseType;
   private Gson gson;
   private ConfigUtil m_configUtil;
   private HttpUtil m_httpUtil;
@@ -113,22 +156,29 @@ public class RemoteConfigLongPollService {
    * Constructor.
    */
   public RemoteConfigLongPollService() {
-    m_longPollFailSchedulePolicyInSecond = new ExponentialSchedulePolicy(1, 120); //in second
+    m_longPollFailSchedulePolicyInMilli = new DecorrelatedJitterSchedulePolicy(1000, 120000); //in millisecond
     m_longPollingStopped = new AtomicBoolean(false);
     m_longPollingService = Executors.newSingleThreadExecutor(
         ApolloThreadFactory.create("RemoteConfigLongPollService", true));
+    m_configBatchLoadService = Executors.newSingleThreadExecutor(
+        ApolloThreadFactory.create("RemoteConfigBatchLoad", true));
     m_longPollStarted = new AtomicBoolean(false);
+    m_notificationStreamResetRequired = new AtomicBoolean(false);
     m_longPollNamespaces =
         Multimaps.synchronizedSetMultimap(HashMultimap.<String, RemoteConfigRepository>create());
     m_notifications = Maps.newConcurrentMap();
     m_remoteNotificationMessages = Maps.newConcurrentMap();
+    m_prefetchedConfigs = Maps.newConcurrentMap();
     m_responseType = new TypeToken<List<ApolloConfigNotification>>() {
     }.getType();
+    m_configsResponseType = new TypeToken<List<ApolloConfig>>() {
+    }.getType();
     gson = new Gson();
     m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
     m_httpUtil = ApolloInjector.getInstance(HttpUtil.class);
     m_serviceLocator = ApolloInjector.getInstance(ConfigServiceLocator.class);
     m_longPollRateLimiter = RateLimiter.create(m_configUtil.getLongPollQPS());
+    m_longPollReconnectRateLimiter = RateLimiter.create(m_configUtil.getLongPollReconnectsPerMinute() / 60.0);
   }
 
   /**
@@ -142,7 +192,11 @@ public class RemoteConfigLongPollService {
     // 添加到 m_longPollNamespaces 中。一个Namespace对应一个RemoteConfigRepository
     boolean added = m_longPollNamespaces.put(namespace, remoteConfigRepository);
     // 添加到 m_notifications 中。 长轮询需要查询配置的Namespace
-    m_notifications.putIfAbsent(namespace, INIT_NOTIFICATION_ID);  //如果存在则不添加，不存在则添加元素
+    //如果存在则不添加，不存在则添加元素
+    if (m_notifications.putIfAbsent(namespace, INIT_NOTIFICATION_ID) == null) {
+      // 新的 Namespace 需要重新建立流式通知连接才能被监听
+      m_notificationStreamResetRequired.set(true);
+    }
     // 若未启动长轮询定时任务，进行启动
     if (!m_longPollStarted.get()) {
       startLongPolling();
@@ -211,6 +265,11 @@ public class RemoteConfigLongPollService {
         } catch (InterruptedException e) {
         }
       }
+      // 流式通知
+      if (m_configUtil.isNotificationStreamEnabled() && !m_notificationStreamUnsupported) {
+        lastServiceDto = doStreamNotification(random, lastServiceDto, appId, cluster, dataCenter, secret);
+        continue;
+      }
       // 【TODO 6001】Tracer 日志
       Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "pollNotification");
       String url = null;
@@ -218,8 +277,7 @@ public class RemoteConfigLongPollService {
         // 获得 Config Service 的地址
         if (lastServiceDto == null) {
           // 获得所有的 Config Service 的地址
-          List<ServiceDTO> configServices = getConfigServices();
-          lastServiceDto = configServices.get(random.nextInt(configServices.size()));
+          lastServiceDto = getConfigServices().get(0);
         }
 
         // 组装长轮询通知变更的地址
@@ -256,6 +314,7 @@ public class RemoteConfigLongPollService {
           // 通知对应的 RemoteConfigRepository 们
           notify(lastServiceDto, response.getBody());
         }
+        m_serviceLocator.onServiceSucceeded(lastServiceDto, -1);
 
         // 无新的通知，重置连接的 Config Service 的地址，下次请求不同的 Config Service ，实现负载均衡。
         // try to load balance
@@ -265,33 +324,193 @@ public class RemoteConfigLongPollService {
         }
 
         // 标记成功
-        m_longPollFailSchedulePolicyInSecond.success();
+        m_longPollFailSchedulePolicyInMilli.success();
         // 【TODO 6001】Tracer 日志
         transaction.addData("StatusCode", response.getStatusCode());
         transaction.setStatus(Transaction.SUCCESS);
       } catch (Throwable ex) {
+        if (lastServiceDto != null) {
+          m_serviceLocator.onServiceFailed(lastServiceDto);
+        }
         // 重置连接的 Config Service 的地址，下次请求不同的 Config Service
         lastServiceDto = null;
         // 【TODO 6001】Tracer 日志
         Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
         transaction.setStatus(ex);
         // 标记失败，计算下一次延迟执行时间
-        long sleepTimeInSecond = m_longPollFailSchedulePolicyInSecond.fail();
+        long sleepTimeInMilli = computeFailDelayInMilli(ex);
         logger.warn(
-            "Long polling failed, will retry in {} seconds. appId: {}, cluster: {}, namespaces: {}, long polling url: {}, reason: {}",
-            sleepTimeInSecond, appId, cluster, assembleNamespaces(), url, ExceptionUtil.getDetailMessage(ex));
+            "Long polling failed, will retry in {} ms. appId: {}, cluster: {}, namespaces: {}, long polling url: {}, reason: {}",
+            sleepTimeInMilli, appId, cluster, assembleNamespaces(), url, ExceptionUtil.getDetailMessage(ex));
         // 等待一定时间，下次失败重试
-        try {
-          TimeUnit.SECONDS.sleep(sleepTimeInSecond);
-        } catch (InterruptedException ie) {
-          //ignore
-        }
+        sleepBeforeReconnect(sleepTimeInMilli);
       } finally {
         transaction.complete();
       }
     }
   }
 
+  /**
+   * Receive notifications via the streaming endpoint until the stream ends
+   *
+   * @return the config service to connect next time, null to choose a new one
+   */
+  private ServiceDTO doStreamNotification(Random random, ServiceDTO lastServiceDto, String appId, String cluster,
+                                          String dataCenter, String secret) {
+    Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "streamNotification");
+    String url = null;
+    try {
+      if (lastServiceDto == null) {
+        lastServiceDto = getConfigServices().get(0);
+      }
+      final ServiceDTO serviceDto = lastServiceDto;
+
+      // the namespaces submitted so far will be included in the url below
+      m_notificationStreamResetRequired.set(false);
+      url = assembleNotificationStreamUrl(serviceDto.getHomepageUrl(), appId, cluster, dataCenter, m_notifications);
+
+      logger.debug("Streaming notifications from {}", url);
+
+      HttpRequest request = new HttpRequest(url);
+      request.setReadTimeout(NOTIFICATION_STREAM_READ_TIMEOUT);
+      if (!StringUtils.isBlank(secret)) {
+        Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
+        request.setHeaders(headers);
+      }
+
+      transaction.addData("Url", url);
+
+      HttpResponse<Void> response = m_httpUtil.doGetStream(request, new Function<BufferedReader, Void>() {
+        @Override
+        public Void apply(BufferedReader reader) {
+          readNotificationStream(serviceDto, reader);
+          return null;
+        }
+      });
+
+      logger.debug("Notification stream ended: {}, url: {}", response.getStatusCode(), url);
+      m_serviceLocator.onServiceSucceeded(serviceDto, -1);
+
+      m_longPollFailSchedulePolicyInMilli.success();
+      transaction.addData("StatusCode", response.getStatusCode());
+      transaction.setStatus(Transaction.SUCCESS);
+
+      //try to load balance
+      return random.nextBoolean() ? null : lastServiceDto;
+    } catch (ApolloConfigStatusCodeException ex) {
+      transaction.setStatus(ex);
+      if (ex.getStatusCode() == 404 || ex.getStatusCode() == 405) {
+        // 老版本的 Config Service 不支持流式通知，回退到长轮询
+        m_notificationStreamUnsupported = true;
+        logger.warn("Config service doesn't support notification stream, will fall back to long polling. url: {}",
+            url);
+        return lastServiceDto;
+      }
+      m_serviceLocator.onServiceFailed(lastServiceDto);
+      onNotificationStreamFailed(appId, cluster, url, ex);
+      return null;
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      if (lastServiceDto != null) {
+        m_serviceLocator.onServiceFailed(lastServiceDto);
+      }
+      onNotificationStreamFailed(appId, cluster, url, ex);
+      return null;
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  private void onNotificationStreamFailed(String appId, String cluster, String url, Throwable ex) {
+    Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
+    long sleepTimeInMilli = computeFailDelayInMilli(ex);
+    logger.warn(
+        "Notification stream failed, will retry in {} ms. appId: {}, cluster: {}, namespaces: {}, stream url: {}, reason: {}",
+        sleepTimeInMilli, appId, cluster, assembleNamespaces(), url, ExceptionUtil.getDetailMessage(ex));
+    sleepBeforeReconnect(sleepTimeInMilli);
+  }
+
+  /**
+   * 计算失败后的等待时间，若 Config Service 过载（如返回 429 ），不少于其要求的 Retry-After 时间
+   */
+  private long computeFailDelayInMilli(Throwable ex) {
+    long delayTimeInMilli = m_longPollFailSchedulePolicyInMilli.fail();
+    if (ex instanceof ApolloConfigStatusCodeException) {
+      long retryAfterInSeconds = ((ApolloConfigStatusCodeException) ex).getRetryAfterInSeconds();
+      if (retryAfterInSeconds > 0) {
+        delayTimeInMilli = Math.max(delayTimeInMilli, TimeUnit.SECONDS.toMillis(retryAfterInSeconds));
+      }
+    }
+    return delayTimeInMilli;
+  }
+
+  private void sleepBeforeReconnect(long sleepTimeInMilli) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(sleepTimeInMilli);
+    } catch (InterruptedException ie) {
+      //ignore
+    }
+    m_longPollReconnectRateLimiter.acquire();
+  }
+
+  /**
+   * Read server-sent events from the stream, returns when the stream ends or new namespaces are submitted
+   */
+  private void readNotificationStream(ServiceDTO serviceDto, BufferedReader reader) {
+    String eventName = null;
+    StringBuilder data = new StringBuilder();
+    try {
+      String line;
+      while ((line = reader.readLine()) != null && !m_longPollingStopped.get()) {
+        // 空行表示一个事件结束
+        if (line.isEmpty()) {
+          if (data.length() > 0 && (eventName == null || NOTIFICATIONS_EVENT.equals(eventName))) {
+            onNotificationsReceived(serviceDto, data.toString());
+          }
+          eventName = null;
+          data.setLength(0);
+          // 有新的 Namespace 加入，重新建立连接
+          if (m_notificationStreamResetRequired.get()) {
+            return;
+          }
+          continue;
+        }
+        // 注释，例如心跳
+        if (line.startsWith(":")) {
+          continue;
+        }
+        int colonIndex = line.indexOf(':');
+        String field = colonIndex < 0 ? line : line.substring(0, colonIndex);
+        String value = colonIndex < 0 ? "" : line.substring(colonIndex + 1);
+        if (value.startsWith(" ")) {
+          value = value.substring(1);
+        }
+        if ("event".equals(field)) {
+          eventName = value;
+        } else if ("data".equals(field)) {
+          if (data.length() > 0) {
+            data.append('\n');
+          }
+          data.append(value);
+        }
+      }
+    } catch (IOException ex) {
+      throw new ApolloConfigException("Read notification stream failed", ex);
+    }
+  }
+
+  private void onNotificationsReceived(ServiceDTO serviceDto, String data) {
+    List<ApolloConfigNotification> notifications = gson.fromJson(data, m_responseType);
+    if (notifications == null || notifications.isEmpty()) {
+      return;
+    }
+    logger.debug("Stream notifications received: {}", notifications);
+    Tracer.logEvent("Apollo.ConfigService.StreamNotifications", notifications.toString());
+    updateNotifications(notifications);
+    updateRemoteNotifications(notifications);
+    notify(serviceDto, notifications);
+  }
+
   /**
    * 更新 m_remoteNotificationMessages
    *
@@ -302,6 +521,9 @@ public class RemoteConfigLongPollService {
     if (notifications == null || notifications.isEmpty()) {
       return;
     }
+    // 开启批量加载时，收集需要通知的 RemoteConfigRepository ，合并成一次请求
+    boolean batchLoad = m_configUtil.isConfigBatchLoadEnabled() && !m_configBatchLoadUnsupported;
+    Map<RemoteConfigRepository, ApolloNotificationMessages> toBeBatchLoaded = Maps.newLinkedHashMap();
     // 循环 ApolloConfigNotification
     for (ApolloConfigNotification notification : notifications) {
       String namespaceName = notification.getNamespaceName();
@@ -318,14 +540,269 @@ public class RemoteConfigLongPollService {
           .get(String.format("%s.%s", namespaceName, ConfigFileFormat.Properties.getValue())));
       // 循环 RemoteConfigRepository ，进行通知
       for (RemoteConfigRepository remoteConfigRepository : toBeNotified) {
-        try {
-          // 进行通知
-          remoteConfigRepository.onLongPollNotified(lastServiceDto, remoteMessages);
-        } catch (Throwable ex) {
-          Tracer.logError(ex);
+        if (batchLoad) {
+          toBeBatchLoaded.put(remoteConfigRepository, remoteMessages);
+          continue;
         }
+        notifyRepository(lastServiceDto, remoteConfigRepository, remoteMessages);
       }
     }
+
+    if (toBeBatchLoaded.size() == 1) {
+      Map.Entry<RemoteConfigRepository, ApolloNotificationMessages> entry =
+          toBeBatchLoaded.entrySet().iterator().next();
+      notifyRepository(lastServiceDto, entry.getKey(), entry.getValue());
+    } else if (!toBeBatchLoaded.isEmpty()) {
+      scheduleBatchLoad(lastServiceDto, toBeBatchLoaded);
+    }
+  }
+
+  private void notifyRepository(ServiceDTO lastServiceDto, RemoteConfigRepository remoteConfigRepository,
+                                ApolloNotificationMessages remoteMessages) {
+    try {
+      // 进行通知
+      remoteConfigRepository.onLongPollNotified(lastServiceDto, remoteMessages);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+    }
+  }
+
+  private void scheduleBatchLoad(final ServiceDTO lastServiceDto,
+                                 final Map<RemoteConfigRepository, ApolloNotificationMessages> repositories) {
+    m_configBatchLoadService.submit(new Runnable() {
+      @Override
+      public void run() {
+        batchLoad(lastServiceDto, repositories);
+      }
+    });
+  }
+
+  /**
+   * 通过一次请求加载多个 Namespace 的配置，失败时回退到逐个 RemoteConfigRepository 同步
+   */
+  private void batchLoad(ServiceDTO lastServiceDto,
+                         Map<RemoteConfigRepository, ApolloNotificationMessages> repositories) {
+    Map<RemoteConfigRepository, ApolloConfigQuery> queries = Maps.newLinkedHashMap();
+    for (Map.Entry<RemoteConfigRepository, ApolloNotificationMessages> entry : repositories.entrySet()) {
+      try {
+        queries.put(entry.getKey(), entry.getKey().prepareBatchLoad(entry.getValue()));
+      } catch (Throwable ex) {
+        Tracer.logError(ex);
+      }
+    }
+
+    Map<String, ApolloConfig> configs = doBatchLoad(lastServiceDto, queries.values());
+
+    for (Map.Entry<RemoteConfigRepository, ApolloNotificationMessages> entry : repositories.entrySet()) {
+      RemoteConfigRepository repository = entry.getKey();
+      ApolloConfigQuery query = queries.get(repository);
+      try {
+        if (configs == null || query == null) {
+          repository.onLongPollNotified(lastServiceDto, entry.getValue());
+        } else {
+          repository.onBatchLoaded(configs.get(query.getNamespaceName()));
+        }
+      } catch (Throwable ex) {
+        Tracer.logError(ex);
+      }
+    }
+  }
+
+  /**
+   * 通过一次请求刷新多个 RemoteConfigRepository 的配置，用于定时刷新
+   *
+   * @return 若未开启批量加载，或批量查询失败，返回 false ，由调用方逐个同步
+   */
+  boolean batchRefresh(List<RemoteConfigRepository> repositories) {
+    if (!m_configUtil.isConfigBatchLoadEnabled() || m_configBatchLoadUnsupported) {
+      return false;
+    }
+
+    Map<RemoteConfigRepository, ApolloConfigQuery> queries = Maps.newLinkedHashMap();
+    for (RemoteConfigRepository repository : repositories) {
+      queries.put(repository, repository.prepareBatchRefresh());
+    }
+
+    Map<String, ApolloConfig> configs = doBatchLoad(null, queries.values());
+    if (configs == null) {
+      return false;
+    }
+
+    for (Map.Entry<RemoteConfigRepository, ApolloConfigQuery> entry : queries.entrySet()) {
+      try {
+        entry.getKey().onBatchLoaded(configs.get(entry.getValue().getNamespaceName()));
+      } catch (Throwable ex) {
+        Tracer.logError(ex);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 通过一次批量请求预取尚未创建 RemoteConfigRepository 的 Namespace 的配置，用于启动时一次加载多个 Namespace 。
+   * 新建的 RemoteConfigRepository 通过 {@link #takePrefetchedConfig(String)} 取走，不再逐个 Namespace 请求
+   *
+   * @param namespaces the namespaces to be created
+   * @return 若未开启批量加载，或批量查询失败，返回 false
+   */
+  public boolean prefetch(Collection<String> namespaces) {
+    if (!m_configUtil.isConfigBatchLoadEnabled() || m_configBatchLoadUnsupported) {
+      return false;
+    }
+
+    List<ApolloConfigQuery> queries = Lists.newArrayList();
+    for (String namespace : namespaces) {
+      if (!m_longPollNamespaces.containsKey(namespace)) {
+        queries.add(new ApolloConfigQuery(namespace, null, null));
+      }
+    }
+    if (queries.size() <= 1) {
+      return false;
+    }
+
+    Map<String, ApolloConfig> configs = doBatchLoad(null, queries);
+    if (configs == null) {
+      return false;
+    }
+    m_prefetchedConfigs.putAll(configs);
+    return true;
+  }
+
+  /**
+   * @return the prefetched config of the namespace, or null if not prefetched or already taken
+   */
+  ApolloConfig takePrefetchedConfig(String namespace) {
+    return m_prefetchedConfigs.remove(namespace);
+  }
+
+  /**
+   * Discard the prefetched configs not taken, e.g. the namespaces failed to be created, so that they won't be used
+   * when the namespaces are created later
+   */
+  public void clearPrefetchedConfigs() {
+    m_prefetchedConfigs.clear();
+  }
+
+  /**
+   * 批量查询 Config Service 的 /configs/batch 接口，Namespace 较多时分多次查询，避免 URL 过长
+   *
+   * @return 有更新的配置，KEY 为 Namespace 名字；若查询失败，返回 null
+   */
+  private Map<String, ApolloConfig> doBatchLoad(ServiceDTO lastServiceDto,
+                                                Collection<ApolloConfigQuery> allQueries) {
+    // 同一个 Namespace 只需查询一次
+    Map<String, ApolloConfigQuery> uniqueQueries = Maps.newLinkedHashMap();
+    for (ApolloConfigQuery query : allQueries) {
+      if (!uniqueQueries.containsKey(query.getNamespaceName())) {
+        uniqueQueries.put(query.getNamespaceName(), query);
+      }
+    }
+
+    List<ServiceDTO> configServices;
+    try {
+      configServices = Lists.newLinkedList(getConfigServices());
+    } catch (Throwable ex) {
+      Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
+      return null;
+    }
+    // 优先访问通知配置变更的 Config Service
+    if (lastServiceDto != null) {
+      configServices.add(0, lastServiceDto);
+    }
+
+    Map<String, ApolloConfig> configs = Maps.newHashMap();
+    for (List<ApolloConfigQuery> queries : partitionBatchQueries(uniqueQueries.values())) {
+      Map<String, ApolloConfig> partialConfigs = doBatchLoad(configServices, queries);
+      if (partialConfigs == null) {
+        return null;
+      }
+      configs.putAll(partialConfigs);
+    }
+    return configs;
+  }
+
+  /**
+   * Partition the queries so that the escaped namespaces parameter of each batch query is within {@link
+   * #MAX_BATCH_QUERY_NAMESPACES_LENGTH}, a query longer than that is queried alone.
+   */
+  List<List<ApolloConfigQuery>> partitionBatchQueries(Collection<ApolloConfigQuery> queries) {
+    List<List<ApolloConfigQuery>> partitions = Lists.newArrayList();
+    List<ApolloConfigQuery> partition = Lists.newArrayList();
+    //the escaped brackets of the json array
+    int partitionLength = queryParamEscaper.escape("[]").length();
+    int separatorLength = queryParamEscaper.escape(",").length();
+    for (ApolloConfigQuery query : queries) {
+      int queryLength = queryParamEscaper.escape(gson.toJson(query)).length();
+      if (!partition.isEmpty()
+          && partitionLength + separatorLength + queryLength > MAX_BATCH_QUERY_NAMESPACES_LENGTH) {
+        partitions.add(partition);
+        partition = Lists.newArrayList();
+        partitionLength = queryParamEscaper.escape("[]").length();
+      }
+      partitionLength += (partition.isEmpty() ? 0 : separatorLength) + queryLength;
+      partition.add(query);
+    }
+    if (!partition.isEmpty()) {
+      partitions.add(partition);
+    }
+    return partitions;
+  }
+
+  /**
+   * @return 有更新的配置，KEY 为 Namespace 名字；若查询失败，返回 null
+   */
+  private Map<String, ApolloConfig> doBatchLoad(List<ServiceDTO> configServices, List<ApolloConfigQuery> queries) {
+    String appId = m_configUtil.getAppId();
+    String cluster = m_configUtil.getCluster();
+    String dataCenter = m_configUtil.getDataCenter();
+    String secret = m_configUtil.getAccessKeySecret();
+
+    for (ServiceDTO configService : configServices) {
+      String url = assembleBatchQueryConfigUrl(configService.getHomepageUrl(), appId, cluster, dataCenter, queries);
+      logger.debug("Batch loading configs from {}", url);
+
+      HttpRequest request = new HttpRequest(url);
+      if (!StringUtils.isBlank(secret)) {
+        Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
+        request.setHeaders(headers);
+      }
+
+      Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "queryConfigBatch");
+      transaction.addData("Url", url);
+      long start = System.nanoTime();
+      try {
+        HttpResponse<List<ApolloConfig>> response = m_httpUtil.doGet(request, m_configsResponseType);
+        m_serviceLocator.onServiceSucceeded(configService, System.nanoTime() - start);
+        transaction.addData("StatusCode", response.getStatusCode());
+        transaction.setStatus(Transaction.SUCCESS);
+
+        Map<String, ApolloConfig> configs = Maps.newHashMap();
+        if (response.getBody() != null) {
+          for (ApolloConfig config : response.getBody()) {
+            configs.put(config.getNamespaceName(), config);
+          }
+        }
+        return configs;
+      } catch (ApolloConfigStatusCodeException ex) {
+        transaction.setStatus(ex);
+        // 旧版本的 Config Service 不支持批量查询，回退到逐个 Namespace 查询
+        if (ex.getStatusCode() == 404 || ex.getStatusCode() == 405) {
+          m_configBatchLoadUnsupported = true;
+          logger.warn("Config service doesn't support batch load, will load configs one by one. url: {}", url);
+          return null;
+        }
+        m_serviceLocator.onServiceFailed(configService);
+        Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        m_serviceLocator.onServiceFailed(configService);
+        Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
+      } finally {
+        transaction.complete();
+      }
+    }
+
+    return null;
   }
 
     /**
@@ -392,6 +869,19 @@ public class RemoteConfigLongPollService {
    */
   String assembleLongPollRefreshUrl(String uri, String appId, String cluster, String dataCenter,
                                     Map<String, Long> notificationsMap) {
+    return assembleNotificationUrl(uri, "notifications/v2", appId, cluster, dataCenter, notificationsMap);
+  }
+
+  /**
+   * 流式通知 Config Service 的配置变更通知 /notifications/v2/stream 接口的 URL
+   */
+  String assembleNotificationStreamUrl(String uri, String appId, String cluster, String dataCenter,
+                                       Map<String, Long> notificationsMap) {
+    return assembleNotificationUrl(uri, "notifications/v2/stream", appId, cluster, dataCenter, notificationsMap);
+  }
+
+  private String assembleNotificationUrl(String uri, String path, String appId, String cluster, String dataCenter,
+                                         Map<String, Long> notificationsMap) {
     Map<String, String> queryParams = Maps.newHashMap();
     queryParams.put("appId", queryParamEscaper.escape(appId));
     queryParams.put("cluster", queryParamEscaper.escape(cluster));
@@ -416,7 +906,32 @@ public class RemoteConfigLongPollService {
       uri += "/";
     }
 
-    return uri + "notifications/v2?" + params;
+    return uri + path + "?" + params;
+  }
+
+  /**
+   * 批量查询 Config Service 的配置读取 /configs/batch 接口的 URL
+   */
+  String assembleBatchQueryConfigUrl(String uri, String appId, String cluster, String dataCenter,
+                                     List<ApolloConfigQuery> queries) {
+    Map<String, String> queryParams = Maps.newHashMap();
+    queryParams.put("appId", queryParamEscaper.escape(appId));
+    queryParams.put("cluster", queryParamEscaper.escape(cluster));
+    queryParams.put("namespaces", queryParamEscaper.escape(gson.toJson(queries)));
+
+    if (!Strings.isNullOrEmpty(dataCenter)) {
+      queryParams.put("dataCenter", queryParamEscaper.escape(dataCenter));
+    }
+    String localIp = m_configUtil.getLocalIp();
+    if (!Strings.isNullOrEmpty(localIp)) {
+      queryParams.put("ip", queryParamEscaper.escape(localIp));
+    }
+
+    if (!uri.endsWith("/")) {
+      uri += "/";
+    }
+
+    return uri + "configs/batch?" + MAP_JOINER.join(queryParams);
   }
 
   String assembleNotifications(Map<String, Long> notificationsMap) {
@@ -433,7 +948,7 @@ public class RemoteConfigLongPollService {
 
   private List<ServiceDTO> getConfigServices() {
     //获取Config Service 集群的地址们
-    List<ServiceDTO> services = m_serviceLocator.getConfigServices();
+    List<ServiceDTO> services = m_serviceLocator.getPreferredConfigServices();
     if (services.size() == 0) {
       throw new ApolloConfigException("No available config service");
     }
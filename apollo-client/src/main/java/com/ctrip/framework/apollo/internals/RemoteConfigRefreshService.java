@@ -0,0 +1,128 @@
+package com.ctrip.framework.apollo.internals;
+
+import com.ctrip.framework.apollo.Apollo;
+import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 远程配置定时刷新服务
+ *
+ * 所有 RemoteConfigRepository 共用一个定时任务，每个周期刷新全部 Namespace 的配置。
+ * 开启批量加载时，一个周期只需一次请求；否则逐个 Namespace 同步，未更新的 Namespace 由 304 直接返回。
+ * 每个周期的间隔增加随机抖动，避免大量客户端同时刷新。
+ */
+public class RemoteConfigRefreshService {
+  private static final Logger logger = LoggerFactory.getLogger(RemoteConfigRefreshService.class);
+  /**
+   * 随机抖动的最大值，占刷新间隔的比例
+   */
+  private static final double MAX_JITTER_RATIO = 0.1;
+  private final ScheduledExecutorService m_executorService;
+  private final Set<RemoteConfigRepository> m_repositories;
+  private final AtomicBoolean m_refreshStarted;
+  private final Random m_random;
+  private final ConfigUtil m_configUtil;
+  private final RemoteConfigLongPollService m_remoteConfigLongPollService;
+
+  /**
+   * Constructor.
+   */
+  public RemoteConfigRefreshService() {
+    m_executorService = Executors.newScheduledThreadPool(1,
+        ApolloThreadFactory.create("RemoteConfigRefreshService", true));
+    m_repositories = Sets.newConcurrentHashSet();
+    m_refreshStarted = new AtomicBoolean(false);
+    m_random = new Random();
+    m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
+    m_remoteConfigLongPollService = ApolloInjector.getInstance(RemoteConfigLongPollService.class);
+  }
+
+  /**
+   * 注册 RemoteConfigRepository 到定时刷新任务
+   *
+   * @param remoteConfigRepository
+   */
+  public void register(RemoteConfigRepository remoteConfigRepository) {
+    m_repositories.add(remoteConfigRepository);
+    if (m_refreshStarted.compareAndSet(false, true)) {
+      logger.debug("Schedule periodic refresh with interval: {} {}",
+          m_configUtil.getRefreshInterval(), m_configUtil.getRefreshIntervalTimeUnit());
+      scheduleNextRefresh();
+    }
+  }
+
+  private void scheduleNextRefresh() {
+    try {
+      m_executorService.schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            refresh();
+          } finally {
+            scheduleNextRefresh();
+          }
+        }
+      }, nextRefreshDelayInMillis(), TimeUnit.MILLISECONDS);
+    } catch (Throwable ex) {
+      m_refreshStarted.set(false);
+      ApolloConfigException exception = new ApolloConfigException("Schedule periodic refresh failed", ex);
+      Tracer.logError(exception);
+      logger.warn(ExceptionUtil.getDetailMessage(exception));
+    }
+  }
+
+  long nextRefreshDelayInMillis() {
+    long interval = m_configUtil.getRefreshIntervalTimeUnit().toMillis(m_configUtil.getRefreshInterval());
+    long maxJitter = (long) (interval * MAX_JITTER_RATIO);
+    if (maxJitter <= 0) {
+      return interval;
+    }
+    return interval + (long) (m_random.nextDouble() * maxJitter);
+  }
+
+  /**
+   * 刷新所有 RemoteConfigRepository 的配置
+   */
+  void refresh() {
+    List<RemoteConfigRepository> repositories = Lists.newArrayList(m_repositories);
+    if (repositories.isEmpty()) {
+      return;
+    }
+    Tracer.logEvent("Apollo.ConfigService", String.format("periodicRefresh: %d namespaces", repositories.size()));
+    logger.debug("refresh config for {} namespaces", repositories.size());
+
+    // 多个 Namespace 时，尝试通过一次批量请求刷新
+    boolean refreshed = false;
+    if (repositories.size() > 1) {
+      try {
+        refreshed = m_remoteConfigLongPollService.batchRefresh(repositories);
+      } catch (Throwable ex) {
+        Tracer.logError(ex);
+      }
+    }
+
+    if (!refreshed) {
+      for (RemoteConfigRepository repository : repositories) {
+        // 尝试同步配置
+        repository.trySync();
+      }
+    }
+
+    Tracer.logEvent("Apollo.Client.Version", Apollo.VERSION);
+  }
+}
@@ -1,12 +1,12 @@
 package com.ctrip.framework.apollo.internals;
 
-import com.ctrip.framework.apollo.Apollo;
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigQuery;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
-import com.ctrip.framework.apollo.core.schedule.ExponentialSchedulePolicy;
+import com.ctrip.framework.apollo.core.schedule.DecorrelatedJitterSchedulePolicy;
 import com.ctrip.framework.apollo.core.schedule.SchedulePolicy;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
@@ -18,6 +18,7 @@ import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 import com.ctrip.framework.apollo.util.ConfigUtil;
 import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.ctrip.framework.apollo.util.ImmutableProperties;
 import com.ctrip.framework.apollo.util.http.HttpRequest;
 import com.ctrip.framework.apollo.util.http.HttpResponse;
 import com.ctrip.framework.apollo.util.http.HttpUtil;
@@ -25,6 +26,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.escape.Escaper;
 import com.google.common.escape.Escapers;
 import com.google.common.net.UrlEscapers;
@@ -33,7 +35,9 @@ import com.google.gson.Gson;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -66,10 +70,24 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
    * 远程配置长轮询服务
    */
   private final RemoteConfigLongPollService remoteConfigLongPollService;
+  /**
+   * 远程配置定时刷新服务
+   */
+  private final RemoteConfigRefreshService remoteConfigRefreshService;
+  /**
+   * 本机共享的配置快照，未开启时为 null
+   */
+  private final LocalSnapshotStore m_snapshotStore;
   /**
    * 指向 ApolloConfig 的 AtomicReference ，缓存配置
    */
   private volatile AtomicReference<ApolloConfig> m_configCache;
+  /**
+   * 缓存配置对应的只读 Properties 对象，与 m_configCache 一同更新
+   *
+   * 配置项只保存在该对象中，m_configCache 中的 ApolloConfig 不持有配置项，避免重复占用内存
+   */
+  private volatile Properties m_configProperties;
   /**
    * Namespace 名字
    * 一个 RemoteConfigRepository 对应一个 Namespace
@@ -99,9 +117,9 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
    */
   private final AtomicBoolean m_configNeedForceRefresh;
   /**
-   * 失败定时重试策略，使用 {@link ExponentialSchedulePolicy}
+   * 失败定时重试策略，使用 {@link DecorrelatedJitterSchedulePolicy} ，单位：毫秒
    */
-  private final SchedulePolicy m_loadConfigFailSchedulePolicy;
+  private final SchedulePolicy m_loadConfigFailSchedulePolicyInMilli;
   private final Gson gson;
 
   static {
@@ -122,16 +140,29 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     m_httpUtil = ApolloInjector.getInstance(HttpUtil.class);
     m_serviceLocator = ApolloInjector.getInstance(ConfigServiceLocator.class);
     remoteConfigLongPollService = ApolloInjector.getInstance(RemoteConfigLongPollService.class);
+    remoteConfigRefreshService = ApolloInjector.getInstance(RemoteConfigRefreshService.class);
+    m_snapshotStore = m_configUtil.isLocalSnapshotEnabled() ? ApolloInjector.getInstance(LocalSnapshotStore.class)
+        : null;
     m_longPollServiceDto = new AtomicReference<>();
     m_remoteMessages = new AtomicReference<>();
     m_loadConfigRateLimiter = RateLimiter.create(m_configUtil.getLoadConfigQPS());
     m_configNeedForceRefresh = new AtomicBoolean(true);
-    m_loadConfigFailSchedulePolicy = new ExponentialSchedulePolicy(m_configUtil.getOnErrorRetryInterval(),
-        m_configUtil.getOnErrorRetryInterval() * 8);
+    //jitter in millisecond, or the delays of the default 1 second retry interval would only be 1s or 2s
+    long onErrorRetryIntervalInMilli = m_configUtil.getOnErrorRetryIntervalTimeUnit()
+        .toMillis(m_configUtil.getOnErrorRetryInterval());
+    m_loadConfigFailSchedulePolicyInMilli = new DecorrelatedJitterSchedulePolicy(onErrorRetryIntervalInMilli,
+        onErrorRetryIntervalInMilli * 8);
     gson = new Gson();
-    // 尝试同步配置
-    this.trySync();
-    // 初始化定时刷新配置的任务
+    // 加载本机快照，拉取配置时带上快照的 releaseKey ，配置未变化时 Config Service 返回 304
+    this.loadLocalSnapshot();
+    // 使用启动时批量预取的配置，未预取到时尝试同步配置
+    ApolloConfig prefetched = remoteConfigLongPollService.takePrefetchedConfig(m_namespace);
+    if (prefetched != null) {
+      this.onBatchLoaded(prefetched);
+    } else {
+      this.trySync();
+    }
+    // 注册到定时刷新配置的任务
     this.schedulePeriodicRefresh();
     // 注册自己到 RemoteConfigLongPollService 中，实现配置更新的实时通知
     this.scheduleLongPollingRefresh();
@@ -143,8 +174,8 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     if (m_configCache.get() == null) {
       this.sync();
     }
-    // 转换成 Properties 对象，并返回
-    return transformApolloConfigToProperties(m_configCache.get());
+    // 返回只读的 Properties 对象，无需复制
+    return m_configProperties;
   }
 
   @Override
@@ -157,24 +188,11 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     return ConfigSourceType.REMOTE;
   }
 
+  /**
+   * 注册自己到 RemoteConfigRefreshService 中，由其统一定时刷新配置
+   */
   private void schedulePeriodicRefresh() {
-    logger.debug("Schedule periodic refresh with interval: {} {}",
-        m_configUtil.getRefreshInterval(), m_configUtil.getRefreshIntervalTimeUnit());
-    // 创建定时任务，定时刷新配置(默认5min)
-    m_executorService.scheduleAtFixedRate(
-        new Runnable() {
-          @Override
-          public void run() {
-            // 【TODO 6001】Tracer 日志
-            Tracer.logEvent("Apollo.ConfigService", String.format("periodicRefresh: %s", m_namespace));
-            logger.debug("refresh config for namespace: {}", m_namespace);
-            // 尝试同步配置
-            trySync();
-            // 【TODO 6001】Tracer 日志
-            Tracer.logEvent("Apollo.Client.Version", Apollo.VERSION);
-          }
-        }, m_configUtil.getRefreshInterval(), m_configUtil.getRefreshInterval(),
-        m_configUtil.getRefreshIntervalTimeUnit());
+    remoteConfigRefreshService.register(this);
   }
 
   @Override
@@ -193,7 +211,9 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
       if (previous != current) {
         logger.debug("Remote Config refreshed!");
         // 设置到缓存
-        m_configCache.set(current);
+        updateConfigCache(current);
+        // 保存本机快照
+        saveLocalSnapshot();
         // 发布 Repository 的配置发生变化，触发对应的监听器们
         this.fireRepositoryChange(m_namespace, this.getConfig());
       }
@@ -216,10 +236,52 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     }
   }
 
-  private Properties transformApolloConfigToProperties(ApolloConfig apolloConfig) {
-    Properties result = new Properties();
-    result.putAll(apolloConfig.getConfigurations());
-    return result;
+  /**
+   * 更新缓存的配置，配置项转换成只读的 Properties 对象，缓存的 ApolloConfig 对象不再持有配置项
+   *
+   * @param current
+   */
+  private void updateConfigCache(ApolloConfig current) {
+    if (current == null) {
+      m_configProperties = null;
+      m_configCache.set(null);
+      return;
+    }
+    //the configurations decoded by HttpUtil are already immutable, so they are adopted without copying
+    m_configProperties = ImmutableProperties.copyOf(current.getConfigurations());
+    m_configCache.set(new ApolloConfig(current.getAppId(), current.getCluster(), current.getNamespaceName(),
+        current.getReleaseKey()));
+  }
+
+  private void loadLocalSnapshot() {
+    if (m_snapshotStore == null) {
+      return;
+    }
+    ApolloConfig snapshot = m_snapshotStore.load(m_namespace);
+    if (snapshot != null) {
+      logger.debug("Loaded local snapshot for {}, release key: {}", m_namespace, snapshot.getReleaseKey());
+      updateConfigCache(snapshot);
+    }
+  }
+
+  private void saveLocalSnapshot() {
+    final ApolloConfig current = m_configCache.get();
+    final Properties properties = m_configProperties;
+    if (m_snapshotStore == null || current == null) {
+      return;
+    }
+    //save in the background, so that slow disks won't block the sync and the notification
+    LocalFileConfigRepository.schedulePersistence(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          m_snapshotStore.save(current, properties);
+        } catch (Throwable ex) {
+          logger.warn("Save local snapshot for {} failed, reason: {}.", m_namespace,
+              ExceptionUtil.getDetailMessage(ex));
+        }
+      }
+    });
   }
 
   /**
@@ -244,32 +306,32 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     Tracer.logEvent("Apollo.Client.ConfigMeta", STRING_JOINER.join(appId, cluster, m_namespace));
     // 计算重试次数
     int maxRetries = m_configNeedForceRefresh.get() ? 2 : 1;
-    long onErrorSleepTime = 0; // 0 means no sleep
+    long onErrorSleepTimeInMilli = 0; // 0 means no sleep
     Throwable exception = null;
     // 获得所有的 Config Service 的地址
     List<ServiceDTO> configServices = getConfigServices();
     String url = null;
     // 循环读取配置重试次数直到成功。每一次，都会循环所有的 ServiceDTO 数组。
     for (int i = 0; i < maxRetries; i++) {
-      // 随机所有的 Config Service 的地址
-      List<ServiceDTO> randomConfigServices = Lists.newLinkedList(configServices);
-      Collections.shuffle(randomConfigServices); //将List集合的数据打乱
+      // 按延迟和错误率排序的所有 Config Service 的地址，重试时重新排序
+      List<ServiceDTO> preferredConfigServices =
+          Lists.newLinkedList(i == 0 ? configServices : getConfigServices());
       // 优先访问通知配置变更的 Config Service 的地址。并且，获取到时，需要置空，避免重复优先访问。
       //Access the server which notifies the client first
       if (m_longPollServiceDto.get() != null) {
-        randomConfigServices.add(0, m_longPollServiceDto.getAndSet(null));
+        preferredConfigServices.add(0, m_longPollServiceDto.getAndSet(null));
       }
 
       // 循环所有的 Config Service 的地址
-      for (ServiceDTO configService : randomConfigServices) {
+      for (ServiceDTO configService : preferredConfigServices) {
         // sleep 等待，下次从 Config Service 拉取配置
-        if (onErrorSleepTime > 0) {
+        if (onErrorSleepTimeInMilli > 0) {
           logger.warn(
               "Load config failed, will retry in {} {}. appId: {}, cluster: {}, namespaces: {}",
-              onErrorSleepTime, m_configUtil.getOnErrorRetryIntervalTimeUnit(), appId, cluster, m_namespace);
+              onErrorSleepTimeInMilli, TimeUnit.MILLISECONDS, appId, cluster, m_namespace);
 
           try {
-            m_configUtil.getOnErrorRetryIntervalTimeUnit().sleep(onErrorSleepTime);
+            TimeUnit.MILLISECONDS.sleep(onErrorSleepTimeInMilli);
           } catch (InterruptedException e) {
             //ignore
           }
@@ -281,21 +343,19 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
 
         logger.debug("Loading config from {}", url);
 
-        HttpRequest request = new HttpRequest(url);
-        if (!StringUtils.isBlank(secret)) {
-          Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
-          request.setHeaders(headers);
-        }
+        HttpRequest request = assembleHttpRequest(url, appId, secret);
         // 【TODO 6001】Tracer 日志
         Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "queryConfig");
         transaction.addData("Url", url);
+        long start = System.nanoTime();
         try {
           // 发起请求，返回 HttpResponse 对象
           HttpResponse<ApolloConfig> response = m_httpUtil.doGet(request, ApolloConfig.class);
+          m_serviceLocator.onServiceSucceeded(configService, System.nanoTime() - start);
           // 设置 m_configNeedForceRefresh = false
           m_configNeedForceRefresh.set(false);
           //标记成功
-          m_loadConfigFailSchedulePolicy.success();
+          m_loadConfigFailSchedulePolicyInMilli.success();
 
           // 【TODO 6001】Tracer 日志
           transaction.addData("StatusCode", response.getStatusCode());
@@ -309,9 +369,25 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
 
           // 有新的配置，进行返回新的 ApolloConfig 对象
           ApolloConfig result = response.getBody();
+          // 增量配置，合并到缓存的 ApolloConfig 对象上
+          if (result != null && result.isDelta()) {
+            if (isDeltaApplicable(m_configCache.get(), result)) {
+              result = applyDelta(m_configCache.get(), m_configProperties, result);
+            } else {
+              // 基准版本与缓存不一致，Config Service 本身是正常的，立即从同一个 Config Service 拉取全量配置
+              Tracer.logEvent("Apollo.Client.ConfigDeltaMismatched", m_namespace);
+              result = loadFullApolloConfig(configService, appId, cluster, dataCenter, secret);
+            }
+          }
           logger.debug("Loaded config for {}: {}", m_namespace, result);
           return result;
         } catch (ApolloConfigStatusCodeException ex) {
+          // 4xx 说明 Config Service 正常响应
+          if (ex.getStatusCode() >= 500) {
+            m_serviceLocator.onServiceFailed(configService);
+          } else {
+            m_serviceLocator.onServiceSucceeded(configService, System.nanoTime() - start);
+          }
           ApolloConfigStatusCodeException statusCodeException = ex;
           // 若返回的状态码是 404 ，说明查询配置的 Config Service 不存在该 Namespace 。
           //config not found
@@ -329,6 +405,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
           // 设置最终的异常
           exception = statusCodeException;
         } catch (Throwable ex) {
+          m_serviceLocator.onServiceFailed(configService);
           // 【TODO 6001】Tracer 日志
           Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
           transaction.setStatus(ex);
@@ -340,9 +417,9 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
         }
 
         // 计算延迟时间
-        // if force refresh, do normal sleep, if normal config load, do exponential sleep
-        onErrorSleepTime = m_configNeedForceRefresh.get() ? m_configUtil.getOnErrorRetryInterval() :
-            m_loadConfigFailSchedulePolicy.fail();
+        // if force refresh, do normal sleep, if normal config load, do jittered exponential sleep
+        onErrorSleepTimeInMilli = m_configNeedForceRefresh.get() ? m_configUtil.getOnErrorRetryIntervalTimeUnit()
+            .toMillis(m_configUtil.getOnErrorRetryInterval()) : m_loadConfigFailSchedulePolicyInMilli.fail();
       }
 
     }
@@ -354,6 +431,87 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     throw new ApolloConfigException(message, exception);
   }
 
+  /**
+   * 不使用增量，从指定的 Config Service 拉取全量配置
+   *
+   * @return the full config, or the cached config if not modified
+   */
+  private ApolloConfig loadFullApolloConfig(ServiceDTO configService, String appId, String cluster,
+      String dataCenter, String secret) {
+    String url = assembleQueryConfigUrl(configService.getHomepageUrl(), appId, cluster, m_namespace, dataCenter,
+        m_remoteMessages.get(), m_configCache.get(), false);
+    logger.debug("Delta config mismatched, loading full config from {}", url);
+
+    long start = System.nanoTime();
+    HttpResponse<ApolloConfig> response = m_httpUtil.doGet(assembleHttpRequest(url, appId, secret),
+        ApolloConfig.class);
+    m_serviceLocator.onServiceSucceeded(configService, System.nanoTime() - start);
+
+    return response.getStatusCode() == 304 ? m_configCache.get() : response.getBody();
+  }
+
+  private HttpRequest assembleHttpRequest(String url, String appId, String secret) {
+    HttpRequest request = new HttpRequest(url);
+    if (!StringUtils.isBlank(secret)) {
+      Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
+      request.setHeaders(headers);
+    }
+    return request;
+  }
+
+  /**
+   * @return whether the delta config is based on the release of the base config
+   */
+  private boolean isDeltaApplicable(ApolloConfig base, ApolloConfig delta) {
+    return base != null && Objects.equals(delta.getBaseReleaseKey(), base.getReleaseKey());
+  }
+
+  /**
+   * 将增量配置合并到基准配置上
+   *
+   * @param base 基准配置
+   * @param baseProperties 基准配置的配置项
+   * @param delta 增量配置
+   * @return 合并后的全量配置
+   */
+  ApolloConfig applyDelta(ApolloConfig base, Properties baseProperties, ApolloConfig delta) {
+    if (!isDeltaApplicable(base, delta)) {
+      throw new ApolloConfigException(String.format(
+          "Delta config based on release %s could not be applied to the current release %s, namespace: %s",
+          delta.getBaseReleaseKey(), base == null ? null : base.getReleaseKey(), m_namespace));
+    }
+
+    Set<String> deletedKeys = delta.getDeletedKeys() == null ? Collections.<String>emptySet()
+        : Sets.newHashSet(delta.getDeletedKeys());
+    Map<String, String> changedConfigurations = delta.getConfigurations() == null
+        ? Collections.<String, String>emptyMap() : delta.getConfigurations();
+
+    //build the merged configurations into immutable properties directly, so that they are adopted without copying
+    ImmutableProperties.Builder builder = ImmutableProperties.builder();
+    for (Map.Entry<Object, Object> entry : baseProperties.entrySet()) {
+      String key = (String) entry.getKey();
+      if (!deletedKeys.contains(key) && !changedConfigurations.containsKey(key)) {
+        builder.put(key, (String) entry.getValue());
+      }
+    }
+    for (Map.Entry<String, String> entry : changedConfigurations.entrySet()) {
+      builder.put(entry.getKey(), entry.getValue());
+    }
+
+    ApolloConfig result = new ApolloConfig(delta.getAppId(), delta.getCluster(), delta.getNamespaceName(),
+        delta.getReleaseKey());
+    result.setConfigurations(asConfigurations(builder.build()));
+    return result;
+  }
+
+  /**
+   * @return the immutable properties as a string map, all its keys and values are strings
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, String> asConfigurations(ImmutableProperties properties) {
+    return (Map) properties;
+  }
+
   /**
    * 组装 `轮询 Config Service 的配置读取/configs/{appId}/{clusterName}/{namespace:.+} 接口的` URL
    *
@@ -368,6 +526,12 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
    */
   String assembleQueryConfigUrl(String uri, String appId, String cluster, String namespace,
                                 String dataCenter, ApolloNotificationMessages remoteMessages, ApolloConfig previousConfig) {
+    return assembleQueryConfigUrl(uri, appId, cluster, namespace, dataCenter, remoteMessages, previousConfig,
+        m_configUtil.isConfigDeltaEnabled());
+  }
+
+  private String assembleQueryConfigUrl(String uri, String appId, String cluster, String namespace,
+      String dataCenter, ApolloNotificationMessages remoteMessages, ApolloConfig previousConfig, boolean delta) {
 
     String path = "configs/%s/%s/%s";  // 接口URL： /configs/{appId}/{clusterName}/{namespace:.+}
     List<String> pathParams =
@@ -377,6 +541,10 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     // releaseKey
     if (previousConfig != null) {
       queryParams.put("releaseKey", queryParamEscaper.escape(previousConfig.getReleaseKey()));
+      // delta
+      if (delta) {
+        queryParams.put("delta", "true");
+      }
     }
     // dataCenter
     if (!Strings.isNullOrEmpty(dataCenter)) {
@@ -434,6 +602,60 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     });
   }
 
+  /**
+   * 准备批量加载配置，设置优先通知的消息，并返回当前 Namespace 的查询条件
+   *
+   * @param remoteMessages
+   * @return
+   */
+  ApolloConfigQuery prepareBatchLoad(ApolloNotificationMessages remoteMessages) {
+    m_remoteMessages.set(remoteMessages);
+    return prepareBatchRefresh();
+  }
+
+  /**
+   * 准备批量刷新配置，返回当前 Namespace 的查询条件
+   *
+   * @return
+   */
+  ApolloConfigQuery prepareBatchRefresh() {
+    ApolloConfig previous = m_configCache.get();
+    return new ApolloConfigQuery(m_namespace, previous == null ? null : previous.getReleaseKey(),
+        m_remoteMessages.get());
+  }
+
+  /**
+   * 批量加载配置完成，更新缓存
+   *
+   * @param current 有更新的配置，若为 null ，说明配置未更新或未找到
+   */
+  synchronized void onBatchLoaded(ApolloConfig current) {
+    ApolloConfig previous = m_configCache.get();
+    if (current == null) {
+      // 缓存为空时，说明批量查询未找到配置，单独同步以获得明确的结果
+      if (previous == null) {
+        trySync();
+      } else {
+        m_configNeedForceRefresh.set(false);
+      }
+      return;
+    }
+
+    m_configNeedForceRefresh.set(false);
+    m_loadConfigFailSchedulePolicyInMilli.success();
+
+    if (previous == null || !Objects.equals(previous.getReleaseKey(), current.getReleaseKey())) {
+      logger.debug("Remote Config refreshed by batch load!");
+      updateConfigCache(current);
+      // 保存本机快照
+      saveLocalSnapshot();
+      this.fireRepositoryChange(m_namespace, this.getConfig());
+    }
+
+    Tracer.logEvent(String.format("Apollo.Client.Configs.%s", current.getNamespaceName()),
+        current.getReleaseKey());
+  }
+
   /**
    * 获得所有 Config Service 信息
    *
@@ -441,7 +663,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
    */
   private List<ServiceDTO> getConfigServices() {
     //获取Config Service 集群的地址们
-    List<ServiceDTO> services = m_serviceLocator.getConfigServices();
+    List<ServiceDTO> services = m_serviceLocator.getPreferredConfigServices();
     if (services.size() == 0) {
       throw new ApolloConfigException("No available config service");
     }
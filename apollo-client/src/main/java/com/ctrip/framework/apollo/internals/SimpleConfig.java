@@ -14,6 +14,7 @@ import com.ctrip.framework.apollo.model.ConfigChange;
 import com.ctrip.framework.apollo.model.ConfigChangeEvent;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.ctrip.framework.apollo.util.ImmutableProperties;
 import com.google.common.base.Function;
 import com.google.common.collect.Maps;
 
@@ -81,8 +82,7 @@ public class SimpleConfig extends AbstractConfig implements RepositoryChangeList
     if (newProperties.equals(m_configProperties)) {
       return;
     }
-    Properties newConfigProperties = new Properties();
-    newConfigProperties.putAll(newProperties);
+    Properties newConfigProperties = ImmutableProperties.copyOf(newProperties);
 
     List<ConfigChange> changes = calcPropertyChanges(namespace, m_configProperties, newConfigProperties);
     Map<String, ConfigChange> changeMap = Maps.uniqueIndex(changes,
@@ -94,7 +94,7 @@ public class SimpleConfig extends AbstractConfig implements RepositoryChangeList
         });
 
     updateConfig(newConfigProperties, m_configRepository.getSourceType());
-    clearConfigCache();
+    clearConfigCache(changeMap.keySet());
 
     this.fireConfigChange(new ConfigChangeEvent(m_namespace, changeMap));
 
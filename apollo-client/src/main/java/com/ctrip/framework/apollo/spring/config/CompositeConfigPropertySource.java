@@ -0,0 +1,230 @@
+package com.ctrip.framework.apollo.spring.config;
+
+import com.ctrip.framework.apollo.ConfigChangeListener;
+import com.ctrip.framework.apollo.model.ConfigChangeEvent;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.PropertySource;
+
+/**
+ * Composite property source of Apollo namespaces, which indexes each property to the namespace that it is resolved
+ * from, so that looking up a property reads one namespace instead of walking through all of them. <br /> <br />
+ *
+ * The index only records the owner namespace instead of the value, so the value is always read from the config
+ * directly. The index is built lazily on first lookup, properties not listed by the namespaces (e.g.
+ * environment variables) are resolved on first lookup and then indexed as well, and a bounded number of the properties not found
+ * in any namespace are remembered until the next config change. The properties set as system properties are looked
+ * up in order without the index, since they could be changed at runtime. <br /> <br />
+ *
+ * The index is updated synchronously when the config changes, before the change listeners are dispatched, so the
+ * listeners (e.g. the auto update of spring values) always see the latest owner. It's only supported by the configs
+ * extending {@link com.ctrip.framework.apollo.internals.AbstractConfig}, otherwise the namespaces are looked up in
+ * order as {@link CompositePropertySource} does.
+ */
+public class CompositeConfigPropertySource extends CompositePropertySource {
+  private static final String[] EMPTY_ARRAY = new String[0];
+  private static final long MAX_MISSING_NAMES_SIZE = 10000;
+
+  private final ConfigChangeListener m_indexUpdater = new ConfigChangeListener() {
+    @Override
+    public void onChange(ConfigChangeEvent changeEvent) {
+      updateIndex(changeEvent.changedKeys());
+    }
+  };
+
+  /**
+   * property name -> the namespace property source that the property is resolved from
+   */
+  private volatile ConcurrentMap<String, ConfigPropertySource> m_index;
+  /**
+   * the property names not found in any namespace, cleared on config changes. It's bounded since spring may probe
+   * lots of distinct names, e.g. the relaxed binding of spring boot
+   */
+  private final Cache<String, Boolean> m_missingNames = CacheBuilder.newBuilder()
+      .maximumSize(MAX_MISSING_NAMES_SIZE).build();
+  private volatile String[] m_propertyNames;
+  /**
+   * whether all the property sources are {@link ConfigPropertySource} supporting synchronous change listeners
+   */
+  private volatile boolean m_indexable = true;
+
+  public CompositeConfigPropertySource(String name) {
+    super(name);
+  }
+
+  @Override
+  public void addPropertySource(PropertySource<?> propertySource) {
+    super.addPropertySource(propertySource);
+    onPropertySourceAdded(propertySource);
+  }
+
+  @Override
+  public void addFirstPropertySource(PropertySource<?> propertySource) {
+    super.addFirstPropertySource(propertySource);
+    onPropertySourceAdded(propertySource);
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    ConcurrentMap<String, ConfigPropertySource> index = getIndex();
+    if (index == null) {
+      return super.getProperty(name);
+    }
+
+    ConfigPropertySource owner = index.get(name);
+    if (owner != null) {
+      return owner.getProperty(name);
+    }
+    //system properties could be set or cleared at any time, so the names answered by them are neither indexed nor
+    //remembered as missing
+    if (System.getProperty(name) != null) {
+      return super.getProperty(name);
+    }
+    if (m_missingNames.getIfPresent(name) != null) {
+      return null;
+    }
+    return resolveProperty(name);
+  }
+
+  @Override
+  public boolean containsProperty(String name) {
+    return getProperty(name) != null;
+  }
+
+  @Override
+  public String[] getPropertyNames() {
+    if (!m_indexable) {
+      return super.getPropertyNames();
+    }
+
+    String[] propertyNames = m_propertyNames;
+    return propertyNames != null ? propertyNames : buildPropertyNames();
+  }
+
+  private synchronized void onPropertySourceAdded(PropertySource<?> propertySource) {
+    if (!(propertySource instanceof ConfigPropertySource)
+        || !((ConfigPropertySource) propertySource).addSynchronousChangeListener(m_indexUpdater)) {
+      m_indexable = false;
+    }
+    m_index = null;
+    m_missingNames.invalidateAll();
+    m_propertyNames = null;
+  }
+
+  /**
+   * @return the index, or null if any property source doesn't support the index
+   */
+  private ConcurrentMap<String, ConfigPropertySource> getIndex() {
+    if (!m_indexable) {
+      return null;
+    }
+    ConcurrentMap<String, ConfigPropertySource> index = m_index;
+    return index != null ? index : buildIndex();
+  }
+
+  private synchronized ConcurrentMap<String, ConfigPropertySource> buildIndex() {
+    if (m_index != null) {
+      return m_index;
+    }
+
+    ConcurrentMap<String, ConfigPropertySource> index = Maps.newConcurrentMap();
+    List<ConfigPropertySource> configPropertySources = getConfigPropertySources();
+
+    for (ConfigPropertySource configPropertySource : configPropertySources) {
+      for (String propertyName : configPropertySource.getPropertyNames()) {
+        if (!index.containsKey(propertyName)) {
+          ConfigPropertySource owner = findOwner(configPropertySources, propertyName);
+          if (owner != null) {
+            index.put(propertyName, owner);
+          }
+        }
+      }
+    }
+
+    m_index = index;
+    return index;
+  }
+
+  /**
+   * Resolve the property not indexed yet, and index the result
+   */
+  private synchronized Object resolveProperty(String name) {
+    ConcurrentMap<String, ConfigPropertySource> index = getIndex();
+    if (index == null) {
+      return super.getProperty(name);
+    }
+
+    ConfigPropertySource owner = index.get(name);
+    if (owner == null) {
+      owner = findOwner(getConfigPropertySources(), name);
+      if (owner == null) {
+        m_missingNames.put(name, Boolean.TRUE);
+        return null;
+      }
+      index.put(name, owner);
+    }
+    return owner.getProperty(name);
+  }
+
+  private synchronized String[] buildPropertyNames() {
+    if (m_propertyNames == null) {
+      Set<String> names = Sets.newLinkedHashSet();
+      for (ConfigPropertySource configPropertySource : getConfigPropertySources()) {
+        names.addAll(configPropertySource.getSource().getPropertyNames());
+      }
+      m_propertyNames = names.isEmpty() ? EMPTY_ARRAY : names.toArray(new String[names.size()]);
+    }
+    return m_propertyNames;
+  }
+
+  private synchronized void updateIndex(Collection<String> changedKeys) {
+    //e.g. the system properties are refreshed with the config changes
+    m_missingNames.invalidateAll();
+    m_propertyNames = null;
+
+    ConcurrentMap<String, ConfigPropertySource> index = m_index;
+    //the index will be built with the latest configs when it is looked up
+    if (index == null) {
+      return;
+    }
+    List<ConfigPropertySource> configPropertySources = getConfigPropertySources();
+
+    for (String changedKey : changedKeys) {
+      ConfigPropertySource owner = findOwner(configPropertySources, changedKey);
+      if (owner == null) {
+        index.remove(changedKey);
+      } else {
+        index.put(changedKey, owner);
+      }
+    }
+  }
+
+  /**
+   * The owner is the first namespace which has the property, the same as {@link CompositePropertySource}
+   */
+  private ConfigPropertySource findOwner(List<ConfigPropertySource> configPropertySources, String propertyName) {
+    for (ConfigPropertySource configPropertySource : configPropertySources) {
+      if (configPropertySource.getProperty(propertyName) != null) {
+        return configPropertySource;
+      }
+    }
+    return null;
+  }
+
+  private List<ConfigPropertySource> getConfigPropertySources() {
+    Collection<PropertySource<?>> propertySources = getPropertySources();
+    List<ConfigPropertySource> configPropertySources = Lists.newArrayListWithCapacity(propertySources.size());
+    for (PropertySource<?> propertySource : propertySources) {
+      configPropertySources.add((ConfigPropertySource) propertySource);
+    }
+    return configPropertySources;
+  }
+}
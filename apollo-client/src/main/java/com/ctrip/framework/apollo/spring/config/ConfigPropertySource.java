@@ -1,6 +1,7 @@
 package com.ctrip.framework.apollo.spring.config;
 
 import com.ctrip.framework.apollo.ConfigChangeListener;
+import com.ctrip.framework.apollo.internals.AbstractConfig;
 import java.util.Set;
 
 import org.springframework.core.env.EnumerablePropertySource;
@@ -36,4 +37,17 @@ public class ConfigPropertySource extends EnumerablePropertySource<Config> {
   public void addChangeListener(ConfigChangeListener listener) {
     this.source.addChangeListener(listener);
   }
+
+  /**
+   * Add the listener notified before the change listeners are dispatched, only supported by {@link AbstractConfig}
+   *
+   * @return whether the listener is added
+   */
+  boolean addSynchronousChangeListener(ConfigChangeListener listener) {
+    if (this.source instanceof AbstractConfig) {
+      ((AbstractConfig) this.source).addSynchronousChangeListener(listener);
+      return true;
+    }
+    return false;
+  }
 }
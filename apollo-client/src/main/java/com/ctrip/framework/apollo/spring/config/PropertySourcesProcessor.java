@@ -65,7 +65,10 @@ public class PropertySourcesProcessor implements BeanFactoryPostProcessor, Envir
       //already initialized
       return;
     }
-    CompositePropertySource composite = new CompositePropertySource(PropertySourcesConstants.APOLLO_PROPERTY_SOURCE_NAME);
+    CompositePropertySource composite = new CompositeConfigPropertySource(PropertySourcesConstants.APOLLO_PROPERTY_SOURCE_NAME);
+
+    //load all the namespaces concurrently before assembling them in order
+    ConfigService.preload(NAMESPACE_NAMES.values());
 
     //sort by order asc
     ImmutableSortedSet<Integer> orders = ImmutableSortedSet.copyOf(NAMESPACE_NAMES.keySet());
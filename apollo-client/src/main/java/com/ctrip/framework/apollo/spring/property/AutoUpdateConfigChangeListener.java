@@ -5,10 +5,13 @@ import com.ctrip.framework.apollo.enums.PropertyChangeType;
 import com.ctrip.framework.apollo.model.ConfigChange;
 import com.ctrip.framework.apollo.model.ConfigChangeEvent;
 import com.ctrip.framework.apollo.spring.util.SpringInjector;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import org.slf4j.Logger;
@@ -49,23 +52,28 @@ public class AutoUpdateConfigChangeListener implements ConfigChangeListener{
     if (CollectionUtils.isEmpty(keys)) {
       return;
     }
+    // 1. collect the relevant spring values, a spring value referring to multiple changed keys is updated only once
+    Set<SpringValue> targetValues = Sets.newLinkedHashSet();
     for (String key : keys) {
-      // 1. check whether the changed key is relevant
-      Collection<SpringValue> targetValues = springValueRegistry.get(beanFactory, key);
-      if (targetValues == null || targetValues.isEmpty()) {
-        continue;
+      Collection<SpringValue> keySpringValues = springValueRegistry.get(beanFactory, key);
+      if (keySpringValues != null) {
+        targetValues.addAll(keySpringValues);
       }
+    }
+    if (targetValues.isEmpty()) {
+      return;
+    }
 
-      // 2. update the value
-      for (SpringValue val : targetValues) {
-        updateSpringValue(val);
-      }
+    // 2. update the values, the same placeholder is resolved only once
+    Map<String, String> resolvedPlaceholders = Maps.newHashMap();
+    for (SpringValue val : targetValues) {
+      updateSpringValue(val, resolvedPlaceholders);
     }
   }
 
-  private void updateSpringValue(SpringValue springValue) {
+  private void updateSpringValue(SpringValue springValue, Map<String, String> resolvedPlaceholders) {
     try {
-      Object value = resolvePropertyValue(springValue);
+      Object value = resolvePropertyValue(springValue, resolvedPlaceholders);
       springValue.update(value);
 
       logger.info("Auto update apollo changed value successfully, new value: {}, {}", value,
@@ -79,10 +87,16 @@ public class AutoUpdateConfigChangeListener implements ConfigChangeListener{
    * Logic transplanted from DefaultListableBeanFactory
    * @see org.springframework.beans.factory.support.DefaultListableBeanFactory#doResolveDependency(org.springframework.beans.factory.config.DependencyDescriptor, java.lang.String, java.util.Set, org.springframework.beans.TypeConverter)
    */
-  private Object resolvePropertyValue(SpringValue springValue) {
+  private Object resolvePropertyValue(SpringValue springValue, Map<String, String> resolvedPlaceholders) {
+    String placeholder = springValue.getPlaceholder();
+    String strVal = resolvedPlaceholders.get(placeholder);
+    if (strVal == null && !resolvedPlaceholders.containsKey(placeholder)) {
+      strVal = beanFactory.resolveEmbeddedValue(placeholder);
+      resolvedPlaceholders.put(placeholder, strVal);
+    }
+
     // value will never be null, as @Value and @ApolloJsonValue will not allow that
-    Object value = placeholderHelper
-        .resolvePropertyValue(beanFactory, springValue.getBeanName(), springValue.getPlaceholder());
+    Object value = placeholderHelper.evaluatePropertyValue(beanFactory, springValue.getBeanName(), strVal);
 
     if (springValue.isJson()) {
       value = parseJsonValue((String)value, springValue.getGenericType());
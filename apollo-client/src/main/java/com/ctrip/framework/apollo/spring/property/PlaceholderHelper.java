@@ -34,6 +34,16 @@ public class PlaceholderHelper {
     // resolve string value
     String strVal = beanFactory.resolveEmbeddedValue(placeholder);
 
+    return evaluatePropertyValue(beanFactory, beanName, strVal);
+  }
+
+  /**
+   * Evaluate the expressions in the resolved string value of a placeholder, e.g.
+   * <br />
+   * <br />
+   * "#{systemProperties.myProp}" -> "the actual system property value"
+   */
+  public Object evaluatePropertyValue(ConfigurableBeanFactory beanFactory, String beanName, String strVal) {
     BeanDefinition bd = (beanFactory.containsBean(beanName) ? beanFactory
         .getMergedBeanDefinition(beanName) : null);
 
@@ -5,10 +5,14 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.Objects;
 import org.springframework.core.MethodParameter;
 
 /**
- * Spring @Value method info
+ * Spring @Value method info <br /> <br />
+ *
+ * Spring values are equal if they inject the same placeholder into the same field or method of the same bean, e.g. the
+ * spring values registered for each key of a placeholder like ${a}${b}.
  *
  * @author github.com/zhegexiaohuozi  seimimaster@gmail.com
  * @since 2018/2/6.
@@ -24,6 +28,7 @@ public class SpringValue {
   private Class<?> targetType;
   private Type genericType;
   private boolean isJson;
+  private int hashCode;
 
   public SpringValue(String key, String placeholder, Object bean, String beanName, Field field, boolean isJson) {
     this.beanRef = new WeakReference<>(bean);
@@ -36,6 +41,7 @@ public class SpringValue {
     if(isJson){
       this.genericType = field.getGenericType();
     }
+    this.hashCode = Objects.hash(System.identityHashCode(bean), field, placeholder, isJson);
   }
 
   public SpringValue(String key, String placeholder, Object bean, String beanName, Method method, boolean isJson) {
@@ -50,6 +56,7 @@ public class SpringValue {
     if(isJson){
       this.genericType = method.getGenericParameterTypes()[0];
     }
+    this.hashCode = Objects.hash(System.identityHashCode(bean), method, placeholder, isJson);
   }
 
   public void update(Object newVal) throws IllegalAccessException, InvocationTargetException {
@@ -116,6 +123,28 @@ public class SpringValue {
     return beanRef.get() != null;
   }
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SpringValue)) {
+      return false;
+    }
+    SpringValue that = (SpringValue) o;
+    return hashCode == that.hashCode
+        && isJson == that.isJson
+        && beanRef.get() == that.beanRef.get()
+        && Objects.equals(field, that.field)
+        && Objects.equals(methodParameter, that.methodParameter)
+        && Objects.equals(placeholder, that.placeholder);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
   @Override
   public String toString() {
     Object bean = beanRef.get();
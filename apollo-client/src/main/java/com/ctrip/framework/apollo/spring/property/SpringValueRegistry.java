@@ -1,23 +1,26 @@
 package com.ctrip.framework.apollo.spring.property;
 
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
-import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.google.common.collect.Multimaps;
 import org.springframework.beans.factory.BeanFactory;
 
+/**
+ * Spring values indexed by bean factory and key, the spring values of a key are kept in registration order and could
+ * be read while registering or cleaning.
+ */
 public class SpringValueRegistry {
   private static final long CLEAN_INTERVAL_IN_SECONDS = 5;
-  private final Map<BeanFactory, Multimap<String, SpringValue>> registry = Maps.newConcurrentMap();
+  private final Map<BeanFactory, ConcurrentMap<String, Collection<SpringValue>>> registry = Maps.newConcurrentMap();
   private final AtomicBoolean initialized = new AtomicBoolean(false);
   private final Object LOCK = new Object();
 
@@ -25,12 +28,21 @@ public class SpringValueRegistry {
     if (!registry.containsKey(beanFactory)) {
       synchronized (LOCK) {
         if (!registry.containsKey(beanFactory)) {
-          registry.put(beanFactory, Multimaps.synchronizedListMultimap(LinkedListMultimap.<String, SpringValue>create()));
+          registry.put(beanFactory, Maps.<String, Collection<SpringValue>>newConcurrentMap());
         }
       }
     }
 
-    registry.get(beanFactory).put(key, springValue);
+    ConcurrentMap<String, Collection<SpringValue>> beanFactorySpringValues = registry.get(beanFactory);
+    Collection<SpringValue> springValues = beanFactorySpringValues.get(key);
+    if (springValues == null) {
+      Collection<SpringValue> newSpringValues = new ConcurrentLinkedQueue<>();
+      springValues = beanFactorySpringValues.putIfAbsent(key, newSpringValues);
+      if (springValues == null) {
+        springValues = newSpringValues;
+      }
+    }
+    springValues.add(springValue);
 
     // lazy initialize
     if (initialized.compareAndSet(false, true)) {
@@ -39,7 +51,7 @@ public class SpringValueRegistry {
   }
 
   public Collection<SpringValue> get(BeanFactory beanFactory, String key) {
-    Multimap<String, SpringValue> beanFactorySpringValues = registry.get(beanFactory);
+    Map<String, Collection<SpringValue>> beanFactorySpringValues = registry.get(beanFactory);
     if (beanFactorySpringValues == null) {
       return null;
     }
@@ -61,15 +73,16 @@ public class SpringValueRegistry {
   }
 
   private void scanAndClean() {
-    Iterator<Multimap<String, SpringValue>> iterator = registry.values().iterator();
+    Iterator<ConcurrentMap<String, Collection<SpringValue>>> iterator = registry.values().iterator();
     while (!Thread.currentThread().isInterrupted() && iterator.hasNext()) {
-      Multimap<String, SpringValue> springValues = iterator.next();
-      Iterator<Entry<String, SpringValue>> springValueIterator = springValues.entries().iterator();
-      while (springValueIterator.hasNext()) {
-        Entry<String, SpringValue> springValue = springValueIterator.next();
-        if (!springValue.getValue().isTargetBeanValid()) {
-          // clear unused spring values
-          springValueIterator.remove();
+      ConcurrentMap<String, Collection<SpringValue>> beanFactorySpringValues = iterator.next();
+      for (Entry<String, Collection<SpringValue>> entry : beanFactorySpringValues.entrySet()) {
+        Iterator<SpringValue> springValueIterator = entry.getValue().iterator();
+        while (springValueIterator.hasNext()) {
+          if (!springValueIterator.next().isTargetBeanValid()) {
+            // clear unused spring values
+            springValueIterator.remove();
+          }
         }
       }
     }
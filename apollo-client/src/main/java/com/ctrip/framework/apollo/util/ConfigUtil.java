@@ -26,6 +26,7 @@ public class ConfigUtil {
   private String cluster;
   private int loadConfigQPS = 2; //2 times per second
   private int longPollQPS = 2; //2 times per second
+  private int longPollReconnectsPerMinute = 12; //12 times per minute
   //for on error retry
   private long onErrorRetryInterval = 1;//1 second
   private TimeUnit onErrorRetryIntervalTimeUnit = TimeUnit.SECONDS;//1 second
@@ -35,6 +36,11 @@ public class ConfigUtil {
   private TimeUnit configCacheExpireTimeUnit = TimeUnit.MINUTES;//1 minute
   private long longPollingInitialDelayInMills = 2000;//2 seconds
   private boolean autoUpdateInjectedSpringProperties = true;
+  private boolean notificationStreamEnabled = false;
+  private boolean configBatchLoadEnabled = false;
+  private boolean configDeltaEnabled = false;
+  private boolean localCacheFileFsyncEnabled = false;
+  private boolean localSnapshotEnabled = false;
   private final RateLimiter warnLogRateLimiter;
 
   public ConfigUtil() {
@@ -47,6 +53,11 @@ public class ConfigUtil {
     initMaxConfigCacheSize();
     initLongPollingInitialDelayInMills();
     initAutoUpdateInjectedSpringProperties();
+    initNotificationStreamEnabled();
+    initConfigBatchLoadEnabled();
+    initConfigDeltaEnabled();
+    initLocalCacheFileFsyncEnabled();
+    initLocalSnapshotEnabled();
   }
 
   /**
@@ -175,23 +186,30 @@ public class ConfigUtil {
   }
 
   private void initQPS() {
-    String customizedLoadConfigQPS = System.getProperty("apollo.loadConfigQPS");
-    if (!Strings.isNullOrEmpty(customizedLoadConfigQPS)) {
-      try {
-        loadConfigQPS = Integer.parseInt(customizedLoadConfigQPS);
-      } catch (Throwable ex) {
-        logger.error("Config for apollo.loadConfigQPS is invalid: {}", customizedLoadConfigQPS);
-      }
-    }
+    loadConfigQPS = getPositiveIntProperty("apollo.loadConfigQPS", loadConfigQPS);
+    longPollQPS = getPositiveIntProperty("apollo.longPollQPS", longPollQPS);
+    longPollReconnectsPerMinute = getPositiveIntProperty("apollo.longPollReconnectsPerMinute",
+        longPollReconnectsPerMinute);
+  }
 
-    String customizedLongPollQPS = System.getProperty("apollo.longPollQPS");
-    if (!Strings.isNullOrEmpty(customizedLongPollQPS)) {
-      try {
-        longPollQPS = Integer.parseInt(customizedLongPollQPS);
-      } catch (Throwable ex) {
-        logger.error("Config for apollo.longPollQPS is invalid: {}", customizedLongPollQPS);
+  /**
+   * The rates are used to create rate limiters, which don't accept non-positive rates
+   */
+  private int getPositiveIntProperty(String key, int defaultValue) {
+    String customizedValue = System.getProperty(key);
+    if (Strings.isNullOrEmpty(customizedValue)) {
+      return defaultValue;
+    }
+    try {
+      int value = Integer.parseInt(customizedValue);
+      if (value > 0) {
+        return value;
       }
+    } catch (Throwable ex) {
+      //ignore
     }
+    logger.error("Config for {} is invalid: {}", key, customizedValue);
+    return defaultValue;
   }
 
   public int getLoadConfigQPS() {
@@ -202,6 +220,16 @@ public class ConfigUtil {
     return longPollQPS;
   }
 
+  /**
+   * The rate of reconnecting long polling or notification stream after failures, so that a connection that keeps
+   * failing right after succeeding would not reconnect at the minimum backoff time.
+   *
+   * @return the max reconnects per minute
+   */
+  public int getLongPollReconnectsPerMinute() {
+    return longPollReconnectsPerMinute;
+  }
+
   public long getOnErrorRetryInterval() {
     return onErrorRetryInterval;
   }
@@ -310,4 +338,102 @@ public class ConfigUtil {
   public boolean isAutoUpdateInjectedSpringPropertiesEnabled() {
     return autoUpdateInjectedSpringProperties;
   }
+
+  private void initNotificationStreamEnabled() {
+    // 1. Get from System Property
+    String enableNotificationStream = System.getProperty("apollo.notificationStream.enabled");
+    if (Strings.isNullOrEmpty(enableNotificationStream)) {
+      // 2. Get from app.properties
+      enableNotificationStream = Foundation.app().getProperty("apollo.notificationStream.enabled", null);
+    }
+    if (!Strings.isNullOrEmpty(enableNotificationStream)) {
+      notificationStreamEnabled = Boolean.parseBoolean(enableNotificationStream.trim());
+    }
+  }
+
+  /**
+   * Whether to receive notifications via the streaming endpoint instead of long polling, the client falls back to
+   * long polling automatically if the config service doesn't support it.
+   */
+  public boolean isNotificationStreamEnabled() {
+    return notificationStreamEnabled;
+  }
+
+  private void initConfigBatchLoadEnabled() {
+    // 1. Get from System Property
+    String enableConfigBatchLoad = System.getProperty("apollo.configBatchLoad.enabled");
+    if (Strings.isNullOrEmpty(enableConfigBatchLoad)) {
+      // 2. Get from app.properties
+      enableConfigBatchLoad = Foundation.app().getProperty("apollo.configBatchLoad.enabled", null);
+    }
+    if (!Strings.isNullOrEmpty(enableConfigBatchLoad)) {
+      configBatchLoadEnabled = Boolean.parseBoolean(enableConfigBatchLoad.trim());
+    }
+  }
+
+  /**
+   * Whether to load the configs of the notified namespaces in one batch request, the client falls back to loading
+   * them one by one automatically if the config service doesn't support it.
+   */
+  public boolean isConfigBatchLoadEnabled() {
+    return configBatchLoadEnabled;
+  }
+
+  private void initConfigDeltaEnabled() {
+    // 1. Get from System Property
+    String enableConfigDelta = System.getProperty("apollo.configDelta.enabled");
+    if (Strings.isNullOrEmpty(enableConfigDelta)) {
+      // 2. Get from app.properties
+      enableConfigDelta = Foundation.app().getProperty("apollo.configDelta.enabled", null);
+    }
+    if (!Strings.isNullOrEmpty(enableConfigDelta)) {
+      configDeltaEnabled = Boolean.parseBoolean(enableConfigDelta.trim());
+    }
+  }
+
+  /**
+   * Whether to ask the config service for the changed items only when the client already has the configs, the config
+   * service responds with the full configs if it couldn't compute the delta.
+   */
+  public boolean isConfigDeltaEnabled() {
+    return configDeltaEnabled;
+  }
+
+  private void initLocalCacheFileFsyncEnabled() {
+    // 1. Get from System Property
+    String enableLocalCacheFileFsync = System.getProperty("apollo.localCacheFileFsync.enabled");
+    if (Strings.isNullOrEmpty(enableLocalCacheFileFsync)) {
+      // 2. Get from app.properties
+      enableLocalCacheFileFsync = Foundation.app().getProperty("apollo.localCacheFileFsync.enabled", null);
+    }
+    if (!Strings.isNullOrEmpty(enableLocalCacheFileFsync)) {
+      localCacheFileFsyncEnabled = Boolean.parseBoolean(enableLocalCacheFileFsync.trim());
+    }
+  }
+
+  /**
+   * Whether to force the local cache file to the storage device before it replaces the previous one
+   */
+  public boolean isLocalCacheFileFsyncEnabled() {
+    return localCacheFileFsyncEnabled;
+  }
+
+  private void initLocalSnapshotEnabled() {
+    // 1. Get from System Property
+    String enableLocalSnapshot = System.getProperty("apollo.localSnapshot.enabled");
+    if (Strings.isNullOrEmpty(enableLocalSnapshot)) {
+      // 2. Get from app.properties
+      enableLocalSnapshot = Foundation.app().getProperty("apollo.localSnapshot.enabled", null);
+    }
+    if (!Strings.isNullOrEmpty(enableLocalSnapshot)) {
+      localSnapshotEnabled = Boolean.parseBoolean(enableLocalSnapshot.trim());
+    }
+  }
+
+  /**
+   * Whether to share the configs with the other processes of the same app on this host by local snapshots
+   */
+  public boolean isLocalSnapshotEnabled() {
+    return localSnapshotEnabled;
+  }
 }
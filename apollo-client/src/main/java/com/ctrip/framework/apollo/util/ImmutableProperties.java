@@ -0,0 +1,193 @@
+package com.ctrip.framework.apollo.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Read-only properties, which could be shared between repositories and configs without defensive copies.
+ * All the mutation methods throw {@link UnsupportedOperationException}, including the default methods added to
+ * {@link Map} in java 8, which {@link java.util.Hashtable} implements by modifying the entries directly. <br /> <br />
+ *
+ * Overriding them references the java 8 functional interfaces, so this class must be compiled with JDK 8+, while the
+ * class files still target java 7: the overrides are never invoked on java 7 runtimes, which don't have these methods.
+ */
+public class ImmutableProperties extends Properties {
+  private static final long serialVersionUID = -3539745374389066453L;
+
+  /**
+   * guarded by the lock of this properties, false only while the entries are being populated
+   */
+  private boolean m_frozen;
+
+  private ImmutableProperties() {
+  }
+
+  private ImmutableProperties(Map<?, ?> source) {
+    if (source != null) {
+      for (Map.Entry<?, ?> entry : source.entrySet()) {
+        super.put(entry.getKey(), entry.getValue());
+      }
+    }
+    m_frozen = true;
+  }
+
+  /**
+   * Copy the source into an immutable properties, the source itself is returned if it is already immutable.
+   *
+   * @param source the source map, null means empty
+   * @return the immutable properties
+   */
+  public static ImmutableProperties copyOf(Map<?, ?> source) {
+    if (source instanceof ImmutableProperties) {
+      return (ImmutableProperties) source;
+    }
+    return new ImmutableProperties(source);
+  }
+
+  /**
+   * Create a builder, which populates the entries in place, e.g. while decoding a response, so that no intermediate
+   * map is needed.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public synchronized Object put(Object key, Object value) {
+    checkNotFrozen();
+    return super.put(key, value);
+  }
+
+  @Override
+  public synchronized void putAll(Map<?, ?> t) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object setProperty(String key, String value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object remove(Object key) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object putIfAbsent(Object key, Object value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized boolean remove(Object key, Object value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object replace(Object key, Object value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object computeIfPresent(Object key,
+      BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized Object merge(Object key, Object value,
+      BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Set<Object> keySet() {
+    return Collections.unmodifiableSet(super.keySet());
+  }
+
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    return Collections.unmodifiableSet(super.entrySet());
+  }
+
+  @Override
+  public Collection<Object> values() {
+    return Collections.unmodifiableCollection(super.values());
+  }
+
+  private synchronized void putEntry(String key, String value) {
+    checkNotFrozen();
+    super.put(key, value);
+  }
+
+  private synchronized void freeze() {
+    m_frozen = true;
+  }
+
+  private void checkNotFrozen() {
+    //m_frozen is false only when the entries are being populated, e.g. during deserialization or by the builder
+    if (m_frozen) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  public static class Builder {
+    private ImmutableProperties m_properties = new ImmutableProperties();
+
+    private Builder() {
+    }
+
+    public Builder put(String key, String value) {
+      checkNotBuilt();
+      m_properties.putEntry(key, value);
+      return this;
+    }
+
+    /**
+     * @return the immutable properties, the builder could not be used any more
+     */
+    public ImmutableProperties build() {
+      checkNotBuilt();
+      ImmutableProperties properties = m_properties;
+      m_properties = null;
+      properties.freeze();
+      return properties;
+    }
+
+    private void checkNotBuilt() {
+      if (m_properties == null) {
+        throw new IllegalStateException("The properties are already built");
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.ctrip.framework.apollo.util.http;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.util.ImmutableProperties;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decode {@link ApolloConfig} from the json stream, the configurations are read into an {@link ImmutableProperties}
+ * directly, so that no intermediate map is built and the repositories could adopt it without copying.
+ */
+public class ApolloConfigTypeAdapter extends TypeAdapter<ApolloConfig> {
+
+  @Override
+  public void write(JsonWriter out, ApolloConfig value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    out.name("appId").value(value.getAppId());
+    out.name("cluster").value(value.getCluster());
+    out.name("namespaceName").value(value.getNamespaceName());
+    if (value.getConfigurations() != null) {
+      out.name("configurations").beginObject();
+      for (Map.Entry<String, String> entry : value.getConfigurations().entrySet()) {
+        out.name(entry.getKey()).value(entry.getValue());
+      }
+      out.endObject();
+    }
+    out.name("releaseKey").value(value.getReleaseKey());
+    if (value.getBaseReleaseKey() != null) {
+      out.name("baseReleaseKey").value(value.getBaseReleaseKey());
+    }
+    if (value.getDeletedKeys() != null) {
+      out.name("deletedKeys").beginArray();
+      for (String deletedKey : value.getDeletedKeys()) {
+        out.value(deletedKey);
+      }
+      out.endArray();
+    }
+    out.endObject();
+  }
+
+  @Override
+  public ApolloConfig read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+
+    ApolloConfig apolloConfig = new ApolloConfig();
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      if ("appId".equals(name)) {
+        apolloConfig.setAppId(in.nextString());
+      } else if ("cluster".equals(name)) {
+        apolloConfig.setCluster(in.nextString());
+      } else if ("namespaceName".equals(name)) {
+        apolloConfig.setNamespaceName(in.nextString());
+      } else if ("releaseKey".equals(name)) {
+        apolloConfig.setReleaseKey(in.nextString());
+      } else if ("baseReleaseKey".equals(name)) {
+        apolloConfig.setBaseReleaseKey(in.nextString());
+      } else if ("configurations".equals(name)) {
+        apolloConfig.setConfigurations(readConfigurations(in));
+      } else if ("deletedKeys".equals(name)) {
+        apolloConfig.setDeletedKeys(readStrings(in));
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return apolloConfig;
+  }
+
+  /**
+   * @return the immutable properties as a string map, all its keys and values are strings
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, String> readConfigurations(JsonReader in) throws IOException {
+    ImmutableProperties.Builder builder = ImmutableProperties.builder();
+    in.beginObject();
+    while (in.hasNext()) {
+      String key = in.nextName();
+      //properties don't accept null values
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      builder.put(key, in.nextString());
+    }
+    in.endObject();
+    return (Map) builder.build();
+  }
+
+  private List<String> readStrings(JsonReader in) throws IOException {
+    List<String> values = new ArrayList<>();
+    in.beginArray();
+    while (in.hasNext()) {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      values.add(in.nextString());
+    }
+    in.endArray();
+    return values;
+  }
+}
@@ -0,0 +1,108 @@
+package com.ctrip.framework.apollo.util.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} based on {@link HttpURLConnection}, the connections are kept alive by the JDK if the
+ * responses are consumed.
+ */
+public class DefaultHttpTransport implements HttpTransport {
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String GZIP_ENCODING = "gzip";
+
+  @Override
+  public HttpTransportResponse doGet(HttpRequest httpRequest, int connectTimeout, int readTimeout)
+      throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(httpRequest.getUrl()).openConnection();
+
+    conn.setRequestMethod("GET");
+    conn.setRequestProperty(ACCEPT_ENCODING, GZIP_ENCODING);
+
+    Map<String, String> headers = httpRequest.getHeaders();
+    if (headers != null && headers.size() > 0) {
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        conn.setRequestProperty(entry.getKey(), entry.getValue());
+      }
+    }
+
+    conn.setConnectTimeout(connectTimeout);
+    conn.setReadTimeout(readTimeout);
+
+    conn.connect();
+    return new UrlConnectionResponse(conn);
+  }
+
+  @Override
+  public int getOrder() {
+    return LOWEST_PRECEDENCE;
+  }
+
+  private static class UrlConnectionResponse implements HttpTransportResponse {
+    private final HttpURLConnection m_conn;
+    private InputStream m_body;
+
+    UrlConnectionResponse(HttpURLConnection conn) {
+      m_conn = conn;
+    }
+
+    @Override
+    public int getStatusCode() throws IOException {
+      return m_conn.getResponseCode();
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (m_body == null) {
+        InputStream inputStream = m_conn.getInputStream();
+        m_body = GZIP_ENCODING.equalsIgnoreCase(m_conn.getContentEncoding()) ? new GZIPInputStream(inputStream)
+            : inputStream;
+      }
+      return m_body;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return m_conn.getHeaderField(name);
+    }
+
+    /**
+     * HttpURLConnection doesn't tell whether the connection is reused from its keep-alive cache, the time of connect()
+     * is either the handshake or the cache lookup, so it is reported as unknown
+     */
+    @Override
+    public long getConnectNanos() {
+      return -1;
+    }
+
+    @Override
+    public void close() {
+      InputStream stream = m_body;
+      try {
+        if (stream == null) {
+          /**
+           * according to https://docs.oracle.com/javase/7/docs/technotes/guides/net/http-keepalive.html,
+           * we should clean up the connection by reading the response body so that the connection
+           * could be reused.
+           */
+          stream = m_conn.getResponseCode() >= 400 ? m_conn.getErrorStream() : m_conn.getInputStream();
+          HttpUtil.exhaust(stream);
+        }
+      } catch (IOException ex) {
+        //ignore
+      } finally {
+        if (stream != null) {
+          try {
+            stream.close();
+          } catch (IOException ex) {
+            //ignore
+          }
+        }
+      }
+    }
+  }
+}
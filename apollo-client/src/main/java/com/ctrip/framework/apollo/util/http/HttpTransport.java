@@ -0,0 +1,25 @@
+package com.ctrip.framework.apollo.util.http;
+
+import com.ctrip.framework.apollo.core.spi.Ordered;
+import java.io.IOException;
+
+/**
+ * The transport that {@link HttpUtil} sends requests with, loaded by {@link java.util.ServiceLoader} and the one with
+ * the highest precedence is used. <br /> <br />
+ *
+ * {@link DefaultHttpTransport} based on {@link java.net.HttpURLConnection} is used by default, and
+ * {@link OkHttpTransport} keeps persistent connections to each config service if registered in
+ * /META-INF/services/com.ctrip.framework.apollo.util.http.HttpTransport with OkHttp in the classpath.
+ */
+public interface HttpTransport extends Ordered {
+
+  /**
+   * Send a get request and wait for the response headers.
+   *
+   * @param httpRequest    the request
+   * @param connectTimeout the connect timeout in milliseconds
+   * @param readTimeout    the read timeout in milliseconds
+   * @return the response, which must be closed after use
+   */
+  HttpTransportResponse doGet(HttpRequest httpRequest, int connectTimeout, int readTimeout) throws IOException;
+}
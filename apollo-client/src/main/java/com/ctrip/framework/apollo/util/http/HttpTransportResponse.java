@@ -0,0 +1,37 @@
+package com.ctrip.framework.apollo.util.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response of {@link HttpTransport}. The connection could only be reused if the body is read to the end before
+ * the response is closed, otherwise the connection is closed.
+ */
+public interface HttpTransportResponse extends Closeable {
+
+  int getStatusCode() throws IOException;
+
+  /**
+   * @return the response body, which is already decompressed
+   */
+  InputStream getBody() throws IOException;
+
+  /**
+   * @param name the header name
+   * @return the header value, or null if the header is absent
+   */
+  String getHeader(String name);
+
+  /**
+   * @return the nanoseconds spent on establishing the connection, 0 if an existing connection is reused, or -1 if
+   * unknown
+   */
+  long getConnectNanos();
+
+  /**
+   * Release the connection, the error response body is consumed if the body is not read.
+   */
+  @Override
+  void close();
+}
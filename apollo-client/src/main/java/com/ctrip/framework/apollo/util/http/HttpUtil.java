@@ -1,26 +1,35 @@
 package com.ctrip.framework.apollo.util.http;
 
 import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
 import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.foundation.internals.ServiceBootstrap;
 import com.google.common.base.Function;
-import com.google.common.io.CharStreams;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
 public class HttpUtil {
+  private static final String RETRY_AFTER = "Retry-After";
+
   private ConfigUtil m_configUtil;
+  private HttpTransport m_transport;
   private Gson gson;
 
   /**
@@ -28,7 +37,9 @@ public class HttpUtil {
    */
   public HttpUtil() {
     m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
-    gson = new Gson();
+    m_transport = ServiceBootstrap.loadPrimary(HttpTransport.class);
+    //decode the configurations into immutable properties directly
+    gson = new GsonBuilder().registerTypeAdapter(ApolloConfig.class, new ApolloConfigTypeAdapter()).create();
   }
 
   /**
@@ -40,9 +51,9 @@ public class HttpUtil {
    * @throws ApolloConfigException if any error happened or response code is neither 200 nor 304
    */
   public <T> HttpResponse<T> doGet(HttpRequest httpRequest, final Class<T> responseType) {
-    Function<String, T> convertResponse = new Function<String, T>() {
+    Function<Reader, T> convertResponse = new Function<Reader, T>() {
       @Override
-      public T apply(String input) {
+      public T apply(Reader input) {
         return gson.fromJson(input, responseType);
       }
     };
@@ -59,9 +70,9 @@ public class HttpUtil {
    * @throws ApolloConfigException if any error happened or response code is neither 200 nor 304
    */
   public <T> HttpResponse<T> doGet(HttpRequest httpRequest, final Type responseType) {
-    Function<String, T> convertResponse = new Function<String, T>() {
+    Function<Reader, T> convertResponse = new Function<Reader, T>() {
       @Override
-      public T apply(String input) {
+      public T apply(Reader input) {
         return gson.fromJson(input, responseType);
       }
     };
@@ -70,99 +81,160 @@ public class HttpUtil {
   }
 
   private <T> HttpResponse<T> doGetWithSerializeFunction(HttpRequest httpRequest,
-                                                         Function<String, T> serializeFunction) {
-    InputStreamReader isr = null;
-    InputStreamReader esr = null;
-    int statusCode;
+                                                         Function<Reader, T> serializeFunction) {
+    HttpTransportResponse response = null;
+    int statusCode = 0;
+    long retryAfterInSeconds = -1;
+    long startNanos = System.nanoTime();
+    long headersNanos = -1;
     try {
-      HttpURLConnection conn = (HttpURLConnection) new URL(httpRequest.getUrl()).openConnection();
-
-      conn.setRequestMethod("GET");
-
-      Map<String, String> headers = httpRequest.getHeaders();
-      if (headers != null && headers.size() > 0) {
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-          conn.setRequestProperty(entry.getKey(), entry.getValue());
-        }
-      }
+      response = execute(httpRequest);
 
-      int connectTimeout = httpRequest.getConnectTimeout();
-      if (connectTimeout < 0) {
-        connectTimeout = m_configUtil.getConnectTimeout();
-      }
-
-      int readTimeout = httpRequest.getReadTimeout();
-      if (readTimeout < 0) {
-        readTimeout = m_configUtil.getReadTimeout();
-      }
-
-      conn.setConnectTimeout(connectTimeout);
-      conn.setReadTimeout(readTimeout);
-
-      conn.connect();
-
-      statusCode = conn.getResponseCode();
-      String response;
-
-      try {
-        isr = new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8);
-        response = CharStreams.toString(isr);
-      } catch (IOException ex) {
-        /**
-         * according to https://docs.oracle.com/javase/7/docs/technotes/guides/net/http-keepalive.html,
-         * we should clean up the connection by reading the response body so that the connection
-         * could be reused.
-         */
-        InputStream errorStream = conn.getErrorStream();
-
-        if (errorStream != null) {
-          esr = new InputStreamReader(errorStream, StandardCharsets.UTF_8);
-          try {
-            CharStreams.toString(esr);
-          } catch (IOException ioe) {
-            //ignore
-          }
-        }
-
-        // 200 and 304 should not trigger IOException, thus we must throw the original exception out
-        if (statusCode == 200 || statusCode == 304) {
-          throw ex;
-        }
-        // for status codes like 404, IOException is expected when calling conn.getInputStream()
-        throw new ApolloConfigStatusCodeException(statusCode, ex);
-      }
+      statusCode = response.getStatusCode();
+      headersNanos = System.nanoTime();
 
       if (statusCode == 200) {
-        return new HttpResponse<>(statusCode, serializeFunction.apply(response));
+        Reader reader = new InputStreamReader(response.getBody(), StandardCharsets.UTF_8);
+        // deserialize from the stream directly instead of building the whole response string first
+        T body = serializeFunction.apply(reader);
+        // consume the rest of the response so that the connection could be reused
+        exhaust(reader);
+        return new HttpResponse<>(statusCode, body);
       }
 
       if (statusCode == 304) {
         return new HttpResponse<>(statusCode, null);
       }
-    } catch (ApolloConfigStatusCodeException ex) {
-      throw ex;
+
+      retryAfterInSeconds = parseRetryAfter(response.getHeader(RETRY_AFTER));
     } catch (Throwable ex) {
       throw new ApolloConfigException("Could not complete get operation", ex);
     } finally {
-      if (isr != null) {
-        try {
-          isr.close();
-        } catch (IOException ex) {
-          // ignore
-        }
-      }
+      close(httpRequest, response, statusCode, startNanos, headersNanos, true);
+    }
+
+    throw new ApolloConfigStatusCodeException(statusCode,
+        String.format("Get operation failed for %s", httpRequest.getUrl()), retryAfterInSeconds);
+  }
 
-      if (esr != null) {
-        try {
-          esr.close();
-        } catch (IOException ex) {
-          // ignore
-        }
+  /**
+   * Do get operation for the http request and hand the response body stream to the stream handler, which is
+   * expected to consume the stream until it ends, e.g. server-sent events.
+   *
+   * @param httpRequest   the request
+   * @param streamHandler the handler to consume the response body
+   * @return the response with the result of the stream handler as body
+   * @throws ApolloConfigException if any error happened or response code is not 200
+   */
+  public <T> HttpResponse<T> doGetStream(HttpRequest httpRequest, Function<BufferedReader, T> streamHandler) {
+    HttpTransportResponse response = null;
+    int statusCode = 0;
+    long retryAfterInSeconds = -1;
+    long startNanos = System.nanoTime();
+    long headersNanos = -1;
+    try {
+      response = execute(httpRequest);
+
+      statusCode = response.getStatusCode();
+      headersNanos = System.nanoTime();
+
+      if (statusCode == 200) {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
+        return new HttpResponse<>(statusCode, streamHandler.apply(reader));
       }
+
+      retryAfterInSeconds = parseRetryAfter(response.getHeader(RETRY_AFTER));
+    } catch (Throwable ex) {
+      throw new ApolloConfigException("Could not complete get stream operation", ex);
+    } finally {
+      //the stream lasts as long as the handler wants, so the read time is not logged
+      close(httpRequest, response, statusCode, startNanos, headersNanos, false);
     }
 
     throw new ApolloConfigStatusCodeException(statusCode,
-        String.format("Get operation failed for %s", httpRequest.getUrl()));
+        String.format("Get stream operation failed for %s", httpRequest.getUrl()), retryAfterInSeconds);
+  }
+
+  private HttpTransportResponse execute(HttpRequest httpRequest) throws IOException {
+    int connectTimeout = httpRequest.getConnectTimeout();
+    if (connectTimeout < 0) {
+      connectTimeout = m_configUtil.getConnectTimeout();
+    }
+
+    int readTimeout = httpRequest.getReadTimeout();
+    if (readTimeout < 0) {
+      readTimeout = m_configUtil.getReadTimeout();
+    }
+
+    return m_transport.doGet(httpRequest, connectTimeout, readTimeout);
+  }
+
+  /**
+   * Close the response and log the connect time, time to first byte and read time in milliseconds
+   */
+  private void close(HttpRequest httpRequest, HttpTransportResponse response, int statusCode, long startNanos,
+      long headersNanos, boolean logReadTime) {
+    if (response == null) {
+      return;
+    }
+    response.close();
+
+    if (headersNanos < 0) {
+      return;
+    }
+    long endNanos = System.nanoTime();
+    StringBuilder timing = new StringBuilder();
+    long connectNanos = response.getConnectNanos();
+    if (connectNanos >= 0) {
+      timing.append("connect=").append(TimeUnit.NANOSECONDS.toMillis(connectNanos)).append('&');
+    }
+    timing.append("ttfb=").append(TimeUnit.NANOSECONDS.toMillis(headersNanos - startNanos));
+    if (logReadTime) {
+      timing.append("&read=").append(TimeUnit.NANOSECONDS.toMillis(endNanos - headersNanos));
+    }
+    Tracer.logEvent("Apollo.Client.HttpTiming", getAuthority(httpRequest.getUrl()),
+        statusCode == 200 || statusCode == 304 ? Transaction.SUCCESS : String.valueOf(statusCode),
+        timing.toString());
+  }
+
+  /**
+   * Only the delay-seconds form is supported, as the config service never returns the http-date form
+   */
+  private long parseRetryAfter(String retryAfter) {
+    if (retryAfter == null) {
+      return -1;
+    }
+    try {
+      return Math.max(Long.parseLong(retryAfter.trim()), 0);
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  private String getAuthority(String url) {
+    try {
+      return new URL(url).getAuthority();
+    } catch (MalformedURLException ex) {
+      return url;
+    }
+  }
+
+  private void exhaust(Reader reader) throws IOException {
+    char[] buffer = new char[1024];
+    while (reader.read(buffer) != -1) {
+      // ignore
+    }
+  }
+
+  static void exhaust(InputStream inputStream) throws IOException {
+    if (inputStream == null) {
+      return;
+    }
+    byte[] buffer = new byte[1024];
+    while (inputStream.read(buffer) != -1) {
+      // ignore
+    }
   }
 
 }
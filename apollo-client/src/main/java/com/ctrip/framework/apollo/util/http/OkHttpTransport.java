@@ -0,0 +1,167 @@
+package com.ctrip.framework.apollo.util.http;
+
+import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * {@link HttpTransport} based on OkHttp, which keeps a small pool of persistent connections to each config service
+ * and multiplexes the requests with HTTP/2 if the config service supports it, so the long polls and config queries
+ * to the same config service share connections instead of paying the TCP and TLS handshakes again. <br /> <br />
+ *
+ * To use it, add OkHttp to the classpath and register this class in
+ * /META-INF/services/com.ctrip.framework.apollo.util.http.HttpTransport.
+ */
+public class OkHttpTransport implements HttpTransport {
+  private static final int MAX_IDLE_CONNECTIONS = 5;
+  private static final long KEEP_ALIVE_DURATION_IN_MINUTES = 5;
+
+  private final OkHttpClient m_client;
+  /**
+   * connect timeout and read timeout -> client sharing the connection pool with m_client
+   */
+  private final ConcurrentMap<Long, OkHttpClient> m_clients;
+
+  public OkHttpTransport() {
+    m_client = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_IN_MINUTES, TimeUnit.MINUTES))
+        .eventListenerFactory(new EventListener.Factory() {
+          @Override
+          public EventListener create(Call call) {
+            return new ConnectTimer((ConnectTiming) call.request().tag());
+          }
+        })
+        .build();
+    m_clients = Maps.newConcurrentMap();
+  }
+
+  @Override
+  public HttpTransportResponse doGet(HttpRequest httpRequest, int connectTimeout, int readTimeout)
+      throws IOException {
+    ConnectTiming connectTiming = new ConnectTiming();
+    //gzip is negotiated and decompressed by OkHttp transparently
+    Request.Builder builder = new Request.Builder().url(httpRequest.getUrl()).get().tag(connectTiming);
+
+    Map<String, String> headers = httpRequest.getHeaders();
+    if (headers != null && headers.size() > 0) {
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        builder.header(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Response response = getClient(connectTimeout, readTimeout).newCall(builder.build()).execute();
+    return new OkHttpResponse(response, connectTiming);
+  }
+
+  @Override
+  public int getOrder() {
+    return 0;
+  }
+
+  private OkHttpClient getClient(int connectTimeout, int readTimeout) {
+    Long key = ((long) connectTimeout << 32) | (readTimeout & 0xffffffffL);
+    OkHttpClient client = m_clients.get(key);
+    if (client == null) {
+      client = m_client.newBuilder()
+          .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+          .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+          .build();
+      OkHttpClient previous = m_clients.putIfAbsent(key, client);
+      if (previous != null) {
+        client = previous;
+      }
+    }
+    return client;
+  }
+
+  private static class ConnectTiming {
+    private volatile long m_connectStartNanos;
+    private volatile long m_connectNanos;
+  }
+
+  /**
+   * Connect events are only fired when a new connection is established
+   */
+  private static class ConnectTimer extends EventListener {
+    private final ConnectTiming m_timing;
+
+    ConnectTimer(ConnectTiming timing) {
+      m_timing = timing;
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      if (m_timing != null) {
+        m_timing.m_connectStartNanos = System.nanoTime();
+      }
+    }
+
+    @Override
+    public void connectionAcquired(Call call, okhttp3.Connection connection) {
+      if (m_timing != null && m_timing.m_connectStartNanos > 0) {
+        m_timing.m_connectNanos = System.nanoTime() - m_timing.m_connectStartNanos;
+      }
+    }
+  }
+
+  private static class OkHttpResponse implements HttpTransportResponse {
+    private final Response m_response;
+    private final ConnectTiming m_connectTiming;
+    private InputStream m_body;
+
+    OkHttpResponse(Response response, ConnectTiming connectTiming) {
+      m_response = response;
+      m_connectTiming = connectTiming;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return m_response.code();
+    }
+
+    @Override
+    public InputStream getBody() {
+      if (m_body == null) {
+        m_body = m_response.body().byteStream();
+      }
+      return m_body;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return m_response.header(name);
+    }
+
+    @Override
+    public long getConnectNanos() {
+      return m_connectTiming.m_connectNanos;
+    }
+
+    @Override
+    public void close() {
+      ResponseBody body = m_response.body();
+      try {
+        if (m_body == null && body != null && !m_response.isSuccessful()) {
+          //consume the error response so that the connection could be reused
+          HttpUtil.exhaust(body.byteStream());
+        }
+      } catch (IOException ex) {
+        //ignore
+      } finally {
+        m_response.close();
+      }
+    }
+  }
+}
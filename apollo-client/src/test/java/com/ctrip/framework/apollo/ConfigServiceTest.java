@@ -1,6 +1,7 @@
 package com.ctrip.framework.apollo;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import com.ctrip.framework.apollo.enums.ConfigSourceType;
 import java.util.Set;
@@ -82,6 +83,24 @@ public class ConfigServiceTest {
     assertEquals(someNamespaceFileName + ":" + someConfigFileFormat.getValue(), configFile.getContent());
   }
 
+  @Test
+  public void testPreload() throws Exception {
+    String someNamespace = "mock";
+    String anotherNamespace = "anotherMock";
+    String someKey = "someKey";
+    MockInjector.setInstance(ConfigFactory.class, someNamespace, new MockConfigFactory());
+    MockInjector.setInstance(ConfigFactory.class, anotherNamespace, new MockConfigFactory());
+
+    ConfigService.preload(someNamespace, anotherNamespace, someNamespace);
+
+    Config config = ConfigService.getConfig(someNamespace);
+    Config anotherConfig = ConfigService.getConfig(anotherNamespace);
+
+    assertEquals(someNamespace + ":" + someKey, config.getProperty(someKey, null));
+    assertEquals(anotherNamespace + ":" + someKey, anotherConfig.getProperty(someKey, null));
+    assertSame(config, ConfigService.getConfig(someNamespace));
+  }
+
   private static class MockConfig extends AbstractConfig {
     private final String m_namespace;
 
@@ -8,12 +8,14 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -110,6 +112,36 @@ public class ConfigIntegrationTest extends BaseIntegrationTest {
     assertEquals(someDefaultValue, config.getProperty(someNonExistedKey, someDefaultValue));
   }
 
+  @Test
+  public void testGetConfigWithGzipEncodedRemoteConfig() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+    final ApolloConfig apolloConfig = assembleApolloConfig(ImmutableMap.of(someKey, someValue));
+    final List<String> acceptEncodings = Lists.newArrayList();
+    ContextHandler handler = new ContextHandler("/configs/*");
+    handler.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+                         HttpServletResponse response) throws IOException, ServletException {
+        acceptEncodings.add(request.getHeader("Accept-Encoding"));
+
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Content-Encoding", "gzip");
+        response.setStatus(HttpServletResponse.SC_OK);
+        try (GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream())) {
+          out.write(gson.toJson(apolloConfig).getBytes(StandardCharsets.UTF_8));
+        }
+        baseRequest.setHandled(true);
+      }
+    });
+    startServerWithHandlers(handler);
+
+    Config config = ConfigService.getAppConfig();
+
+    assertEquals(someValue, config.getProperty(someKey, null));
+    assertEquals("gzip", acceptEncodings.get(0));
+  }
+
   @Test
   public void testGetConfigWithLocalFileAndWithRemoteConfig() throws Exception {
     String someKey = "someKey";
@@ -0,0 +1,67 @@
+package com.ctrip.framework.apollo.internals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.ctrip.framework.apollo.ConfigChangeListener;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigChangeListenerIndexTest {
+  private ConfigChangeListener allKeysListener;
+  private ConfigChangeListener someKeyListener;
+  private ConfigChangeListener somePrefixListener;
+  private ConfigChangeListener anotherPrefixListener;
+  private ConfigChangeListenerIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    allKeysListener = mock(ConfigChangeListener.class);
+    someKeyListener = mock(ConfigChangeListener.class);
+    somePrefixListener = mock(ConfigChangeListener.class);
+    anotherPrefixListener = mock(ConfigChangeListener.class);
+
+    Map<ConfigChangeListener, Set<String>> interestedKeys = Maps.newHashMap();
+    interestedKeys.put(someKeyListener, Sets.newHashSet("someKey", "anotherKey"));
+    interestedKeys.put(anotherPrefixListener, Sets.newHashSet("someKey"));
+
+    Map<ConfigChangeListener, Set<String>> interestedKeyPrefixes = Maps.newHashMap();
+    interestedKeyPrefixes.put(somePrefixListener, Sets.newHashSet("some.prefix.", "s"));
+    interestedKeyPrefixes.put(anotherPrefixListener, Sets.newHashSet("another.prefix."));
+
+    index = new ConfigChangeListenerIndex(
+        Lists.newArrayList(anotherPrefixListener, allKeysListener, someKeyListener, somePrefixListener),
+        interestedKeys, interestedKeyPrefixes);
+  }
+
+  @Test
+  public void testGetInterestedListeners() throws Exception {
+    assertEquals(Lists.newArrayList(allKeysListener, someKeyListener),
+        index.getInterestedListeners(Sets.newHashSet("anotherKey")));
+    assertEquals(Lists.newArrayList(anotherPrefixListener, allKeysListener, someKeyListener, somePrefixListener),
+        index.getInterestedListeners(Sets.newHashSet("someKey")));
+    assertEquals(Lists.newArrayList(anotherPrefixListener, allKeysListener),
+        index.getInterestedListeners(Sets.newHashSet("another.prefix.key")));
+    assertEquals(Lists.newArrayList(allKeysListener, somePrefixListener),
+        index.getInterestedListeners(Sets.newHashSet("some.prefix.key", "s")));
+    assertEquals(Lists.newArrayList(allKeysListener),
+        index.getInterestedListeners(Sets.newHashSet("unknown", "another.prefix")));
+  }
+
+  @Test
+  public void testGetInterestedListenersWithAllKeysListenersOnly() throws Exception {
+    List<ConfigChangeListener> listeners = Lists.newArrayList(allKeysListener, someKeyListener);
+    ConfigChangeListenerIndex allKeysIndex = new ConfigChangeListenerIndex(listeners,
+        Maps.<ConfigChangeListener, Set<String>>newHashMap(), Maps.<ConfigChangeListener, Set<String>>newHashMap());
+
+    assertEquals(listeners, allKeysIndex.getInterestedListeners(Sets.newHashSet("someKey")));
+    assertTrue(ConfigChangeListenerIndex.EMPTY.getInterestedListeners(Sets.newHashSet("someKey")).isEmpty());
+  }
+}
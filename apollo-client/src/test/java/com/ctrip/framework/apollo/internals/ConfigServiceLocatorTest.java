@@ -3,7 +3,10 @@ package com.ctrip.framework.apollo.internals;
 import static org.junit.Assert.assertEquals;
 
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.google.common.base.Ticker;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.After;
 import org.junit.Test;
 
@@ -30,4 +33,139 @@ public class ConfigServiceLocatorTest {
     assertEquals(someConfigServiceUrl.trim(), result.get(0).getHomepageUrl());
     assertEquals(anotherConfigServiceUrl.trim(), result.get(1).getHomepageUrl());
   }
+
+  @Test
+  public void testGetPreferredConfigServicesWithLatency() throws Exception {
+    String someConfigServiceUrl = "someConfigServiceUrl";
+    String anotherConfigServiceUrl = "anotherConfigServiceUrl";
+
+    System.setProperty("apollo.configService", someConfigServiceUrl + "," + anotherConfigServiceUrl);
+
+    ConfigServiceLocator configServiceLocator = new ConfigServiceLocator();
+    List<ServiceDTO> configServices = configServiceLocator.getConfigServices();
+
+    configServiceLocator.onServiceSucceeded(configServices.get(0), TimeUnit.MILLISECONDS.toNanos(100));
+    configServiceLocator.onServiceSucceeded(configServices.get(1), TimeUnit.MILLISECONDS.toNanos(1));
+
+    for (int i = 0; i < 10; i++) {
+      List<ServiceDTO> result = configServiceLocator.getPreferredConfigServices();
+
+      assertEquals(2, result.size());
+      assertEquals(anotherConfigServiceUrl, result.get(0).getHomepageUrl());
+      assertEquals(someConfigServiceUrl, result.get(1).getHomepageUrl());
+    }
+  }
+
+  @Test
+  public void testGetPreferredConfigServicesWithFailedService() throws Exception {
+    String someConfigServiceUrl = "someConfigServiceUrl";
+    String anotherConfigServiceUrl = "anotherConfigServiceUrl";
+    String yetAnotherConfigServiceUrl = "yetAnotherConfigServiceUrl";
+
+    System.setProperty("apollo.configService",
+        someConfigServiceUrl + "," + anotherConfigServiceUrl + "," + yetAnotherConfigServiceUrl);
+
+    ConfigServiceLocator configServiceLocator = new ConfigServiceLocator();
+    ServiceDTO someConfigService = configServiceLocator.getConfigServices().get(0);
+
+    configServiceLocator.onServiceFailed(someConfigService);
+    configServiceLocator.onServiceFailed(someConfigService);
+    configServiceLocator.onServiceFailed(someConfigService);
+
+    //ejected
+    for (int i = 0; i < 10; i++) {
+      List<ServiceDTO> result = configServiceLocator.getPreferredConfigServices();
+
+      assertEquals(3, result.size());
+      assertEquals(someConfigServiceUrl, result.get(2).getHomepageUrl());
+    }
+
+    configServiceLocator.onServiceSucceeded(someConfigService, TimeUnit.MILLISECONDS.toNanos(1));
+
+    //the other config services are ejected
+    for (ServiceDTO configService : configServiceLocator.getConfigServices().subList(1, 3)) {
+      for (int i = 0; i < 3; i++) {
+        configServiceLocator.onServiceFailed(configService);
+      }
+    }
+
+    assertEquals(someConfigServiceUrl, configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+  }
+
+  @Test
+  public void testGetPreferredConfigServicesWithStatsDecayed() throws Exception {
+    String someConfigServiceUrl = "someConfigServiceUrl";
+    String anotherConfigServiceUrl = "anotherConfigServiceUrl";
+
+    System.setProperty("apollo.configService", someConfigServiceUrl + "," + anotherConfigServiceUrl);
+
+    final AtomicLong nanos = new AtomicLong();
+    ConfigServiceLocator configServiceLocator = new ConfigServiceLocator();
+    configServiceLocator.setTicker(new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+    List<ServiceDTO> configServices = configServiceLocator.getConfigServices();
+
+    configServiceLocator.onServiceSucceeded(configServices.get(0), TimeUnit.MILLISECONDS.toNanos(100));
+    configServiceLocator.onServiceSucceeded(configServices.get(1), TimeUnit.MILLISECONDS.toNanos(1));
+
+    assertEquals(anotherConfigServiceUrl, configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+
+    //only the preferred config service is requested for a long time
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(10));
+    configServiceLocator.onServiceSucceeded(configServices.get(1), TimeUnit.MILLISECONDS.toNanos(1));
+
+    //the config service not measured for a long time is probed once
+    assertEquals(someConfigServiceUrl, configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+    assertEquals(anotherConfigServiceUrl, configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+
+    //and it is avoided again if it's still slow
+    configServiceLocator.onServiceSucceeded(configServices.get(0), TimeUnit.MILLISECONDS.toNanos(100));
+
+    assertEquals(anotherConfigServiceUrl, configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+  }
+
+  @Test
+  public void testGetPreferredConfigServicesWithIdleServices() throws Exception {
+    String someConfigServiceUrl = "someConfigServiceUrl";
+    String anotherConfigServiceUrl = "anotherConfigServiceUrl";
+
+    System.setProperty("apollo.configService", someConfigServiceUrl + "," + anotherConfigServiceUrl);
+
+    final AtomicLong nanos = new AtomicLong();
+    ConfigServiceLocator configServiceLocator = new ConfigServiceLocator();
+    configServiceLocator.setTicker(new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+    List<ServiceDTO> configServices = configServiceLocator.getConfigServices();
+
+    configServiceLocator.onServiceSucceeded(configServices.get(0), TimeUnit.MILLISECONDS.toNanos(100));
+    configServiceLocator.onServiceSucceeded(configServices.get(1), TimeUnit.MILLISECONDS.toNanos(1));
+
+    //both are idle, the latency still decides, and long polling doesn't measure the latency
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(50));
+    configServiceLocator.onServiceSucceeded(configServices.get(0), -1);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(anotherConfigServiceUrl,
+          configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+    }
+
+    //the stale latencies are probed once each although the config service is long polled
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(20));
+    configServiceLocator.onServiceSucceeded(configServices.get(0), -1);
+
+    assertEquals(someConfigServiceUrl, configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+    assertEquals(anotherConfigServiceUrl, configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(anotherConfigServiceUrl,
+          configServiceLocator.getPreferredConfigServices().get(0).getHomepageUrl());
+    }
+  }
 }
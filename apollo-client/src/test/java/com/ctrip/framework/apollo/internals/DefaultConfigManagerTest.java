@@ -2,12 +2,22 @@ package com.ctrip.framework.apollo.internals;
 
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
 import com.ctrip.framework.apollo.enums.ConfigSourceType;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -87,6 +97,105 @@ public class DefaultConfigManagerTest {
 
   }
 
+  @Test
+  public void testGetConfigNotBlockedByAnotherNamespace() throws Exception {
+    final String someNamespace = "someName";
+    final String anotherNamespace = "anotherName";
+    final CountDownLatch someNamespaceCreating = new CountDownLatch(1);
+    final CountDownLatch someNamespaceRelease = new CountDownLatch(1);
+    final Config someConfig = mock(Config.class);
+    final Config anotherConfig = mock(Config.class);
+
+    MockInjector.setInstance(ConfigFactoryManager.class, new ConfigFactoryManager() {
+      @Override
+      public ConfigFactory getFactory(final String namespace) {
+        return new ConfigFactory() {
+          @Override
+          public Config create(String namespace) {
+            if (someNamespace.equals(namespace)) {
+              someNamespaceCreating.countDown();
+              try {
+                someNamespaceRelease.await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+              }
+              return someConfig;
+            }
+            return anotherConfig;
+          }
+
+          @Override
+          public ConfigFile createConfigFile(String namespace, ConfigFileFormat configFileFormat) {
+            return null;
+          }
+        };
+      }
+    });
+    defaultConfigManager = new DefaultConfigManager();
+
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      Future<Config> someConfigFuture = executorService.submit(new Callable<Config>() {
+        @Override
+        public Config call() throws Exception {
+          return defaultConfigManager.getConfig(someNamespace);
+        }
+      });
+
+      assertTrue(someNamespaceCreating.await(5, TimeUnit.SECONDS));
+
+      //another namespace could be created while some namespace is still being created
+      assertSame(anotherConfig, defaultConfigManager.getConfig(anotherNamespace));
+      assertTrue(!someConfigFuture.isDone());
+
+      someNamespaceRelease.countDown();
+
+      assertSame(someConfig, someConfigFuture.get(5, TimeUnit.SECONDS));
+      assertSame(someConfig, defaultConfigManager.getConfig(someNamespace));
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testGetConfigAgainAfterCreationFailed() throws Exception {
+    final String someNamespace = "someName";
+    final AtomicInteger createCount = new AtomicInteger();
+    final Config someConfig = mock(Config.class);
+
+    MockInjector.setInstance(ConfigFactoryManager.class, new ConfigFactoryManager() {
+      @Override
+      public ConfigFactory getFactory(String namespace) {
+        return new ConfigFactory() {
+          @Override
+          public Config create(String namespace) {
+            if (createCount.incrementAndGet() == 1) {
+              throw new IllegalStateException("some failure");
+            }
+            return someConfig;
+          }
+
+          @Override
+          public ConfigFile createConfigFile(String namespace, ConfigFileFormat configFileFormat) {
+            return null;
+          }
+        };
+      }
+    });
+    defaultConfigManager = new DefaultConfigManager();
+
+    try {
+      defaultConfigManager.getConfig(someNamespace);
+      fail();
+    } catch (IllegalStateException ex) {
+      assertEquals("some failure", ex.getMessage());
+    }
+
+    assertSame(someConfig, defaultConfigManager.getConfig(someNamespace));
+    assertSame(someConfig, defaultConfigManager.getConfig(someNamespace));
+    assertEquals(2, createCount.get());
+  }
+
   public static class MockConfigFactoryManager implements ConfigFactoryManager {
 
     @Override
@@ -3,6 +3,7 @@ package com.ctrip.framework.apollo.internals;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -37,6 +38,7 @@ import com.ctrip.framework.apollo.enums.PropertyChangeType;
 import com.ctrip.framework.apollo.model.ConfigChange;
 import com.ctrip.framework.apollo.model.ConfigChangeEvent;
 import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.ImmutableProperties;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
@@ -129,6 +131,33 @@ public class DefaultConfigTest {
     assertEquals(someSourceType, defaultConfig.getSourceType());
   }
 
+  @Test
+  public void testGetPropertyWithSystemPropertySetAtRuntime() throws Exception {
+    String someKey = "someKey";
+    String someLocalFileValue = "local-file-value";
+    String someSystemPropertyValue = "system-property-value";
+
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, someLocalFileValue);
+    when(configRepository.getConfig()).thenReturn(ImmutableProperties.copyOf(someProperties));
+    when(configRepository.getSourceType()).thenReturn(ConfigSourceType.LOCAL);
+
+    DefaultConfig defaultConfig =
+        new DefaultConfig(someNamespace, configRepository);
+
+    String valueBeforeSystemPropertySet = defaultConfig.getProperty(someKey, null);
+
+    System.setProperty(someKey, someSystemPropertyValue);
+    String valueAfterSystemPropertySet = defaultConfig.getProperty(someKey, null);
+
+    System.clearProperty(someKey);
+    String valueAfterSystemPropertyCleared = defaultConfig.getProperty(someKey, null);
+
+    assertEquals(someLocalFileValue, valueBeforeSystemPropertySet);
+    assertEquals(someSystemPropertyValue, valueAfterSystemPropertySet);
+    assertEquals(someLocalFileValue, valueAfterSystemPropertyCleared);
+  }
+
   @Test
   public void testGetIntProperty() throws Exception {
     String someStringKey = "someStringKey";
@@ -152,6 +181,35 @@ public class DefaultConfigTest {
     assertEquals(someDefaultValue, defaultConfig.getIntProperty(someStringKey, someDefaultValue));
   }
 
+  @Test
+  public void testGetIntPropertyWithSystemPropertySetAtRuntime() throws Exception {
+    String someKey = "someKey";
+    Integer someValue = 2;
+    Integer someSystemPropertyValue = 3;
+
+    Integer someDefaultValue = -1;
+
+    //set up config repo
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, String.valueOf(someValue));
+    when(configRepository.getConfig()).thenReturn(someProperties);
+
+    DefaultConfig defaultConfig =
+        new DefaultConfig(someNamespace, configRepository);
+
+    assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
+
+    try {
+      System.setProperty(someKey, String.valueOf(someSystemPropertyValue));
+
+      assertEquals(someSystemPropertyValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
+    } finally {
+      System.clearProperty(someKey);
+    }
+
+    assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
+  }
+
   @Test
   public void testGetIntPropertyMultipleTimesWithCache() throws Exception {
     String someKey = "someKey";
@@ -490,6 +548,37 @@ public class DefaultConfigTest {
     assertArrayEquals(anotherValues, defaultConfig.getArrayProperty(someKey, someDelimiter, someDefaultValue));
   }
 
+  @Test
+  public void testGetArrayPropertyWithCacheOfUnchangedKeyKept() throws Exception {
+    String someKey = "someKey";
+    String someValue = "a,b,c";
+    String anotherKey = "anotherKey";
+    String anotherValue = "d,e";
+    String anotherNewValue = "f,g";
+    String someDelimiter = ",";
+
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, someValue);
+    someProperties.setProperty(anotherKey, anotherValue);
+    when(configRepository.getConfig()).thenReturn(ImmutableProperties.copyOf(someProperties));
+
+    DefaultConfig defaultConfig =
+        new DefaultConfig(someNamespace, configRepository);
+
+    String[] someResult = defaultConfig.getArrayProperty(someKey, someDelimiter, null);
+    String[] anotherResult = defaultConfig.getArrayProperty(anotherKey, someDelimiter, null);
+
+    Properties anotherProperties = new Properties();
+    anotherProperties.setProperty(someKey, someValue);
+    anotherProperties.setProperty(anotherKey, anotherNewValue);
+    defaultConfig.onRepositoryChange(someNamespace, anotherProperties);
+
+    //only the changed key is invalidated
+    assertSame(someResult, defaultConfig.getArrayProperty(someKey, someDelimiter, null));
+    assertArrayEquals(new String[]{"d", "e"}, anotherResult);
+    assertArrayEquals(new String[]{"f", "g"}, defaultConfig.getArrayProperty(anotherKey, someDelimiter, null));
+  }
+
   @Test
   public void testGetDatePropertyWithFormat() throws Exception {
     Date someDefaultValue = new Date();
@@ -720,6 +809,41 @@ public class DefaultConfigTest {
     assertFalse(interestedInSomeKeyNotChangedFuture.isDone());
   }
 
+  @Test
+  public void testFireConfigChangeToSameListenerInOrder() throws Exception {
+    String someKey = "someKey";
+    final int someChangeCount = 20;
+
+    someProperties = new Properties();
+    when(configRepository.getConfig()).thenReturn(someProperties);
+
+    DefaultConfig defaultConfig =
+        new DefaultConfig(someNamespace, configRepository);
+
+    final List<String> values = Collections.synchronizedList(Lists.<String>newArrayList());
+    final SettableFuture<List<String>> allChanges = SettableFuture.create();
+    defaultConfig.addChangeListener(new ConfigChangeListener() {
+      @Override
+      public void onChange(ConfigChangeEvent changeEvent) {
+        values.add(changeEvent.getChange("someKey").getNewValue());
+        if (values.size() == someChangeCount) {
+          allChanges.set(values);
+        }
+      }
+    });
+
+    List<String> expectedValues = Lists.newArrayList();
+    for (int i = 0; i < someChangeCount; i++) {
+      Properties newProperties = new Properties();
+      newProperties.setProperty(someKey, String.valueOf(i));
+      expectedValues.add(String.valueOf(i));
+
+      defaultConfig.onRepositoryChange(someNamespace, newProperties);
+    }
+
+    assertEquals(expectedValues, allChanges.get(5, TimeUnit.SECONDS));
+  }
+
   @Test
   public void testRemoveChangeListener() throws Exception {
     String someNamespace = "someNamespace";
@@ -798,6 +922,36 @@ public class DefaultConfigTest {
     assertEquals(someProperties.stringPropertyNames(), propertyNames);
   }
 
+  @Test
+  public void testGetPropertyWithSystemPropertyChangedAfterInitialization() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+    String someSystemPropertyValue = "system-property-value";
+
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, someValue);
+    when(configRepository.getConfig()).thenReturn(ImmutableProperties.copyOf(someProperties));
+
+    DefaultConfig defaultConfig =
+        new DefaultConfig(someNamespace, configRepository);
+
+    System.setProperty(someKey, someSystemPropertyValue);
+
+    try {
+      //system properties are read live, no need to wait for the config changes
+      assertEquals(someSystemPropertyValue, defaultConfig.getProperty(someKey, null));
+
+      Properties anotherProperties = new Properties();
+      anotherProperties.setProperty(someKey, someValue);
+      anotherProperties.setProperty("anotherKey", "anotherValue");
+      defaultConfig.onRepositoryChange(someNamespace, anotherProperties);
+
+      assertEquals(someSystemPropertyValue, defaultConfig.getProperty(someKey, null));
+    } finally {
+      System.clearProperty(someKey);
+    }
+  }
+
   @Test
   public void testGetPropertyNamesWithNullProp() {
     when(configRepository.getConfig()).thenReturn(null);
@@ -3,6 +3,7 @@ package com.ctrip.framework.apollo.internals;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -14,6 +15,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -62,6 +64,7 @@ public class LocalFileConfigRepositoryTest {
 
   @After
   public void tearDown() throws Exception {
+    awaitPendingPersistence();
     recursiveDelete(someBaseDir);
   }
 
@@ -154,6 +157,54 @@ public class LocalFileConfigRepositoryTest {
     assertEquals(someSourceType, localRepo.getSourceType());
   }
 
+  @Test
+  public void testPersistLocalCacheFile() throws Exception {
+    Properties anotherProperties = new Properties();
+    anotherProperties.setProperty(defaultKey, "anotherValue");
+    when(upstreamRepo.getConfig()).thenReturn(anotherProperties);
+
+    LocalFileConfigRepository localRepo = new LocalFileConfigRepository(someNamespace);
+    localRepo.setLocalCacheDir(someBaseDir, false);
+    localRepo.setUpstreamRepository(upstreamRepo);
+
+    awaitPendingPersistence();
+
+    File file = new File(someBaseDir, assembleLocalCacheFileName());
+    Properties persistedProperties = new Properties();
+    persistedProperties.load(Files.newReader(file, Charsets.UTF_8));
+
+    assertEquals(anotherProperties, persistedProperties);
+    //no temp file left
+    assertEquals(1, someBaseDir.listFiles().length);
+  }
+
+  @Test
+  public void testPersistLocalCacheFileWithMultipleUpdates() throws Exception {
+    LocalFileConfigRepository localRepo = new LocalFileConfigRepository(someNamespace);
+    localRepo.setLocalCacheDir(someBaseDir, false);
+    localRepo.setUpstreamRepository(upstreamRepo);
+
+    Properties anotherProperties = null;
+    for (int i = 0; i < 10; i++) {
+      anotherProperties = new Properties();
+      anotherProperties.setProperty(defaultKey, String.valueOf(i));
+      localRepo.onRepositoryChange(someNamespace, anotherProperties);
+    }
+
+    //the latest properties are visible before they are persisted
+    LocalFileConfigRepository anotherLocalRepo = new LocalFileConfigRepository(someNamespace);
+    anotherLocalRepo.setLocalCacheDir(someBaseDir, true);
+    assertEquals(anotherProperties, anotherLocalRepo.getConfig());
+
+    awaitPendingPersistence();
+
+    File file = new File(someBaseDir, assembleLocalCacheFileName());
+    Properties persistedProperties = new Properties();
+    persistedProperties.load(Files.newReader(file, Charsets.UTF_8));
+
+    assertEquals(anotherProperties, persistedProperties);
+  }
+
   @Test
   public void testOnRepositoryChange() throws Exception {
     RepositoryChangeListener someListener = mock(RepositoryChangeListener.class);
@@ -196,6 +247,16 @@ public class LocalFileConfigRepositoryTest {
     }
   }
 
+  private void awaitPendingPersistence() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (LocalFileConfigRepository.hasPendingPersistence()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Local cache files not persisted in 5 seconds");
+      }
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
   private File createLocalCachePropertyFile(Properties properties) throws IOException {
     File file = new File(someBaseDir, assembleLocalCacheFileName());
     FileOutputStream in = null;
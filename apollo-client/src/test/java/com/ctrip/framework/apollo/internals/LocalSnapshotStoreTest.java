@@ -0,0 +1,129 @@
+package com.ctrip.framework.apollo.internals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalSnapshotStoreTest {
+  private static File someCacheDir;
+  private static String someAppId = "someApp";
+  private static String someCluster = "someCluster";
+  private String someNamespace;
+  private LocalSnapshotStore localSnapshotStore;
+
+  @Before
+  public void setUp() throws Exception {
+    someCacheDir = Files.createTempDir();
+    someNamespace = "someNamespace";
+
+    MockInjector.reset();
+    MockInjector.setInstance(ConfigUtil.class, new MockConfigUtil());
+
+    localSnapshotStore = new LocalSnapshotStore();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    recursiveDelete(someCacheDir);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue", "anotherKey", "中文");
+    ApolloConfig someConfig = assembleApolloConfig("someReleaseKey");
+
+    localSnapshotStore.save(someConfig, configurations);
+
+    ApolloConfig snapshot = localSnapshotStore.load(someNamespace);
+
+    assertEquals(someAppId, snapshot.getAppId());
+    assertEquals(someCluster, snapshot.getCluster());
+    assertEquals(someNamespace, snapshot.getNamespaceName());
+    assertEquals("someReleaseKey", snapshot.getReleaseKey());
+    assertEquals(configurations, snapshot.getConfigurations());
+    //no temp file left
+    assertEquals(1, localSnapshotStore.assembleSnapshotFile(someNamespace).getParentFile().listFiles().length);
+  }
+
+  @Test
+  public void testSaveWithSameReleaseKey() throws Exception {
+    ApolloConfig someConfig = assembleApolloConfig("someReleaseKey");
+    localSnapshotStore.save(someConfig, ImmutableMap.of("someKey", "someValue"));
+
+    File snapshotFile = localSnapshotStore.assembleSnapshotFile(someNamespace);
+    long lastModified = snapshotFile.lastModified() - 10000;
+    snapshotFile.setLastModified(lastModified);
+
+    //already saved by another process
+    localSnapshotStore.save(someConfig, ImmutableMap.of("someKey", "someValue"));
+    assertEquals(lastModified, snapshotFile.lastModified());
+
+    localSnapshotStore.save(assembleApolloConfig("anotherReleaseKey"), ImmutableMap.of("someKey", "anotherValue"));
+    assertEquals("anotherValue", localSnapshotStore.load(someNamespace).getConfigurations().get("someKey"));
+  }
+
+  @Test
+  public void testLoadWithNoSnapshot() throws Exception {
+    assertNull(localSnapshotStore.load(someNamespace));
+  }
+
+  @Test
+  public void testLoadWithCorruptedSnapshot() throws Exception {
+    File snapshotFile = localSnapshotStore.assembleSnapshotFile(someNamespace);
+    snapshotFile.getParentFile().mkdirs();
+    Files.write("someContent", snapshotFile, Charsets.UTF_8);
+
+    assertNull(localSnapshotStore.load(someNamespace));
+
+    localSnapshotStore.save(assembleApolloConfig("someReleaseKey"), ImmutableMap.of("someKey", "someValue"));
+    byte[] content = Files.toByteArray(snapshotFile);
+    Files.write(Arrays.copyOf(content, content.length - 3), snapshotFile);
+
+    assertNull(localSnapshotStore.load(someNamespace));
+  }
+
+  private ApolloConfig assembleApolloConfig(String releaseKey) {
+    return new ApolloConfig(someAppId, someCluster, someNamespace, releaseKey);
+  }
+
+  private void recursiveDelete(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    if (file.isDirectory()) {
+      for (File f : file.listFiles()) {
+        recursiveDelete(f);
+      }
+    }
+    file.delete();
+  }
+
+  public static class MockConfigUtil extends ConfigUtil {
+    @Override
+    public String getAppId() {
+      return someAppId;
+    }
+
+    @Override
+    public String getCluster() {
+      return someCluster;
+    }
+
+    @Override
+    public String getDefaultLocalCacheDir() {
+      return someCacheDir.getAbsolutePath();
+    }
+  }
+}
@@ -1,11 +1,15 @@
 package com.ctrip.framework.apollo.internals;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -13,17 +17,26 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigQuery;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
 import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
 import com.ctrip.framework.apollo.util.ConfigUtil;
 import com.ctrip.framework.apollo.util.http.HttpRequest;
 import com.ctrip.framework.apollo.util.http.HttpResponse;
 import com.ctrip.framework.apollo.util.http.HttpUtil;
+import com.google.common.base.Function;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.net.UrlEscapers;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.Gson;
+import java.io.BufferedReader;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Map;
@@ -58,10 +71,14 @@ public class RemoteConfigLongPollServiceTest {
   private static String someAppId;
   private static String someCluster;
   private static String someSecret;
+  private static boolean notificationStreamEnabled;
+  private static boolean configBatchLoadEnabled;
 
   @Before
   public void setUp() throws Exception {
     MockInjector.reset();
+    notificationStreamEnabled = false;
+    configBatchLoadEnabled = false;
 
     MockInjector.setInstance(HttpUtil.class, httpUtil);
 
@@ -69,6 +86,7 @@ public class RemoteConfigLongPollServiceTest {
     ServiceDTO serviceDTO = mock(ServiceDTO.class);
     when(serviceDTO.getHomepageUrl()).thenReturn(someServerUrl);
     when(configServiceLocator.getConfigServices()).thenReturn(Lists.newArrayList(serviceDTO));
+    when(configServiceLocator.getPreferredConfigServices()).thenReturn(Lists.newArrayList(serviceDTO));
     MockInjector.setInstance(ConfigServiceLocator.class, configServiceLocator);
 
     MockInjector.setInstance(ConfigUtil.class, new MockConfigUtil());
@@ -309,6 +327,210 @@ public class RemoteConfigLongPollServiceTest {
     verify(anotherRepository, times(1)).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
   }
 
+  @Test
+  public void testSubmitLongPollMultipleNamespacesWithConfigBatchLoad() throws Exception {
+    configBatchLoadEnabled = true;
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    RemoteConfigRepository anotherRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+    final String anotherNamespace = "anotherNamespace";
+    final ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, someNamespace, "someReleaseKey");
+
+    mockLongPollNotifications(someNamespace, anotherNamespace);
+    when(someRepository.prepareBatchLoad(any(ApolloNotificationMessages.class)))
+        .thenReturn(new ApolloConfigQuery(someNamespace, null, null));
+    when(anotherRepository.prepareBatchLoad(any(ApolloNotificationMessages.class)))
+        .thenReturn(new ApolloConfigQuery(anotherNamespace, "anotherReleaseKey", null));
+
+    final List<String> batchUrls = Lists.newCopyOnWriteArrayList();
+    Type configsResponseType =
+        (Type) ReflectionTestUtils.getField(remoteConfigLongPollService, "m_configsResponseType");
+    doAnswer(new Answer<HttpResponse<List<ApolloConfig>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfig>> answer(InvocationOnMock invocation) throws Throwable {
+        batchUrls.add(invocation.getArgumentAt(0, HttpRequest.class).getUrl());
+        return new HttpResponse<List<ApolloConfig>>(HttpServletResponse.SC_OK, Lists.newArrayList(someConfig));
+      }
+    }).when(httpUtil).doGet(any(HttpRequest.class), eq(configsResponseType));
+
+    final SettableFuture<Boolean> onAnotherRepositoryLoaded = SettableFuture.create();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        onAnotherRepositoryLoaded.set(true);
+        return null;
+      }
+    }).when(anotherRepository).onBatchLoaded(any(ApolloConfig.class));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+    remoteConfigLongPollService.submit(anotherNamespace, anotherRepository);
+
+    onAnotherRepositoryLoaded.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    assertEquals(1, batchUrls.size());
+    assertTrue(batchUrls.get(0).startsWith(someServerUrl + "/configs/batch?"));
+    assertTrue(batchUrls.get(0).contains(someNamespace));
+    assertTrue(batchUrls.get(0).contains(anotherNamespace));
+    verify(someRepository, times(1)).onBatchLoaded(someConfig);
+    verify(anotherRepository, times(1)).onBatchLoaded(null);
+    verify(someRepository, never()).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+    verify(anotherRepository, never()).onLongPollNotified(any(ServiceDTO.class),
+        any(ApolloNotificationMessages.class));
+  }
+
+  @Test
+  public void testPartitionBatchQueries() throws Exception {
+    List<ApolloConfigQuery> queries = Lists.newArrayList();
+    for (int i = 0; i < 500; i++) {
+      queries.add(new ApolloConfigQuery("someNamespace" + i, "someReleaseKey" + i, null));
+    }
+    String someVeryLongNamespace = Strings.repeat("a", RemoteConfigLongPollService.MAX_BATCH_QUERY_NAMESPACES_LENGTH);
+    queries.add(new ApolloConfigQuery(someVeryLongNamespace, null, null));
+
+    List<List<ApolloConfigQuery>> partitions = remoteConfigLongPollService.partitionBatchQueries(queries);
+
+    assertTrue(partitions.size() > 2);
+    List<ApolloConfigQuery> partitionedQueries = Lists.newArrayList();
+    for (List<ApolloConfigQuery> partition : partitions) {
+      partitionedQueries.addAll(partition);
+      if (partition.size() > 1) {
+        String namespaces = UrlEscapers.urlFormParameterEscaper().escape(new Gson().toJson(partition));
+        assertTrue(namespaces.length() <= RemoteConfigLongPollService.MAX_BATCH_QUERY_NAMESPACES_LENGTH);
+      }
+    }
+    assertEquals(queries, partitionedQueries);
+    //the query too long is queried alone
+    assertEquals(Lists.newArrayList(queries.get(500)), partitions.get(partitions.size() - 1));
+  }
+
+  @Test
+  public void testConfigBatchLoadFallbackToLoadOneByOne() throws Exception {
+    configBatchLoadEnabled = true;
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    RemoteConfigRepository anotherRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+    final String anotherNamespace = "anotherNamespace";
+
+    mockLongPollNotifications(someNamespace, anotherNamespace);
+    when(someRepository.prepareBatchLoad(any(ApolloNotificationMessages.class)))
+        .thenReturn(new ApolloConfigQuery(someNamespace, null, null));
+    when(anotherRepository.prepareBatchLoad(any(ApolloNotificationMessages.class)))
+        .thenReturn(new ApolloConfigQuery(anotherNamespace, null, null));
+
+    Type configsResponseType =
+        (Type) ReflectionTestUtils.getField(remoteConfigLongPollService, "m_configsResponseType");
+    when(httpUtil.doGet(any(HttpRequest.class), eq(configsResponseType)))
+        .thenThrow(new ApolloConfigStatusCodeException(HttpServletResponse.SC_NOT_FOUND, "not found"));
+
+    final SettableFuture<Boolean> onAnotherRepositoryNotified = SettableFuture.create();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        onAnotherRepositoryNotified.set(true);
+        return null;
+      }
+    }).when(anotherRepository).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+    remoteConfigLongPollService.submit(anotherNamespace, anotherRepository);
+
+    onAnotherRepositoryNotified.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    verify(someRepository, times(1)).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+    verify(someRepository, never()).onBatchLoaded(any(ApolloConfig.class));
+    assertTrue((Boolean) ReflectionTestUtils.getField(remoteConfigLongPollService, "m_configBatchLoadUnsupported"));
+  }
+
+  @Test
+  public void testBatchRefresh() throws Exception {
+    configBatchLoadEnabled = true;
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    RemoteConfigRepository anotherRepository = mock(RemoteConfigRepository.class);
+    String someNamespace = "someNamespace";
+    String anotherNamespace = "anotherNamespace";
+    ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, someNamespace, "someReleaseKey");
+
+    when(someRepository.prepareBatchRefresh()).thenReturn(new ApolloConfigQuery(someNamespace, "1", null));
+    when(anotherRepository.prepareBatchRefresh()).thenReturn(new ApolloConfigQuery(anotherNamespace, "2", null));
+    Type configsResponseType =
+        (Type) ReflectionTestUtils.getField(remoteConfigLongPollService, "m_configsResponseType");
+    doReturn(new HttpResponse<List<ApolloConfig>>(HttpServletResponse.SC_OK, Lists.newArrayList(someConfig)))
+        .when(httpUtil).doGet(any(HttpRequest.class), eq(configsResponseType));
+
+    assertTrue(remoteConfigLongPollService.batchRefresh(Lists.newArrayList(someRepository, anotherRepository)));
+
+    verify(httpUtil, times(1)).doGet(any(HttpRequest.class), eq(configsResponseType));
+    verify(someRepository, times(1)).onBatchLoaded(someConfig);
+    verify(anotherRepository, times(1)).onBatchLoaded(null);
+  }
+
+  @Test
+  public void testBatchRefreshWithConfigBatchLoadDisabled() throws Exception {
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+
+    assertFalse(remoteConfigLongPollService.batchRefresh(Lists.newArrayList(someRepository)));
+
+    verify(someRepository, never()).prepareBatchRefresh();
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    configBatchLoadEnabled = true;
+    String someNamespace = "someNamespace";
+    String anotherNamespace = "anotherNamespace";
+    ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, someNamespace, "someReleaseKey");
+
+    Type configsResponseType =
+        (Type) ReflectionTestUtils.getField(remoteConfigLongPollService, "m_configsResponseType");
+    doReturn(new HttpResponse<List<ApolloConfig>>(HttpServletResponse.SC_OK, Lists.newArrayList(someConfig)))
+        .when(httpUtil).doGet(any(HttpRequest.class), eq(configsResponseType));
+
+    assertTrue(remoteConfigLongPollService.prefetch(Lists.newArrayList(someNamespace, anotherNamespace)));
+
+    verify(httpUtil, times(1)).doGet(any(HttpRequest.class), eq(configsResponseType));
+    assertNull(remoteConfigLongPollService.takePrefetchedConfig(anotherNamespace));
+    assertSame(someConfig, remoteConfigLongPollService.takePrefetchedConfig(someNamespace));
+    //taken only once
+    assertNull(remoteConfigLongPollService.takePrefetchedConfig(someNamespace));
+  }
+
+  @Test
+  public void testPrefetchWithConfigBatchLoadDisabled() throws Exception {
+    assertFalse(remoteConfigLongPollService.prefetch(Lists.newArrayList("someNamespace", "anotherNamespace")));
+
+    verify(httpUtil, never()).doGet(any(HttpRequest.class), any(Type.class));
+  }
+
+  private void mockLongPollNotifications(String someNamespace, String anotherNamespace) {
+    final ApolloConfigNotification someNotification = mock(ApolloConfigNotification.class);
+    when(someNotification.getNamespaceName()).thenReturn(someNamespace);
+    final ApolloConfigNotification anotherNotification = mock(ApolloConfigNotification.class);
+    when(anotherNotification.getNamespaceName()).thenReturn(anotherNamespace);
+
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      final AtomicInteger counter = new AtomicInteger();
+
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        try {
+          TimeUnit.MILLISECONDS.sleep(50);
+        } catch (InterruptedException e) {
+        }
+
+        if (counter.incrementAndGet() == 1) {
+          return new HttpResponse<List<ApolloConfigNotification>>(HttpServletResponse.SC_OK,
+              Lists.newArrayList(someNotification, anotherNotification));
+        }
+        return new HttpResponse<List<ApolloConfigNotification>>(HttpServletResponse.SC_NOT_MODIFIED, null);
+      }
+    }).when(httpUtil).doGet(any(HttpRequest.class), eq(responseType));
+  }
+
   @Test
   public void testSubmitLongPollMultipleNamespacesWithMultipleNotificationsReturned() throws Exception {
     RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
@@ -518,6 +740,89 @@ public class RemoteConfigLongPollServiceTest {
             + "%22%2C%22notificationId%22%3A" + anotherNotificationId + "%7D%5D"));
   }
 
+  @Test
+  public void testSubmitNamespaceWithNotificationStream() throws Exception {
+    notificationStreamEnabled = true;
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+    final String someKey = "someAppId+someCluster+someNamespace";
+    final long someNotificationId = 1;
+
+    ApolloConfigNotification someNotification = new ApolloConfigNotification(someNamespace, someNotificationId);
+    someNotification.addMessage(someKey, someNotificationId);
+    final String events = ":heartbeat\n\nevent:notifications\ndata:"
+        + new Gson().toJson(Lists.newArrayList(someNotification)) + "\n\n";
+
+    doAnswer(new Answer<HttpResponse<Void>>() {
+      @Override
+      public HttpResponse<Void> answer(InvocationOnMock invocation) throws Throwable {
+        try {
+          TimeUnit.MILLISECONDS.sleep(50);
+        } catch (InterruptedException e) {
+        }
+        HttpRequest request = invocation.getArgumentAt(0, HttpRequest.class);
+        assertTrue(request.getUrl().contains(someServerUrl + "/notifications/v2/stream?"));
+        assertTrue(request.getUrl().contains(someNamespace));
+
+        Function<BufferedReader, Void> streamHandler = invocation.getArgumentAt(1, Function.class);
+        streamHandler.apply(new BufferedReader(new StringReader(events)));
+        return new HttpResponse<>(HttpServletResponse.SC_OK, null);
+      }
+    }).when(httpUtil).doGetStream(any(HttpRequest.class), any(Function.class));
+
+    final SettableFuture<ApolloNotificationMessages> onNotified = SettableFuture.create();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        onNotified.set(invocation.getArgumentAt(1, ApolloNotificationMessages.class));
+        return null;
+      }
+    }).when(someRepository).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    ApolloNotificationMessages captured = onNotified.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    assertEquals(someNotificationId, captured.get(someKey).longValue());
+    verify(httpUtil, never()).doGet(any(HttpRequest.class), eq(responseType));
+  }
+
+  @Test
+  public void testNotificationStreamFallbackToLongPolling() throws Exception {
+    notificationStreamEnabled = true;
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+
+    when(httpUtil.doGetStream(any(HttpRequest.class), any(Function.class)))
+        .thenThrow(new ApolloConfigStatusCodeException(HttpServletResponse.SC_NOT_FOUND, "some error"));
+
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_NOT_MODIFIED);
+    final SettableFuture<Boolean> longPollFinished = SettableFuture.create();
+
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        try {
+          TimeUnit.MILLISECONDS.sleep(50);
+        } catch (InterruptedException e) {
+        }
+        longPollFinished.set(true);
+        return pollResponse;
+      }
+    }).when(httpUtil).doGet(any(HttpRequest.class), eq(responseType));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    longPollFinished.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    verify(httpUtil, times(1)).doGetStream(any(HttpRequest.class), any(Function.class));
+  }
+
   public static class MockConfigUtil extends ConfigUtil {
     @Override
     public String getAppId() {
@@ -553,6 +858,16 @@ public class RemoteConfigLongPollServiceTest {
     public long getLongPollingInitialDelayInMills() {
       return 0;
     }
+
+    @Override
+    public boolean isNotificationStreamEnabled() {
+      return notificationStreamEnabled;
+    }
+
+    @Override
+    public boolean isConfigBatchLoadEnabled() {
+      return configBatchLoadEnabled;
+    }
   }
 
 }
@@ -0,0 +1,99 @@
+package com.ctrip.framework.apollo.internals;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RemoteConfigRefreshServiceTest {
+  @Mock
+  private RemoteConfigLongPollService remoteConfigLongPollService;
+  @Mock
+  private RemoteConfigRepository someRepository;
+  @Mock
+  private RemoteConfigRepository anotherRepository;
+  private RemoteConfigRefreshService remoteConfigRefreshService;
+
+  @Before
+  public void setUp() throws Exception {
+    MockInjector.reset();
+    MockInjector.setInstance(ConfigUtil.class, new MockConfigUtil());
+    MockInjector.setInstance(RemoteConfigLongPollService.class, remoteConfigLongPollService);
+
+    remoteConfigRefreshService = new RemoteConfigRefreshService();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MockInjector.reset();
+  }
+
+  @Test
+  public void testRefreshWithBatch() throws Exception {
+    when(remoteConfigLongPollService.batchRefresh(anyListOf(RemoteConfigRepository.class))).thenReturn(true);
+
+    remoteConfigRefreshService.register(someRepository);
+    remoteConfigRefreshService.register(anotherRepository);
+    remoteConfigRefreshService.refresh();
+
+    verify(remoteConfigLongPollService, times(1)).batchRefresh(anyListOf(RemoteConfigRepository.class));
+    verify(someRepository, never()).trySync();
+    verify(anotherRepository, never()).trySync();
+  }
+
+  @Test
+  public void testRefreshOneByOneWhenBatchRefreshNotAvailable() throws Exception {
+    when(remoteConfigLongPollService.batchRefresh(anyListOf(RemoteConfigRepository.class))).thenReturn(false);
+
+    remoteConfigRefreshService.register(someRepository);
+    remoteConfigRefreshService.register(anotherRepository);
+    remoteConfigRefreshService.refresh();
+
+    verify(someRepository, times(1)).trySync();
+    verify(anotherRepository, times(1)).trySync();
+  }
+
+  @Test
+  public void testRefreshSingleNamespace() throws Exception {
+    remoteConfigRefreshService.register(someRepository);
+    remoteConfigRefreshService.refresh();
+
+    verify(remoteConfigLongPollService, never()).batchRefresh(anyListOf(RemoteConfigRepository.class));
+    verify(someRepository, times(1)).trySync();
+  }
+
+  @Test
+  public void testNextRefreshDelayWithJitter() throws Exception {
+    long interval = TimeUnit.MINUTES.toMillis(5);
+
+    for (int i = 0; i < 100; i++) {
+      long delay = remoteConfigRefreshService.nextRefreshDelayInMillis();
+      assertTrue(delay >= interval && delay <= interval * 1.1);
+    }
+  }
+
+  public static class MockConfigUtil extends ConfigUtil {
+    @Override
+    public int getRefreshInterval() {
+      return 5;
+    }
+
+    @Override
+    public TimeUnit getRefreshIntervalTimeUnit() {
+      return TimeUnit.MINUTES;
+    }
+  }
+}
@@ -1,20 +1,26 @@
 package com.ctrip.framework.apollo.internals;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.ctrip.framework.apollo.build.MockInjector;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigQuery;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
@@ -45,6 +51,7 @@ import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
 
 /**
  * Created by Jason on 4/9/16.
@@ -66,10 +73,14 @@ public class RemoteConfigRepositoryTest {
   private static String someAppId;
   private static String someCluster;
   private static String someSecret;
+  private static boolean configDeltaEnabled;
+  private static boolean localSnapshotEnabled;
 
   @Before
   public void setUp() throws Exception {
     someNamespace = "someName";
+    configDeltaEnabled = false;
+    localSnapshotEnabled = false;
 
     when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_NOT_MODIFIED);
 
@@ -83,6 +94,7 @@ public class RemoteConfigRepositoryTest {
 
     when(serviceDTO.getHomepageUrl()).thenReturn(someServerUrl);
     when(configServiceLocator.getConfigServices()).thenReturn(Lists.newArrayList(serviceDTO));
+    when(configServiceLocator.getPreferredConfigServices()).thenReturn(Lists.newArrayList(serviceDTO));
     MockInjector.setInstance(ConfigServiceLocator.class, configServiceLocator);
 
     httpUtil = spy(new MockHttpUtil());
@@ -91,6 +103,7 @@ public class RemoteConfigRepositoryTest {
     remoteConfigLongPollService = new RemoteConfigLongPollService();
 
     MockInjector.setInstance(RemoteConfigLongPollService.class, remoteConfigLongPollService);
+    MockInjector.setInstance(RemoteConfigRefreshService.class, new RemoteConfigRefreshService());
 
     someAppId = "someAppId";
     someCluster = "someCluster";
@@ -116,6 +129,75 @@ public class RemoteConfigRepositoryTest {
     remoteConfigLongPollService.stopLongPollingRefresh();
   }
 
+  @Test
+  public void testLoadConfigWithLocalSnapshot() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someSnapshot = assembleApolloConfig(configurations);
+
+    localSnapshotEnabled = true;
+    LocalSnapshotStore snapshotStore = mock(LocalSnapshotStore.class);
+    when(snapshotStore.load(someNamespace)).thenReturn(someSnapshot);
+    MockInjector.setInstance(LocalSnapshotStore.class, snapshotStore);
+
+    when(someResponse.getStatusCode()).thenReturn(304);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    assertEquals(configurations, remoteConfigRepository.getConfig());
+
+    //the release key of the snapshot is sent to the config service
+    ArgumentCaptor<HttpRequest> httpRequestArgumentCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpUtil, times(1)).doGet(httpRequestArgumentCaptor.capture(), eq(ApolloConfig.class));
+    assertTrue(httpRequestArgumentCaptor.getValue().getUrl().contains("releaseKey=" + someSnapshot.getReleaseKey()));
+
+    //not modified, no need to save again
+    verify(snapshotStore, never()).save(any(ApolloConfig.class), any(Map.class));
+  }
+
+  @Test
+  public void testSaveLocalSnapshot() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    localSnapshotEnabled = true;
+    LocalSnapshotStore snapshotStore = mock(LocalSnapshotStore.class);
+    MockInjector.setInstance(LocalSnapshotStore.class, snapshotStore);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    ArgumentCaptor<ApolloConfig> snapshotCaptor = ArgumentCaptor.forClass(ApolloConfig.class);
+    verify(snapshotStore, timeout(1000).times(1)).save(snapshotCaptor.capture(), eq(remoteConfigRepository.getConfig()));
+    assertEquals(someApolloConfig.getReleaseKey(), snapshotCaptor.getValue().getReleaseKey());
+  }
+
+  @Test
+  public void testGetConfigReturnsReadOnlyProperties() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    Properties config = remoteConfigRepository.getConfig();
+
+    assertSame(config, remoteConfigRepository.getConfig());
+    assertEquals(configurations, config);
+    try {
+      config.setProperty("anotherKey", "anotherValue");
+      fail("properties returned by the repository should be read only");
+    } catch (UnsupportedOperationException ex) {
+      //expected
+    }
+  }
+
   @Test
   public void testLoadConfigWithAccessKeySecret() throws Exception {
     someSecret = "someSecret";
@@ -189,6 +271,161 @@ public class RemoteConfigRepositoryTest {
     remoteConfigLongPollService.stopLongPollingRefresh();
   }
 
+  @Test
+  public void testLoadConfigWithDelta() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("k1", "v1", "k2", "v2", "k3", "v3");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    configDeltaEnabled = true;
+    ApolloConfig someDeltaConfig = new ApolloConfig(someApolloConfig.getAppId(), someApolloConfig.getCluster(),
+        someNamespace, "2");
+    someDeltaConfig.setBaseReleaseKey(someApolloConfig.getReleaseKey());
+    someDeltaConfig.setConfigurations(ImmutableMap.of("k2", "v2-new", "k4", "v4"));
+    someDeltaConfig.setDeletedKeys(Lists.newArrayList("k3"));
+    when(someResponse.getBody()).thenReturn(someDeltaConfig);
+
+    remoteConfigRepository.sync();
+
+    ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpUtil, times(2)).doGet(requestCaptor.capture(), eq(ApolloConfig.class));
+    assertTrue(requestCaptor.getValue().getUrl().contains("delta=true"));
+    assertEquals(ImmutableMap.of("k1", "v1", "k2", "v2-new", "k4", "v4"), remoteConfigRepository.getConfig());
+  }
+
+  @Test
+  public void testLoadConfigWithMismatchedDelta() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("k1", "v1");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    configDeltaEnabled = true;
+    ApolloConfig someDeltaConfig = new ApolloConfig(someApolloConfig.getAppId(), someApolloConfig.getCluster(),
+        someNamespace, "3");
+    someDeltaConfig.setBaseReleaseKey("2");
+    someDeltaConfig.setConfigurations(ImmutableMap.of("k2", "v2"));
+    Map<String, String> newConfigurations = ImmutableMap.of("k1", "v1-new", "k2", "v2");
+    ApolloConfig someFullConfig = assembleApolloConfig(newConfigurations);
+    someFullConfig.setReleaseKey("3");
+    when(someResponse.getBody()).thenReturn(someDeltaConfig, someFullConfig);
+
+    remoteConfigRepository.sync();
+
+    //the full config is loaded from the same config service right away, which is not counted as a failure
+    ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpUtil, times(3)).doGet(requestCaptor.capture(), eq(ApolloConfig.class));
+    assertTrue(requestCaptor.getAllValues().get(1).getUrl().contains("delta=true"));
+    assertFalse(requestCaptor.getAllValues().get(2).getUrl().contains("delta=true"));
+    verify(configServiceLocator, never()).onServiceFailed(any(ServiceDTO.class));
+    assertEquals(newConfigurations, remoteConfigRepository.getConfig());
+  }
+
+  @Test(expected = ApolloConfigException.class)
+  public void testApplyDeltaWithMismatchedBase() throws Exception {
+    ApolloConfig someApolloConfig = assembleApolloConfig(ImmutableMap.of("k1", "v1"));
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    ApolloConfig someDeltaConfig = new ApolloConfig(someApolloConfig.getAppId(), someApolloConfig.getCluster(),
+        someNamespace, "3");
+    someDeltaConfig.setBaseReleaseKey("2");
+
+    remoteConfigRepository.applyDelta(someApolloConfig, remoteConfigRepository.getConfig(), someDeltaConfig);
+  }
+
+  @Test
+  public void testLoadPrefetchedConfig() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    Map<String, ApolloConfig> prefetchedConfigs = (Map<String, ApolloConfig>)
+        ReflectionTestUtils.getField(remoteConfigLongPollService, "m_prefetchedConfigs");
+    prefetchedConfigs.put(someNamespace, someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+
+    assertEquals(configurations, remoteConfigRepository.getConfig());
+    assertEquals(someApolloConfig.getReleaseKey(), remoteConfigRepository.prepareBatchRefresh().getReleaseKey());
+    assertTrue(prefetchedConfigs.isEmpty());
+    verify(httpUtil, never()).doGet(any(HttpRequest.class), eq(ApolloConfig.class));
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+  }
+
+  @Test
+  public void testOnBatchLoaded() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RepositoryChangeListener someListener = mock(RepositoryChangeListener.class);
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigRepository.addChangeListener(someListener);
+    final ArgumentCaptor<Properties> captor = ArgumentCaptor.forClass(Properties.class);
+
+    ApolloConfigQuery query = remoteConfigRepository.prepareBatchLoad(null);
+
+    assertEquals(someNamespace, query.getNamespaceName());
+    assertEquals(someApolloConfig.getReleaseKey(), query.getReleaseKey());
+
+    Map<String, String> newConfigurations = ImmutableMap.of("someKey", "anotherValue");
+    ApolloConfig newApolloConfig = assembleApolloConfig(newConfigurations);
+    newApolloConfig.setReleaseKey("2");
+
+    remoteConfigRepository.onBatchLoaded(null);
+    remoteConfigRepository.onBatchLoaded(newApolloConfig);
+
+    verify(someListener, times(1)).onRepositoryChange(eq(someNamespace), captor.capture());
+    assertEquals(newConfigurations, captor.getValue());
+    assertEquals(newConfigurations, remoteConfigRepository.getConfig());
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+  }
+
+  @Test
+  public void testSaveLocalSnapshotOnBatchLoaded() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    localSnapshotEnabled = true;
+    LocalSnapshotStore snapshotStore = mock(LocalSnapshotStore.class);
+    MockInjector.setInstance(LocalSnapshotStore.class, snapshotStore);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigLongPollService.stopLongPollingRefresh();
+    verify(snapshotStore, timeout(1000).times(1)).save(any(ApolloConfig.class), any(Map.class));
+
+    Map<String, String> newConfigurations = ImmutableMap.of("someKey", "anotherValue");
+    ApolloConfig newApolloConfig = assembleApolloConfig(newConfigurations);
+    newApolloConfig.setReleaseKey("2");
+
+    remoteConfigRepository.onBatchLoaded(newApolloConfig);
+
+    ArgumentCaptor<ApolloConfig> snapshotCaptor = ArgumentCaptor.forClass(ApolloConfig.class);
+    verify(snapshotStore, timeout(1000).times(2)).save(snapshotCaptor.capture(), any(Map.class));
+    assertEquals(newApolloConfig.getReleaseKey(), snapshotCaptor.getValue().getReleaseKey());
+    verify(snapshotStore, timeout(1000).times(1)).save(any(ApolloConfig.class), eq(newConfigurations));
+  }
+
   @Test
   public void testLongPollingRefresh() throws Exception {
     Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
@@ -335,6 +572,16 @@ public class RemoteConfigRepositoryTest {
     public long getLongPollingInitialDelayInMills() {
       return 0;
     }
+
+    @Override
+    public boolean isConfigDeltaEnabled() {
+      return configDeltaEnabled;
+    }
+
+    @Override
+    public boolean isLocalSnapshotEnabled() {
+      return localSnapshotEnabled;
+    }
   }
 
   public static class MockHttpUtil extends HttpUtil {
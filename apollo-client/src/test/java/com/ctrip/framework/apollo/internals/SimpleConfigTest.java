@@ -5,6 +5,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.ctrip.framework.apollo.enums.ConfigSourceType;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
@@ -20,6 +21,7 @@ import com.ctrip.framework.apollo.enums.PropertyChangeType;
 import com.ctrip.framework.apollo.model.ConfigChange;
 import com.ctrip.framework.apollo.model.ConfigChangeEvent;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.SettableFuture;
 
 /**
@@ -68,6 +70,35 @@ public class SimpleConfigTest {
     assertEquals(ConfigSourceType.NONE, config.getSourceType());
   }
 
+  @Test
+  public void testOnRepositoryChangeWithSynchronousListener() throws Exception {
+    Properties someProperties = new Properties();
+    final String someKey = "someKey";
+    String someValue = "someValue";
+    String someValueNew = "someValueNew";
+    someProperties.setProperty(someKey, someValue);
+
+    Properties anotherProperties = new Properties();
+    anotherProperties.setProperty(someKey, someValueNew);
+
+    when(configRepository.getConfig()).thenReturn(someProperties);
+    when(configRepository.getSourceType()).thenReturn(ConfigSourceType.LOCAL);
+
+    final SimpleConfig config = new SimpleConfig(someNamespace, configRepository);
+    final List<String> valuesSeenByListener = Lists.newArrayList();
+    config.addSynchronousChangeListener(new ConfigChangeListener() {
+      @Override
+      public void onChange(ConfigChangeEvent changeEvent) {
+        valuesSeenByListener.add(config.getProperty(someKey, null));
+      }
+    });
+
+    config.onRepositoryChange(someNamespace, anotherProperties);
+
+    //notified in the current thread with the config already updated
+    assertEquals(Lists.newArrayList(someValueNew), valuesSeenByListener);
+  }
+
   @Test
   public void testOnRepositoryChange() throws Exception {
     Properties someProperties = new Properties();
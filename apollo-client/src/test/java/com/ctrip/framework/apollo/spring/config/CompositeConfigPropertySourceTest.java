@@ -0,0 +1,226 @@
+package com.ctrip.framework.apollo.spring.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.Config;
+import com.ctrip.framework.apollo.ConfigChangeListener;
+import com.ctrip.framework.apollo.enums.PropertyChangeType;
+import com.ctrip.framework.apollo.internals.AbstractConfig;
+import com.ctrip.framework.apollo.model.ConfigChange;
+import com.ctrip.framework.apollo.model.ConfigChangeEvent;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.core.env.MapPropertySource;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CompositeConfigPropertySourceTest {
+  private CompositeConfigPropertySource compositeConfigPropertySource;
+
+  @Mock
+  private AbstractConfig someConfig;
+  @Mock
+  private AbstractConfig anotherConfig;
+  @Mock
+  private Config someOtherConfig;
+
+  private String someNamespace;
+  private String anotherNamespace;
+
+  @Before
+  public void setUp() throws Exception {
+    someNamespace = "someNamespace";
+    anotherNamespace = "anotherNamespace";
+
+    compositeConfigPropertySource = new CompositeConfigPropertySource("someName");
+  }
+
+  @Test
+  public void testGetProperty() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+    String anotherKey = "anotherKey";
+    String anotherValue = "anotherValue";
+    String sharedKey = "sharedKey";
+    String sharedValue = "sharedValue";
+    String anotherSharedValue = "anotherSharedValue";
+
+    mockConfig(someConfig, ImmutableMap.of(someKey, someValue, sharedKey, sharedValue));
+    mockConfig(anotherConfig, ImmutableMap.of(anotherKey, anotherValue, sharedKey, anotherSharedValue));
+    addPropertySources();
+
+    assertEquals(someValue, compositeConfigPropertySource.getProperty(someKey));
+    assertEquals(anotherValue, compositeConfigPropertySource.getProperty(anotherKey));
+    assertEquals(sharedValue, compositeConfigPropertySource.getProperty(sharedKey));
+    assertTrue(compositeConfigPropertySource.containsProperty(sharedKey));
+    assertEquals(Sets.newHashSet(someKey, anotherKey, sharedKey),
+        Sets.newHashSet(compositeConfigPropertySource.getPropertyNames()));
+
+    //the shared key is resolved from the first namespace, no need to look up the others
+    verify(anotherConfig, never()).getProperty(sharedKey, null);
+    //the index is not listening to the asynchronous change events
+    verify(someConfig, never()).addChangeListener(any(ConfigChangeListener.class));
+  }
+
+  @Test
+  public void testGetIndexedPropertyReadsOwnerOnly() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+
+    mockConfig(someConfig, ImmutableMap.<String, String>of());
+    mockConfig(anotherConfig, ImmutableMap.of(someKey, someValue));
+    addPropertySources();
+
+    assertEquals(someValue, compositeConfigPropertySource.getProperty(someKey));
+    assertEquals(someValue, compositeConfigPropertySource.getProperty(someKey));
+
+    //only checked once when building the index
+    verify(someConfig, times(1)).getProperty(someKey, null);
+  }
+
+  @Test
+  public void testGetPropertyNotListed() throws Exception {
+    String someKey = "someKey";
+    String someSystemPropertyValue = "someSystemPropertyValue";
+    String unknownKey = "unknownKey";
+
+    mockConfig(someConfig, ImmutableMap.<String, String>of());
+    mockConfig(anotherConfig, ImmutableMap.<String, String>of());
+    //e.g. system property
+    when(anotherConfig.getProperty(someKey, null)).thenReturn(someSystemPropertyValue);
+    addPropertySources();
+
+    assertEquals(0, compositeConfigPropertySource.getPropertyNames().length);
+    assertEquals(someSystemPropertyValue, compositeConfigPropertySource.getProperty(someKey));
+    assertEquals(someSystemPropertyValue, compositeConfigPropertySource.getProperty(someKey));
+    assertNull(compositeConfigPropertySource.getProperty(unknownKey));
+    assertFalse(compositeConfigPropertySource.containsProperty(unknownKey));
+
+    //resolved once and then looked up in the index
+    verify(someConfig, times(1)).getProperty(someKey, null);
+    verify(someConfig, times(1)).getProperty(unknownKey, null);
+    verify(anotherConfig, times(1)).getProperty(unknownKey, null);
+  }
+
+  @Test
+  public void testGetPropertyWithSystemPropertySetAfterMissed() throws Exception {
+    String someKey = "someKey";
+    String someSystemPropertyValue = "someSystemPropertyValue";
+
+    mockConfig(someConfig, ImmutableMap.<String, String>of());
+    mockConfig(anotherConfig, ImmutableMap.<String, String>of());
+    addPropertySources();
+
+    assertNull(compositeConfigPropertySource.getProperty(someKey));
+
+    System.setProperty(someKey, someSystemPropertyValue);
+    try {
+      //the configs read the system properties live
+      when(someConfig.getProperty(someKey, null)).thenReturn(someSystemPropertyValue);
+
+      assertEquals(someSystemPropertyValue, compositeConfigPropertySource.getProperty(someKey));
+    } finally {
+      System.clearProperty(someKey);
+    }
+
+    when(someConfig.getProperty(someKey, null)).thenReturn(null);
+
+    //not indexed to the namespace answering the system property, so the missing name is still remembered
+    assertNull(compositeConfigPropertySource.getProperty(someKey));
+    verify(someConfig, times(2)).getProperty(someKey, null);
+  }
+
+  @Test
+  public void testUpdateIndexOnConfigChange() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+    String anotherValue = "anotherValue";
+    String deletedKey = "deletedKey";
+    String missingKey = "missingKey";
+
+    mockConfig(someConfig, ImmutableMap.of(deletedKey, someValue));
+    mockConfig(anotherConfig, ImmutableMap.of(someKey, anotherValue));
+    addPropertySources();
+
+    ArgumentCaptor<ConfigChangeListener> someListener = ArgumentCaptor.forClass(ConfigChangeListener.class);
+    verify(someConfig).addSynchronousChangeListener(someListener.capture());
+
+    assertEquals(anotherValue, compositeConfigPropertySource.getProperty(someKey));
+    assertNull(compositeConfigPropertySource.getProperty(missingKey));
+    assertEquals(Sets.newHashSet(someKey, deletedKey),
+        Sets.newHashSet(compositeConfigPropertySource.getPropertyNames()));
+
+    //someKey is added to the first namespace, deletedKey is deleted, and missingKey is set as a system property
+    when(someConfig.getProperty(someKey, null)).thenReturn(someValue);
+    when(someConfig.getProperty(deletedKey, null)).thenReturn(null);
+    when(someConfig.getPropertyNames()).thenReturn(Sets.newHashSet(someKey));
+    when(someConfig.getProperty(missingKey, null)).thenReturn(someValue);
+    someListener.getValue().onChange(new ConfigChangeEvent(someNamespace, ImmutableMap.of(
+        someKey, new ConfigChange(someNamespace, someKey, null, someValue, PropertyChangeType.ADDED),
+        deletedKey, new ConfigChange(someNamespace, deletedKey, someValue, null, PropertyChangeType.DELETED))));
+
+    assertEquals(someValue, compositeConfigPropertySource.getProperty(someKey));
+    assertNull(compositeConfigPropertySource.getProperty(deletedKey));
+    assertEquals(someValue, compositeConfigPropertySource.getProperty(missingKey));
+    assertEquals(Sets.newHashSet(someKey), Sets.newHashSet(compositeConfigPropertySource.getPropertyNames()));
+  }
+
+  @Test
+  public void testGetPropertyWithConfigNotSupportingIndex() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+    String anotherValue = "anotherValue";
+
+    compositeConfigPropertySource.addPropertySource(new ConfigPropertySource(someNamespace, someOtherConfig));
+    compositeConfigPropertySource.addPropertySource(new ConfigPropertySource(anotherNamespace, anotherConfig));
+
+    when(anotherConfig.getProperty(someKey, null)).thenReturn(anotherValue);
+
+    assertEquals(anotherValue, compositeConfigPropertySource.getProperty(someKey));
+
+    //looked up in order without the index
+    when(someOtherConfig.getProperty(someKey, null)).thenReturn(someValue);
+
+    assertEquals(someValue, compositeConfigPropertySource.getProperty(someKey));
+  }
+
+  @Test
+  public void testGetPropertyWithOtherPropertySource() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+    String anotherValue = "anotherValue";
+
+    compositeConfigPropertySource.addPropertySource(new ConfigPropertySource(someNamespace, someConfig));
+    compositeConfigPropertySource.addFirstPropertySource(
+        new MapPropertySource("someMapPropertySource", ImmutableMap.<String, Object>of(someKey, someValue)));
+
+    when(someConfig.getProperty(someKey, null)).thenReturn(anotherValue);
+
+    assertEquals(someValue, compositeConfigPropertySource.getProperty(someKey));
+  }
+
+  private void addPropertySources() {
+    compositeConfigPropertySource.addPropertySource(new ConfigPropertySource(someNamespace, someConfig));
+    compositeConfigPropertySource.addPropertySource(new ConfigPropertySource(anotherNamespace, anotherConfig));
+  }
+
+  private void mockConfig(Config config, ImmutableMap<String, String> properties) {
+    when(config.getPropertyNames()).thenReturn(properties.keySet());
+    for (String key : properties.keySet()) {
+      when(config.getProperty(key, null)).thenReturn(properties.get(key));
+    }
+  }
+}
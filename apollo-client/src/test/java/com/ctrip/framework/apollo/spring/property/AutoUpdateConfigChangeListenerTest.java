@@ -0,0 +1,82 @@
+package com.ctrip.framework.apollo.spring.property;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.enums.PropertyChangeType;
+import com.ctrip.framework.apollo.model.ConfigChange;
+import com.ctrip.framework.apollo.model.ConfigChangeEvent;
+import com.ctrip.framework.apollo.spring.annotation.SpringValueProcessor;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.SimpleTypeConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.core.env.Environment;
+
+public class AutoUpdateConfigChangeListenerTest {
+  private static final String SOME_NAMESPACE = "someNamespace";
+
+  private ConfigurableListableBeanFactory beanFactory;
+  private SpringValueProcessor springValueProcessor;
+  private AutoUpdateConfigChangeListener autoUpdateConfigChangeListener;
+
+  @Before
+  public void setUp() throws Exception {
+    beanFactory = mock(ConfigurableListableBeanFactory.class);
+    when(beanFactory.getTypeConverter()).thenReturn(new SimpleTypeConverter());
+    springValueProcessor = new SpringValueProcessor();
+    springValueProcessor.setBeanFactory(beanFactory);
+
+    autoUpdateConfigChangeListener = new AutoUpdateConfigChangeListener(mock(Environment.class), beanFactory);
+  }
+
+  @Test
+  public void testOnChangeWithSamePlaceholder() throws Exception {
+    String someKey = "someKey";
+    String anotherKey = "anotherKey";
+    String somePlaceholder = "${someKey}${anotherKey}";
+    int someNewValue = 12;
+
+    TestBean someBean = new TestBean();
+    TestBean anotherBean = new TestBean();
+
+    //the spring values are registered with both the keys in the placeholder
+    springValueProcessor.postProcessBeforeInitialization(someBean, "someBean");
+    springValueProcessor.postProcessBeforeInitialization(anotherBean, "anotherBean");
+
+    when(beanFactory.resolveEmbeddedValue(somePlaceholder)).thenReturn(String.valueOf(someNewValue));
+
+    autoUpdateConfigChangeListener.onChange(new ConfigChangeEvent(SOME_NAMESPACE, ImmutableMap.of(
+        someKey, new ConfigChange(SOME_NAMESPACE, someKey, "0", "1", PropertyChangeType.MODIFIED),
+        anotherKey, new ConfigChange(SOME_NAMESPACE, anotherKey, "0", "2", PropertyChangeType.MODIFIED))));
+
+    assertEquals(someNewValue, someBean.timeout);
+    assertEquals(someNewValue, anotherBean.timeout);
+    assertEquals(someNewValue, someBean.timeoutInMethod);
+    assertEquals(someNewValue, anotherBean.timeoutInMethod);
+    //the setters are invoked only once, though registered with both the keys
+    assertEquals(1, someBean.setterInvocations);
+    assertEquals(1, anotherBean.setterInvocations);
+
+    //the placeholder is resolved only once for all the spring values
+    verify(beanFactory, times(1)).resolveEmbeddedValue(somePlaceholder);
+  }
+
+  public static class TestBean {
+    @Value("${someKey}${anotherKey}")
+    private int timeout;
+    private int setterInvocations;
+    private int timeoutInMethod;
+
+    @Value("${someKey}${anotherKey}")
+    public void setTimeoutInMethod(int timeoutInMethod) {
+      this.timeoutInMethod = timeoutInMethod;
+      setterInvocations++;
+    }
+  }
+}
@@ -23,6 +23,7 @@ public class ConfigUtilTest {
     System.clearProperty("apollo.refreshInterval");
     System.clearProperty("apollo.loadConfigQPS");
     System.clearProperty("apollo.longPollQPS");
+    System.clearProperty("apollo.longPollReconnectsPerMinute");
     System.clearProperty("apollo.configCacheSize");
     System.clearProperty("apollo.longPollingInitialDelayInMills");
     System.clearProperty("apollo.autoUpdateInjectedSpringProperties");
@@ -119,6 +120,15 @@ public class ConfigUtilTest {
     assertTrue(configUtil.getLoadConfigQPS() > 0);
   }
 
+  @Test
+  public void testCustomizeNonPositiveLongPollReconnectsPerMinute() throws Exception {
+    System.setProperty("apollo.longPollReconnectsPerMinute", "0");
+
+    ConfigUtil configUtil = new ConfigUtil();
+
+    assertTrue(configUtil.getLongPollReconnectsPerMinute() > 0);
+  }
+
   @Test
   public void testCustomizeLongPollQPS() throws Exception {
     int someQPS = 1;
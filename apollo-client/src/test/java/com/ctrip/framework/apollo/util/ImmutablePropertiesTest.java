@@ -0,0 +1,133 @@
+package com.ctrip.framework.apollo.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Test;
+
+public class ImmutablePropertiesTest {
+
+  @Test
+  public void testCopyOf() throws Exception {
+    Map<String, String> someMap = ImmutableMap.of("someKey", "someValue", "anotherKey", "anotherValue");
+
+    ImmutableProperties properties = ImmutableProperties.copyOf(someMap);
+
+    assertEquals(someMap, properties);
+    assertEquals("someValue", properties.getProperty("someKey"));
+    assertEquals(someMap.keySet(), properties.stringPropertyNames());
+    assertSame(properties, ImmutableProperties.copyOf(properties));
+  }
+
+  @Test
+  public void testBuilder() throws Exception {
+    ImmutableProperties properties = ImmutableProperties.builder().put("someKey", "someValue")
+        .put("anotherKey", "anotherValue").build();
+
+    assertEquals(ImmutableMap.of("someKey", "someValue", "anotherKey", "anotherValue"), properties);
+    assertSame(properties, ImmutableProperties.copyOf(properties));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testPutAfterBuilt() throws Exception {
+    ImmutableProperties.builder().put("someKey", "someValue").build().put("anotherKey", "anotherValue");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBuilderReusedAfterBuilt() throws Exception {
+    ImmutableProperties.Builder builder = ImmutableProperties.builder();
+    builder.build();
+    builder.put("someKey", "someValue");
+  }
+
+  @Test
+  public void testCopyOfNull() throws Exception {
+    assertEquals(0, ImmutableProperties.copyOf(null).size());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSetProperty() throws Exception {
+    ImmutableProperties.copyOf(new Properties()).setProperty("someKey", "someValue");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testPut() throws Exception {
+    ImmutableProperties.copyOf(new Properties()).put("someKey", "someValue");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testPutIfAbsent() throws Exception {
+    ImmutableProperties.copyOf(new Properties()).putIfAbsent("someKey", "someValue");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testRemoveWithValue() throws Exception {
+    ImmutableProperties.copyOf(ImmutableMap.of("someKey", "someValue")).remove("someKey", "someValue");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReplace() throws Exception {
+    ImmutableProperties.copyOf(ImmutableMap.of("someKey", "someValue")).replace("someKey", "anotherValue");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReplaceWithOldValue() throws Exception {
+    ImmutableProperties.copyOf(ImmutableMap.of("someKey", "someValue"))
+        .replace("someKey", "someValue", "anotherValue");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReplaceAll() throws Exception {
+    ImmutableProperties.copyOf(ImmutableMap.of("someKey", "someValue")).replaceAll(null);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testComputeIfAbsent() throws Exception {
+    ImmutableProperties.copyOf(new Properties()).computeIfAbsent("someKey", null);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testComputeIfPresent() throws Exception {
+    ImmutableProperties.copyOf(ImmutableMap.of("someKey", "someValue")).computeIfPresent("someKey", null);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testCompute() throws Exception {
+    ImmutableProperties.copyOf(new Properties()).compute("someKey", null);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testMerge() throws Exception {
+    ImmutableProperties.copyOf(new Properties()).merge("someKey", "someValue", null);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testRemoveFromEntrySet() throws Exception {
+    ImmutableProperties properties = ImmutableProperties.copyOf(ImmutableMap.of("someKey", "someValue"));
+
+    properties.entrySet().clear();
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    ImmutableProperties properties = ImmutableProperties.copyOf(ImmutableMap.of("someKey", "someValue"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+      oos.writeObject(properties);
+    }
+    Object result;
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      result = ois.readObject();
+    }
+
+    assertEquals(properties, result);
+  }
+}
@@ -0,0 +1,83 @@
+package com.ctrip.framework.apollo.util.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.util.ImmutableProperties;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApolloConfigTypeAdapterTest {
+  private Gson gson;
+
+  @Before
+  public void setUp() throws Exception {
+    gson = new GsonBuilder().registerTypeAdapter(ApolloConfig.class, new ApolloConfigTypeAdapter()).create();
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    String json = "{\"appId\":\"someAppId\",\"cluster\":\"someCluster\",\"namespaceName\":\"someNamespace\","
+        + "\"configurations\":{\"someKey\":\"someValue\",\"anotherKey\":\"anotherValue\",\"nullKey\":null},"
+        + "\"releaseKey\":\"someReleaseKey\",\"unknownField\":{\"some\":[1,2]}}";
+
+    ApolloConfig apolloConfig = gson.fromJson(json, ApolloConfig.class);
+
+    assertEquals("someAppId", apolloConfig.getAppId());
+    assertEquals("someCluster", apolloConfig.getCluster());
+    assertEquals("someNamespace", apolloConfig.getNamespaceName());
+    assertEquals("someReleaseKey", apolloConfig.getReleaseKey());
+    assertEquals(ImmutableMap.of("someKey", "someValue", "anotherKey", "anotherValue"),
+        apolloConfig.getConfigurations());
+    assertTrue(apolloConfig.getConfigurations() instanceof ImmutableProperties);
+    assertNull(apolloConfig.getBaseReleaseKey());
+    assertNull(apolloConfig.getDeletedKeys());
+  }
+
+  @Test
+  public void testReadDelta() throws Exception {
+    String json = "{\"appId\":\"someAppId\",\"configurations\":{\"someKey\":\"someValue\"},"
+        + "\"releaseKey\":\"someReleaseKey\",\"baseReleaseKey\":\"someBaseReleaseKey\","
+        + "\"deletedKeys\":[\"anotherKey\"]}";
+
+    ApolloConfig apolloConfig = gson.fromJson(json, ApolloConfig.class);
+
+    assertTrue(apolloConfig.isDelta());
+    assertEquals("someBaseReleaseKey", apolloConfig.getBaseReleaseKey());
+    assertEquals(Lists.newArrayList("anotherKey"), apolloConfig.getDeletedKeys());
+  }
+
+  @Test
+  public void testReadList() throws Exception {
+    String json = "[{\"appId\":\"someAppId\",\"configurations\":{\"someKey\":\"someValue\"}},null]";
+
+    List<ApolloConfig> apolloConfigs = gson.fromJson(json, new TypeToken<List<ApolloConfig>>() {
+    }.getType());
+
+    assertEquals(2, apolloConfigs.size());
+    assertEquals("someValue", apolloConfigs.get(0).getConfigurations().get("someKey"));
+    assertNull(apolloConfigs.get(1));
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    ApolloConfig someConfig = new ApolloConfig("someAppId", "someCluster", "someNamespace", "someReleaseKey");
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    someConfig.setConfigurations(configurations);
+    someConfig.setBaseReleaseKey("someBaseReleaseKey");
+    someConfig.setDeletedKeys(Lists.newArrayList("anotherKey"));
+
+    ApolloConfig result = gson.fromJson(gson.toJson(someConfig), ApolloConfig.class);
+
+    assertEquals(someConfig.toString(), result.toString());
+  }
+}
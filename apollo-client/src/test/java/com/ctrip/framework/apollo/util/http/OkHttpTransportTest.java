@@ -0,0 +1,111 @@
+package com.ctrip.framework.apollo.util.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OkHttpTransportTest {
+  private static final int SOME_TIMEOUT = 5000;
+
+  private Server server;
+  private String someUrl;
+  private OkHttpTransport okHttpTransport;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new Server(0);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+          HttpServletResponse response) throws IOException {
+        if ("/notFound".equals(target)) {
+          response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+          response.getWriter().write("not found");
+        } else if ("/tooManyRequests".equals(target)) {
+          response.setStatus(429);
+          response.setHeader("Retry-After", "5");
+        } else if ("/gzip".equals(target)) {
+          response.setStatus(HttpServletResponse.SC_OK);
+          response.setHeader("Content-Encoding", "gzip");
+          try (OutputStream out = new GZIPOutputStream(response.getOutputStream())) {
+            out.write("someGzipBody".getBytes(Charsets.UTF_8));
+          }
+        } else {
+          response.setStatus(HttpServletResponse.SC_OK);
+          response.getWriter().write(String.valueOf(request.getHeader("someHeader")));
+        }
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+    someUrl = String.format("http://localhost:%d", ((ServerConnector) server.getConnectors()[0]).getLocalPort());
+
+    okHttpTransport = new OkHttpTransport();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testDoGetWithConnectionReused() throws Exception {
+    HttpRequest someRequest = new HttpRequest(someUrl + "/some");
+    someRequest.setHeaders(ImmutableMap.of("someHeader", "someValue"));
+
+    try (HttpTransportResponse response = okHttpTransport.doGet(someRequest, SOME_TIMEOUT, SOME_TIMEOUT)) {
+      assertEquals(200, response.getStatusCode());
+      assertEquals("someValue", new String(ByteStreams.toByteArray(response.getBody()), Charsets.UTF_8));
+      assertTrue(response.getConnectNanos() > 0);
+    }
+
+    //error responses don't break the connection either
+    try (HttpTransportResponse response = okHttpTransport.doGet(new HttpRequest(someUrl + "/notFound"),
+        SOME_TIMEOUT, SOME_TIMEOUT)) {
+      assertEquals(404, response.getStatusCode());
+      assertEquals(0, response.getConnectNanos());
+    }
+
+    try (HttpTransportResponse response = okHttpTransport.doGet(someRequest, SOME_TIMEOUT * 2, SOME_TIMEOUT * 2)) {
+      assertEquals(200, response.getStatusCode());
+      ByteStreams.toByteArray(response.getBody());
+      //the clients with different timeouts share the connection pool
+      assertEquals(0, response.getConnectNanos());
+    }
+  }
+
+  @Test
+  public void testDoGetWithGzipResponse() throws Exception {
+    try (HttpTransportResponse response = okHttpTransport.doGet(new HttpRequest(someUrl + "/gzip"), SOME_TIMEOUT,
+        SOME_TIMEOUT)) {
+      assertEquals(200, response.getStatusCode());
+      assertEquals("someGzipBody", new String(ByteStreams.toByteArray(response.getBody()), Charsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testDoGetWithRetryAfter() throws Exception {
+    try (HttpTransportResponse response = okHttpTransport.doGet(new HttpRequest(someUrl + "/tooManyRequests"),
+        SOME_TIMEOUT, SOME_TIMEOUT)) {
+      assertEquals(429, response.getStatusCode());
+      assertEquals("5", response.getHeader("Retry-After"));
+      assertNull(response.getHeader("someHeader"));
+    }
+  }
+}
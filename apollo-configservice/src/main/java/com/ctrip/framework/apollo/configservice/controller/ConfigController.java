@@ -1,13 +1,19 @@
 package com.ctrip.framework.apollo.configservice.controller;
 
 import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.AppNamespaceServiceWithCache;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseCache;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseCache.CachedResponse;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
 import com.ctrip.framework.apollo.configservice.util.InstanceConfigAuditUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.ResponseCompressionUtil;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigQuery;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.google.common.base.Splitter;
@@ -16,6 +22,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -26,6 +33,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -37,30 +45,77 @@ import java.util.stream.Collectors;
 @RestController
 @RequestMapping("/configs")
 public class ConfigController {
+  private static final String JSON_CONTENT_TYPE = "application/json;charset=UTF-8";
+  private static final String NO_RELEASE_KEY = "-1";
+  private static final Splitter RELEASE_KEY_SPLITTER = Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
   private static final Splitter X_FORWARDED_FOR_SPLITTER = Splitter.on(",").omitEmptyStrings()
       .trimResults();
   private final ConfigService configService;
   private final AppNamespaceServiceWithCache appNamespaceService;
   private final NamespaceUtil namespaceUtil;
   private final InstanceConfigAuditUtil instanceConfigAuditUtil;
+  private final ConfigResponseCache configResponseCache;
+  private final ReleaseService releaseService;
   private final Gson gson;
 
   private static final Type configurationTypeReference = new TypeToken<Map<String, String>>() {
       }.getType();
+  private static final Type queriesTypeReference = new TypeToken<List<ApolloConfigQuery>>() {
+      }.getType();
 
   public ConfigController(
       final ConfigService configService,
       final AppNamespaceServiceWithCache appNamespaceService,
       final NamespaceUtil namespaceUtil,
       final InstanceConfigAuditUtil instanceConfigAuditUtil,
+      final ConfigResponseCache configResponseCache,
+      final ReleaseService releaseService,
       final Gson gson) {
     this.configService = configService;
     this.appNamespaceService = appNamespaceService;
     this.namespaceUtil = namespaceUtil;
     this.instanceConfigAuditUtil = instanceConfigAuditUtil;
+    this.configResponseCache = configResponseCache;
+    this.releaseService = releaseService;
     this.gson = gson;
   }
 
+  /**
+   * 查询配置，命中缓存时直接写出已经序列化好的响应
+   *
+   * @see #queryConfig
+   */
+  @GetMapping(value = "/{appId}/{clusterName}/{namespace:.+}")
+  public void queryConfigAsJson(@PathVariable String appId, @PathVariable String clusterName,
+                                @PathVariable String namespace,
+                                @RequestParam(value = "dataCenter", required = false) String dataCenter,
+                                @RequestParam(value = "releaseKey", defaultValue = "-1") String clientSideReleaseKey,
+                                @RequestParam(value = "ip", required = false) String clientIp,
+                                @RequestParam(value = "messages", required = false) String messagesAsString,
+                                @RequestParam(value = "delta", defaultValue = "false") boolean delta,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LoadedConfig loadedConfig = loadConfig(appId, clusterName, namespace, dataCenter, clientSideReleaseKey,
+        clientIp, messagesAsString, request, response);
+    if (loadedConfig == null) {
+      return;
+    }
+
+    ApolloConfig apolloConfig = loadedConfig.apolloConfig;
+    CachedResponse cachedResponse = null;
+    // 客户端支持增量配置时，以客户端的 ReleaseKey 为基准，返回变化的配置项
+    if (delta && !NO_RELEASE_KEY.equals(clientSideReleaseKey)) {
+      cachedResponse = loadDeltaResponse(apolloConfig, clientSideReleaseKey, loadedConfig.releases);
+    }
+    // 不支持增量，或无法返回增量时，返回全量配置
+    if (cachedResponse == null) {
+      cachedResponse = loadFullResponse(apolloConfig, loadedConfig.releases);
+    }
+
+    response.setContentType(JSON_CONTENT_TYPE);
+    ResponseCompressionUtil.write(request, response, cachedResponse.getContent(),
+        cachedResponse.getCompressedContent());
+  }
+
   /**
    *
    * @param appId
@@ -75,13 +130,141 @@ public class ConfigController {
    * @return
    * @throws IOException
    */
-  @GetMapping(value = "/{appId}/{clusterName}/{namespace:.+}")
-  public ApolloConfig queryConfig(@PathVariable String appId, @PathVariable String clusterName,
-                                  @PathVariable String namespace,
-                                  @RequestParam(value = "dataCenter", required = false) String dataCenter,
-                                  @RequestParam(value = "releaseKey", defaultValue = "-1") String clientSideReleaseKey,
-                                  @RequestParam(value = "ip", required = false) String clientIp,
-                                  @RequestParam(value = "messages", required = false) String messagesAsString,
+  public ApolloConfig queryConfig(String appId, String clusterName, String namespace, String dataCenter,
+                                  String clientSideReleaseKey, String clientIp, String messagesAsString,
+                                  HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LoadedConfig loadedConfig = loadConfig(appId, clusterName, namespace, dataCenter, clientSideReleaseKey,
+        clientIp, messagesAsString, request, response);
+    if (loadedConfig == null) {
+      return null;
+    }
+
+    ApolloConfig apolloConfig = loadedConfig.apolloConfig;
+    // 合并 Release 的配置，并将结果设置到 ApolloConfig 中
+    apolloConfig.setConfigurations(mergeReleaseConfigurations(loadedConfig.releases));
+    return apolloConfig;
+  }
+
+  private CachedResponse loadFullResponse(ApolloConfig apolloConfig, List<Release> releases) {
+    String cacheKey = configResponseCache.assembleCacheKey(apolloConfig);
+    CachedResponse cachedResponse = configResponseCache.get(cacheKey);
+    if (cachedResponse != null) {
+      Tracer.logEvent("Apollo.Config.Cache.Hit", cacheKey);
+      return cachedResponse;
+    }
+
+    Tracer.logEvent("Apollo.Config.Cache.Miss", cacheKey);
+    apolloConfig.setConfigurations(mergeReleaseConfigurations(releases));
+    byte[] body = gson.toJson(apolloConfig).getBytes(StandardCharsets.UTF_8);
+    return configResponseCache.put(cacheKey, body, releases);
+  }
+
+  /**
+   * 加载相对于客户端 ReleaseKey 的增量响应。只有基准 Release 存在且增量比全量小时，才以增量的主键缓存，
+   * 避免客户端传入任意的 ReleaseKey 占用响应缓存
+   *
+   * @return 若无法返回增量，返回 null ，由调用方返回全量配置
+   */
+  private CachedResponse loadDeltaResponse(ApolloConfig apolloConfig, String baseReleaseKey,
+                                           List<Release> releases) {
+    apolloConfig.setBaseReleaseKey(baseReleaseKey);
+    String cacheKey = configResponseCache.assembleCacheKey(apolloConfig);
+    CachedResponse cachedResponse = configResponseCache.get(cacheKey);
+    if (cachedResponse != null) {
+      Tracer.logEvent("Apollo.Config.Cache.Hit", cacheKey);
+      return cachedResponse;
+    }
+
+    if (configResponseCache.isDeltaUnavailable(cacheKey)) {
+      apolloConfig.setBaseReleaseKey(null);
+      return null;
+    }
+
+    List<Release> baseReleases = findBaseReleases(baseReleaseKey, releases);
+    if (baseReleases == null) {
+      Tracer.logEvent("Apollo.Config.Delta.BaseNotFound", baseReleaseKey);
+    }
+    if (baseReleases == null || !assembleDelta(apolloConfig, mergeReleaseConfigurations(releases), baseReleases)) {
+      configResponseCache.markDeltaUnavailable(cacheKey);
+      apolloConfig.setBaseReleaseKey(null);
+      return null;
+    }
+
+    Tracer.logEvent("Apollo.Config.Cache.Miss", cacheKey);
+    byte[] body = gson.toJson(apolloConfig).getBytes(StandardCharsets.UTF_8);
+    return configResponseCache.put(cacheKey, body, releases);
+  }
+
+  /**
+   * 计算相对于基准 Release 们的增量配置，并设置到 ApolloConfig 中
+   *
+   * @return 若增量并不比全量小，返回 false
+   */
+  private boolean assembleDelta(ApolloConfig apolloConfig, Map<String, String> configurations,
+                                List<Release> baseReleases) {
+    Map<String, String> baseConfigurations = mergeReleaseConfigurations(baseReleases);
+    Map<String, String> changedConfigurations = Maps.newHashMap();
+    for (Map.Entry<String, String> entry : configurations.entrySet()) {
+      if (!Objects.equals(entry.getValue(), baseConfigurations.get(entry.getKey()))) {
+        changedConfigurations.put(entry.getKey(), entry.getValue());
+      }
+    }
+    List<String> deletedKeys = baseConfigurations.keySet().stream()
+        .filter(key -> !configurations.containsKey(key)).collect(Collectors.toList());
+
+    if (changedConfigurations.size() + deletedKeys.size() >= configurations.size()) {
+      return false;
+    }
+
+    apolloConfig.setConfigurations(changedConfigurations);
+    apolloConfig.setDeletedKeys(deletedKeys);
+    return true;
+  }
+
+  /**
+   * 查找客户端 ReleaseKey 对应的 Release 们，需与当前的 Release 们属于相同的 Namespace ，且顺序一致
+   *
+   * @return 若有任何一个找不到或不匹配，返回 null
+   */
+  private List<Release> findBaseReleases(String baseReleaseKey, List<Release> releases) {
+    List<String> baseReleaseKeys = RELEASE_KEY_SPLITTER.splitToList(baseReleaseKey);
+    if (baseReleaseKeys.size() != releases.size()) {
+      return null;
+    }
+
+    Map<String, Release> releasesToLoad = Maps.newHashMap();
+    for (int i = 0; i < releases.size(); i++) {
+      if (!Objects.equals(baseReleaseKeys.get(i), releases.get(i).getReleaseKey())) {
+        releasesToLoad.put(baseReleaseKeys.get(i), null);
+      }
+    }
+    if (!releasesToLoad.isEmpty()) {
+      for (Release release : releaseService.findByReleaseKeys(releasesToLoad.keySet())) {
+        releasesToLoad.put(release.getReleaseKey(), release);
+      }
+    }
+
+    List<Release> baseReleases = Lists.newArrayListWithCapacity(releases.size());
+    for (int i = 0; i < releases.size(); i++) {
+      Release release = releases.get(i);
+      Release baseRelease = releasesToLoad.containsKey(baseReleaseKeys.get(i)) ?
+          releasesToLoad.get(baseReleaseKeys.get(i)) : release;
+      if (baseRelease == null || !Objects.equals(baseRelease.getAppId(), release.getAppId())
+          || !Objects.equals(baseRelease.getNamespaceName(), release.getNamespaceName())) {
+        return null;
+      }
+      baseReleases.add(baseRelease);
+    }
+    return baseReleases;
+  }
+
+  /**
+   * 加载 Namespace 的 Release 们，并组装不含配置项的 ApolloConfig 对象
+   *
+   * @return 若未找到配置或配置未更新，设置响应状态并返回 null
+   */
+  private LoadedConfig loadConfig(String appId, String clusterName, String namespace, String dataCenter,
+                                  String clientSideReleaseKey, String clientIp, String messagesAsString,
                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
     //客户端传过来的namespaceName
     String originalNamespace = namespace;
@@ -100,36 +283,8 @@ public class ConfigController {
     // 解析 messagesAsString 参数，创建 ApolloNotificationMessages 对象。
     ApolloNotificationMessages clientMessages = transformMessages(messagesAsString);
 
-    // 创建 Release 数组
-    List<Release> releases = Lists.newLinkedList();
-
-    // 获得 Namespace 对应的最新的 Release 对象
-    String appClusterNameLoaded = clusterName;
-    if (!ConfigConsts.NO_APPID_PLACEHOLDER.equalsIgnoreCase(appId)) {
-      // 获得 Release 对象
-      Release currentAppRelease = configService.loadConfig(appId, clientIp, appId, clusterName, namespace,
-          dataCenter, clientMessages);
-
-      if (currentAppRelease != null) {
-        // 添加到 Release 数组中。
-        releases.add(currentAppRelease);
-        // 获得 Release 对应的 Cluster 名字
-        //we have cluster search process, so the cluster name might be overridden
-        appClusterNameLoaded = currentAppRelease.getClusterName();
-      }
-    }
-
-    // 若 Namespace 为关联类型，则获取关联的 Namespace 的 Release 对象
-    //if namespace does not belong to this appId, should check if there is a public configuration
-    if (!namespaceBelongsToAppId(appId, namespace)) {
-      // 获得 Release 对象
-      Release publicRelease = this.findPublicConfig(appId, clientIp, clusterName, namespace,
-          dataCenter, clientMessages);
-      if (!Objects.isNull(publicRelease)) {
-        // 添加到 Release 数组中
-        releases.add(publicRelease);
-      }
-    }
+    // 获得 Namespace 对应的最新的 Release 对象们
+    List<Release> releases = findReleases(appId, clientIp, clusterName, namespace, dataCenter, clientMessages);
 
     // 若获得不到 Release ，返回状态码为 404 的响应
     if (releases.isEmpty()) {
@@ -145,9 +300,11 @@ public class ConfigController {
     // 记录 InstanceConfig
     auditReleases(appId, clusterName, dataCenter, clientIp, releases);
 
+    // 获得 Release 对应的 Cluster 名字
+    String appClusterNameLoaded = findAppClusterNameLoaded(appId, clusterName, releases);
+
     // 计算 Config Service 的合并 ReleaseKey
-    String mergedReleaseKey = releases.stream().map(Release::getReleaseKey)
-            .collect(Collectors.joining(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR));
+    String mergedReleaseKey = mergeReleaseKeys(releases);
 
     // 对比 Client 的合并 Release Key 。若相等，说明没有改变，返回状态码为 302 的响应
     if (mergedReleaseKey.equals(clientSideReleaseKey)) {
@@ -161,13 +318,135 @@ public class ConfigController {
     // 创建 ApolloConfig 对象
     ApolloConfig apolloConfig = new ApolloConfig(appId, appClusterNameLoaded, originalNamespace,
         mergedReleaseKey);
-    // 合并 Release 的配置，并将结果设置到 ApolloConfig 中
-    apolloConfig.setConfigurations(mergeReleaseConfigurations(releases));
 
     // 【TODO 6001】Tracer 日志
     Tracer.logEvent("Apollo.Config.Found", assembleKey(appId, appClusterNameLoaded,
         originalNamespace, dataCenter));
-    return apolloConfig;
+    return new LoadedConfig(apolloConfig, releases);
+  }
+
+  /**
+   * 批量查询多个 Namespace 的配置，只返回有更新的 Namespace
+   *
+   * @param appId
+   * @param clusterName
+   * @param dataCenter
+   * @param clientIp  客户端 IP，用于灰度发布的功能
+   * @param queriesAsString  客户端当前请求的 Namespace 们，以及各自的 ReleaseKey 和通知消息明细
+   * @param request
+   * @return 有更新的 Namespace 的配置，未更新或不存在的 Namespace 不返回
+   */
+  @GetMapping(value = "/batch")
+  public List<ApolloConfig> queryConfigs(@RequestParam(value = "appId") String appId,
+                                         @RequestParam(value = "cluster") String clusterName,
+                                         @RequestParam(value = "namespaces") String queriesAsString,
+                                         @RequestParam(value = "dataCenter", required = false) String dataCenter,
+                                         @RequestParam(value = "ip", required = false) String clientIp,
+                                         HttpServletRequest request) {
+    List<ApolloConfigQuery> queries = null;
+    try {
+      queries = gson.fromJson(queriesAsString, queriesTypeReference);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+    }
+
+    if (CollectionUtils.isEmpty(queries)) {
+      throw new BadRequestException("Invalid format of namespaces: " + queriesAsString);
+    }
+
+    if (Strings.isNullOrEmpty(clientIp)) {
+      clientIp = tryToGetClientIp(request);
+    }
+
+    List<ApolloConfig> apolloConfigs = Lists.newArrayList();
+    for (ApolloConfigQuery query : queries) {
+      String originalNamespace = query.getNamespaceName();
+      if (Strings.isNullOrEmpty(originalNamespace)) {
+        continue;
+      }
+      String namespace = namespaceUtil.filterNamespaceName(originalNamespace);
+      namespace = namespaceUtil.normalizeNamespace(appId, namespace);
+
+      List<Release> releases = findReleases(appId, clientIp, clusterName, namespace, dataCenter,
+          query.getMessages());
+
+      // 不存在的 Namespace 不返回，由客户端单独查询以获得明确的错误
+      if (releases.isEmpty()) {
+        Tracer.logEvent("Apollo.Config.NotFound",
+            assembleKey(appId, clusterName, originalNamespace, dataCenter));
+        continue;
+      }
+
+      auditReleases(appId, clusterName, dataCenter, clientIp, releases);
+
+      String appClusterNameLoaded = findAppClusterNameLoaded(appId, clusterName, releases);
+      String mergedReleaseKey = mergeReleaseKeys(releases);
+
+      if (mergedReleaseKey.equals(query.getReleaseKey())) {
+        Tracer.logEvent("Apollo.Config.NotModified",
+            assembleKey(appId, appClusterNameLoaded, originalNamespace, dataCenter));
+        continue;
+      }
+
+      ApolloConfig apolloConfig = new ApolloConfig(appId, appClusterNameLoaded, originalNamespace,
+          mergedReleaseKey);
+      apolloConfig.setConfigurations(mergeReleaseConfigurations(releases));
+      apolloConfigs.add(apolloConfig);
+
+      Tracer.logEvent("Apollo.Config.Found", assembleKey(appId, appClusterNameLoaded,
+          originalNamespace, dataCenter));
+    }
+
+    return apolloConfigs;
+  }
+
+  /**
+   * 获得 Namespace 对应的最新的 Release 对象们，App 自身的 Release 在前，关联的公共 Namespace 的 Release 在后
+   */
+  private List<Release> findReleases(String appId, String clientIp, String clusterName, String namespace,
+                                     String dataCenter, ApolloNotificationMessages clientMessages) {
+    // 创建 Release 数组
+    List<Release> releases = Lists.newLinkedList();
+
+    if (!ConfigConsts.NO_APPID_PLACEHOLDER.equalsIgnoreCase(appId)) {
+      // 获得 Release 对象
+      Release currentAppRelease = configService.loadConfig(appId, clientIp, appId, clusterName, namespace,
+          dataCenter, clientMessages);
+
+      if (currentAppRelease != null) {
+        // 添加到 Release 数组中。
+        releases.add(currentAppRelease);
+      }
+    }
+
+    // 若 Namespace 为关联类型，则获取关联的 Namespace 的 Release 对象
+    //if namespace does not belong to this appId, should check if there is a public configuration
+    if (!namespaceBelongsToAppId(appId, namespace)) {
+      // 获得 Release 对象
+      Release publicRelease = this.findPublicConfig(appId, clientIp, clusterName, namespace,
+          dataCenter, clientMessages);
+      if (!Objects.isNull(publicRelease)) {
+        // 添加到 Release 数组中
+        releases.add(publicRelease);
+      }
+    }
+
+    return releases;
+  }
+
+  private String findAppClusterNameLoaded(String appId, String clusterName, List<Release> releases) {
+    //we have cluster search process, so the cluster name might be overridden
+    Release firstRelease = releases.get(0);
+    if (!ConfigConsts.NO_APPID_PLACEHOLDER.equalsIgnoreCase(appId)
+        && appId.equalsIgnoreCase(firstRelease.getAppId())) {
+      return firstRelease.getClusterName();
+    }
+    return clusterName;
+  }
+
+  private String mergeReleaseKeys(List<Release> releases) {
+    return releases.stream().map(Release::getReleaseKey)
+        .collect(Collectors.joining(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR));
   }
 
   private boolean namespaceBelongsToAppId(String appId, String namespaceName) {
@@ -269,4 +548,14 @@ public class ConfigController {
 
     return notificationMessages;
   }
+
+  private static class LoadedConfig {
+    private final ApolloConfig apolloConfig;
+    private final List<Release> releases;
+
+    private LoadedConfig(ApolloConfig apolloConfig, List<Release> releases) {
+      this.apolloConfig = apolloConfig;
+      this.releases = releases;
+    }
+  }
 }
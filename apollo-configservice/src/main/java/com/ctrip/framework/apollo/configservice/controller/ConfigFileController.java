@@ -5,6 +5,7 @@ import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.ResponseCompressionUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
@@ -37,6 +38,7 @@ import org.springframework.web.bind.annotation.RestController;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -59,6 +61,10 @@ public class ConfigFileController implements ReleaseMessageListener {
   private final HttpHeaders jsonResponseHeaders;
   private final ResponseEntity<String> NOT_FOUND_RESPONSE;
   private Cache<String, String> localCache;
+  /**
+   * 缓存 localCache 中内容 gzip 压缩后的结果，与 localCache 的主键一致
+   */
+  private final Cache<String, CompressedConfigFile> compressedCache;
   private final Multimap<String, String>
       watchedKeys2CacheKey = Multimaps.synchronizedSetMultimap(HashMultimap.create());
   private final Multimap<String, String>
@@ -94,10 +100,20 @@ public class ConfigFileController implements ReleaseMessageListener {
           logger.debug("removed cache key: {}", cacheKey);
         })
         .build();
+    compressedCache = CacheBuilder.newBuilder()
+        .expireAfterWrite(EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
+        //the source is counted as well, it's kept alive by the compressed file after evicted from localCache
+        .weigher((Weigher<String, CompressedConfigFile>) (key, value) ->
+            value == null ? 0 : value.compressedContent.length + value.source.length())
+        .maximumWeight(MAX_CACHE_SIZE)
+        .build();
     propertiesResponseHeaders = new HttpHeaders();
     propertiesResponseHeaders.add("Content-Type", "text/plain;charset=UTF-8");
+    //the response may be gzip compressed, so the shared caches should keep the variants apart
+    propertiesResponseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
     jsonResponseHeaders = new HttpHeaders();
     jsonResponseHeaders.add("Content-Type", "application/json;charset=UTF-8");
+    jsonResponseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
     NOT_FOUND_RESPONSE = new ResponseEntity<>(HttpStatus.NOT_FOUND);
     this.configController = configController;
     this.namespaceUtil = namespaceUtil;
@@ -123,6 +139,11 @@ public class ConfigFileController implements ReleaseMessageListener {
       return NOT_FOUND_RESPONSE;
     }
 
+    if (writeCompressedResponse(ConfigFileOutputFormat.PROPERTIES, appId, clusterName, namespace, dataCenter,
+        result, propertiesResponseHeaders, request, response)) {
+      return null;
+    }
+
     return new ResponseEntity<>(result, propertiesResponseHeaders, HttpStatus.OK);
   }
 
@@ -143,9 +164,46 @@ public class ConfigFileController implements ReleaseMessageListener {
       return NOT_FOUND_RESPONSE;
     }
 
+    if (writeCompressedResponse(ConfigFileOutputFormat.JSON, appId, clusterName, namespace, dataCenter,
+        result, jsonResponseHeaders, request, response)) {
+      return null;
+    }
+
     return new ResponseEntity<>(result, jsonResponseHeaders, HttpStatus.OK);
   }
 
+  /**
+   * 客户端支持 gzip 时，直接写出压缩后的内容。内容来自 localCache 时，同时缓存压缩后的结果
+   *
+   * @return true if the compressed response is written
+   */
+  private boolean writeCompressedResponse(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
+                                          String namespace, String dataCenter, String result,
+                                          HttpHeaders headers, HttpServletRequest request,
+                                          HttpServletResponse response) throws IOException {
+    if (!ResponseCompressionUtil.acceptsGzip(request)) {
+      return false;
+    }
+
+    String cacheKey = assembleCacheKey(outputFormat, appId, clusterName, namespace, dataCenter);
+    CompressedConfigFile compressed = compressedCache.getIfPresent(cacheKey);
+    // the cached content may be replaced or the result may come from gray release, so check the source
+    if (compressed == null || compressed.source != result) {
+      byte[] compressedContent = ResponseCompressionUtil.compress(result.getBytes(StandardCharsets.UTF_8));
+      if (compressedContent == null) {
+        return false;
+      }
+      compressed = new CompressedConfigFile(result, compressedContent);
+      if (localCache.getIfPresent(cacheKey) == result) {
+        compressedCache.put(cacheKey, compressed);
+      }
+    }
+
+    response.setContentType(headers.getFirst(HttpHeaders.CONTENT_TYPE));
+    ResponseCompressionUtil.writeCompressed(response, compressed.compressedContent);
+    return true;
+  }
+
   String queryConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
                      String namespace, String dataCenter, String clientIp,
                      HttpServletRequest request,
@@ -268,6 +326,17 @@ public class ConfigFileController implements ReleaseMessageListener {
     for (String cacheKey : cacheKeys) {
       logger.debug("invalidate cache key: {}", cacheKey);
       localCache.invalidate(cacheKey);
+      compressedCache.invalidate(cacheKey);
+    }
+  }
+
+  private static class CompressedConfigFile {
+    private final String source;
+    private final byte[] compressedContent;
+
+    CompressedConfigFile(String source, byte[] compressedContent) {
+      this.source = source;
+      this.compressedContent = compressedContent;
     }
   }
 
@@ -9,21 +9,20 @@ import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.ConcurrentWatchKeyRegistry;
 import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationStreamWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
-import com.google.common.collect.TreeMultimap;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
@@ -36,6 +35,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.lang.reflect.Type;
 import java.util.Collection;
@@ -43,9 +43,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -56,13 +62,24 @@ import java.util.function.Function;
 public class NotificationControllerV2 implements ReleaseMessageListener {
   private static final Logger logger = LoggerFactory.getLogger(NotificationControllerV2.class);
   /**
-   * Watch Key 与 DeferredResultWrapper 的 Multimap
+   * Watch Key 与 DeferredResultWrapper 的索引
    *
-   * Key：Watch Key(ReleaseMessage.message)
-   * Value：DeferredResultWrapper 数组
+   * Key：Watch Key(ReleaseMessage.message)，大小写不敏感
+   * Value：DeferredResultWrapper 集合
    */
-  private final Multimap<String, DeferredResultWrapper> deferredResults =
-      Multimaps.synchronizedSetMultimap(TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
+  private final WatchKeyRegistry<DeferredResultWrapper> deferredResults = new ConcurrentWatchKeyRegistry<>();
+  /**
+   * Watch Key 与 NotificationStreamWrapper 的索引，流式通知在推送后不会被移除
+   */
+  private final WatchKeyRegistry<NotificationStreamWrapper> notificationStreams = new ConcurrentWatchKeyRegistry<>();
+  /**
+   * 所有打开的流，用于发送心跳
+   */
+  private final Set<NotificationStreamWrapper> openStreams = ConcurrentHashMap.newKeySet();
+  /**
+   * 等待通知的长轮询请求数，超过上限时拒绝新的请求，避免 Config Service 节点宕机后其它节点被重连的客户端压垮
+   */
+  private final AtomicInteger longPollWaiters = new AtomicInteger();
   private static final Splitter STRING_SPLITTER =
       Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).omitEmptyStrings();
   private static final Type notificationsTypeReference =
@@ -73,6 +90,11 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
    * 大量通知分批执行 ExecutorService
    */
   private final ExecutorService largeNotificationBatchExecutorService;
+  /**
+   * 流式通知心跳 ScheduledExecutorService
+   */
+  private final ScheduledExecutorService streamHeartbeatExecutorService;
+  private final AtomicBoolean streamHeartbeatStarted = new AtomicBoolean(false);
 
   private final WatchKeysUtil watchKeysUtil;
   private final ReleaseMessageServiceWithCache releaseMessageService;
@@ -91,6 +113,8 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
       final BizConfig bizConfig) {
     largeNotificationBatchExecutorService = Executors.newSingleThreadExecutor(ApolloThreadFactory.create
         ("NotificationControllerV2", true));
+    streamHeartbeatExecutorService = Executors.newSingleThreadScheduledExecutor(ApolloThreadFactory.create
+        ("NotificationControllerV2-StreamHeartbeat", true));
     this.watchKeysUtil = watchKeysUtil;
     this.releaseMessageService = releaseMessageService;
     this.entityManagerUtil = entityManagerUtil;
@@ -108,20 +132,11 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
       @RequestParam(value = "dataCenter", required = false) String dataCenter,
       @RequestParam(value = "ip", required = false) String clientIp) {
     // 解析 notificationsAsString 参数，创建 ApolloConfigNotification 数组。
-    List<ApolloConfigNotification> notifications = null;
-    try {
-      notifications =
-          gson.fromJson(notificationsAsString, notificationsTypeReference);
-    } catch (Throwable ex) {
-      Tracer.logError(ex);
-    }
-
-    if (CollectionUtils.isEmpty(notifications)) {
-      throw new BadRequestException("Invalid format of notifications: " + notificationsAsString);
-    }
+    List<ApolloConfigNotification> notifications = parseNotifications(notificationsAsString);
 
     // 创建 DeferredResultWrapper 对象
     DeferredResultWrapper deferredResultWrapper = new DeferredResultWrapper(bizConfig.longPollingTimeoutInMilli());
+
     // Namespace 集合
     Set<String> namespaces = Sets.newHashSet();
     // 客户端的通知 Map 。key 为 Namespace 名，value 为通知编号。
@@ -157,6 +172,18 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
     // 生成 Watch Key 集合(ReleaseMessage.message )
     Set<String> watchedKeys = Sets.newHashSet(watchedKeysMap.values());
 
+    // 占用等待名额，等待中的请求过多时，拒绝请求，并告知客户端随机等待一段时间后重试，使重连的客户端错开
+    // 先自增再比较，避免并发的请求同时通过检查而超出上限
+    int maxWaiters = bizConfig.longPollingMaxWaiters();
+    int waiters = longPollWaiters.incrementAndGet();
+    if (maxWaiters > 0 && waiters > maxWaiters) {
+      longPollWaiters.decrementAndGet();
+      int retryAfter = ThreadLocalRandom.current().nextInt(bizConfig.longPollingMaxRetryAfterInSecond()) + 1;
+      Tracer.logEvent("Apollo.LongPoll.Rejected", String.format("%s+%s", appId, cluster));
+      deferredResultWrapper.setTooManyRequestsResult(retryAfter);
+      return deferredResultWrapper.getResult();
+    }
+
     /**
      * 1、set deferredResult before the check, for avoid more waiting
      * If the check before setting deferredResult,it may receive a notification the next time
@@ -167,55 +194,184 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
           .onTimeout(() -> logWatchedKeys(watchedKeys, "Apollo.LongPoll.TimeOutKeys"));
 
     // 注册结束事件(超时后也会执行该结束事件)
-    deferredResultWrapper.onCompletion(() -> {
+    // 只执行一次，请求失败时也会执行，避免 `longPollWaiters` 计数和 Watch Key 泄漏
+    AtomicBoolean unregistered = new AtomicBoolean();
+    Runnable unregisterAll = () -> {
+      if (!unregistered.compareAndSet(false, true)) {
+        return;
+      }
+      longPollWaiters.decrementAndGet();
       // 移除 Watch Key + DeferredResultWrapper 出 `deferredResults`
       //unregister all keys
       for (String key : watchedKeys) {
-        deferredResults.remove(key, deferredResultWrapper);
+        deferredResults.unregister(key, deferredResultWrapper);
       }
+    };
+    deferredResultWrapper.onCompletion(() -> {
+      unregisterAll.run();
       // 【TODO 6001】Tracer 日志
       logWatchedKeys(watchedKeys, "Apollo.LongPoll.CompletedKeys");
     });
 
     // 注册 Watch Key + DeferredResultWrapper 到 `deferredResults` 中，等待配置发生变化后通知。详见 `#handleMessage(...)` 方法。
     //register all keys
+    try {
+      for (String key : watchedKeys) {
+        this.deferredResults.register(key, deferredResultWrapper);
+      }
+
+      // 【TODO 6001】Tracer 日志
+      logWatchedKeys(watchedKeys, "Apollo.LongPoll.RegisteredKeys");
+      logger.debug("Listening {} from appId: {}, cluster: {}, namespace: {}, datacenter: {}",
+          watchedKeys, appId, cluster, namespaces, dataCenter);
+
+      /**
+       * 2、check new release
+       */
+      // 获得 Watch Key 集合中，每个 Watch Key 对应的 ReleaseMessage 记录。 服务器缓存中获取最新的 ReleaseMessage
+      List<ReleaseMessage> latestReleaseMessages =
+          releaseMessageService.findLatestReleaseMessagesGroupByMessages(watchedKeys);
+
+      /**
+       * Manually close the entity manager.
+       * Since for async request, Spring won't do so until the request is finished,
+       * which is unacceptable since we are doing long polling - means the db connection would be hold
+       * for a very long time
+       */
+      // 手动关闭 EntityManager
+      // 因为对于 async 请求，Spring 在请求完成之前不会这样做
+      // 这是不可接受的，因为我们正在做长轮询——意味着 db 连接将被保留很长时间。
+      // 实际上，下面的过程，我们已经不需要 db 连接，因此进行关闭。
+      entityManagerUtil.closeEntityManager();
+      // 获得新的 ApolloConfigNotification 通知数组
+      List<ApolloConfigNotification> newNotifications =
+          getApolloConfigNotifications(namespaces, clientSideNotifications, watchedKeysMap,
+              latestReleaseMessages);
+      // 若有新的通知，直接设置结果。
+      if (!CollectionUtils.isEmpty(newNotifications)) {
+        deferredResultWrapper.setResult(newNotifications);
+      }
+    } catch (RuntimeException | Error ex) {
+      // the deferred result is never handed to spring, so the completion callback won't run
+      unregisterAll.run();
+      throw ex;
+    }
+
+    return deferredResultWrapper.getResult();
+  }
+
+  /**
+   * 流式通知：注册 Watch Key 后保持连接，配置变更时持续推送 ApolloConfigNotification ，直到超时或客户端断开
+   */
+  @GetMapping("/stream")
+  public SseEmitter streamNotification(
+      @RequestParam(value = "appId") String appId,
+      @RequestParam(value = "cluster") String cluster,
+      //[{"namespaceName":"application","notificationId":45}]
+      @RequestParam(value = "notifications") String notificationsAsString,
+      @RequestParam(value = "dataCenter", required = false) String dataCenter,
+      @RequestParam(value = "ip", required = false) String clientIp) {
+    List<ApolloConfigNotification> notifications = parseNotifications(notificationsAsString);
+
+    NotificationStreamWrapper stream = new NotificationStreamWrapper(bizConfig.notificationStreamTimeoutInMilli());
+    Set<String> namespaces = Sets.newHashSet();
+    Map<String, Long> clientSideNotifications = Maps.newHashMap();
+    Map<String, ApolloConfigNotification> filteredNotifications = filterNotifications(appId, notifications);
+    for (Map.Entry<String, ApolloConfigNotification> notificationEntry : filteredNotifications.entrySet()) {
+      String normalizedNamespace = notificationEntry.getKey();
+      ApolloConfigNotification notification = notificationEntry.getValue();
+      namespaces.add(normalizedNamespace);
+      clientSideNotifications.put(normalizedNamespace, notification.getNotificationId());
+      if (!Objects.equals(notification.getNamespaceName(), normalizedNamespace)) {
+        stream.recordNamespaceNameNormalizedResult(notification.getNamespaceName(), normalizedNamespace);
+      }
+    }
+
+    if (CollectionUtils.isEmpty(namespaces)) {
+      throw new BadRequestException("Invalid format of notifications: " + notificationsAsString);
+    }
+
+    Multimap<String, String> watchedKeysMap =
+        watchKeysUtil.assembleAllWatchKeys(appId, cluster, namespaces, dataCenter);
+    Set<String> watchedKeys = Sets.newHashSet(watchedKeysMap.values());
+
+    //register before the check, same as long polling
+    //只执行一次，请求失败时也会执行，避免 Watch Key 和 Stream 泄漏
+    AtomicBoolean unregistered = new AtomicBoolean();
+    Runnable unregisterAll = () -> {
+      if (!unregistered.compareAndSet(false, true)) {
+        return;
+      }
+      for (String key : watchedKeys) {
+        notificationStreams.unregister(key, stream);
+      }
+      openStreams.remove(stream);
+    };
+    stream.onCompletion(() -> {
+      unregisterAll.run();
+      logWatchedKeys(watchedKeys, "Apollo.LongPoll.Stream.CompletedKeys");
+    });
+
     for (String key : watchedKeys) {
-      this.deferredResults.put(key, deferredResultWrapper);
+      notificationStreams.register(key, stream);
     }
+    openStreams.add(stream);
+    try {
+      startStreamHeartbeat();
 
-    // 【TODO 6001】Tracer 日志
-    logWatchedKeys(watchedKeys, "Apollo.LongPoll.RegisteredKeys");
-    logger.debug("Listening {} from appId: {}, cluster: {}, namespace: {}, datacenter: {}",
-        watchedKeys, appId, cluster, namespaces, dataCenter);
+      logWatchedKeys(watchedKeys, "Apollo.LongPoll.Stream.RegisteredKeys");
+      logger.debug("Streaming {} to appId: {}, cluster: {}, namespace: {}, datacenter: {}",
+          watchedKeys, appId, cluster, namespaces, dataCenter);
 
-    /**
-     * 2、check new release
-     */
-    // 获得 Watch Key 集合中，每个 Watch Key 对应的 ReleaseMessage 记录。 服务器缓存中获取最新的 ReleaseMessage
-    List<ReleaseMessage> latestReleaseMessages =
-        releaseMessageService.findLatestReleaseMessagesGroupByMessages(watchedKeys);
+      List<ReleaseMessage> latestReleaseMessages =
+          releaseMessageService.findLatestReleaseMessagesGroupByMessages(watchedKeys);
 
-    /**
-     * Manually close the entity manager.
-     * Since for async request, Spring won't do so until the request is finished,
-     * which is unacceptable since we are doing long polling - means the db connection would be hold
-     * for a very long time
-     */
-    // 手动关闭 EntityManager
-    // 因为对于 async 请求，Spring 在请求完成之前不会这样做
-    // 这是不可接受的，因为我们正在做长轮询——意味着 db 连接将被保留很长时间。
-    // 实际上，下面的过程，我们已经不需要 db 连接，因此进行关闭。
-    entityManagerUtil.closeEntityManager();
-    // 获得新的 ApolloConfigNotification 通知数组
-    List<ApolloConfigNotification> newNotifications =
-        getApolloConfigNotifications(namespaces, clientSideNotifications, watchedKeysMap,
-            latestReleaseMessages);
-    // 若有新的通知，直接设置结果。
-    if (!CollectionUtils.isEmpty(newNotifications)) {
-      deferredResultWrapper.setResult(newNotifications);
+      //the stream lasts much longer than a long poll, so the db connection must not be held
+      entityManagerUtil.closeEntityManager();
+
+      List<ApolloConfigNotification> newNotifications =
+          getApolloConfigNotifications(namespaces, clientSideNotifications, watchedKeysMap,
+              latestReleaseMessages);
+      if (!CollectionUtils.isEmpty(newNotifications)) {
+        stream.send(newNotifications);
+      }
+    } catch (RuntimeException | Error ex) {
+      // the emitter is never handed to spring, so the completion callback won't run
+      unregisterAll.run();
+      throw ex;
     }
 
-    return deferredResultWrapper.getResult();
+    return stream.getEmitter();
+  }
+
+  private List<ApolloConfigNotification> parseNotifications(String notificationsAsString) {
+    List<ApolloConfigNotification> notifications = null;
+    try {
+      notifications =
+          gson.fromJson(notificationsAsString, notificationsTypeReference);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+    }
+
+    if (CollectionUtils.isEmpty(notifications)) {
+      throw new BadRequestException("Invalid format of notifications: " + notificationsAsString);
+    }
+    return notifications;
+  }
+
+  /**
+   * 定时向所有打开的流发送心跳，及时发现断开的连接
+   */
+  private void startStreamHeartbeat() {
+    if (!streamHeartbeatStarted.compareAndSet(false, true)) {
+      return;
+    }
+    long heartbeatInterval = bizConfig.notificationStreamHeartbeatIntervalInMilli();
+    streamHeartbeatExecutorService.scheduleWithFixedDelay(() -> {
+      for (NotificationStreamWrapper stream : openStreams) {
+        stream.sendHeartbeat();
+      }
+    }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
   }
 
   private Map<String, ApolloConfigNotification> filterNotifications(String appId,
@@ -321,25 +477,32 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
       return;
     }
 
-    // `deferredResults` 存在对应的 Watch Key
-    if (!deferredResults.containsKey(content)) {
-      return;
-    }
-
-    //create a new list to avoid ConcurrentModificationException
-    // 创建 DeferredResultWrapper 数组，避免并发问题。
-    List<DeferredResultWrapper> results = Lists.newArrayList(deferredResults.get(content));
-
     ApolloConfigNotification configNotification = new ApolloConfigNotification(changedNamespace, message.getId());
     configNotification.addMessage(content, message.getId());
 
+    // 获得 DeferredResultWrapper 快照数组，避免并发问题。WatchKeyRegistry 返回的已经是快照，无需再复制
+    List<DeferredResultWrapper> results = deferredResults.get(content);
+    if (!results.isEmpty()) {
+      notifyWaiters(content, results, result -> result.setResult(configNotification));
+    }
+
+    // 流式通知的客户端，使用单独的通知对象，因为 DeferredResultWrapper 会修改通知的 Namespace 名字
+    List<NotificationStreamWrapper> streams = notificationStreams.get(content);
+    if (!streams.isEmpty()) {
+      ApolloConfigNotification streamNotification = new ApolloConfigNotification(changedNamespace, message.getId());
+      streamNotification.addMessage(content, message.getId());
+      notifyWaiters(content, streams, stream -> stream.send(streamNotification));
+    }
+  }
+
+  private <T> void notifyWaiters(String content, List<T> waiters, Consumer<T> notifier) {
     //do async notification if too many clients
     // 若需要通知的客户端过多，使用 ExecutorService 异步通知，避免“惊群效应”
-    if (results.size() > bizConfig.releaseMessageNotificationBatch()) {
+    if (waiters.size() > bizConfig.releaseMessageNotificationBatch()) {
       largeNotificationBatchExecutorService.submit(() -> {
-        logger.debug("Async notify {} clients for key {} with batch {}", results.size(), content,
+        logger.debug("Async notify {} clients for key {} with batch {}", waiters.size(), content,
             bizConfig.releaseMessageNotificationBatch());
-        for (int i = 0; i < results.size(); i++) {
+        for (int i = 0; i < waiters.size(); i++) {
           // 每 N 个客户端，sleep 一段时间。
           if (i > 0 && i % bizConfig.releaseMessageNotificationBatch() == 0) {
             try {
@@ -348,18 +511,18 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
               //ignore
             }
           }
-          logger.debug("Async notify {}", results.get(i));
+          logger.debug("Async notify {}", waiters.get(i));
           // 设置结果
-          results.get(i).setResult(configNotification);
+          notifier.accept(waiters.get(i));
         }
       });
       return;
     }
 
-    logger.debug("Notify {} clients for key {}", results.size(), content);
+    logger.debug("Notify {} clients for key {}", waiters.size(), content);
     // 设置结果
-    for (DeferredResultWrapper result : results) {
-      result.setResult(configNotification);
+    for (T waiter : waiters) {
+      notifier.accept(waiter);
     }
     logger.debug("Notification completed");
   }
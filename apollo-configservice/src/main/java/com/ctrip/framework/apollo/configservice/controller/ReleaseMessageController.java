@@ -0,0 +1,88 @@
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收 Admin Service 推送的 ReleaseMessage 编号，触发 ReleaseMessageScanner 立即扫描 <br /> <br />
+ *
+ * The pushes must be signed with {@link BizConfig#releaseMessagePushSecret()}, they are rejected if the push is not
+ * enabled or the secret is not set.
+ *
+ * @see com.ctrip.framework.apollo.biz.message.HttpReleaseMessagePusher
+ */
+@RestController
+@RequestMapping("/release-messages")
+public class ReleaseMessageController {
+  private static final Logger logger = LoggerFactory.getLogger(ReleaseMessageController.class);
+  private static final long TIMESTAMP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+  private final ReleaseMessageScanner releaseMessageScanner;
+  private final BizConfig bizConfig;
+
+  public ReleaseMessageController(final ReleaseMessageScanner releaseMessageScanner, final BizConfig bizConfig) {
+    this.releaseMessageScanner = releaseMessageScanner;
+    this.bizConfig = bizConfig;
+  }
+
+  @PostMapping
+  public ResponseEntity<Void> onReleaseMessagePushed(@RequestParam("id") long id, HttpServletRequest request) {
+    String secret = bizConfig.releaseMessagePushSecret();
+    if (!bizConfig.isReleaseMessagePushEnabled() || Strings.isNullOrEmpty(secret)) {
+      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+    }
+
+    String timestamp = request.getHeader(Signature.HTTP_HEADER_TIMESTAMP);
+    if (!checkTimestamp(timestamp) || !checkAuthorization(request, timestamp, secret)) {
+      logger.warn("Invalid release message push from {}, id: {}", request.getRemoteAddr(), id);
+      return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+    }
+
+    Tracer.logEvent("Apollo.ReleaseMessage.Pushed", String.valueOf(id));
+    releaseMessageScanner.onMessagePushed(id);
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  private boolean checkTimestamp(String timestamp) {
+    long requestTimeMillis;
+    try {
+      requestTimeMillis = Long.parseLong(timestamp);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    return Math.abs(System.currentTimeMillis() - requestTimeMillis) <= TIMESTAMP_INTERVAL;
+  }
+
+  private boolean checkAuthorization(HttpServletRequest request, String timestamp, String secret) {
+    String authorization = request.getHeader(Signature.HTTP_HEADER_AUTHORIZATION);
+    if (authorization == null || authorization.indexOf(':') < 0) {
+      return false;
+    }
+    String signature = authorization.substring(authorization.lastIndexOf(':') + 1);
+
+    String pathWithQuery = request.getRequestURI();
+    if (!Strings.isNullOrEmpty(request.getQueryString())) {
+      pathWithQuery += "?" + request.getQueryString();
+    }
+    String expectedSignature = Signature.signature(timestamp, pathWithQuery, secret);
+
+    //constant time comparison
+    return MessageDigest.isEqual(signature.getBytes(Charsets.UTF_8), expectedSignature.getBytes(Charsets.UTF_8));
+  }
+}
@@ -3,6 +3,7 @@ package com.ctrip.framework.apollo.configservice.service;
 import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.repository.AppNamespaceRepository;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
+import com.ctrip.framework.apollo.configservice.util.CacheSnapshotStore;
 import com.ctrip.framework.apollo.configservice.wrapper.CaseInsensitiveMapWrapper;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
@@ -21,9 +22,13 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PreDestroy;
+
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -36,6 +41,7 @@ import java.util.concurrent.TimeUnit;
  * 1、启动时，全量初始化 AppNamespace 到缓存
  * 2、考虑 AppNamespace 新增，后台定时任务，定时增量初始化 AppNamespace 到缓存
  * 3、考虑 AppNamespace 更新与删除，后台定时任务，定时全量重建 AppNamespace 到缓存
+ * 4、配置了快照目录时，定时及关闭时保存缓存的快照，启动时先加载快照，再增量初始化，并立即在后台全量重建一次
  *
  * @author Jason Song(song_s@ctrip.com)
  */
@@ -44,6 +50,7 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
   private static final Logger logger = LoggerFactory.getLogger(AppNamespaceServiceWithCache.class);
   private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
       .skipNulls();
+  private static final String SNAPSHOT_NAME = "app-namespaces";
   private final AppNamespaceRepository appNamespaceRepository;
   private final BizConfig bizConfig;
 
@@ -70,7 +77,7 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
   /**
    * 最后扫描到的 AppNamespace 的编号
    */
-  private long maxIdScanned;
+  private volatile long maxIdScanned;
 
   /**
    * 公用类型的 AppNamespace 的缓存
@@ -92,6 +99,11 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
    */
   private Map<Long, AppNamespace> appNamespaceIdCache;
 
+  /**
+   * 缓存快照
+   */
+  private CacheSnapshotStore snapshotStore;
+
   public AppNamespaceServiceWithCache(
       final AppNamespaceRepository appNamespaceRepository,
       final BizConfig bizConfig) {
@@ -188,8 +200,12 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
   public void afterPropertiesSet() throws Exception {
     // 从 ServerConfig 中，读取定时任务的周期配置
     populateDataBaseInterval();
-    // 全量初始化 AppNamespace 缓存
+    // 加载快照后，增量初始化 AppNamespace 缓存；无快照时，全量初始化
+    snapshotStore = new CacheSnapshotStore(bizConfig.configServiceCacheSnapshotDir());
+    boolean restored = restoreFromSnapshot();
     scanNewAppNamespaces(); //block the startup process until load finished
+    snapshotStore.scheduleSave(SNAPSHOT_NAME, this::createSnapshot,
+        bizConfig.configServiceCacheSnapshotSaveIntervalInSecond(), TimeUnit.SECONDS);
     // 创建定时任务，全量重构 AppNamespace 缓存
     scheduledExecutorService.scheduleAtFixedRate(() -> {
       // 【TODO 6001】Tracer 日志
@@ -208,7 +224,7 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
         // 【TODO 6001】Tracer 日志
         transaction.complete();
       }
-    }, rebuildInterval, rebuildInterval, rebuildIntervalTimeUnit);
+    }, restored ? 0 : rebuildInterval, rebuildInterval, rebuildIntervalTimeUnit); //reconcile the snapshot at once
     // 创建定时任务，增量初始化 AppNamespace 缓存
     scheduledExecutorService.scheduleWithFixedDelay(this::scanNewAppNamespaces, scanInterval,
         scanInterval, scanIntervalTimeUnit);
@@ -360,6 +376,63 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
     }
   }
 
+  /**
+   * @return whether the snapshot is restored
+   */
+  private boolean restoreFromSnapshot() {
+    AppNamespacesSnapshot snapshot = snapshotStore.load(SNAPSHOT_NAME, AppNamespacesSnapshot.class);
+    if (snapshot == null || CollectionUtils.isEmpty(snapshot.appNamespaces) || !isSnapshotValid(snapshot)) {
+      return false;
+    }
+    List<AppNamespace> appNamespaces = Lists.newArrayListWithCapacity(snapshot.appNamespaces.size());
+    for (AppNamespaceSnapshot appNamespaceSnapshot : snapshot.appNamespaces) {
+      appNamespaces.add(appNamespaceSnapshot.toAppNamespace());
+    }
+    mergeAppNamespaces(appNamespaces);
+    maxIdScanned = snapshot.maxIdScanned;
+    logger.info("Restored {} app namespaces with maxIdScanned {} from snapshot", appNamespaces.size(), maxIdScanned);
+    return true;
+  }
+
+  /**
+   * The snapshot is valid if the app namespace with the max id is still in the database, otherwise the snapshot may be
+   * ahead of the database, e.g. taken from another database, and the app namespaces in that id range would never be
+   * loaded by the incremental scan
+   */
+  private boolean isSnapshotValid(AppNamespacesSnapshot snapshot) {
+    AppNamespaceSnapshot last = null;
+    for (AppNamespaceSnapshot appNamespaceSnapshot : snapshot.appNamespaces) {
+      if (appNamespaceSnapshot.id == snapshot.maxIdScanned) {
+        last = appNamespaceSnapshot;
+        break;
+      }
+    }
+    if (last == null) {
+      return false;
+    }
+    AppNamespace appNamespace = appNamespaceRepository.findById(snapshot.maxIdScanned).orElse(null);
+    return appNamespace != null && Objects.equals(appNamespace.getAppId(), last.appId)
+        && Objects.equals(appNamespace.getName(), last.name);
+  }
+
+  private AppNamespacesSnapshot createSnapshot() {
+    AppNamespacesSnapshot snapshot = new AppNamespacesSnapshot();
+    //read maxIdScanned first, as it's updated after the app namespaces are cached
+    snapshot.maxIdScanned = maxIdScanned;
+    snapshot.appNamespaces = Lists.newArrayListWithCapacity(appNamespaceIdCache.size());
+    for (AppNamespace appNamespace : appNamespaceIdCache.values()) {
+      snapshot.appNamespaces.add(new AppNamespaceSnapshot(appNamespace));
+    }
+    return snapshot;
+  }
+
+  @PreDestroy
+  void saveSnapshot() {
+    if (snapshotStore != null) {
+      snapshotStore.save(SNAPSHOT_NAME, createSnapshot());
+    }
+  }
+
   private String assembleAppNamespaceKey(AppNamespace appNamespace) {
     return STRING_JOINER.join(appNamespace.getAppId(), appNamespace.getName());
   }
@@ -377,4 +450,46 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
     initialize();
     afterPropertiesSet();
   }
+
+  private static class AppNamespacesSnapshot {
+    private long maxIdScanned;
+    private List<AppNamespaceSnapshot> appNamespaces;
+  }
+
+  /**
+   * AppNamespace 中缓存用到的字段
+   */
+  private static class AppNamespaceSnapshot {
+    private long id;
+    private String appId;
+    private String name;
+    private String format;
+    private boolean isPublic;
+    private String comment;
+    private long dataChangeLastModifiedTime;
+
+    AppNamespaceSnapshot(AppNamespace appNamespace) {
+      this.id = appNamespace.getId();
+      this.appId = appNamespace.getAppId();
+      this.name = appNamespace.getName();
+      this.format = appNamespace.getFormat();
+      this.isPublic = appNamespace.isPublic();
+      this.comment = appNamespace.getComment();
+      if (appNamespace.getDataChangeLastModifiedTime() != null) {
+        this.dataChangeLastModifiedTime = appNamespace.getDataChangeLastModifiedTime().getTime();
+      }
+    }
+
+    AppNamespace toAppNamespace() {
+      AppNamespace appNamespace = new AppNamespace();
+      appNamespace.setId(id);
+      appNamespace.setAppId(appId);
+      appNamespace.setName(name);
+      appNamespace.setFormat(format);
+      appNamespace.setPublic(isPublic);
+      appNamespace.setComment(comment);
+      appNamespace.setDataChangeLastModifiedTime(new Date(dataChangeLastModifiedTime));
+      return appNamespace;
+    }
+  }
 }
@@ -0,0 +1,171 @@
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.configservice.util.ResponseCompressionUtil;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存已经序列化好的配置响应
+ *
+ * 同一个 ReleaseKey 对应的配置是不可变的，所以以合并后的 ReleaseKey 为主键缓存响应内容，命中时直接写出，
+ * 避免每次请求都反序列化 Release 的配置再序列化。当 Namespace 有新的发布时，清除其旧的缓存以释放内存。
+ *
+ * 响应较大时同时缓存 gzip 压缩后的内容，支持 gzip 的客户端可以直接获得压缩后的响应。
+ */
+@Service
+public class ConfigResponseCache implements ReleaseMessageListener {
+  private static final Logger logger = LoggerFactory.getLogger(ConfigResponseCache.class);
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final long MAX_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
+  private static final long EXPIRE_AFTER_ACCESS = 30;
+  private static final String DELTA_CACHE_KEY_PREFIX = "delta:";
+  private static final long MAX_DELTA_UNAVAILABLE_SIZE = 10000;
+  private static final long DELTA_UNAVAILABLE_EXPIRE_AFTER_WRITE = 10;
+
+  private final Cache<String, CachedResponse> responseCache;
+  private final Cache<String, Boolean> deltaUnavailableCache;
+  private final Multimap<String, String>
+      watchedKeys2CacheKey = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+  private final Multimap<String, String>
+      cacheKey2WatchedKeys = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+
+  public ConfigResponseCache() {
+    responseCache = CacheBuilder.newBuilder()
+        .expireAfterAccess(EXPIRE_AFTER_ACCESS, TimeUnit.MINUTES)
+        .weigher((Weigher<String, CachedResponse>) (key, value) -> value == null ? 0 : value.weight())
+        .maximumWeight(MAX_CACHE_SIZE)
+        .removalListener(notification -> {
+          //the watched keys of a replaced entry are still valid
+          if (notification.getCause() == RemovalCause.REPLACED) {
+            return;
+          }
+          String cacheKey = notification.getKey();
+          List<String> watchedKeys = new ArrayList<>(cacheKey2WatchedKeys.removeAll(cacheKey));
+          for (String watchedKey : watchedKeys) {
+            watchedKeys2CacheKey.remove(watchedKey, cacheKey);
+          }
+        })
+        .build();
+    deltaUnavailableCache = CacheBuilder.newBuilder()
+        .expireAfterWrite(DELTA_UNAVAILABLE_EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
+        .maximumSize(MAX_DELTA_UNAVAILABLE_SIZE)
+        .build();
+  }
+
+  /**
+   * 缓存的主键，除合并后的 ReleaseKey 外，还包括响应中客户端相关的字段。增量响应还需包括基准 ReleaseKey
+   */
+  public String assembleCacheKey(ApolloConfig apolloConfig) {
+    String cacheKey = STRING_JOINER.join(apolloConfig.getReleaseKey(), apolloConfig.getAppId(),
+        apolloConfig.getCluster(), apolloConfig.getNamespaceName());
+    if (apolloConfig.isDelta()) {
+      cacheKey = STRING_JOINER.join(cacheKey, DELTA_CACHE_KEY_PREFIX + apolloConfig.getBaseReleaseKey());
+    }
+    return cacheKey;
+  }
+
+  public CachedResponse get(String cacheKey) {
+    return responseCache.getIfPresent(cacheKey);
+  }
+
+  /**
+   * 增量响应的主键是否已确认无法返回增量，例如基准 ReleaseKey 不存在，或增量并不比全量小
+   */
+  public boolean isDeltaUnavailable(String cacheKey) {
+    return deltaUnavailableCache.getIfPresent(cacheKey) != null;
+  }
+
+  /**
+   * 记录无法返回增量的主键，避免重复查询基准 Release 。只记录主键，不占用响应缓存
+   */
+  public void markDeltaUnavailable(String cacheKey) {
+    deltaUnavailableCache.put(cacheKey, Boolean.TRUE);
+  }
+
+  /**
+   * @param cacheKey the cache key
+   * @param response the encoded response
+   * @param releases the releases which the response is assembled from
+   */
+  public CachedResponse put(String cacheKey, byte[] response, List<Release> releases) {
+    List<String> watchedKeys = new ArrayList<>(releases.size());
+    for (Release release : releases) {
+      watchedKeys.add(STRING_JOINER.join(release.getAppId(), release.getClusterName(),
+          release.getNamespaceName()));
+    }
+
+    for (String watchedKey : watchedKeys) {
+      watchedKeys2CacheKey.put(watchedKey, cacheKey);
+    }
+    cacheKey2WatchedKeys.putAll(cacheKey, watchedKeys);
+
+    CachedResponse cachedResponse = new CachedResponse(response, ResponseCompressionUtil.compress(response));
+    responseCache.put(cacheKey, cachedResponse);
+    return cachedResponse;
+  }
+
+  @Override
+  public void handleMessage(ReleaseMessage message, String channel) {
+    String content = message.getMessage();
+    if (!Topics.APOLLO_RELEASE_TOPIC.equals(channel) || Strings.isNullOrEmpty(content)) {
+      return;
+    }
+
+    List<String> cacheKeys = new ArrayList<>(watchedKeys2CacheKey.get(content));
+    if (cacheKeys.isEmpty()) {
+      return;
+    }
+
+    Tracer.logEvent("Apollo.ConfigResponseCache.Invalidate", content);
+    for (String cacheKey : cacheKeys) {
+      logger.debug("invalidate config response cache key: {}", cacheKey);
+      responseCache.invalidate(cacheKey);
+    }
+  }
+
+  public static class CachedResponse {
+    private final byte[] content;
+    private final byte[] compressedContent;
+
+    CachedResponse(byte[] content, byte[] compressedContent) {
+      this.content = content;
+      this.compressedContent = compressedContent;
+    }
+
+    public byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * @return the gzip compressed content, or null if the content is too small to compress
+     */
+    public byte[] getCompressedContent() {
+      return compressedContent;
+    }
+
+    int weight() {
+      return content.length + (compressedContent == null ? 0 : compressedContent.length);
+    }
+  }
+}
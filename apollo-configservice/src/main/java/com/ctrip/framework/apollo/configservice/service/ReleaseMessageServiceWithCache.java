@@ -5,6 +5,7 @@ import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.repository.ReleaseMessageRepository;
+import com.ctrip.framework.apollo.configservice.util.CacheSnapshotStore;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
@@ -14,11 +15,16 @@ import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PreDestroy;
+
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
@@ -30,13 +36,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 将 ReleaseMessage 缓存在内存中，提高查询性能。缓存实现方式如下：
  * 1,启动时，初始化 ReleaseMessage 到缓存。
  * 2,新增时，基于 ReleaseMessageListener ，通知有新的 ReleaseMessage ，根据是否有消息间隙，直接使用该 ReleaseMessage 或从数据库读取。
+ * 3,配置了快照目录时，定时及关闭时保存缓存的快照，启动时先加载快照，再从数据库增量拉取快照之后的 ReleaseMessage 。
  *
  * @author Jason Song(song_s@ctrip.com)
  */
 @Service
-public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, InitializingBean {
+public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, InitializingBean,
+    ApplicationListener<ContextRefreshedEvent> {
   private static final Logger logger = LoggerFactory.getLogger(ReleaseMessageServiceWithCache
       .class);
+  private static final String SNAPSHOT_NAME = "release-messages";
   private final ReleaseMessageRepository releaseMessageRepository;
   private final BizConfig bizConfig;
 
@@ -66,10 +75,18 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
    * 是否执行扫描任务
    */
   private AtomicBoolean doScan;
+  /**
+   * 是否所有 Bean 均已初始化，即 ReleaseMessageScanner 已开始工作
+   */
+  private volatile boolean contextRefreshed;
   /**
    * ExecutorService 对象
    */
   private ExecutorService executorService;
+  /**
+   * 缓存快照
+   */
+  private CacheSnapshotStore snapshotStore;
 
   public ReleaseMessageServiceWithCache(
       final ReleaseMessageRepository releaseMessageRepository,
@@ -159,18 +176,23 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
   public void afterPropertiesSet() throws Exception {
     // 从 ServerConfig 中，读取任务的周期配置
     populateDataBaseInterval();
-    // 初始拉取 ReleaseMessage 到缓存
+    // 初始拉取 ReleaseMessage 到缓存，有快照时从快照之后增量拉取
     //block the startup process until load finished
     //this should happen before ReleaseMessageScanner due to autowire
-    loadReleaseMessages(0);
+    snapshotStore = new CacheSnapshotStore(bizConfig.configServiceCacheSnapshotDir());
+    loadReleaseMessages(restoreFromSnapshot());
+    snapshotStore.scheduleSave(SNAPSHOT_NAME, this::createSnapshot,
+        bizConfig.configServiceCacheSnapshotSaveIntervalInSecond(), TimeUnit.SECONDS);
 
     // 创建定时任务，增量拉取 ReleaseMessage 到缓存，用以处理初始化期间，产生的 ReleaseMessage 遗漏的问题。
     //例如：ReleaseMessageServiceWithCache 初始化在 ReleaseMessageScanner 之前，
     //      因此在第 3 步时，ReleaseMessageServiceWithCache 初始化完成之后，ReleaseMessageScanner 初始化之前，产生了一条心的 ReleaseMessage ，
     //      会导致 ReleaseMessageScanner.maxIdScanned 大于 ReleaseMessageServiceWithCache.maxIdScanned ，
     //      从而导致 ReleaseMessage 的遗漏
+    //      ReleaseMessageScanner 开始工作后，再拉取一次即可结束，避免空闲时仍每秒查询数据库
     executorService.submit(() -> {
       while (doScan.get() && !Thread.currentThread().isInterrupted()) {
+        boolean lastScan = contextRefreshed;
         // 【TODO 6001】Tracer 日志
         Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageServiceWithCache",
             "scanNewReleaseMessages");
@@ -179,6 +201,9 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
           loadReleaseMessages(maxIdScanned);
           // 【TODO 6001】Tracer 日志
           transaction.setStatus(Transaction.SUCCESS);
+          if (lastScan) {
+            break;
+          }
         } catch (Throwable ex) {
           // 【TODO 6001】Tracer 日志
           transaction.setStatus(ex);
@@ -195,6 +220,12 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     });
   }
 
+  @Override
+  public void onApplicationEvent(ContextRefreshedEvent event) {
+    //the release message scanner is started, which is initialized after this service
+    contextRefreshed = true;
+  }
+
   private synchronized void mergeReleaseMessage(ReleaseMessage releaseMessage) {
     // 获得对应的 ReleaseMessage 对象
     ReleaseMessage old = releaseMessageCache.get(releaseMessage.getMessage());
@@ -205,6 +236,63 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     }
   }
 
+  /**
+   * @return the max id in the snapshot restored, or 0 if there is no valid snapshot
+   */
+  private long restoreFromSnapshot() {
+    ReleaseMessagesSnapshot snapshot = snapshotStore.load(SNAPSHOT_NAME, ReleaseMessagesSnapshot.class);
+    if (snapshot == null || snapshot.releaseMessageIds == null || !isSnapshotValid(snapshot)) {
+      return 0;
+    }
+    for (Map.Entry<String, Long> entry : snapshot.releaseMessageIds.entrySet()) {
+      ReleaseMessage releaseMessage = new ReleaseMessage(entry.getKey());
+      releaseMessage.setId(entry.getValue());
+      releaseMessageCache.put(entry.getKey(), releaseMessage);
+    }
+    maxIdScanned = snapshot.maxIdScanned;
+    logger.info("Restored {} release messages with maxIdScanned {} from snapshot", snapshot.releaseMessageIds.size(),
+        maxIdScanned);
+    return maxIdScanned;
+  }
+
+  /**
+   * The snapshot is valid if the message with the max id is still in the database, or replaced by a newer one, in
+   * case the snapshot is taken from another database
+   */
+  private boolean isSnapshotValid(ReleaseMessagesSnapshot snapshot) {
+    String lastMessage = null;
+    for (Map.Entry<String, Long> entry : snapshot.releaseMessageIds.entrySet()) {
+      if (entry.getValue() == snapshot.maxIdScanned) {
+        lastMessage = entry.getKey();
+        break;
+      }
+    }
+    if (lastMessage == null) {
+      return false;
+    }
+    ReleaseMessage latest = releaseMessageRepository.findTopByMessageInOrderByIdDesc(
+        Collections.singleton(lastMessage));
+    return latest != null && latest.getId() >= snapshot.maxIdScanned;
+  }
+
+  private ReleaseMessagesSnapshot createSnapshot() {
+    ReleaseMessagesSnapshot snapshot = new ReleaseMessagesSnapshot();
+    //read maxIdScanned first, as it's updated after the message is cached
+    snapshot.maxIdScanned = maxIdScanned;
+    snapshot.releaseMessageIds = Maps.newHashMapWithExpectedSize(releaseMessageCache.size());
+    for (ReleaseMessage releaseMessage : releaseMessageCache.values()) {
+      snapshot.releaseMessageIds.put(releaseMessage.getMessage(), releaseMessage.getId());
+    }
+    return snapshot;
+  }
+
+  @PreDestroy
+  void saveSnapshot() {
+    if (snapshotStore != null) {
+      snapshotStore.save(SNAPSHOT_NAME, createSnapshot());
+    }
+  }
+
   private void loadReleaseMessages(long startId) {
     boolean hasMore = true;
     while (hasMore && !Thread.currentThread().isInterrupted()) {
@@ -237,4 +325,13 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     initialize();
     afterPropertiesSet();
   }
+
+  private static class ReleaseMessagesSnapshot {
+    private long maxIdScanned;
+    /**
+     * KEY：`ReleaseMessage.message`
+     * VALUE：对应的最新的 ReleaseMessage 编号
+     */
+    private Map<String, Long> releaseMessageIds;
+  }
 }
@@ -2,19 +2,27 @@ package com.ctrip.framework.apollo.configservice.service.config;
 
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
 import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.biz.utils.ReleaseMessageKeyGenerator;
+import com.ctrip.framework.apollo.configservice.util.CacheSnapshotStore;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 
@@ -25,9 +33,15 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 /**
  *
@@ -35,6 +49,13 @@ import javax.annotation.PostConstruct;
  *
  * config service with guava cache
  *
+ * 缓存按配置内容的长度限制总大小；不存在的配置也会被缓存，但只保留 {@link #NEGATIVE_ENTRY_EXPIRE_IN_SECONDS} 秒；
+ * 热点配置在写入 {@link #REFRESH_AFTER_WRITE_IN_MINUTES} 分钟后被访问时在后台刷新，以防漏掉了发布消息。
+ * 发布消息使缓存失效后，在后台线程中预热，同一配置的多条消息只预热一次；客户端的通知编号更大时，
+ * 多个请求只会触发一次重新加载。各缓存的命中、未命中及加载耗时每分钟记录一次到 Tracer 。
+ *
+ * 配置了快照目录时，定时及关闭时保存缓存中的 Watch Key ，启动后在单独的后台线程中依次预热这些配置，不占用发布消息预热的线程。
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
 public class ConfigServiceWithCache extends AbstractConfigService {
@@ -43,6 +64,23 @@ public class ConfigServiceWithCache extends AbstractConfigService {
    * 默认缓存过滤时间，单位：分钟
    */
   private static final long DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES = 60;//1 hour
+  /**
+   * 缓存的最大权重，即配置内容的总长度
+   */
+  private static final long MAX_CACHE_WEIGHT = 128 * 1024 * 1024;
+  /**
+   * 不存在的配置的缓存时间，单位：秒
+   */
+  private static final long NEGATIVE_ENTRY_EXPIRE_IN_SECONDS = 60;
+  /**
+   * 热点配置的后台刷新间隔，单位：分钟
+   */
+  private static final long REFRESH_AFTER_WRITE_IN_MINUTES = 10;
+  private static final long CACHE_STATS_LOG_INTERVAL_IN_SECONDS = 60;
+  /**
+   * 预热及后台刷新配置的线程数
+   */
+  private static final int WARM_UP_THREADS = 4;
 
   // TRACER 日志内存的枚举
   private static final String TRACER_EVENT_CACHE_INVALIDATE = "ConfigCache.Invalidate";
@@ -50,6 +88,9 @@ public class ConfigServiceWithCache extends AbstractConfigService {
   private static final String TRACER_EVENT_CACHE_LOAD_ID = "ConfigCache.LoadFromDBById";
   private static final String TRACER_EVENT_CACHE_GET = "ConfigCache.Get";
   private static final String TRACER_EVENT_CACHE_GET_ID = "ConfigCache.GetById";
+  private static final String TRACER_EVENT_CACHE_STATS = "ConfigCache.Stats";
+
+  private static final String SNAPSHOT_NAME = "hot-config-keys";
 
   private static final Splitter STRING_SPLITTER =
       Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).omitEmptyStrings();
@@ -60,6 +101,9 @@ public class ConfigServiceWithCache extends AbstractConfigService {
   @Autowired
   private ReleaseMessageService releaseMessageService;
 
+  @Autowired
+  private BizConfig bizConfig;
+
   /**
    * ConfigCacheEntry 缓存
    *
@@ -79,16 +123,52 @@ public class ConfigServiceWithCache extends AbstractConfigService {
    */
   private ConfigCacheEntry nullConfigCacheEntry;
 
+  private Ticker ticker = Ticker.systemTicker();
+  /**
+   * 定时记录统计的线程池
+   */
+  private ScheduledExecutorService scheduledExecutorService;
+  /**
+   * 发布消息的预热及热点配置的后台刷新的线程池，线程数固定。同一 Watch Key 等待中的预热只有一个，所以队列长度不超过 Watch Key 数
+   */
+  private ExecutorService warmUpExecutorService;
+  /**
+   * 预热快照中的配置的单线程，与发布消息的预热分开，启动时大量的快照预热不会延迟新发布的配置。预热完成后线程退出
+   */
+  private ExecutorService snapshotWarmUpExecutorService;
+  /**
+   * 等待预热的 Watch Key
+   */
+  private final Set<String> pendingWarmUps = Sets.newConcurrentHashSet();
+  /**
+   * 上次记录的统计，KEY：缓存名
+   */
+  private final Map<String, CacheStats> lastCacheStats = Maps.newConcurrentMap();
+  /**
+   * 缓存快照
+   */
+  private CacheSnapshotStore snapshotStore;
+
   public ConfigServiceWithCache() {
-    nullConfigCacheEntry = new ConfigCacheEntry(ConfigConsts.NOTIFICATION_ID_PLACEHOLDER, null);
+    nullConfigCacheEntry = new ConfigCacheEntry(ConfigConsts.NOTIFICATION_ID_PLACEHOLDER, null, 0);
   }
 
   @PostConstruct
   void initialize() {
+    scheduledExecutorService = Executors.newScheduledThreadPool(1, ApolloThreadFactory
+        .create("ConfigServiceWithCache", true));
+    warmUpExecutorService = Executors.newFixedThreadPool(WARM_UP_THREADS, ApolloThreadFactory
+        .create("ConfigServiceWithCache-WarmUp", true));
+
     // 初始化 configCache
     configCache = CacheBuilder.newBuilder()
         .expireAfterAccess(DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
-        .build(new CacheLoader<String, ConfigCacheEntry>() {
+        .refreshAfterWrite(REFRESH_AFTER_WRITE_IN_MINUTES, TimeUnit.MINUTES)
+        .maximumWeight(MAX_CACHE_WEIGHT)
+        .weigher((Weigher<String, ConfigCacheEntry>) (key, value) -> weigh(value.getRelease()))
+        .ticker(ticker)
+        .recordStats()
+        .build(CacheLoader.asyncReloading(new CacheLoader<String, ConfigCacheEntry>() {
           @Override
           public ConfigCacheEntry load(String key) throws Exception {
             // 格式不正确，返回 nullConfigCacheEntry
@@ -115,13 +195,8 @@ public class ConfigServiceWithCache extends AbstractConfigService {
               long notificationId = latestReleaseMessage == null ? ConfigConsts.NOTIFICATION_ID_PLACEHOLDER : latestReleaseMessage
                   .getId();
 
-              // 若 latestReleaseMessage 和 latestRelease 都为空，返回 nullConfigCacheEntry
-              if (notificationId == ConfigConsts.NOTIFICATION_ID_PLACEHOLDER && latestRelease == null) {
-                return nullConfigCacheEntry;
-              }
-
-              // 创建 ConfigCacheEntry 对象
-              return new ConfigCacheEntry(notificationId, latestRelease);
+              // 创建 ConfigCacheEntry 对象，latestRelease 为空时只缓存较短时间
+              return new ConfigCacheEntry(notificationId, latestRelease, ticker.read());
             } catch (Throwable ex) {
               transaction.setStatus(ex);
               throw ex;
@@ -129,10 +204,14 @@ public class ConfigServiceWithCache extends AbstractConfigService {
               transaction.complete();
             }
           }
-        });
+        }, warmUpExecutorService));
     // 初始化 configIdCache
     configIdCache = CacheBuilder.newBuilder()
         .expireAfterAccess(DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
+        .maximumWeight(MAX_CACHE_WEIGHT)
+        .weigher((Weigher<Long, Optional<Release>>) (key, value) -> weigh(value.orElse(null)))
+        .ticker(ticker)
+        .recordStats()
         .build(new CacheLoader<Long, Optional<Release>>() {
           @Override
           public Optional<Release> load(Long key) throws Exception {
@@ -157,6 +236,90 @@ public class ConfigServiceWithCache extends AbstractConfigService {
             }
           }
         });
+
+    scheduledExecutorService.scheduleAtFixedRate(() -> {
+      logCacheStats("configCache", configCache);
+      logCacheStats("configIdCache", configIdCache);
+    }, CACHE_STATS_LOG_INTERVAL_IN_SECONDS, CACHE_STATS_LOG_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+
+    // 在后台预热快照中的配置
+    snapshotStore = new CacheSnapshotStore(bizConfig.configServiceCacheSnapshotDir());
+    String[] hotKeys = snapshotStore.load(SNAPSHOT_NAME, String[].class);
+    if (hotKeys != null && hotKeys.length > 0) {
+      snapshotWarmUpExecutorService = Executors.newSingleThreadExecutor(ApolloThreadFactory
+          .create("ConfigServiceWithCache-SnapshotWarmUp", true));
+      snapshotWarmUpExecutorService.execute(() -> warmUpSnapshot(hotKeys));
+      snapshotWarmUpExecutorService.shutdown();
+    }
+    snapshotStore.scheduleSave(SNAPSHOT_NAME, this::createSnapshot,
+        bizConfig.configServiceCacheSnapshotSaveIntervalInSecond(), TimeUnit.SECONDS);
+  }
+
+  private String[] createSnapshot() {
+    return configCache.asMap().keySet().toArray(new String[0]);
+  }
+
+  /**
+   * 保存快照，并停止预热、后台刷新及统计的线程
+   */
+  @PreDestroy
+  void destroy() {
+    if (snapshotStore != null) {
+      snapshotStore.save(SNAPSHOT_NAME, createSnapshot());
+    }
+    if (snapshotWarmUpExecutorService != null) {
+      snapshotWarmUpExecutorService.shutdownNow();
+    }
+    warmUpExecutorService.shutdownNow();
+    scheduledExecutorService.shutdownNow();
+  }
+
+  /**
+   * 依次预热快照中的配置，已在缓存中（如已被请求或发布消息预热）的跳过，关闭时停止
+   */
+  private void warmUpSnapshot(String[] hotKeys) {
+    for (String key : hotKeys) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      if (configCache.asMap().containsKey(key)) {
+        continue;
+      }
+      try {
+        configCache.getUnchecked(key);
+      } catch (Throwable ex) {
+        //ignore
+      }
+    }
+  }
+
+  private int weigh(Release release) {
+    if (release == null || release.getConfigurations() == null) {
+      return 1;
+    }
+    return release.getConfigurations().length() + 1;
+  }
+
+  /**
+   * 记录缓存自上次记录以来的统计
+   */
+  private void logCacheStats(String cacheName, LoadingCache<?, ?> cache) {
+    CacheStats stats = cache.stats();
+    CacheStats lastStats = lastCacheStats.put(cacheName, stats);
+    if (lastStats != null) {
+      stats = stats.minus(lastStats);
+    }
+
+    Transaction transaction = Tracer.newTransaction(TRACER_EVENT_CACHE_STATS, cacheName);
+    transaction.addData("Size", cache.size());
+    transaction.addData("HitCount", stats.hitCount());
+    transaction.addData("MissCount", stats.missCount());
+    transaction.addData("LoadCount", stats.loadCount());
+    transaction.addData("LoadExceptionCount", stats.loadExceptionCount());
+    transaction.addData("AverageLoadPenaltyInMillis", TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+    transaction.addData("EvictionCount", stats.evictionCount());
+    transaction.setStatus(Transaction.SUCCESS);
+    transaction.complete();
   }
 
   @Override
@@ -176,13 +339,15 @@ public class ConfigServiceWithCache extends AbstractConfigService {
 
     // 从缓存 configCache 中，读取 ConfigCacheEntry 对象
     ConfigCacheEntry cacheEntry = configCache.getUnchecked(key);
-    // 若客户端的通知编号更大，说明缓存已经过期。
+    // 若客户端的通知编号更大，或不存在的配置已超过缓存时间，说明缓存已经过期。
     //cache is out-dated
-    if (clientMessages != null && clientMessages.has(key) &&
-        clientMessages.get(key) > cacheEntry.getNotificationId()) {
-      // 清空对应的缓存
-      //invalidate the cache and try to load from db again
-      invalidate(key);
+    if ((clientMessages != null && clientMessages.has(key) &&
+        clientMessages.get(key) > cacheEntry.getNotificationId()) || isNegativeEntryExpired(cacheEntry)) {
+      // 仅当缓存仍是该对象时才清空，其它请求已清空或重新加载时，等待并使用其加载的结果
+      //invalidate the cache and try to load from db again, unless another request did it already
+      if (configCache.asMap().remove(key, cacheEntry)) {
+        Tracer.logEvent(TRACER_EVENT_CACHE_INVALIDATE, key);
+      }
       // 读取 ConfigCacheEntry 对象，重新从 DB 中加载。
       cacheEntry = configCache.getUnchecked(key);
     }
@@ -191,6 +356,11 @@ public class ConfigServiceWithCache extends AbstractConfigService {
     return cacheEntry.getRelease();
   }
 
+  private boolean isNegativeEntryExpired(ConfigCacheEntry cacheEntry) {
+    return cacheEntry.getRelease() == null && cacheEntry != nullConfigCacheEntry &&
+        ticker.read() - cacheEntry.getLoadedAtNanos() >= TimeUnit.SECONDS.toNanos(NEGATIVE_ENTRY_EXPIRE_IN_SECONDS);
+  }
+
   private void invalidate(String key) {
     configCache.invalidate(key);
     Tracer.logEvent(TRACER_EVENT_CACHE_INVALIDATE, key);
@@ -204,14 +374,24 @@ public class ConfigServiceWithCache extends AbstractConfigService {
       return;
     }
 
-    try {
-      // 清空对应的缓存
-      invalidate(message.getMessage());
-      // 预热缓存，读取 ConfigCacheEntry 对象，重新从 DB 中加载。 执行CacheLoader.load方法
-      //warm up the cache
-      configCache.getUnchecked(message.getMessage());
-    } catch (Throwable ex) {
-      //ignore
+    String key = message.getMessage();
+    // 清空对应的缓存
+    invalidate(key);
+    // 预热缓存，在后台线程中读取 ConfigCacheEntry 对象，重新从 DB 中加载。 执行CacheLoader.load方法
+    //warm up the cache, the messages of the same key in a publish wave are warmed up once
+    warmUp(key);
+  }
+
+  private void warmUp(String key) {
+    if (pendingWarmUps.add(key)) {
+      warmUpExecutorService.execute(() -> {
+        pendingWarmUps.remove(key);
+        try {
+          configCache.getUnchecked(key);
+        } catch (Throwable ex) {
+          //ignore
+        }
+      });
     }
   }
 
@@ -224,10 +404,15 @@ public class ConfigServiceWithCache extends AbstractConfigService {
      * Release 对象
      */
     private final Release release;
+    /**
+     * 加载时间，单位：纳秒
+     */
+    private final long loadedAtNanos;
 
-    public ConfigCacheEntry(long notificationId, Release release) {
+    public ConfigCacheEntry(long notificationId, Release release, long loadedAtNanos) {
       this.notificationId = notificationId;
       this.release = release;
+      this.loadedAtNanos = loadedAtNanos;
     }
 
     public long getNotificationId() {
@@ -237,5 +422,9 @@ public class ConfigServiceWithCache extends AbstractConfigService {
     public Release getRelease() {
       return release;
     }
+
+    public long getLoadedAtNanos() {
+      return loadedAtNanos;
+    }
   }
 }
@@ -15,6 +15,7 @@ import org.springframework.stereotype.Component;
 public class AccessKeyUtil {
 
   private static final String URL_SEPARATOR = "/";
+  private static final String URL_CONFIGS_BATCH = "/configs/batch";
   private static final String URL_CONFIGS_PREFIX = "/configs/";
   private static final String URL_CONFIGFILES_JSON_PREFIX = "/configfiles/json/";
   private static final String URL_CONFIGFILES_PREFIX = "/configfiles/";
@@ -34,7 +35,9 @@ public class AccessKeyUtil {
     String appId = null;
     String servletPath = request.getServletPath();
 
-    if (StringUtils.startsWith(servletPath, URL_CONFIGS_PREFIX)) {
+    if (StringUtils.equals(servletPath, URL_CONFIGS_BATCH)) {
+      appId = request.getParameter("appId");
+    } else if (StringUtils.startsWith(servletPath, URL_CONFIGS_PREFIX)) {
       appId = StringUtils.substringBetween(servletPath, URL_CONFIGS_PREFIX, URL_SEPARATOR);
     } else if (StringUtils.startsWith(servletPath, URL_CONFIGFILES_JSON_PREFIX)) {
       appId = StringUtils.substringBetween(servletPath, URL_CONFIGFILES_JSON_PREFIX, URL_SEPARATOR);
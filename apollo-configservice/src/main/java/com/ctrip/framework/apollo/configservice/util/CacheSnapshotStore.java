@@ -0,0 +1,145 @@
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Config Service 缓存的本地快照，用于重启时预热缓存 <br /> <br />
+ *
+ * Each snapshot is a json file in the snapshot directory, replaced atomically when saved. The snapshots are only hints
+ * to start from: the caches loading them still reconcile with the database incrementally by id, so a snapshot that is
+ * stale or missing just makes the startup slower. The store is disabled if no snapshot directory is configured.
+ */
+public class CacheSnapshotStore {
+  private static final Logger logger = LoggerFactory.getLogger(CacheSnapshotStore.class);
+  private static final Gson GSON = new Gson();
+  private static final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1,
+      ApolloThreadFactory.create("CacheSnapshotStore", true));
+
+  private final File snapshotDir;
+  /**
+   * 定时保存的任务，KEY：快照名
+   */
+  private final ConcurrentMap<String, ScheduledFuture<?>> scheduledSaves = Maps.newConcurrentMap();
+
+  /**
+   * @param snapshotDir the directory to store the snapshots, the store is disabled if it's empty
+   */
+  public CacheSnapshotStore(String snapshotDir) {
+    this.snapshotDir = Strings.isNullOrEmpty(snapshotDir) ? null : new File(snapshotDir);
+  }
+
+  public boolean isEnabled() {
+    return snapshotDir != null;
+  }
+
+  /**
+   * @return the snapshot, or null if the store is disabled or there is no valid snapshot
+   */
+  public <T> T load(String name, Class<T> type) {
+    if (!isEnabled()) {
+      return null;
+    }
+    File file = assembleSnapshotFile(name);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    Transaction transaction = Tracer.newTransaction("Apollo.CacheSnapshot", "load");
+    transaction.addData("Snapshot", name);
+    try (Reader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+      T snapshot = GSON.fromJson(reader, type);
+      transaction.setStatus(Transaction.SUCCESS);
+      return snapshot;
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      logger.warn("Load cache snapshot {} failed", file.getAbsolutePath(), ex);
+      return null;
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  public void save(String name, Object snapshot) {
+    if (!isEnabled() || snapshot == null) {
+      return;
+    }
+    File file = assembleSnapshotFile(name);
+    File tempFile = null;
+
+    Transaction transaction = Tracer.newTransaction("Apollo.CacheSnapshot", "save");
+    transaction.addData("Snapshot", name);
+    try {
+      Files.createDirectories(snapshotDir.toPath());
+      tempFile = File.createTempFile(file.getName(), ".tmp", snapshotDir);
+      try (Writer writer = Files.newBufferedWriter(tempFile.toPath(), Charsets.UTF_8)) {
+        GSON.toJson(snapshot, writer);
+      }
+      try {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tempFile = null;
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      logger.warn("Save cache snapshot {} failed", file.getAbsolutePath(), ex);
+    } finally {
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+      transaction.complete();
+    }
+  }
+
+  /**
+   * Save the snapshot periodically, replacing the previous schedule of the same name
+   *
+   * @param name     the snapshot name
+   * @param snapshot the supplier of the snapshot
+   * @param interval the interval between saves
+   * @param timeUnit the time unit of interval
+   */
+  public void scheduleSave(String name, Supplier<?> snapshot, long interval, TimeUnit timeUnit) {
+    if (!isEnabled()) {
+      return;
+    }
+    ScheduledFuture<?> previous = scheduledSaves.put(name, executorService.scheduleWithFixedDelay(() -> {
+      try {
+        save(name, snapshot.get());
+      } catch (Throwable ex) {
+        logger.warn("Save cache snapshot {} failed", name, ex);
+      }
+    }, interval, interval, timeUnit));
+    if (previous != null) {
+      previous.cancel(false);
+    }
+  }
+
+  File assembleSnapshotFile(String name) {
+    return new File(snapshotDir, String.format("%s.json", name));
+  }
+}
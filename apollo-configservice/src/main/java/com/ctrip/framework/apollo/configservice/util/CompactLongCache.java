@@ -0,0 +1,145 @@
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以 long 为 Key 和 Value 的定长缓存，数据保存在基本类型数组中，每项只占用 20 字节 <br /> <br />
+ *
+ * The cache is 4-way set associative: a key could only be stored in the 4 slots of its set, and the least recently
+ * written (or accessed, if expiring after access) entry of the set is evicted when the set is full. So the entries are
+ * evicted a little earlier than an LRU cache of the same size, which is fine for the caches used to skip the writes.
+ */
+class CompactLongCache {
+  private static final int WAYS = 4;
+  /**
+   * 空槽位的时间戳
+   */
+  private static final int EMPTY = 0;
+
+  private final long[] keys;
+  private final long[] values;
+  /**
+   * 写入或访问时间，单位秒，从缓存创建时开始计算并加 1 ，0 表示空槽位
+   */
+  private final int[] timestamps;
+  private final int setMask;
+  private final long expireInSeconds;
+  private final boolean expireAfterAccess;
+  private final Ticker ticker;
+  private final long baseNanos;
+
+  /**
+   * @param maximumSize       the maximum size, rounded up to a power of 2
+   * @param duration          the duration an entry is kept after written, or after accessed if expireAfterAccess
+   * @param unit              the time unit of duration
+   * @param expireAfterAccess whether the duration is counted from the last access instead of the last write
+   * @param ticker            the ticker to read time from
+   */
+  CompactLongCache(int maximumSize, long duration, TimeUnit unit, boolean expireAfterAccess, Ticker ticker) {
+    Preconditions.checkArgument(maximumSize > 0 && maximumSize <= (1 << 30), "Invalid maximum size %s",
+        maximumSize);
+    int capacity = Math.max(Integer.highestOneBit(maximumSize - 1) << 1, WAYS);
+    this.keys = new long[capacity];
+    this.values = new long[capacity];
+    this.timestamps = new int[capacity];
+    this.setMask = capacity / WAYS - 1;
+    this.expireInSeconds = unit.toSeconds(duration);
+    this.expireAfterAccess = expireAfterAccess;
+    this.ticker = ticker;
+    this.baseNanos = ticker.read();
+  }
+
+  CompactLongCache(int maximumSize, long duration, TimeUnit unit, boolean expireAfterAccess) {
+    this(maximumSize, duration, unit, expireAfterAccess, Ticker.systemTicker());
+  }
+
+  /**
+   * @return the value, or null if absent or expired
+   */
+  synchronized Long getIfPresent(long key) {
+    int now = now();
+    int slot = findSlot(key, now);
+    if (slot < 0) {
+      return null;
+    }
+    if (expireAfterAccess) {
+      timestamps[slot] = now;
+    }
+    return values[slot];
+  }
+
+  synchronized void put(long key, long value) {
+    int now = now();
+    int slot = findSlot(key, now);
+    if (slot < 0) {
+      slot = findSlotToReplace(key, now);
+      keys[slot] = key;
+    }
+    values[slot] = value;
+    timestamps[slot] = now;
+  }
+
+  synchronized void invalidate(long key) {
+    int slot = findSlot(key, now());
+    if (slot >= 0) {
+      timestamps[slot] = EMPTY;
+    }
+  }
+
+  /**
+   * @return the number of entries not expired
+   */
+  synchronized long size() {
+    int now = now();
+    long size = 0;
+    for (int timestamp : timestamps) {
+      if (!isEmptyOrExpired(timestamp, now)) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  private int findSlot(long key, int now) {
+    int base = setIndex(key) * WAYS;
+    for (int slot = base; slot < base + WAYS; slot++) {
+      if (keys[slot] == key && !isEmptyOrExpired(timestamps[slot], now)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the empty or expired slot in the set of the key, or the oldest one if none
+   */
+  private int findSlotToReplace(long key, int now) {
+    int base = setIndex(key) * WAYS;
+    int oldest = base;
+    for (int slot = base; slot < base + WAYS; slot++) {
+      if (isEmptyOrExpired(timestamps[slot], now)) {
+        return slot;
+      }
+      if (timestamps[slot] < timestamps[oldest]) {
+        oldest = slot;
+      }
+    }
+    return oldest;
+  }
+
+  private boolean isEmptyOrExpired(int timestamp, int now) {
+    return timestamp == EMPTY || now - timestamp >= expireInSeconds;
+  }
+
+  private int setIndex(long key) {
+    //the keys are hashes already, just mix the high bits in
+    return (int) (key ^ (key >>> 32)) & setMask;
+  }
+
+  private int now() {
+    return (int) TimeUnit.NANOSECONDS.toSeconds(ticker.read() - baseNanos) + 1;
+  }
+}
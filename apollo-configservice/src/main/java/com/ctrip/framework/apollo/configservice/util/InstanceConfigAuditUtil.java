@@ -1,56 +1,78 @@
 package com.ctrip.framework.apollo.configservice.util;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
 
 import com.ctrip.framework.apollo.biz.entity.Instance;
 import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
 import com.ctrip.framework.apollo.biz.service.InstanceService;
-import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * InstanceConfig 审计工具类
+ * InstanceConfig 审计工具类 <br /> <br />
+ *
+ * The audits are sharded by instance to several workers, each worker drains its queue in batches, coalesces the
+ * audits of the same instance and namespace, loads the instances of the batch with one query per app, cluster and data
+ * center, creates the missing ones in one JDBC batch, loads the instance configs of the batch with one query and saves
+ * them in one transaction.
  *
  * @author Jason Song(song_s@ctrip.com)
  */
 @Service
 public class InstanceConfigAuditUtil implements InitializingBean {
   /**
-   * {@link #audits} 大小
+   * {@link #audits} 每个队列的大小
    */
   private static final int INSTANCE_CONFIG_AUDIT_MAX_SIZE = 10000;
+  /**
+   * 审计线程数，按 Instance 分片，同一个 Instance 的审计总是由同一个线程处理
+   */
+  private static final int INSTANCE_CONFIG_AUDIT_WORKERS = 4;
+  /**
+   * 每批处理的审计数
+   */
+  private static final int INSTANCE_CONFIG_AUDIT_BATCH_SIZE = 500;
   /**
    * {@link #instanceCache} 大小
    */
-  private static final int INSTANCE_CACHE_MAX_SIZE = 50000;
+  private static final int INSTANCE_CACHE_MAX_SIZE = 200000;
   /**
    * {@link #instanceConfigReleaseKeyCache} 大小
    */
-  private static final int INSTANCE_CONFIG_CACHE_MAX_SIZE = 50000;
+  private static final int INSTANCE_CONFIG_CACHE_MAX_SIZE = 1000000;
   private static final long OFFER_TIME_LAST_MODIFIED_TIME_THRESHOLD_IN_MILLI = TimeUnit.MINUTES.toMillis(10);//10 minutes
-  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
   /**
-   * ExecutorService 对象。队列大小为 1 。
+   * 缓存的 Key 和 ReleaseKey 使用 64 位哈希代替字符串，保存在 {@link CompactLongCache} 中，百万级的缓存项只占用原来的一小部分内存，哈希碰撞的概率可以忽略
+   */
+  private static final HashFunction KEY_HASH_FUNCTION = Hashing.murmur3_128();
+  /**
+   * ExecutorService 对象，每个队列一个线程
    */
   private final ExecutorService auditExecutorService;
   /**
@@ -58,36 +80,41 @@ public class InstanceConfigAuditUtil implements InitializingBean {
    */
   private final AtomicBoolean auditStopped;
   /**
-   * 队列
+   * 队列，按 Instance 分片
+   */
+  private final List<BlockingQueue<InstanceConfigAuditModel>> audits;
+  /**
+   * 队列已满而丢弃的审计数，每批处理时记录并清零
    */
-  private BlockingQueue<InstanceConfigAuditModel> audits = Queues.newLinkedBlockingQueue
-      (INSTANCE_CONFIG_AUDIT_MAX_SIZE);
+  private final AtomicLong droppedAudits = new AtomicLong();
   /**
    * Instance 的编号的缓存
    *
-   * KEY：{@link #assembleInstanceKey(String, String, String, String)} 使用 appId + clusterName + ip + dataCenter，恰好是 Instance 的唯一索引的字段。
+   * KEY：{@link #assembleInstanceKey(String, String, String, String)} 使用 appId + clusterName + ip + dataCenter 的 64 位哈希，恰好是 Instance 的唯一索引的字段。
    * VALUE：{@link Instance#id}
    */
-  private Cache<String, Long> instanceCache;
+  private final CompactLongCache instanceCache;
   /**
    * InstanceConfig 的 ReleaseKey 的缓存
    *
-   * KEY：{@link #assembleInstanceConfigKey(long, String, String)} instanceId + configAppId + ConfigNamespaceName ，恰好是 InstanceConfig 的唯一索引的字段。
-   * VALUE：{@link InstanceConfig#releaseKey}
+   * KEY：{@link #assembleInstanceConfigKey(long, String, String)} instanceId + configAppId + ConfigNamespaceName 的 64 位哈希，恰好是 InstanceConfig 的唯一索引的字段。
+   * VALUE：{@link InstanceConfig#releaseKey} 的 64 位指纹，见 {@link #fingerprint(String)}
    */
-  private Cache<String, String> instanceConfigReleaseKeyCache;
+  private final CompactLongCache instanceConfigReleaseKeyCache;
 
   private final InstanceService instanceService;
 
   public InstanceConfigAuditUtil(final InstanceService instanceService) {
     this.instanceService = instanceService;
-    auditExecutorService = Executors.newSingleThreadExecutor(
+    auditExecutorService = Executors.newFixedThreadPool(INSTANCE_CONFIG_AUDIT_WORKERS,
         ApolloThreadFactory.create("InstanceConfigAuditUtil", true));
     auditStopped = new AtomicBoolean(false);
-    instanceCache = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS)
-        .maximumSize(INSTANCE_CACHE_MAX_SIZE).build();
-    instanceConfigReleaseKeyCache = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.DAYS)
-        .maximumSize(INSTANCE_CONFIG_CACHE_MAX_SIZE).build();
+    audits = Lists.newArrayListWithCapacity(INSTANCE_CONFIG_AUDIT_WORKERS);
+    for (int i = 0; i < INSTANCE_CONFIG_AUDIT_WORKERS; i++) {
+      audits.add(Queues.newLinkedBlockingQueue(INSTANCE_CONFIG_AUDIT_MAX_SIZE));
+    }
+    instanceCache = new CompactLongCache(INSTANCE_CACHE_MAX_SIZE, 1, TimeUnit.HOURS, true);
+    instanceConfigReleaseKeyCache = new CompactLongCache(INSTANCE_CONFIG_CACHE_MAX_SIZE, 1, TimeUnit.DAYS, false);
   }
 
   /**
@@ -104,42 +131,216 @@ public class InstanceConfigAuditUtil implements InitializingBean {
    */
   public boolean audit(String appId, String clusterName, String dataCenter, String
       ip, String configAppId, String configClusterName, String configNamespace, String releaseKey) {
-    // 添加到队列中
-    return this.audits.offer(new InstanceConfigAuditModel(appId, clusterName, dataCenter, ip,
-        configAppId, configClusterName, configNamespace, releaseKey));
+    InstanceConfigAuditModel auditModel = new InstanceConfigAuditModel(appId, clusterName, dataCenter, ip,
+        configAppId, configClusterName, configNamespace, releaseKey);
+    // 添加到 Instance 对应的队列中
+    boolean offered = getAuditQueue(auditModel).offer(auditModel);
+    if (!offered) {
+      droppedAudits.incrementAndGet();
+    }
+    return offered;
+  }
+
+  private BlockingQueue<InstanceConfigAuditModel> getAuditQueue(InstanceConfigAuditModel auditModel) {
+    long instanceKey = assembleInstanceKey(auditModel);
+    return audits.get(Math.floorMod(Long.hashCode(instanceKey), audits.size()));
   }
 
   /**
-   * 记录 Instance 和 InstanceConfig
-   * @param auditModel
+   * 批量记录 Instance 和 InstanceConfig ，保存失败时（如并发创建）退回逐个记录
+   *
+   * @param auditModels the audits drained from one queue
    */
-  void doAudit(InstanceConfigAuditModel auditModel) {
+  void doAudits(List<InstanceConfigAuditModel> auditModels) {
+    // 合并同一 Instance 同一 Namespace 的审计，保留最后一个
+    // key: the instance key hash + configAppId + configNamespace
+    Map<Long, InstanceConfigAuditModel> coalesced = Maps.newLinkedHashMap();
+    for (InstanceConfigAuditModel auditModel : auditModels) {
+      coalesced.put(assembleInstanceConfigKey(assembleInstanceKey(auditModel), auditModel.getConfigAppId(),
+          auditModel.getConfigNamespace()), auditModel);
+    }
+
+    // 批量加载或创建本批 Instance 的编号
+    prepareInstanceIds(coalesced.values());
+
+    // instanceConfigCacheKey -> audit model, the ones with the same release key in cache are skipped
+    Map<Long, InstanceConfigAuditModel> toAudit = Maps.newLinkedHashMap();
+    Map<Long, Long> instanceIds = Maps.newHashMap();
+    for (InstanceConfigAuditModel auditModel : coalesced.values()) {
+      long instanceId = getInstanceId(auditModel);
+      long instanceConfigCacheKey = assembleInstanceConfigKey(instanceId, auditModel
+          .getConfigAppId(), auditModel.getConfigNamespace());
+      if (isReleaseKeyCached(instanceConfigCacheKey, auditModel.getReleaseKey())) {
+        continue;
+      }
+      toAudit.put(instanceConfigCacheKey, auditModel);
+      instanceIds.put(instanceConfigCacheKey, instanceId);
+    }
+
+    if (toAudit.isEmpty()) {
+      return;
+    }
+
+    // 一次查询加载本批 Instance 的所有 InstanceConfig
+    Map<Long, InstanceConfig> existingInstanceConfigs = Maps.newHashMap();
+    for (InstanceConfig instanceConfig : instanceService.findInstanceConfigsByInstanceIds(
+        Sets.newHashSet(instanceIds.values()))) {
+      existingInstanceConfigs.put(assembleInstanceConfigKey(instanceConfig.getInstanceId(),
+          instanceConfig.getConfigAppId(), instanceConfig.getConfigNamespaceName()), instanceConfig);
+    }
+
+    List<InstanceConfig> toSave = Lists.newArrayList();
+    for (Map.Entry<Long, InstanceConfigAuditModel> entry : toAudit.entrySet()) {
+      InstanceConfig instanceConfig = prepareInstanceConfig(instanceIds.get(entry.getKey()), entry.getValue(),
+          existingInstanceConfigs.get(entry.getKey()));
+      if (instanceConfig != null) {
+        toSave.add(instanceConfig);
+      }
+    }
+
+    try {
+      if (!toSave.isEmpty()) {
+        instanceService.batchSaveInstanceConfigs(toSave);
+      }
+      for (Map.Entry<Long, InstanceConfigAuditModel> entry : toAudit.entrySet()) {
+        instanceConfigReleaseKeyCache.put(entry.getKey(), fingerprint(entry.getValue().getReleaseKey()));
+      }
+    } catch (DataIntegrityViolationException ex) {
+      //concurrent insertion by another config service, audit one by one
+      for (InstanceConfigAuditModel auditModel : toAudit.values()) {
+        try {
+          doAudit(auditModel);
+        } catch (Throwable e) {
+          Tracer.logError(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the instance config to save, or null if no need to save
+   */
+  private InstanceConfig prepareInstanceConfig(long instanceId, InstanceConfigAuditModel auditModel,
+      InstanceConfig instanceConfig) {
+    if (instanceConfig != null) {
+      if (!Objects.equals(instanceConfig.getReleaseKey(), auditModel.getReleaseKey())) {
+        instanceConfig.setConfigClusterName(auditModel.getConfigClusterName());
+        instanceConfig.setReleaseKey(auditModel.getReleaseKey());
+        instanceConfig.setReleaseDeliveryTime(auditModel.getOfferTime());
+      } else if (offerTimeAndLastModifiedTimeCloseEnough(auditModel.getOfferTime(),
+          instanceConfig.getDataChangeLastModifiedTime())) {
+        return null;
+      }
+      instanceConfig.setDataChangeLastModifiedTime(auditModel.getOfferTime());
+      return instanceConfig;
+    }
+
+    instanceConfig = new InstanceConfig();
+    instanceConfig.setInstanceId(instanceId);
+    instanceConfig.setConfigAppId(auditModel.getConfigAppId());
+    instanceConfig.setConfigClusterName(auditModel.getConfigClusterName());
+    instanceConfig.setConfigNamespaceName(auditModel.getConfigNamespace());
+    instanceConfig.setReleaseKey(auditModel.getReleaseKey());
+    instanceConfig.setReleaseDeliveryTime(auditModel.getOfferTime());
+    instanceConfig.setDataChangeCreatedTime(auditModel.getOfferTime());
+    return instanceConfig;
+  }
+
+  /**
+   * 批量加载本批未缓存的 Instance 编号，按 appId + clusterName + dataCenter 分组，每组一次查询，不存在的 Instance 一次批量创建后再查询编号，
+   * 结果放入 {@link #instanceCache}。仍未找到的（如并发创建导致批量创建失败）由 {@link #getInstanceId(InstanceConfigAuditModel)} 逐个处理
+   */
+  private void prepareInstanceIds(Collection<InstanceConfigAuditModel> auditModels) {
+    // key: appId + clusterName + dataCenter, value: ip -> audit model
+    Map<List<String>, Map<String, InstanceConfigAuditModel>> uncachedGroups = Maps.newLinkedHashMap();
+    for (InstanceConfigAuditModel auditModel : auditModels) {
+      if (instanceCache.getIfPresent(assembleInstanceKey(auditModel)) != null) {
+        continue;
+      }
+      uncachedGroups.computeIfAbsent(Arrays.asList(auditModel.getAppId(), auditModel.getClusterName(),
+          auditModel.getDataCenter()), key -> Maps.newLinkedHashMap()).put(auditModel.getIp(), auditModel);
+    }
+
+    List<Map<String, InstanceConfigAuditModel>> missingGroups = Lists.newArrayList();
+    List<Instance> toCreate = Lists.newArrayList();
+    for (Map<String, InstanceConfigAuditModel> group : uncachedGroups.values()) {
+      Map<String, InstanceConfigAuditModel> missing = loadInstanceIds(group);
+      if (missing.isEmpty()) {
+        continue;
+      }
+      missingGroups.add(missing);
+      for (InstanceConfigAuditModel auditModel : missing.values()) {
+        toCreate.add(assembleInstance(auditModel));
+      }
+    }
+
+    if (toCreate.isEmpty()) {
+      return;
+    }
+
+    try {
+      instanceService.batchCreateInstances(toCreate);
+    } catch (DataIntegrityViolationException ex) {
+      //concurrent insertion by another config service, the ones still missing are created one by one later
+    }
+
+    // 批量创建不返回编号，再查询一次
+    for (Map<String, InstanceConfigAuditModel> missing : missingGroups) {
+      loadInstanceIds(missing);
+    }
+  }
+
+  /**
+   * 查询同一 appId + clusterName + dataCenter 下的 Instance，并放入 {@link #instanceCache}
+   *
+   * @param auditModelsByIp the audit models with the same app id, cluster name and data center, keyed by ip
+   * @return the audit models whose instances are not found, keyed by ip
+   */
+  private Map<String, InstanceConfigAuditModel> loadInstanceIds(Map<String, InstanceConfigAuditModel> auditModelsByIp) {
+    InstanceConfigAuditModel someAuditModel = auditModelsByIp.values().iterator().next();
+    Map<String, InstanceConfigAuditModel> missing = Maps.newLinkedHashMap(auditModelsByIp);
+    for (Instance instance : instanceService.findInstances(someAuditModel.getAppId(),
+        someAuditModel.getClusterName(), someAuditModel.getDataCenter(), auditModelsByIp.keySet())) {
+      InstanceConfigAuditModel auditModel = missing.remove(instance.getIp());
+      if (auditModel != null) {
+        instanceCache.put(assembleInstanceKey(auditModel), instance.getId());
+      }
+    }
+    return missing;
+  }
+
+  private long getInstanceId(InstanceConfigAuditModel auditModel) {
     // 拼接 instanceCache 的Key (appid+clusterName+IP+dataCenter)
-    String instanceCacheKey = assembleInstanceKey(auditModel.getAppId(), auditModel
-        .getClusterName(), auditModel.getIp(), auditModel.getDataCenter());
-    // 获取 Instance 编号
-    Long instanceId = instanceCache.getIfPresent(instanceCacheKey);  //该方法从本地缓存中找值，如果找不到返回null，找到就返回相应的值
-    // 查询不到，从 DB 加载或者创建，并添加到缓存中。
+    long instanceCacheKey = assembleInstanceKey(auditModel);
+    Long instanceId = instanceCache.getIfPresent(instanceCacheKey);
     if (instanceId == null) {
       instanceId = prepareInstanceId(auditModel);
       instanceCache.put(instanceCacheKey, instanceId);
     }
+    return instanceId;
+  }
+
+  /**
+   * 记录 Instance 和 InstanceConfig
+   * @param auditModel
+   */
+  void doAudit(InstanceConfigAuditModel auditModel) {
+    // 获取 Instance 编号，缓存中查询不到时，从 DB 加载或者创建，并添加到缓存中。
+    long instanceId = getInstanceId(auditModel);
 
     // 拼接 instanceConfigReleaseKeyCache 的 Key （instanceId+appid+namespaceName）
     //load instance config release key from cache, and check if release key is the same
-    String instanceConfigCacheKey = assembleInstanceConfigKey(instanceId, auditModel
+    long instanceConfigCacheKey = assembleInstanceConfigKey(instanceId, auditModel
         .getConfigAppId(), auditModel.getConfigNamespace());
-    // 获得缓存的 cacheReleaseKey
-    String cacheReleaseKey = instanceConfigReleaseKeyCache.getIfPresent(instanceConfigCacheKey);  //该方法从本地缓存中找值，如果找不到返回null，找到就返回相应的值
 
-    // 若相等，跳过
+    // 若缓存的 ReleaseKey 相等，跳过
     //if release key is the same, then skip audit
-    if (cacheReleaseKey != null && Objects.equals(cacheReleaseKey, auditModel.getReleaseKey())) {
+    if (isReleaseKeyCached(instanceConfigCacheKey, auditModel.getReleaseKey())) {
       return;
     }
 
     // 更新对应的 instanceConfigReleaseKeyCache 缓存
-    instanceConfigReleaseKeyCache.put(instanceConfigCacheKey, auditModel.getReleaseKey());
+    instanceConfigReleaseKeyCache.put(instanceConfigCacheKey, fingerprint(auditModel.getReleaseKey()));
     // 获得 InstanceConfig 对象
     //if release key is not the same or cannot find in cache, then do audit
     InstanceConfig instanceConfig = instanceService.findInstanceConfig(instanceId, auditModel
@@ -197,11 +398,7 @@ public class InstanceConfigAuditUtil implements InitializingBean {
       return instance.getId();
     }
     // 若 Instance 不存在，创建 Instance 对象
-    instance = new Instance();
-    instance.setAppId(auditModel.getAppId());
-    instance.setClusterName(auditModel.getClusterName());
-    instance.setDataCenter(auditModel.getDataCenter());
-    instance.setIp(auditModel.getIp());
+    instance = assembleInstance(auditModel);
 
     // 保存 Instance 对象到数据库中
     try {
@@ -214,40 +411,107 @@ public class InstanceConfigAuditUtil implements InitializingBean {
     }
   }
 
+  private Instance assembleInstance(InstanceConfigAuditModel auditModel) {
+    Instance instance = new Instance();
+    instance.setAppId(auditModel.getAppId());
+    instance.setClusterName(auditModel.getClusterName());
+    instance.setDataCenter(auditModel.getDataCenter());
+    instance.setIp(auditModel.getIp());
+    return instance;
+  }
+
   //对象创建并赋值后调用的初始化方法
   @Override
   public void afterPropertiesSet() throws Exception {
-    //提交任务
-    auditExecutorService.submit(() -> {
-      //循环，直到停止或者中断线程
-      while (!auditStopped.get() && !Thread.currentThread().isInterrupted()) {
-        try {
-          //获取队首 InstanceConfigAudiModel 元素，非阻塞
-          InstanceConfigAuditModel model = audits.poll();
-          // 若获取不到，sleep 等待 1 秒
-          if (model == null) {
-            TimeUnit.SECONDS.sleep(1);
-            continue;
+    //每个队列提交一个任务
+    for (BlockingQueue<InstanceConfigAuditModel> queue : audits) {
+      auditExecutorService.submit(() -> {
+        List<InstanceConfigAuditModel> batch = Lists.newArrayListWithCapacity(INSTANCE_CONFIG_AUDIT_BATCH_SIZE);
+        //循环，直到停止或者中断线程
+        while (!auditStopped.get() && !Thread.currentThread().isInterrupted()) {
+          try {
+            // 阻塞等待第一个审计，最多 1 秒
+            InstanceConfigAuditModel model = queue.poll(1, TimeUnit.SECONDS);
+            if (model == null) {
+              continue;
+            }
+            // 取出队列中已有的审计，组成一批
+            batch.add(model);
+            queue.drainTo(batch, INSTANCE_CONFIG_AUDIT_BATCH_SIZE - 1);
+            auditBatch(batch, queue.size());
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          } catch (Throwable ex) {
+            Tracer.logError(ex);
+          } finally {
+            batch.clear();
           }
-          // 若获取到， 记录 Instance 和 InstanceConfig
-          doAudit(model);
-        } catch (Throwable ex) {
-          Tracer.logError(ex);
         }
-      }
-    });
+      });
+    }
   }
 
-  private String assembleInstanceKey(String appId, String cluster, String ip, String datacenter) {
-    List<String> keyParts = Lists.newArrayList(appId, cluster, ip);
-    if (!Strings.isNullOrEmpty(datacenter)) {
-      keyParts.add(datacenter);
+  /**
+   * 记录一批审计，并记录批大小、剩余队列长度、丢弃数和最长等待时间
+   */
+  private void auditBatch(List<InstanceConfigAuditModel> batch, int queueSize) {
+    Transaction transaction = Tracer.newTransaction("Apollo.InstanceConfigAudit", "batch");
+    try {
+      transaction.addData("Size", batch.size());
+      transaction.addData("QueueSize", queueSize);
+      transaction.addData("Dropped", droppedAudits.getAndSet(0));
+      transaction.addData("MaxDelayInMilli", System.currentTimeMillis() - batch.get(0).getOfferTime().getTime());
+      doAudits(batch);
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      throw ex;
+    } finally {
+      transaction.complete();
     }
-    return STRING_JOINER.join(keyParts);
   }
 
-  private String assembleInstanceConfigKey(long instanceId, String configAppId, String configNamespace) {
-    return STRING_JOINER.join(instanceId, configAppId, configNamespace);
+  private boolean isReleaseKeyCached(long instanceConfigCacheKey, String releaseKey) {
+    Long cacheReleaseKey = instanceConfigReleaseKeyCache.getIfPresent(instanceConfigCacheKey);
+    return cacheReleaseKey != null && cacheReleaseKey == fingerprint(releaseKey);
+  }
+
+  private long assembleInstanceKey(InstanceConfigAuditModel auditModel) {
+    return assembleInstanceKey(auditModel.getAppId(), auditModel.getClusterName(), auditModel.getIp(),
+        auditModel.getDataCenter());
+  }
+
+  private long assembleInstanceKey(String appId, String cluster, String ip, String datacenter) {
+    Hasher hasher = KEY_HASH_FUNCTION.newHasher();
+    putString(hasher, appId);
+    putString(hasher, cluster);
+    putString(hasher, ip);
+    putString(hasher, Strings.nullToEmpty(datacenter));
+    return hasher.hash().asLong();
+  }
+
+  private long assembleInstanceConfigKey(long instanceId, String configAppId, String configNamespace) {
+    Hasher hasher = KEY_HASH_FUNCTION.newHasher().putLong(instanceId);
+    putString(hasher, configAppId);
+    putString(hasher, configNamespace);
+    return hasher.hash().asLong();
+  }
+
+  private long fingerprint(String releaseKey) {
+    Hasher hasher = KEY_HASH_FUNCTION.newHasher();
+    putString(hasher, releaseKey);
+    return hasher.hash().asLong();
+  }
+
+  /**
+   * The length is put before the string, so that the boundaries of the strings are kept, null is put as -1
+   */
+  private void putString(Hasher hasher, String value) {
+    if (value == null) {
+      hasher.putInt(-1);
+      return;
+    }
+    hasher.putInt(value.length()).putUnencodedChars(value);
   }
 
   public static class InstanceConfigAuditModel {
@@ -0,0 +1,83 @@
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 响应压缩的工具类，客户端通过 Accept-Encoding 协商是否使用 gzip 压缩
+ */
+public final class ResponseCompressionUtil {
+  public static final String GZIP_ENCODING = "gzip";
+  /**
+   * 小于该大小的响应不压缩，压缩的收益不足以抵消开销
+   */
+  public static final int MIN_COMPRESSION_SIZE = 1024;
+  private static final Splitter ACCEPT_ENCODING_SPLITTER = Splitter.on(",").omitEmptyStrings()
+      .trimResults();
+
+  private ResponseCompressionUtil() {
+  }
+
+  public static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    if (Strings.isNullOrEmpty(acceptEncoding)) {
+      return false;
+    }
+    for (String encoding : ACCEPT_ENCODING_SPLITTER.split(acceptEncoding)) {
+      // ignore the quality value, e.g. gzip;q=1.0
+      int index = encoding.indexOf(';');
+      if (index >= 0) {
+        encoding = encoding.substring(0, index).trim();
+      }
+      if (GZIP_ENCODING.equalsIgnoreCase(encoding)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the gzip compressed content, or null if the content is too small to compress
+   */
+  public static byte[] compress(byte[] content) {
+    if (content.length < MIN_COMPRESSION_SIZE) {
+      return null;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(content);
+    } catch (IOException ex) {
+      // should not happen for in memory streams
+      throw new IllegalStateException("Compress response failed", ex);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * 写出响应内容，客户端支持 gzip 且有压缩后的内容时写出压缩后的内容
+   */
+  public static void write(HttpServletRequest request, HttpServletResponse response, byte[] content,
+                           byte[] compressedContent) throws IOException {
+    if (compressedContent != null && acceptsGzip(request)) {
+      writeCompressed(response, compressedContent);
+      return;
+    }
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    response.setContentLength(content.length);
+    response.getOutputStream().write(content);
+  }
+
+  public static void writeCompressed(HttpServletResponse response, byte[] compressedContent) throws IOException {
+    response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    response.setContentLength(compressedContent.length);
+    response.getOutputStream().write(compressedContent);
+  }
+}
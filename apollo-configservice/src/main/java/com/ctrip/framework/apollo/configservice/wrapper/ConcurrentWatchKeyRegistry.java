@@ -0,0 +1,89 @@
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock striped watch key registry backed by {@link ConcurrentHashMap}.
+ *
+ * <p>Watch keys are normalized(lower cased) once per operation and hashed into the map, so registrations for different
+ * keys don't contend with each other, while registrations for the same key are serialized by the bin lock of
+ * {@link ConcurrentHashMap#compute}. Empty waiter sets are removed atomically so the map won't grow unbounded.</p>
+ *
+ * @param <T> the waiter type, equality is decided by {@link Object#equals(Object)}
+ */
+public class ConcurrentWatchKeyRegistry<T> implements WatchKeyRegistry<T> {
+  private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+  private final ConcurrentMap<String, Set<T>> waiters;
+  private final AtomicInteger size = new AtomicInteger();
+
+  public ConcurrentWatchKeyRegistry() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public ConcurrentWatchKeyRegistry(int initialCapacity) {
+    this.waiters = new ConcurrentHashMap<>(initialCapacity);
+  }
+
+  @Override
+  public boolean register(String watchKey, T waiter) {
+    boolean[] added = new boolean[1];
+    waiters.compute(normalize(watchKey), (key, registered) -> {
+      if (registered == null) {
+        registered = ConcurrentHashMap.newKeySet();
+      }
+      added[0] = registered.add(waiter);
+      return registered;
+    });
+    if (added[0]) {
+      size.incrementAndGet();
+    }
+    return added[0];
+  }
+
+  @Override
+  public boolean unregister(String watchKey, T waiter) {
+    boolean[] removed = new boolean[1];
+    waiters.computeIfPresent(normalize(watchKey), (key, registered) -> {
+      removed[0] = registered.remove(waiter);
+      return registered.isEmpty() ? null : registered;
+    });
+    if (removed[0]) {
+      size.decrementAndGet();
+    }
+    return removed[0];
+  }
+
+  @Override
+  public boolean containsKey(String watchKey) {
+    return waiters.containsKey(normalize(watchKey));
+  }
+
+  @Override
+  public List<T> get(String watchKey) {
+    Set<T> registered = waiters.get(normalize(watchKey));
+    if (registered == null) {
+      return Collections.emptyList();
+    }
+    //create a new list to avoid the result being changed during iteration
+    return Collections.unmodifiableList(Lists.newArrayList(registered));
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  private String normalize(String watchKey) {
+    //locale independent, e.g. the turkish locale lower cases "I" to a dotless "ı"
+    return watchKey.toLowerCase(Locale.ROOT);
+  }
+}
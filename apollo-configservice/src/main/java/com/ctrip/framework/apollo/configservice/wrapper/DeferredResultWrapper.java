@@ -5,6 +5,7 @@ import com.google.common.collect.Maps;
 
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
@@ -86,6 +87,17 @@ public class DeferredResultWrapper implements Comparable<DeferredResultWrapper>
     result.setResult(new ResponseEntity<>(notifications, HttpStatus.OK));
   }
 
+  /**
+   * 拒绝请求，使用 429 状态码，告知客户端在一定时间后重试
+   *
+   * @param retryAfterInSecond 重试等待时间
+   */
+  public void setTooManyRequestsResult(long retryAfterInSecond) {
+    result.setResult(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterInSecond))
+        .<List<ApolloConfigNotification>>build());
+  }
+
   public DeferredResult<ResponseEntity<List<ApolloConfigNotification>>> getResult() {
     return result;
   }
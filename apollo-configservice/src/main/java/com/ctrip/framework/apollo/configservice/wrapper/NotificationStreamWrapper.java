@@ -0,0 +1,109 @@
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SseEmitter 包装器，与 DeferredResultWrapper 类似，但是在推送通知后不会结束，可以持续推送多次通知
+ *
+ * <p>Each notification is sent as an event named {@link #NOTIFICATIONS_EVENT} whose data is the json array of
+ * {@link ApolloConfigNotification}, heartbeats are sent as comments so that both sides could detect broken
+ * connections.</p>
+ */
+public class NotificationStreamWrapper {
+  public static final String NOTIFICATIONS_EVENT = "notifications";
+  private static final MediaType TEXT_PLAIN_UTF8 = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+  private static final Gson GSON = new Gson();
+
+  /**
+   * 归一化和原始的 Namespace 的名字的 Map
+   * key:数据库NamespaceName   value:客户端传过来的NamespaceName
+   */
+  private Map<String, String> normalizedNamespaceNameToOriginalNamespaceName;
+  private final SseEmitter emitter;
+  private volatile boolean closed;
+
+  public NotificationStreamWrapper(long timeoutInMilli) {
+    emitter = new SseEmitter(timeoutInMilli);
+    // 超时后正常结束，客户端会使用最新的通知编号重新建立连接
+    emitter.onTimeout(emitter::complete);
+    emitter.onCompletion(() -> closed = true);
+  }
+
+  public void recordNamespaceNameNormalizedResult(String originalNamespaceName, String normalizedNamespaceName) {
+    if (normalizedNamespaceNameToOriginalNamespaceName == null) {
+      normalizedNamespaceNameToOriginalNamespaceName = Maps.newHashMap();
+    }
+    normalizedNamespaceNameToOriginalNamespaceName.put(normalizedNamespaceName, originalNamespaceName);
+  }
+
+  public void onCompletion(Runnable completionCallback) {
+    //invoked when the stream is completed, timed out or broken
+    emitter.onCompletion(() -> {
+      closed = true;
+      completionCallback.run();
+    });
+  }
+
+  public void send(ApolloConfigNotification notification) {
+    send(Lists.newArrayList(notification));
+  }
+
+  /**
+   * The namespace name is used as a key in client side, so we have to return the original one instead of the correct one.
+   * Notifications may be shared by many streams, so they are copied instead of being modified.
+   */
+  public void send(List<ApolloConfigNotification> notifications) {
+    List<ApolloConfigNotification> toSend = notifications;
+    if (normalizedNamespaceNameToOriginalNamespaceName != null) {
+      toSend = Lists.newArrayListWithCapacity(notifications.size());
+      for (ApolloConfigNotification notification : notifications) {
+        String originalNamespaceName =
+            normalizedNamespaceNameToOriginalNamespaceName.get(notification.getNamespaceName());
+        if (originalNamespaceName == null) {
+          toSend.add(notification);
+          continue;
+        }
+        ApolloConfigNotification renamed =
+            new ApolloConfigNotification(originalNamespaceName, notification.getNotificationId());
+        renamed.setMessages(notification.getMessages());
+        toSend.add(renamed);
+      }
+    }
+    doSend(SseEmitter.event().name(NOTIFICATIONS_EVENT).data(GSON.toJson(toSend), TEXT_PLAIN_UTF8));
+  }
+
+  public void sendHeartbeat() {
+    doSend(SseEmitter.event().comment("heartbeat"));
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public SseEmitter getEmitter() {
+    return emitter;
+  }
+
+  private void doSend(SseEmitter.SseEventBuilder event) {
+    if (closed) {
+      return;
+    }
+    try {
+      emitter.send(event);
+    } catch (IOException | IllegalStateException ex) {
+      //the client is gone or the stream is already completed
+      closed = true;
+      emitter.completeWithError(ex);
+    }
+  }
+}
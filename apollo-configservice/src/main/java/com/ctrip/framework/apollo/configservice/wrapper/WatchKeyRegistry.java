@@ -0,0 +1,44 @@
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import java.util.List;
+
+/**
+ * Watch Key(ReleaseMessage.message) 与等待者(例如 DeferredResultWrapper)的索引
+ *
+ * Watch keys are case insensitive, implementations must be thread safe since registrations, completion callbacks and
+ * release message fan-out happen on different threads.
+ *
+ * @param <T> the waiter type
+ */
+public interface WatchKeyRegistry<T> {
+
+  /**
+   * Register the waiter for the watch key
+   *
+   * @return true if the waiter was not registered for the watch key before
+   */
+  boolean register(String watchKey, T waiter);
+
+  /**
+   * Unregister the waiter for the watch key
+   *
+   * @return true if the waiter was registered for the watch key
+   */
+  boolean unregister(String watchKey, T waiter);
+
+  /**
+   * @return whether there is any waiter registered for the watch key
+   */
+  boolean containsKey(String watchKey);
+
+  /**
+   * @return a snapshot of the waiters registered for the watch key, which won't change with later registrations,
+   * never null
+   */
+  List<T> get(String watchKey);
+
+  /**
+   * @return the number of watch key - waiter pairs
+   */
+  int size();
+}
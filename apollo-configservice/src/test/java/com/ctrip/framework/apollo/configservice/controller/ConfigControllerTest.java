@@ -1,17 +1,23 @@
 package com.ctrip.framework.apollo.configservice.controller;
 
 import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.AppNamespaceServiceWithCache;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseCache;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
 import com.ctrip.framework.apollo.configservice.util.InstanceConfigAuditUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigQuery;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import org.junit.Before;
@@ -19,13 +25,25 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -60,12 +78,15 @@ public class ConfigControllerTest {
   private InstanceConfigAuditUtil instanceConfigAuditUtil;
   @Mock
   private HttpServletRequest someRequest;
+  @Mock
+  private ReleaseService releaseService;
   private Gson gson = new Gson();
 
   @Before
   public void setUp() throws Exception {
     configController = spy(new ConfigController(
-        configService, appNamespaceService, namespaceUtil, instanceConfigAuditUtil, gson
+        configService, appNamespaceService, namespaceUtil, instanceConfigAuditUtil, new ConfigResponseCache(),
+        releaseService, gson
     ));
 
     someAppId = "1";
@@ -116,6 +137,165 @@ public class ConfigControllerTest {
         someClientIp, someAppId, someClusterName, defaultNamespaceName, someServerSideNewReleaseKey);
   }
 
+  @Test
+  public void testQueryConfigAsJsonWithCache() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideNewReleaseKey = "2";
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    MockHttpServletResponse someResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    MockHttpServletResponse anotherResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, false, someRequest, anotherResponse);
+
+    ApolloConfig result = gson.fromJson(someResponse.getContentAsString(), ApolloConfig.class);
+
+    assertEquals("application/json;charset=UTF-8", someResponse.getContentType());
+    assertEquals(someAppId, result.getAppId());
+    assertEquals(someClusterName, result.getCluster());
+    assertEquals(defaultNamespaceName, result.getNamespaceName());
+    assertEquals(someServerSideNewReleaseKey, result.getReleaseKey());
+    assertEquals("foo", result.getConfigurations().get("apollo.bar"));
+    assertArrayEquals(someResponse.getContentAsByteArray(), anotherResponse.getContentAsByteArray());
+    verify(configController, times(1)).mergeReleaseConfigurations(anyList());
+    verify(instanceConfigAuditUtil, times(2)).audit(someAppId, someClusterName, someDataCenter,
+        someClientIp, someAppId, someClusterName, defaultNamespaceName, someServerSideNewReleaseKey);
+  }
+
+  @Test
+  public void testQueryConfigAsJsonWithGzip() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideNewReleaseKey = "2";
+    String someLargeValue = Strings.repeat("foo", 1024);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someRelease.getConfigurations()).thenReturn(gson.toJson(ImmutableMap.of("apollo.bar", someLargeValue)));
+    when(someRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("deflate, gzip;q=1.0");
+
+    MockHttpServletResponse someResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    byte[] compressedContent = someResponse.getContentAsByteArray();
+    ApolloConfig result;
+    try (Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(compressedContent)),
+        StandardCharsets.UTF_8)) {
+      result = gson.fromJson(reader, ApolloConfig.class);
+    }
+
+    assertEquals("gzip", someResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(compressedContent.length, someResponse.getContentLength());
+    assertTrue(compressedContent.length < someLargeValue.length());
+    assertEquals(someServerSideNewReleaseKey, result.getReleaseKey());
+    assertEquals(someLargeValue, result.getConfigurations().get("apollo.bar"));
+  }
+
+  @Test
+  public void testQueryConfigAsJsonNotModified() throws Exception {
+    String someServerSideReleaseKey = "1";
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+
+    MockHttpServletResponse someResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someServerSideReleaseKey, someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, someResponse.getStatus());
+    assertEquals(0, someResponse.getContentLength());
+  }
+
+  @Test
+  public void testQueryConfigAsJsonWithDelta() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideNewReleaseKey = "2";
+    Release someBaseRelease = mock(Release.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someRelease.getConfigurations()).thenReturn("{\"k1\": \"v1\", \"k2\": \"v2-new\", \"k3\": \"v3\"}");
+    when(someBaseRelease.getAppId()).thenReturn(someAppId);
+    when(someBaseRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someBaseRelease.getReleaseKey()).thenReturn(someClientSideReleaseKey);
+    when(someBaseRelease.getConfigurations())
+        .thenReturn("{\"k1\": \"v1\", \"k2\": \"v2\", \"k3\": \"v3\", \"k4\": \"v4\"}");
+    when(releaseService.findByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey)))
+        .thenReturn(Lists.newArrayList(someBaseRelease));
+
+    MockHttpServletResponse someResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, true, someRequest, someResponse);
+
+    ApolloConfig result = gson.fromJson(someResponse.getContentAsString(), ApolloConfig.class);
+
+    assertTrue(result.isDelta());
+    assertEquals(someClientSideReleaseKey, result.getBaseReleaseKey());
+    assertEquals(someServerSideNewReleaseKey, result.getReleaseKey());
+    assertEquals(ImmutableMap.of("k2", "v2-new"), result.getConfigurations());
+    assertEquals(Lists.newArrayList("k4"), result.getDeletedKeys());
+  }
+
+  @Test
+  public void testQueryConfigAsJsonWithDeltaAndBaseReleaseNotFound() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideNewReleaseKey = "2";
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    MockHttpServletResponse someResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, true, someRequest, someResponse);
+
+    ApolloConfig result = gson.fromJson(someResponse.getContentAsString(), ApolloConfig.class);
+
+    assertFalse(result.isDelta());
+    assertNull(result.getDeletedKeys());
+    assertEquals(someServerSideNewReleaseKey, result.getReleaseKey());
+    assertEquals("foo", result.getConfigurations().get("apollo.bar"));
+    verify(releaseService, times(1)).findByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey));
+  }
+
+  @Test
+  public void testQueryConfigAsJsonWithUnknownBaseReleaseKeyQueriedOnce() throws Exception {
+    String someClientSideReleaseKey = "someUnknownReleaseKey";
+    String someServerSideNewReleaseKey = "2";
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    MockHttpServletResponse someResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, true, someRequest, someResponse);
+    MockHttpServletResponse anotherResponse = new MockHttpServletResponse();
+    configController.queryConfigAsJson(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, true, someRequest, anotherResponse);
+
+    ApolloConfig result = gson.fromJson(anotherResponse.getContentAsString(), ApolloConfig.class);
+
+    assertFalse(result.isDelta());
+    assertEquals("foo", result.getConfigurations().get("apollo.bar"));
+    assertEquals(someResponse.getContentAsString(), anotherResponse.getContentAsString());
+    verify(releaseService, times(1)).findByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey));
+  }
+
   @Test
   public void testQueryConfigFile() throws Exception {
     String someClientSideReleaseKey = "1";
@@ -202,6 +382,31 @@ public class ConfigControllerTest {
     verify(someResponse, times(1)).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
   }
 
+  @Test
+  public void testQueryConfigWithClusterOverriddenAndAppIdInDifferentCase() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideReleaseKey = "2";
+    String someAppIdInDifferentCase = "someAppId";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+    Release anotherRelease = mock(Release.class);
+
+    when(namespaceUtil.normalizeNamespace(someAppIdInDifferentCase, defaultNamespaceName))
+        .thenReturn(defaultNamespaceName);
+    when(configService.loadConfig(someAppIdInDifferentCase, someClientIp, someAppIdInDifferentCase, someClusterName,
+        defaultNamespaceName, someDataCenter, someNotificationMessages)).thenReturn(anotherRelease);
+    when(anotherRelease.getAppId()).thenReturn(someAppIdInDifferentCase.toUpperCase());
+    when(anotherRelease.getClusterName()).thenReturn(defaultClusterName);
+    when(anotherRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(anotherRelease.getConfigurations()).thenReturn("{}");
+
+    ApolloConfig result = configController.queryConfig(someAppIdInDifferentCase, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, someRequest, someResponse);
+
+    //the cluster name is the one loaded
+    assertEquals(defaultClusterName, result.getCluster());
+  }
+
   @Test
   public void testQueryConfigWithAppOwnNamespace() throws Exception {
     String someClientSideReleaseKey = "1";
@@ -451,6 +656,54 @@ public class ConfigControllerTest {
     assertNull(configController.transformMessages(someInvalidMessages));
   }
 
+  @Test
+  public void testQueryConfigs() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideReleaseKey = "2";
+    String someAppOwnNamespaceName = "someAppOwn";
+    String someAppOwnReleaseKey = "3";
+    String someMissingNamespaceName = "someMissing";
+    Release someAppOwnRelease = mock(Release.class);
+    List<ApolloConfigQuery> queries = Lists.newArrayList(
+        new ApolloConfigQuery(defaultNamespaceName, someClientSideReleaseKey, null),
+        new ApolloConfigQuery(someAppOwnNamespaceName, someAppOwnReleaseKey, null),
+        new ApolloConfigQuery(someMissingNamespaceName, null, null));
+
+    when(namespaceUtil.filterNamespaceName(someAppOwnNamespaceName)).thenReturn(someAppOwnNamespaceName);
+    when(namespaceUtil.normalizeNamespace(someAppId, someAppOwnNamespaceName)).thenReturn(someAppOwnNamespaceName);
+    when(namespaceUtil.filterNamespaceName(someMissingNamespaceName)).thenReturn(someMissingNamespaceName);
+    when(namespaceUtil.normalizeNamespace(someAppId, someMissingNamespaceName)).thenReturn(someMissingNamespaceName);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, someAppOwnNamespaceName,
+        someDataCenter, null)).thenReturn(someAppOwnRelease);
+    when(someAppOwnRelease.getAppId()).thenReturn(someAppId);
+    when(someAppOwnRelease.getReleaseKey()).thenReturn(someAppOwnReleaseKey);
+    when(appNamespaceService.findByAppIdAndNamespace(someAppId, someAppOwnNamespaceName))
+        .thenReturn(assembleAppNamespace(someAppId, someAppOwnNamespaceName, false));
+
+    List<ApolloConfig> result = configController.queryConfigs(someAppId, someClusterName, gson.toJson(queries),
+        someDataCenter, someClientIp, someRequest);
+
+    assertEquals(1, result.size());
+    ApolloConfig apolloConfig = result.get(0);
+    assertEquals(someAppId, apolloConfig.getAppId());
+    assertEquals(someClusterName, apolloConfig.getCluster());
+    assertEquals(defaultNamespaceName, apolloConfig.getNamespaceName());
+    assertEquals(someServerSideReleaseKey, apolloConfig.getReleaseKey());
+    assertEquals("foo", apolloConfig.getConfigurations().get("apollo.bar"));
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        someMissingNamespaceName, someDataCenter, null);
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testQueryConfigsWithInvalidNamespaces() throws Exception {
+    configController.queryConfigs(someAppId, someClusterName, "someInvalidNamespaces", someDataCenter,
+        someClientIp, someRequest);
+  }
+
   private AppNamespace assemblePublicAppNamespace(String appId, String namespace) {
     return assembleAppNamespace(appId, namespace, true);
   }
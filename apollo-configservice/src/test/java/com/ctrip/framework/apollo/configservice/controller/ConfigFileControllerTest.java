@@ -6,11 +6,13 @@ import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.io.CharStreams;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import org.junit.Before;
@@ -18,17 +20,26 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
@@ -123,6 +134,7 @@ public class ConfigFileControllerTest {
     assertTrue(cacheKey2WatchedKeys.containsEntry(cacheKey, anotherWatchKey));
 
     assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaders().getFirst(HttpHeaders.VARY));
     assertTrue(response.getBody().contains(String.format("%s=%s", someKey, someValue)));
     assertTrue(response.getBody().contains(String.format("%s=%s", anotherKey, anotherValue)));
 
@@ -165,6 +177,7 @@ public class ConfigFileControllerTest {
                 someClientIp, someRequest, someResponse);
 
     assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaders().getFirst(HttpHeaders.VARY));
     assertEquals(configurations, gson.fromJson(response.getBody(), responseType));
   }
 
@@ -207,6 +220,50 @@ public class ConfigFileControllerTest {
     assertTrue(cacheKey2WatchedKeys.isEmpty());
   }
 
+  @Test
+  public void testQueryConfigAsPropertiesWithGzip() throws Exception {
+    String someKey = "someKey";
+    String someValue = Strings.repeat("someValue", 256);
+
+    Map<String, String> configurations = ImmutableMap.of(someKey, someValue);
+    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
+    when(someApolloConfig.getConfigurations()).thenReturn(configurations);
+    MockHttpServletResponse someHttpResponse = new MockHttpServletResponse();
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someHttpResponse)).thenReturn(someApolloConfig);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet("someWatchKey"));
+    when(someRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip");
+
+    ResponseEntity<String> response =
+        configFileController
+            .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someHttpResponse);
+
+    MockHttpServletResponse anotherHttpResponse = new MockHttpServletResponse();
+    configFileController
+        .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+            someClientIp, someRequest, anotherHttpResponse);
+
+    String result;
+    try (Reader reader = new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(someHttpResponse.getContentAsByteArray())),
+        StandardCharsets.UTF_8)) {
+      result = CharStreams.toString(reader);
+    }
+
+    assertNull(response);
+    assertEquals("gzip", someHttpResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("text/plain;charset=UTF-8", someHttpResponse.getContentType());
+    assertTrue(result.contains(String.format("%s=%s", someKey, someValue)));
+    assertArrayEquals(someHttpResponse.getContentAsByteArray(), anotherHttpResponse.getContentAsByteArray());
+    verify(configController, times(1))
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someHttpResponse);
+  }
+
   @Test
   public void testHandleMessage() throws Exception {
     String someWatchKey = "someWatchKey";
@@ -8,6 +8,8 @@ import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWit
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationStreamWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
@@ -22,14 +24,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
@@ -62,7 +67,7 @@ public class NotificationControllerV2Test {
 
   private Gson gson;
 
-  private Multimap<String, DeferredResultWrapper> deferredResults;
+  private WatchKeyRegistry<DeferredResultWrapper> deferredResults;
 
   @Before
   public void setUp() throws Exception {
@@ -89,7 +94,7 @@ public class NotificationControllerV2Test {
     when(namespaceUtil.normalizeNamespace(someAppId, somePublicNamespace)).thenReturn(somePublicNamespace);
 
     deferredResults =
-        (Multimap<String, DeferredResultWrapper>) ReflectionTestUtils.getField(controller, "deferredResults");
+        (WatchKeyRegistry<DeferredResultWrapper>) ReflectionTestUtils.getField(controller, "deferredResults");
   }
 
   @Test
@@ -118,6 +123,81 @@ public class NotificationControllerV2Test {
     assertWatchKeys(watchKeysMap, deferredResult);
   }
 
+  @Test
+  public void testPollNotificationWithTooManyWaiters() throws Exception {
+    int someMaxRetryAfter = 10;
+    when(bizConfig.longPollingMaxWaiters()).thenReturn(1);
+    when(bizConfig.longPollingMaxRetryAfterInSecond()).thenReturn(someMaxRetryAfter);
+
+    Multimap<String, String> watchKeysMap =
+        assembleMultiMap(defaultNamespace, Lists.newArrayList("someKey", "anotherKey"));
+
+    String notificationAsString =
+        transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId);
+
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+            someDataCenter)).thenReturn(
+        watchKeysMap);
+
+    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+        deferredResult = controller
+        .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
+            someClientIp);
+
+    assertFalse(deferredResult.hasResult());
+    assertEquals(watchKeysMap.size(), deferredResults.size());
+
+    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+        rejectedResult = controller
+        .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
+            someClientIp);
+
+    ResponseEntity<List<ApolloConfigNotification>> response =
+        (ResponseEntity<List<ApolloConfigNotification>>) rejectedResult.getResult();
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+    long retryAfter = Long.parseLong(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    assertTrue(retryAfter >= 1 && retryAfter <= someMaxRetryAfter);
+    //the rejected request is not registered
+    assertEquals(watchKeysMap.size(), deferredResults.size());
+  }
+
+  @Test
+  public void testPollNotificationFailedToCheckReleaseMessages() throws Exception {
+    when(bizConfig.longPollingMaxWaiters()).thenReturn(1);
+
+    Multimap<String, String> watchKeysMap =
+        assembleMultiMap(defaultNamespace, Lists.newArrayList("someKey", "anotherKey"));
+
+    String notificationAsString =
+        transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId);
+
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+            someDataCenter)).thenReturn(
+        watchKeysMap);
+    when(releaseMessageService.findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(watchKeysMap.values())))
+        .thenThrow(new RuntimeException("some exception")).thenReturn(null);
+
+    try {
+      controller.pollNotification(someAppId, someCluster, notificationAsString, someDataCenter, someClientIp);
+      fail("Should throw the exception");
+    } catch (RuntimeException ex) {
+      assertEquals("some exception", ex.getMessage());
+    }
+
+    //the failed request is unregistered and doesn't occupy the waiter
+    assertEquals(0, deferredResults.size());
+
+    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+        deferredResult = controller
+        .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
+            someClientIp);
+
+    assertFalse(deferredResult.hasResult());
+    assertEquals(watchKeysMap.size(), deferredResults.size());
+  }
+
   @Test
   public void testPollNotificationWithDefaultNamespaceAsFile() throws Exception {
     String namespace = String.format("%s.%s", defaultNamespace, "properties");
@@ -296,6 +376,81 @@ public class NotificationControllerV2Test {
     assertEquals(someId, notificationMessages.get(anotherWatchKey).longValue());
   }
 
+  @Test
+  public void testStreamNotificationAndHandleMessage() throws Exception {
+    String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someCluster, defaultNamespace);
+
+    Multimap<String, String> watchKeysMap =
+        assembleMultiMap(defaultNamespace, Lists.newArrayList(someWatchKey));
+
+    String notificationAsString =
+        transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId);
+
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+            someDataCenter)).thenReturn(watchKeysMap);
+    when(bizConfig.notificationStreamTimeoutInMilli()).thenReturn(60000L);
+    when(bizConfig.notificationStreamHeartbeatIntervalInMilli()).thenReturn(30000L);
+
+    SseEmitter emitter = controller
+        .streamNotification(someAppId, someCluster, notificationAsString, someDataCenter, someClientIp);
+
+    WatchKeyRegistry<NotificationStreamWrapper> notificationStreams =
+        (WatchKeyRegistry<NotificationStreamWrapper>) ReflectionTestUtils.getField(controller, "notificationStreams");
+
+    assertEquals(1, notificationStreams.size());
+    assertEquals(0, deferredResults.size());
+    NotificationStreamWrapper stream = notificationStreams.get(someWatchKey).iterator().next();
+    assertSame(emitter, stream.getEmitter());
+
+    long someId = 1;
+    ReleaseMessage someReleaseMessage = new ReleaseMessage(someWatchKey);
+    someReleaseMessage.setId(someId);
+
+    controller.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    //the stream should stay registered after notified
+    assertEquals(1, notificationStreams.size());
+    assertFalse(stream.isClosed());
+  }
+
+  @Test
+  public void testStreamNotificationFailedToCheckReleaseMessages() throws Exception {
+    String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someCluster, defaultNamespace);
+
+    Multimap<String, String> watchKeysMap =
+        assembleMultiMap(defaultNamespace, Lists.newArrayList(someWatchKey));
+
+    String notificationAsString =
+        transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId);
+
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+            someDataCenter)).thenReturn(watchKeysMap);
+    when(bizConfig.notificationStreamTimeoutInMilli()).thenReturn(60000L);
+    when(bizConfig.notificationStreamHeartbeatIntervalInMilli()).thenReturn(30000L);
+    when(releaseMessageService.findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(watchKeysMap.values())))
+        .thenThrow(new RuntimeException("some exception"));
+
+    try {
+      controller.streamNotification(someAppId, someCluster, notificationAsString, someDataCenter, someClientIp);
+      fail("Should throw the exception");
+    } catch (RuntimeException ex) {
+      assertEquals("some exception", ex.getMessage());
+    }
+
+    //the failed stream is unregistered and no longer receives heartbeats
+    WatchKeyRegistry<NotificationStreamWrapper> notificationStreams =
+        (WatchKeyRegistry<NotificationStreamWrapper>) ReflectionTestUtils.getField(controller, "notificationStreams");
+    Set<NotificationStreamWrapper> openStreams =
+        (Set<NotificationStreamWrapper>) ReflectionTestUtils.getField(controller, "openStreams");
+
+    assertEquals(0, notificationStreams.size());
+    assertTrue(openStreams.isEmpty());
+  }
+
   @Test
   public void testPollNotificationWithHandleMessageInBatch() throws Exception {
     String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
@@ -0,0 +1,112 @@
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.core.ServiceNameConsts;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReleaseMessageControllerTest {
+  private ReleaseMessageController releaseMessageController;
+  @Mock
+  private ReleaseMessageScanner releaseMessageScanner;
+  @Mock
+  private BizConfig bizConfig;
+
+  private long someId;
+  private String someSecret;
+
+  @Before
+  public void setUp() throws Exception {
+    releaseMessageController = new ReleaseMessageController(releaseMessageScanner, bizConfig);
+
+    someId = 1;
+    someSecret = "someSecret";
+  }
+
+  @Test
+  public void testOnReleaseMessagePushed() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessagePushSecret()).thenReturn(someSecret);
+
+    MockHttpServletRequest request = assembleSignedRequest(someId, someSecret);
+
+    assertEquals(HttpStatus.OK, releaseMessageController.onReleaseMessagePushed(someId, request).getStatusCode());
+    verify(releaseMessageScanner).onMessagePushed(someId);
+  }
+
+  @Test
+  public void testOnReleaseMessagePushedWithWrongSignature() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessagePushSecret()).thenReturn(someSecret);
+
+    MockHttpServletRequest request = assembleSignedRequest(someId, "anotherSecret");
+
+    assertEquals(HttpStatus.UNAUTHORIZED,
+        releaseMessageController.onReleaseMessagePushed(someId, request).getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  @Test
+  public void testOnReleaseMessagePushedWithoutSignature() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessagePushSecret()).thenReturn(someSecret);
+
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/release-messages");
+    request.setQueryString("id=" + someId);
+
+    assertEquals(HttpStatus.UNAUTHORIZED,
+        releaseMessageController.onReleaseMessagePushed(someId, request).getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  @Test
+  public void testOnReleaseMessagePushedWithoutSecret() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessagePushSecret()).thenReturn("");
+
+    MockHttpServletRequest request = assembleSignedRequest(someId, someSecret);
+
+    assertEquals(HttpStatus.FORBIDDEN,
+        releaseMessageController.onReleaseMessagePushed(someId, request).getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  @Test
+  public void testOnReleaseMessagePushedWithPushDisabled() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(false);
+
+    MockHttpServletRequest request = assembleSignedRequest(someId, someSecret);
+
+    assertEquals(HttpStatus.FORBIDDEN,
+        releaseMessageController.onReleaseMessagePushed(someId, request).getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  private MockHttpServletRequest assembleSignedRequest(long id, String secret) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/release-messages");
+    request.setQueryString("id=" + id);
+    Map<String, String> headers = Signature
+        .buildHttpHeaders("http://localhost:8080/release-messages?id=" + id, ServiceNameConsts.APOLLO_ADMINSERVICE,
+            secret);
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.addHeader(header.getKey(), header.getValue());
+    }
+    return request;
+  }
+}
@@ -5,16 +5,22 @@ import com.google.common.base.Joiner;
 
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigQuery;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.HttpStatusCodeException;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -68,6 +74,31 @@ public class ConfigControllerIntegrationTest extends AbstractBaseIntegrationTest
     assertEquals("v1", result.getConfigurations().get("k1"));
   }
 
+  @Test
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testQueryConfigsWithDefaultCluster() throws Exception {
+    List<ApolloConfigQuery> queries = Lists.newArrayList(
+        new ApolloConfigQuery(ConfigConsts.NAMESPACE_APPLICATION, null, null),
+        new ApolloConfigQuery("anotherNamespace", "TEST-RELEASE-KEY6", null),
+        new ApolloConfigQuery(somePublicNamespace, null, null));
+
+    ResponseEntity<List<ApolloConfig>> response = restTemplate.exchange(
+        "http://{baseurl}/configs/batch?appId={appId}&cluster={clusterName}&namespaces={namespaces}",
+        HttpMethod.GET, null, new ParameterizedTypeReference<List<ApolloConfig>>() {
+        }, getHostUrl(), someAppId, someDefaultCluster, new Gson().toJson(queries));
+    List<ApolloConfig> result = response.getBody();
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(2, result.size());
+    assertEquals(ConfigConsts.NAMESPACE_APPLICATION, result.get(0).getNamespaceName());
+    assertEquals("TEST-RELEASE-KEY1", result.get(0).getReleaseKey());
+    assertEquals("v1", result.get(0).getConfigurations().get("k1"));
+    assertEquals(somePublicNamespace, result.get(1).getNamespaceName());
+    assertEquals("TEST-RELEASE-KEY3", result.get(1).getReleaseKey());
+    assertEquals("default-v1", result.get(1).getConfigurations().get("k1"));
+  }
+
   @Test
   @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
   @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
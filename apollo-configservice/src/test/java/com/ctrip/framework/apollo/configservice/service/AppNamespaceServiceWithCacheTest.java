@@ -5,21 +5,29 @@ import com.ctrip.framework.apollo.biz.repository.AppNamespaceRepository;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.File;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -257,6 +265,60 @@ public class AppNamespaceServiceWithCacheTest {
     return calendar.getTime();
   }
 
+  @Test
+  public void testWarmStartFromSnapshot() throws Exception {
+    File someSnapshotDir = Files.createTempDir();
+    String someAppId = "someAppId";
+    AppNamespace someAppNamespace = assembleAppNamespace(1, someAppId, "someNamespace", false);
+    AppNamespace anotherAppNamespace = assembleAppNamespace(2, someAppId, "anotherNamespace", false);
+
+    //no rebuild during the test
+    when(bizConfig.appNamespaceCacheRebuildInterval()).thenReturn(3600);
+    when(bizConfig.appNamespaceCacheRebuildIntervalTimeUnit()).thenReturn(TimeUnit.SECONDS);
+    when(bizConfig.configServiceCacheSnapshotDir()).thenReturn(someSnapshotDir.getAbsolutePath());
+    when(bizConfig.configServiceCacheSnapshotSaveIntervalInSecond()).thenReturn(300);
+    when(appNamespaceRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0))
+        .thenReturn(Lists.newArrayList(someAppNamespace, anotherAppNamespace));
+
+    try {
+      appNamespaceServiceWithCache.afterPropertiesSet();
+      appNamespaceServiceWithCache.saveSnapshot();
+
+      //the snapshot is valid, only the app namespaces after it are loaded
+      when(appNamespaceRepository.findById(anotherAppNamespace.getId())).thenReturn(Optional.of(anotherAppNamespace));
+      when(appNamespaceRepository.findAllById(any()))
+          .thenReturn(Lists.newArrayList(someAppNamespace, anotherAppNamespace));
+
+      AppNamespaceServiceWithCache anotherAppNamespaceServiceWithCache =
+          new AppNamespaceServiceWithCache(appNamespaceRepository, bizConfig);
+      anotherAppNamespaceServiceWithCache.afterPropertiesSet();
+
+      verify(appNamespaceRepository, times(1)).findFirst500ByIdGreaterThanOrderByIdAsc(0);
+      verify(appNamespaceRepository, atLeastOnce()).findFirst500ByIdGreaterThanOrderByIdAsc(anotherAppNamespace.getId());
+      //the restored app namespaces are reconciled with the database at once
+      verify(appNamespaceRepository, timeout(1000).atLeastOnce()).findAllById(any());
+      assertNotNull(anotherAppNamespaceServiceWithCache.findByAppIdAndNamespace(someAppId, "anotherNamespace"));
+
+      //the snapshot is ahead of the database, all the app namespaces are loaded
+      when(appNamespaceRepository.findById(anotherAppNamespace.getId())).thenReturn(Optional.empty());
+      when(appNamespaceRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0))
+          .thenReturn(Lists.newArrayList(someAppNamespace));
+
+      AppNamespaceServiceWithCache yetAnotherAppNamespaceServiceWithCache =
+          new AppNamespaceServiceWithCache(appNamespaceRepository, bizConfig);
+      yetAnotherAppNamespaceServiceWithCache.afterPropertiesSet();
+
+      verify(appNamespaceRepository, times(2)).findFirst500ByIdGreaterThanOrderByIdAsc(0);
+      assertNotNull(yetAnotherAppNamespaceServiceWithCache.findByAppIdAndNamespace(someAppId, "someNamespace"));
+      assertNull(yetAnotherAppNamespaceServiceWithCache.findByAppIdAndNamespace(someAppId, "anotherNamespace"));
+    } finally {
+      for (File file : someSnapshotDir.listFiles()) {
+        file.delete();
+      }
+      someSnapshotDir.delete();
+    }
+  }
+
   private AppNamespace assembleAppNamespace(long id, String appId, String name, boolean isPublic) {
     AppNamespace appNamespace = new AppNamespace();
     appNamespace.setId(id);
@@ -0,0 +1,135 @@
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigResponseCacheTest {
+  private ConfigResponseCache configResponseCache;
+
+  private String someAppId;
+  private String someClusterName;
+  private String someNamespaceName;
+  private String somePublicAppId;
+  private String somePublicNamespaceName;
+
+  @Before
+  public void setUp() throws Exception {
+    configResponseCache = new ConfigResponseCache();
+
+    someAppId = "someAppId";
+    someClusterName = "someClusterName";
+    someNamespaceName = "someNamespaceName";
+    somePublicAppId = "somePublicAppId";
+    somePublicNamespaceName = "somePublicNamespaceName";
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    String someCacheKey = configResponseCache.assembleCacheKey(
+        new ApolloConfig(someAppId, someClusterName, someNamespaceName, "someReleaseKey"));
+    byte[] someResponse = "someResponse".getBytes();
+
+    assertNull(configResponseCache.get(someCacheKey));
+
+    configResponseCache.put(someCacheKey, someResponse,
+        Lists.newArrayList(assembleRelease(someAppId, someClusterName, someNamespaceName)));
+
+    assertArrayEquals(someResponse, configResponseCache.get(someCacheKey).getContent());
+  }
+
+  @Test
+  public void testPutWithLargeResponse() throws Exception {
+    String someCacheKey = configResponseCache.assembleCacheKey(
+        new ApolloConfig(someAppId, someClusterName, someNamespaceName, "someReleaseKey"));
+    byte[] someSmallResponse = "someResponse".getBytes();
+    byte[] someLargeResponse = Strings.repeat("someResponse", 1024).getBytes();
+
+    assertNull(configResponseCache.put(someCacheKey, someSmallResponse,
+        Lists.newArrayList(assembleRelease(someAppId, someClusterName, someNamespaceName))).getCompressedContent());
+
+    configResponseCache.put(someCacheKey, someLargeResponse,
+        Lists.newArrayList(assembleRelease(someAppId, someClusterName, someNamespaceName)));
+
+    assertArrayEquals(someLargeResponse, configResponseCache.get(someCacheKey).getContent());
+    assertTrue(configResponseCache.get(someCacheKey).getCompressedContent().length < someLargeResponse.length);
+  }
+
+  @Test
+  public void testAssembleCacheKeyWithDifferentNamespaceName() throws Exception {
+    String someCacheKey = configResponseCache.assembleCacheKey(
+        new ApolloConfig(someAppId, someClusterName, someNamespaceName, "someReleaseKey"));
+    String anotherCacheKey = configResponseCache.assembleCacheKey(
+        new ApolloConfig(someAppId, someClusterName, someNamespaceName.toUpperCase(), "someReleaseKey"));
+
+    assertNotEquals(someCacheKey, anotherCacheKey);
+  }
+
+  @Test
+  public void testAssembleCacheKeyWithDelta() throws Exception {
+    ApolloConfig someApolloConfig = new ApolloConfig(someAppId, someClusterName, someNamespaceName, "someReleaseKey");
+    String someCacheKey = configResponseCache.assembleCacheKey(someApolloConfig);
+
+    someApolloConfig.setBaseReleaseKey("someBaseReleaseKey");
+    String someDeltaCacheKey = configResponseCache.assembleCacheKey(someApolloConfig);
+
+    someApolloConfig.setBaseReleaseKey("anotherBaseReleaseKey");
+    String anotherDeltaCacheKey = configResponseCache.assembleCacheKey(someApolloConfig);
+
+    assertNotEquals(someCacheKey, someDeltaCacheKey);
+    assertNotEquals(someDeltaCacheKey, anotherDeltaCacheKey);
+  }
+
+  @Test
+  public void testInvalidateByReleaseMessage() throws Exception {
+    String someCacheKey = configResponseCache.assembleCacheKey(
+        new ApolloConfig(someAppId, someClusterName, somePublicNamespaceName, "someReleaseKey+somePublicReleaseKey"));
+    String anotherCacheKey = configResponseCache.assembleCacheKey(
+        new ApolloConfig(someAppId, someClusterName, someNamespaceName, "anotherReleaseKey"));
+    byte[] someResponse = "someResponse".getBytes();
+    byte[] anotherResponse = "anotherResponse".getBytes();
+
+    configResponseCache.put(someCacheKey, someResponse, Lists.newArrayList(
+        assembleRelease(someAppId, someClusterName, somePublicNamespaceName),
+        assembleRelease(somePublicAppId, ConfigConsts.CLUSTER_NAME_DEFAULT, somePublicNamespaceName)));
+    configResponseCache.put(anotherCacheKey, anotherResponse,
+        Lists.newArrayList(assembleRelease(someAppId, someClusterName, someNamespaceName)));
+
+    configResponseCache.handleMessage(new ReleaseMessage(
+            assembleKey(somePublicAppId, ConfigConsts.CLUSTER_NAME_DEFAULT, somePublicNamespaceName)),
+        "someOtherChannel");
+
+    assertArrayEquals(someResponse, configResponseCache.get(someCacheKey).getContent());
+
+    configResponseCache.handleMessage(new ReleaseMessage(
+            assembleKey(somePublicAppId, ConfigConsts.CLUSTER_NAME_DEFAULT, somePublicNamespaceName)),
+        Topics.APOLLO_RELEASE_TOPIC);
+
+    assertNull(configResponseCache.get(someCacheKey));
+    assertArrayEquals(anotherResponse, configResponseCache.get(anotherCacheKey).getContent());
+  }
+
+  private Release assembleRelease(String appId, String clusterName, String namespaceName) {
+    Release release = new Release();
+    release.setAppId(appId);
+    release.setClusterName(clusterName);
+    release.setNamespaceName(namespaceName);
+    return release;
+  }
+
+  private String assembleKey(String appId, String clusterName, String namespaceName) {
+    return Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).join(appId, clusterName, namespaceName);
+  }
+}
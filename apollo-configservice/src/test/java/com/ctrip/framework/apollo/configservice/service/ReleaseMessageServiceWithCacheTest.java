@@ -5,17 +5,22 @@ import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.repository.ReleaseMessageRepository;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.event.ContextRefreshedEvent;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -69,6 +74,23 @@ public class ReleaseMessageServiceWithCacheTest {
         .isEmpty());
   }
 
+  @Test
+  public void testStopScanAfterContextRefreshed() throws Exception {
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn
+        (Collections.emptyList());
+
+    releaseMessageServiceWithCache.afterPropertiesSet();
+    releaseMessageServiceWithCache.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+    //wait for the last scan
+    scanIntervalTimeUnit.sleep(scanInterval * 10);
+    int scans = mockingDetails(releaseMessageRepository).getInvocations().size();
+
+    scanIntervalTimeUnit.sleep(scanInterval * 10);
+
+    assertEquals(scans, mockingDetails(releaseMessageRepository).getInvocations().size());
+  }
+
   @Test
   public void testWhenHasReleaseMsgAndHasRepeatMsg() throws Exception {
     String someMsgContent = "msg1";
@@ -226,6 +248,57 @@ public class ReleaseMessageServiceWithCacheTest {
     assertEquals(newLatestReleaseMsg, newLatestReleaseMsgGroupByMsgContent.get(0));
   }
 
+  @Test
+  public void testWarmStartFromSnapshot() throws Exception {
+    File someSnapshotDir = Files.createTempDir();
+    String someMsgContent = "msg1";
+    String anotherMsgContent = "msg2";
+    ReleaseMessage someMsg = assembleReleaseMsg(1, someMsgContent);
+    ReleaseMessage anotherMsg = assembleReleaseMsg(2, anotherMsgContent);
+    ReleaseMessage someNewMsg = assembleReleaseMsg(3, someMsgContent);
+
+    when(bizConfig.configServiceCacheSnapshotDir()).thenReturn(someSnapshotDir.getAbsolutePath());
+    when(bizConfig.configServiceCacheSnapshotSaveIntervalInSecond()).thenReturn(300);
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L))
+        .thenReturn(Arrays.asList(someMsg, anotherMsg));
+
+    try {
+      releaseMessageServiceWithCache.afterPropertiesSet();
+      releaseMessageServiceWithCache.saveSnapshot();
+
+      when(releaseMessageRepository.findTopByMessageInOrderByIdDesc(Collections.singleton(anotherMsgContent)))
+          .thenReturn(anotherMsg);
+      when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(2L))
+          .thenReturn(Collections.singletonList(someNewMsg));
+
+      ReleaseMessageServiceWithCache anotherReleaseMessageServiceWithCache = new ReleaseMessageServiceWithCache(
+          releaseMessageRepository, bizConfig);
+      anotherReleaseMessageServiceWithCache.afterPropertiesSet();
+
+      //only the release messages after the snapshot are loaded
+      verify(releaseMessageRepository, times(1)).findFirst500ByIdGreaterThanOrderByIdAsc(0L);
+
+      List<ReleaseMessage> latestReleaseMsgGroupByMsgContent =
+          anotherReleaseMessageServiceWithCache
+              .findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(someMsgContent, anotherMsgContent));
+
+      //the order of the messages is not specified
+      Map<String, ReleaseMessage> latestReleaseMsgByMsgContent = Maps.newHashMap();
+      for (ReleaseMessage releaseMessage : latestReleaseMsgGroupByMsgContent) {
+        latestReleaseMsgByMsgContent.put(releaseMessage.getMessage(), releaseMessage);
+      }
+
+      assertEquals(2, latestReleaseMsgGroupByMsgContent.size());
+      assertEquals(2, latestReleaseMsgByMsgContent.get(anotherMsgContent).getId());
+      assertEquals(3, latestReleaseMsgByMsgContent.get(someMsgContent).getId());
+    } finally {
+      for (File file : someSnapshotDir.listFiles()) {
+        file.delete();
+      }
+      someSnapshotDir.delete();
+    }
+  }
+
   private ReleaseMessage assembleReleaseMsg(long id, String msgContent) {
 
     ReleaseMessage msg = new ReleaseMessage(msgContent);
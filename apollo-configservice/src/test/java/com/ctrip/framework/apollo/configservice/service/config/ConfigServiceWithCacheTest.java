@@ -1,8 +1,10 @@
 package com.ctrip.framework.apollo.configservice.service.config;
 
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
@@ -17,8 +19,12 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -36,6 +42,8 @@ public class ConfigServiceWithCacheTest {
   @Mock
   private ReleaseMessageService releaseMessageService;
   @Mock
+  private BizConfig bizConfig;
+  @Mock
   private Release someRelease;
   @Mock
   private ReleaseMessage someReleaseMessage;
@@ -46,12 +54,16 @@ public class ConfigServiceWithCacheTest {
   private String someKey;
   private long someNotificationId;
   private ApolloNotificationMessages someNotificationMessages;
+  private FakeTicker ticker;
 
   @Before
   public void setUp() throws Exception {
     configServiceWithCache = new ConfigServiceWithCache();
     ReflectionTestUtils.setField(configServiceWithCache, "releaseService", releaseService);
     ReflectionTestUtils.setField(configServiceWithCache, "releaseMessageService", releaseMessageService);
+    ReflectionTestUtils.setField(configServiceWithCache, "bizConfig", bizConfig);
+    ticker = new FakeTicker();
+    ReflectionTestUtils.setField(configServiceWithCache, "ticker", ticker);
 
     configServiceWithCache.initialize();
 
@@ -65,6 +77,16 @@ public class ConfigServiceWithCacheTest {
     someNotificationMessages = new ApolloNotificationMessages();
   }
 
+  @Test
+  public void testDestroy() throws Exception {
+    configServiceWithCache.destroy();
+
+    assertTrue(((ExecutorService) ReflectionTestUtils.getField(configServiceWithCache, "warmUpExecutorService"))
+        .isShutdown());
+    assertTrue(((ExecutorService) ReflectionTestUtils.getField(configServiceWithCache, "scheduledExecutorService"))
+        .isShutdown());
+  }
+
   @Test
   public void testFindActiveOne() throws Exception {
     long someId = 1;
@@ -172,6 +194,39 @@ public class ConfigServiceWithCacheTest {
     verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
   }
 
+  @Test
+  public void testFindLatestActiveReleaseWithReleaseNotFoundExpired() throws Exception {
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn(null);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn(null);
+
+    assertNull(configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages));
+
+    ticker.advance(59, TimeUnit.SECONDS);
+
+    assertNull(configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages));
+
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    ticker.advance(1, TimeUnit.SECONDS);
+
+    //the not found entry is expired
+    assertEquals(someRelease, configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages));
+    assertEquals(someRelease, configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages));
+
+    verify(releaseMessageService, times(2)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
+    verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
   @Test
   public void testFindLatestActiveReleaseWithDirtyRelease() throws Exception {
     long someNewNotificationId = someNotificationId + 1;
@@ -276,4 +331,17 @@ public class ConfigServiceWithCacheTest {
     verify(releaseMessageService, times(1)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
     verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
   }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
+    }
+  }
 }
@@ -82,6 +82,16 @@ public class AccessKeyUtilTest {
     assertThat(appId).isEqualTo("someAppId");
   }
 
+  @Test
+  public void testExtractAppIdFromBatchRequest() {
+    when(request.getServletPath()).thenReturn("/configs/batch");
+    when(request.getParameter("appId")).thenReturn("someAppId");
+
+    String appId = accessKeyUtil.extractAppIdFromRequest(request);
+
+    assertThat(appId).isEqualTo("someAppId");
+  }
+
   @Test
   public void buildSignature() {
     String path = "/configs/someAppId/default/application";
@@ -0,0 +1,83 @@
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheSnapshotStoreTest {
+  private File someSnapshotDir;
+  private CacheSnapshotStore cacheSnapshotStore;
+
+  @Before
+  public void setUp() throws Exception {
+    someSnapshotDir = Files.createTempDir();
+    cacheSnapshotStore = new CacheSnapshotStore(someSnapshotDir.getAbsolutePath());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    recursiveDelete(someSnapshotDir);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    String someName = "someName";
+    String[] someSnapshot = new String[]{"someKey", "anotherKey"};
+    String[] anotherSnapshot = new String[]{"anotherKey"};
+
+    assertNull(cacheSnapshotStore.load(someName, String[].class));
+
+    cacheSnapshotStore.save(someName, someSnapshot);
+
+    assertArrayEquals(someSnapshot, cacheSnapshotStore.load(someName, String[].class));
+
+    cacheSnapshotStore.save(someName, anotherSnapshot);
+
+    assertArrayEquals(anotherSnapshot, cacheSnapshotStore.load(someName, String[].class));
+    //the temp files are moved or deleted
+    assertArrayEquals(new String[]{cacheSnapshotStore.assembleSnapshotFile(someName).getName()},
+        someSnapshotDir.list());
+  }
+
+  @Test
+  public void testLoadWithCorruptedSnapshot() throws Exception {
+    String someName = "someName";
+
+    Files.write("[\"someKey\"".getBytes(), cacheSnapshotStore.assembleSnapshotFile(someName));
+
+    assertNull(cacheSnapshotStore.load(someName, String[].class));
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    CacheSnapshotStore disabledStore = new CacheSnapshotStore("");
+    String someName = "someName";
+
+    assertTrue(cacheSnapshotStore.isEnabled());
+    assertFalse(disabledStore.isEnabled());
+
+    disabledStore.save(someName, new String[]{"someKey"});
+
+    assertNull(disabledStore.load(someName, String[].class));
+  }
+
+  private void recursiveDelete(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    if (file.isDirectory()) {
+      for (File f : file.listFiles()) {
+        recursiveDelete(f);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,107 @@
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.google.common.base.Ticker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompactLongCacheTest {
+  private FakeTicker ticker;
+
+  @Before
+  public void setUp() throws Exception {
+    ticker = new FakeTicker();
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    CompactLongCache cache = new CompactLongCache(100, 1, TimeUnit.HOURS, false, ticker);
+    long someKey = 1;
+    long anotherKey = -1;
+
+    assertNull(cache.getIfPresent(someKey));
+
+    cache.put(someKey, 10);
+    cache.put(anotherKey, 20);
+
+    assertEquals(10, (long) cache.getIfPresent(someKey));
+    assertEquals(20, (long) cache.getIfPresent(anotherKey));
+    assertEquals(2, cache.size());
+
+    cache.put(someKey, 30);
+    cache.invalidate(anotherKey);
+
+    assertEquals(30, (long) cache.getIfPresent(someKey));
+    assertNull(cache.getIfPresent(anotherKey));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testExpireAfterWrite() throws Exception {
+    CompactLongCache cache = new CompactLongCache(100, 1, TimeUnit.HOURS, false, ticker);
+    long someKey = 1;
+
+    cache.put(someKey, 10);
+
+    ticker.advance(59, TimeUnit.MINUTES);
+    assertEquals(10, (long) cache.getIfPresent(someKey));
+
+    ticker.advance(1, TimeUnit.MINUTES);
+    assertNull(cache.getIfPresent(someKey));
+  }
+
+  @Test
+  public void testExpireAfterAccess() throws Exception {
+    CompactLongCache cache = new CompactLongCache(100, 1, TimeUnit.HOURS, true, ticker);
+    long someKey = 1;
+
+    cache.put(someKey, 10);
+
+    ticker.advance(59, TimeUnit.MINUTES);
+    assertEquals(10, (long) cache.getIfPresent(someKey));
+
+    ticker.advance(59, TimeUnit.MINUTES);
+    assertEquals(10, (long) cache.getIfPresent(someKey));
+
+    ticker.advance(1, TimeUnit.HOURS);
+    assertNull(cache.getIfPresent(someKey));
+  }
+
+  @Test
+  public void testEvictOldestInSet() throws Exception {
+    //only one set of 4 slots
+    CompactLongCache cache = new CompactLongCache(4, 1, TimeUnit.HOURS, true, ticker);
+
+    for (long key = 1; key <= 4; key++) {
+      cache.put(key, key);
+      ticker.advance(1, TimeUnit.SECONDS);
+    }
+    //key 1 is accessed, so key 2 is the oldest
+    cache.getIfPresent(1);
+
+    cache.put(5, 5);
+
+    assertEquals(4, cache.size());
+    assertEquals(1, (long) cache.getIfPresent(1));
+    assertNull(cache.getIfPresent(2));
+    assertEquals(5, (long) cache.getIfPresent(5));
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
+    }
+  }
+}
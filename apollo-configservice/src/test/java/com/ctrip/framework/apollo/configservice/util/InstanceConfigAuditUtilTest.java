@@ -3,18 +3,28 @@ package com.ctrip.framework.apollo.configservice.util;
 import com.ctrip.framework.apollo.biz.entity.Instance;
 import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
 import com.ctrip.framework.apollo.biz.service.InstanceService;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 /**
@@ -26,7 +36,7 @@ public class InstanceConfigAuditUtilTest {
 
   @Mock
   private InstanceService instanceService;
-  private BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel> audits;
+  private List<BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel>> audits;
 
   private String someAppId;
   private String someConfigClusterName;
@@ -43,7 +53,7 @@ public class InstanceConfigAuditUtilTest {
   public void setUp() throws Exception {
     instanceConfigAuditUtil = new InstanceConfigAuditUtil(instanceService);
 
-    audits = (BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel>)
+    audits = (List<BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel>>)
         ReflectionTestUtils.getField(instanceConfigAuditUtil, "audits");
 
     someAppId = "someAppId";
@@ -65,12 +75,103 @@ public class InstanceConfigAuditUtilTest {
     boolean result = instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
         someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
 
-    InstanceConfigAuditUtil.InstanceConfigAuditModel audit = audits.poll();
+    InstanceConfigAuditUtil.InstanceConfigAuditModel audit = null;
+    for (BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel> queue : audits) {
+      if (audit == null) {
+        audit = queue.poll();
+      }
+    }
 
     assertTrue(result);
     assertTrue(Objects.equals(someAuditModel, audit));
   }
 
+  @Test
+  public void testDoAudits() throws Exception {
+    long someInstanceId = 1;
+    String anotherConfigNamespace = "anotherConfigNamespace";
+    String anotherReleaseKey = "anotherReleaseKey";
+    Instance someInstance = mock(Instance.class);
+    InstanceConfig existingInstanceConfig = new InstanceConfig();
+    existingInstanceConfig.setId(1);
+    existingInstanceConfig.setInstanceId(someInstanceId);
+    existingInstanceConfig.setConfigAppId(someConfigAppId);
+    existingInstanceConfig.setConfigNamespaceName(anotherConfigNamespace);
+    existingInstanceConfig.setReleaseKey(someReleaseKey);
+
+    when(someInstance.getId()).thenReturn(someInstanceId);
+    when(someInstance.getIp()).thenReturn(someIp);
+    when(instanceService.findInstances(someAppId, someClusterName, someDataCenter, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(someInstance));
+    when(instanceService.findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId)))
+        .thenReturn(Lists.newArrayList(existingInstanceConfig));
+
+    InstanceConfigAuditUtil.InstanceConfigAuditModel anotherAuditModel =
+        new InstanceConfigAuditUtil.InstanceConfigAuditModel(someAppId, someClusterName, someDataCenter, someIp,
+            someConfigAppId, someConfigClusterName, anotherConfigNamespace, anotherReleaseKey);
+
+    //the duplicate audits are coalesced
+    instanceConfigAuditUtil.doAudits(Lists.newArrayList(someAuditModel, anotherAuditModel, someAuditModel));
+
+    ArgumentCaptor<List<InstanceConfig>> instanceConfigs = ArgumentCaptor.forClass(List.class);
+    verify(instanceService, times(1)).findInstances(someAppId, someClusterName, someDataCenter,
+        Sets.newHashSet(someIp));
+    verify(instanceService, never()).findInstance(anyString(), anyString(), anyString(), anyString());
+    verify(instanceService, never()).batchCreateInstances(anyList());
+    verify(instanceService, times(1)).findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId));
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(instanceConfigs.capture());
+    verify(instanceService, never()).findInstanceConfig(anyLong(), anyString(), anyString());
+
+    List<InstanceConfig> saved = instanceConfigs.getValue();
+    assertEquals(2, saved.size());
+    assertEquals(0, saved.get(0).getId());
+    assertEquals(someConfigNamespace, saved.get(0).getConfigNamespaceName());
+    assertEquals(someReleaseKey, saved.get(0).getReleaseKey());
+    assertSame(existingInstanceConfig, saved.get(1));
+    assertEquals(anotherReleaseKey, saved.get(1).getReleaseKey());
+
+    //the same release keys are skipped next time
+    instanceConfigAuditUtil.doAudits(Lists.newArrayList(someAuditModel, anotherAuditModel));
+
+    verify(instanceService, times(1)).findInstanceConfigsByInstanceIds(anySet());
+  }
+
+  @Test
+  public void testDoAuditsWithNewInstances() throws Exception {
+    long someInstanceId = 1;
+    long anotherInstanceId = 2;
+    String anotherIp = "anotherIp";
+    Instance someInstance = mock(Instance.class);
+    Instance anotherInstance = mock(Instance.class);
+
+    when(someInstance.getId()).thenReturn(someInstanceId);
+    when(someInstance.getIp()).thenReturn(someIp);
+    when(anotherInstance.getId()).thenReturn(anotherInstanceId);
+    when(anotherInstance.getIp()).thenReturn(anotherIp);
+    //only some instance exists at first, another instance is found after the batch creation
+    when(instanceService.findInstances(someAppId, someClusterName, someDataCenter, Sets.newHashSet(someIp, anotherIp)))
+        .thenReturn(Lists.newArrayList(someInstance));
+    when(instanceService.findInstances(someAppId, someClusterName, someDataCenter, Sets.newHashSet(anotherIp)))
+        .thenReturn(Lists.newArrayList(anotherInstance));
+
+    InstanceConfigAuditUtil.InstanceConfigAuditModel anotherAuditModel =
+        new InstanceConfigAuditUtil.InstanceConfigAuditModel(someAppId, someClusterName, someDataCenter, anotherIp,
+            someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
+
+    instanceConfigAuditUtil.doAudits(Lists.newArrayList(someAuditModel, anotherAuditModel));
+
+    ArgumentCaptor<List<Instance>> instances = ArgumentCaptor.forClass(List.class);
+    verify(instanceService, times(1)).batchCreateInstances(instances.capture());
+    verify(instanceService, never()).findInstance(anyString(), anyString(), anyString(), anyString());
+    verify(instanceService, never()).createInstance(any(Instance.class));
+    verify(instanceService, times(1)).findInstanceConfigsByInstanceIds(
+        Sets.newHashSet(someInstanceId, anotherInstanceId));
+
+    assertEquals(1, instances.getValue().size());
+    assertEquals(anotherIp, instances.getValue().get(0).getIp());
+    assertEquals(someDataCenter, instances.getValue().get(0).getDataCenter());
+  }
+
   @Test
   public void testDoAudit() throws Exception {
     long someInstanceId = 1;
@@ -0,0 +1,70 @@
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCompressionUtilTest {
+
+  @Test
+  public void testAcceptsGzip() throws Exception {
+    assertTrue(ResponseCompressionUtil.acceptsGzip(assembleRequest("gzip")));
+    assertTrue(ResponseCompressionUtil.acceptsGzip(assembleRequest("deflate, GZIP;q=0.8")));
+    assertFalse(ResponseCompressionUtil.acceptsGzip(assembleRequest("deflate")));
+    assertFalse(ResponseCompressionUtil.acceptsGzip(assembleRequest(null)));
+  }
+
+  @Test
+  public void testCompress() throws Exception {
+    byte[] someContent = Strings.repeat("someContent", 1024).getBytes(StandardCharsets.UTF_8);
+
+    byte[] compressedContent = ResponseCompressionUtil.compress(someContent);
+
+    assertTrue(compressedContent.length < someContent.length);
+    assertArrayEquals(someContent,
+        ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressedContent))));
+  }
+
+  @Test
+  public void testCompressWithSmallContent() throws Exception {
+    assertNull(ResponseCompressionUtil.compress("someContent".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testWrite() throws Exception {
+    byte[] someContent = "someContent".getBytes(StandardCharsets.UTF_8);
+    byte[] someCompressedContent = "someCompressedContent".getBytes(StandardCharsets.UTF_8);
+
+    MockHttpServletResponse someResponse = new MockHttpServletResponse();
+    ResponseCompressionUtil.write(assembleRequest(null), someResponse, someContent, someCompressedContent);
+
+    MockHttpServletResponse anotherResponse = new MockHttpServletResponse();
+    ResponseCompressionUtil.write(assembleRequest("gzip"), anotherResponse, someContent, someCompressedContent);
+
+    assertNull(someResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertArrayEquals(someContent, someResponse.getContentAsByteArray());
+    assertEquals("gzip", anotherResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertArrayEquals(someCompressedContent, anotherResponse.getContentAsByteArray());
+  }
+
+  private MockHttpServletRequest assembleRequest(String acceptEncoding) {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    if (acceptEncoding != null) {
+      request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+    }
+    return request;
+  }
+}
@@ -0,0 +1,128 @@
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentWatchKeyRegistryTest {
+  private ConcurrentWatchKeyRegistry<Object> registry;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = new ConcurrentWatchKeyRegistry<>();
+  }
+
+  @Test
+  public void testRegisterAndUnregister() throws Exception {
+    String someKey = "someAppId+default+application";
+    Object someWaiter = new Object();
+    Object anotherWaiter = new Object();
+
+    assertTrue(registry.register(someKey, someWaiter));
+    assertFalse(registry.register(someKey, someWaiter));
+    assertTrue(registry.register(someKey, anotherWaiter));
+
+    assertEquals(2, registry.size());
+    assertTrue(registry.containsKey(someKey));
+
+    Collection<Object> waiters = registry.get(someKey);
+    assertEquals(2, waiters.size());
+    assertTrue(waiters.contains(someWaiter));
+    assertTrue(waiters.contains(anotherWaiter));
+
+    assertTrue(registry.unregister(someKey, someWaiter));
+    assertFalse(registry.unregister(someKey, someWaiter));
+    assertTrue(registry.unregister(someKey, anotherWaiter));
+
+    assertEquals(0, registry.size());
+    assertFalse(registry.containsKey(someKey));
+    assertTrue(registry.get(someKey).isEmpty());
+  }
+
+  @Test
+  public void testWatchKeyIsCaseInsensitive() throws Exception {
+    String someKey = "someAppId+default+FX.apollo";
+    Object someWaiter = new Object();
+
+    registry.register(someKey, someWaiter);
+
+    assertTrue(registry.containsKey(someKey.toUpperCase()));
+    assertEquals(Lists.newArrayList(someWaiter), Lists.newArrayList(registry.get(someKey.toLowerCase())));
+    assertTrue(registry.unregister(someKey.toLowerCase(), someWaiter));
+    assertFalse(registry.containsKey(someKey));
+  }
+
+  @Test
+  public void testWatchKeyIsCaseInsensitiveWithTurkishLocale() throws Exception {
+    Locale defaultLocale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      String someKey = "someAppId+default+FX.API";
+      Object someWaiter = new Object();
+
+      registry.register(someKey, someWaiter);
+
+      assertTrue(registry.containsKey("someappid+default+fx.api"));
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+
+  @Test
+  public void testGetReturnsSnapshot() throws Exception {
+    String someKey = "someKey";
+    Object someWaiter = new Object();
+    Object anotherWaiter = new Object();
+
+    registry.register(someKey, someWaiter);
+    Collection<Object> waiters = registry.get(someKey);
+    registry.register(someKey, anotherWaiter);
+
+    assertEquals(1, waiters.size());
+  }
+
+  @Test
+  public void testConcurrentRegisterAndUnregister() throws Exception {
+    int threads = 8;
+    int waitersPerThread = 1000;
+    List<String> keys = Lists.newArrayList("someKey", "anotherKey", "yetAnotherKey");
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    CountDownLatch latch = new CountDownLatch(threads);
+
+    for (int i = 0; i < threads; i++) {
+      executorService.submit(() -> {
+        try {
+          for (int j = 0; j < waitersPerThread; j++) {
+            Object waiter = new Object();
+            for (String key : keys) {
+              registry.register(key, waiter);
+            }
+            for (String key : keys) {
+              registry.unregister(key, waiter);
+            }
+          }
+        } finally {
+          latch.countDown();
+        }
+      });
+    }
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    executorService.shutdown();
+
+    assertEquals(0, registry.size());
+    for (String key : keys) {
+      assertFalse(registry.containsKey(key));
+    }
+  }
+}
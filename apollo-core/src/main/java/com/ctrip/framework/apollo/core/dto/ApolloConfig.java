@@ -1,5 +1,6 @@
 package com.ctrip.framework.apollo.core.dto;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,6 +30,16 @@ public class ApolloConfig {
    * 如果 {@link #configurations} 是多个 Release ，那 Release Key 是多个 `Release.releaseKey` 拼接，使用 '+' 拼接。
    */
   private String releaseKey;
+  /**
+   * 增量配置的基准 Release Key
+   *
+   * 若不为空，{@link #configurations} 只包含相对于该 Release Key 新增或修改的配置项，删除的配置项见 {@link #deletedKeys} 。
+   */
+  private String baseReleaseKey;
+  /**
+   * 增量配置中，相对于 {@link #baseReleaseKey} 删除的配置项
+   */
+  private List<String> deletedKeys;
 
   public ApolloConfig() {
   }
@@ -83,6 +94,29 @@ public class ApolloConfig {
     this.configurations = configurations;
   }
 
+  public String getBaseReleaseKey() {
+    return baseReleaseKey;
+  }
+
+  public void setBaseReleaseKey(String baseReleaseKey) {
+    this.baseReleaseKey = baseReleaseKey;
+  }
+
+  public List<String> getDeletedKeys() {
+    return deletedKeys;
+  }
+
+  public void setDeletedKeys(List<String> deletedKeys) {
+    this.deletedKeys = deletedKeys;
+  }
+
+  /**
+   * @return whether the configurations only contain the changes since {@link #baseReleaseKey}
+   */
+  public boolean isDelta() {
+    return baseReleaseKey != null;
+  }
+
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder("ApolloConfig{");
@@ -91,6 +125,10 @@ public class ApolloConfig {
     sb.append(", namespaceName='").append(namespaceName).append('\'');
     sb.append(", configurations=").append(configurations);
     sb.append(", releaseKey='").append(releaseKey).append('\'');
+    if (baseReleaseKey != null) {
+      sb.append(", baseReleaseKey='").append(baseReleaseKey).append('\'');
+      sb.append(", deletedKeys=").append(deletedKeys);
+    }
     sb.append('}');
     return sb.toString();
   }
@@ -0,0 +1,54 @@
+package com.ctrip.framework.apollo.core.schedule;
+
+import java.util.Random;
+
+/**
+ * 去相关抖动（decorrelated jitter）的定时策略实现类 <br /> <br />
+ *
+ * The delay time is a random value between the lower bound and 3 times of the last delay time, capped by the upper
+ * bound, so that the clients failed at the same time, e.g. when a config service node is down, would not retry in
+ * lockstep.
+ */
+public class DecorrelatedJitterSchedulePolicy implements SchedulePolicy {
+  /**
+   * 延迟时间下限
+   */
+  private final long delayTimeLowerBound;
+  /**
+   * 延迟时间上限
+   */
+  private final long delayTimeUpperBound;
+  private final Random random;
+  /**
+   * 最后延迟执行时间
+   */
+  private long lastDelayTime;
+
+  public DecorrelatedJitterSchedulePolicy(long delayTimeLowerBound, long delayTimeUpperBound) {
+    this(delayTimeLowerBound, delayTimeUpperBound, new Random());
+  }
+
+  DecorrelatedJitterSchedulePolicy(long delayTimeLowerBound, long delayTimeUpperBound, Random random) {
+    this.delayTimeLowerBound = delayTimeLowerBound;
+    this.delayTimeUpperBound = delayTimeUpperBound;
+    this.random = random;
+    this.lastDelayTime = delayTimeLowerBound;
+  }
+
+  @Override
+  public long fail() {
+    // [lowerBound, 3 * lastDelayTime)
+    long range = Math.max(lastDelayTime * 3 - delayTimeLowerBound, 1);
+    long delayTime = delayTimeLowerBound + (long) (random.nextDouble() * range);
+
+    // 最后延迟执行时间，直到上限
+    lastDelayTime = Math.min(delayTime, delayTimeUpperBound);
+    // 返回
+    return lastDelayTime;
+  }
+
+  @Override
+  public void success() {
+    lastDelayTime = delayTimeLowerBound;
+  }
+}
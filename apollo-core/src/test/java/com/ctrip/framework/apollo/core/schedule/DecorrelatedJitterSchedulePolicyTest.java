@@ -0,0 +1,78 @@
+package com.ctrip.framework.apollo.core.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class DecorrelatedJitterSchedulePolicyTest {
+
+  @Test
+  public void testFail() {
+    long lowerBound = 1000;
+    long upperBound = 120000;
+    DecorrelatedJitterSchedulePolicy policy = new DecorrelatedJitterSchedulePolicy(lowerBound, upperBound);
+
+    long lastDelayTime = lowerBound;
+    for (int i = 0; i < 100; i++) {
+      long delayTime = policy.fail();
+      assertTrue(delayTime >= lowerBound);
+      assertTrue(delayTime <= Math.min(lastDelayTime * 3, upperBound));
+      lastDelayTime = delayTime;
+    }
+  }
+
+  @Test
+  public void testFailWithUpperBound() {
+    Random alwaysMax = new Random() {
+      @Override
+      public double nextDouble() {
+        return 0.99;
+      }
+    };
+    DecorrelatedJitterSchedulePolicy policy = new DecorrelatedJitterSchedulePolicy(1, 10, alwaysMax);
+
+    assertEquals(2, policy.fail());
+    assertEquals(5, policy.fail());
+    assertEquals(10, policy.fail());
+    assertEquals(10, policy.fail());
+  }
+
+  @Test
+  public void testSuccess() {
+    Random alwaysMin = new Random() {
+      @Override
+      public double nextDouble() {
+        return 0;
+      }
+    };
+    DecorrelatedJitterSchedulePolicy policy = new DecorrelatedJitterSchedulePolicy(1, 10, alwaysMin);
+
+    assertEquals(1, policy.fail());
+
+    policy.success();
+
+    assertEquals(1, policy.fail());
+  }
+
+  @Test
+  public void testDelayTimesAreSpread() {
+    long lowerBound = 1000;
+    long upperBound = 120000;
+    Random random = new Random(1);
+
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    //the clients failed at the same time should not retry at the same time
+    for (int i = 0; i < 100; i++) {
+      DecorrelatedJitterSchedulePolicy policy = new DecorrelatedJitterSchedulePolicy(lowerBound, upperBound, random);
+      policy.fail();
+      long delayTime = policy.fail();
+      min = Math.min(min, delayTime);
+      max = Math.max(max, delayTime);
+    }
+
+    assertTrue(max - min > lowerBound);
+  }
+}